@@ -0,0 +1,328 @@
+/*
+ *  Batch.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut;
+
+import de.sciss.app.DocumentHandler;
+import de.sciss.common.BasicApplication;
+import de.sciss.common.BasicMenuFactory;
+import de.sciss.common.BasicWindowHandler;
+import de.sciss.eisenkraut.io.DecimatedSonaTrail;
+import de.sciss.eisenkraut.io.DecimatedWaveTrail;
+import de.sciss.eisenkraut.io.PrefCacheManager;
+import de.sciss.eisenkraut.render.BatchRenderer;
+import de.sciss.eisenkraut.render.RenderPlugIn;
+import de.sciss.eisenkraut.session.Session;
+import de.sciss.eisenkraut.util.PrefsUtil;
+import de.sciss.io.AudioFileDescr;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.prefs.Preferences;
+
+/**
+ *  The headless batch mode, invoked as <code>Eisenkraut -batch</code>.
+ *  It shares the preferences and resources of the application, but
+ *  never initializes the user interface, the look-and-feel, OSC
+ *  or SuperCollider, and runs with <code>java.awt.headless</code> set.
+ *  Sound files are processed in parallel, each one in its own document
+ *  without frame and transport:
+ *  <UL>
+ *  <LI><code>-cache</code> : builds the waveform overview caches
+ *  (the cache must be activated in the preferences)</LI>
+ *  <LI><code>-sona</code> : builds the sonogram caches as well</LI>
+ *  <LI><code>-render &lt;plugInClass&gt; -out &lt;folder&gt;</code> : renders a plug-in
+ *  over each file, using the settings last stored for the plug-in, and writes
+ *  the result to a file of the same name and format in the output folder.
+ *  Plug-ins of the <code>de.sciss.eisenkraut.render</code> and
+ *  <code>de.sciss.fscape.render</code> packages can be given without package
+ *  name, e.g. <code>-render Needlehole</code></LI>
+ *  <LI><code>-threads &lt;num&gt;</code> : the number of files processed in parallel,
+ *  defaulting to the number of processors</LI>
+ *  </UL>
+ *  The processing time and throughput of each file and of the whole batch
+ *  are printed to the standard output.
+ */
+public class Batch
+        extends BasicApplication {
+
+    // searched in this order for plug-ins given without package name
+    private static final String[] RENDER_PACKAGES = { "de.sciss.eisenkraut.render.", "de.sciss.fscape.render." };
+
+    // documents are created and disposed one at a time
+    private static final Object sync = new Object();
+
+    private boolean             cache           = false;
+    private boolean             sona            = false;
+    private String              plugInClass     = null;
+    private File                outFolder       = null;
+    private int                 numThreads      = Runtime.getRuntime().availableProcessors();
+    private final List<File>    files           = new ArrayList<File>();
+
+    private Batch() {
+        super(Main.class, Main.APP_NAME);
+    }
+
+    /**
+     *  Runs the batch and exits the VM.
+     *
+     *  @param  args    the batch options and sound files, excluding <code>-batch</code>
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        final Batch batch = new Batch();
+        int result;
+        try {
+            batch.parseArgs(args);
+            result = batch.run();
+        } catch (IllegalArgumentException e1) {
+            System.err.println(e1.getMessage());
+            printUsage();
+            result = 1;
+        } catch (IOException e1) {
+            System.err.println(e1.getMessage());
+            result = 1;
+        }
+        System.exit(result);
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: Eisenkraut -batch [-cache [-sona]] [-render <plugInClass> -out <folder>]\n" +
+                           "                        [-threads <num>] <soundFile> ...");
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (arg.equals("-cache")) {
+                cache = true;
+            } else if (arg.equals("-sona")) {
+                sona = true;
+            } else if (arg.equals("-render") && (i + 1 < args.length)) {
+                plugInClass = findPlugInClass(args[++i]);
+            } else if (arg.equals("-out") && (i + 1 < args.length)) {
+                outFolder = new File(args[++i]);
+            } else if (arg.equals("-threads") && (i + 1 < args.length)) {
+                try {
+                    numThreads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e1) {
+                    throw new IllegalArgumentException("Option -threads requires a number");
+                }
+                if (numThreads < 1) throw new IllegalArgumentException("Option -threads requires a positive number");
+            } else if (arg.startsWith("-")) {
+                throw new IllegalArgumentException("Unknown option or missing argument " + arg);
+            } else {
+                files.add(new File(arg));
+            }
+        }
+        if (sona && !cache) throw new IllegalArgumentException("Option -sona requires -cache");
+        if ((plugInClass != null) != (outFolder != null)) {
+            throw new IllegalArgumentException("Options -render and -out must be given together");
+        }
+        if (!cache && (plugInClass == null)) throw new IllegalArgumentException("Nothing to do");
+        if (files.isEmpty()) throw new IllegalArgumentException("No sound files given");
+    }
+
+    // returns the first class found in the render packages, or the name itself
+    private static String findPlugInClass(String name) {
+        if (name.indexOf('.') >= 0) return name;
+
+        for (String pkg : RENDER_PACKAGES) {
+            try {
+                Class.forName(pkg + name, false, Batch.class.getClassLoader());
+                return pkg + name;
+            } catch (ClassNotFoundException e1) { /* try next */ }
+        }
+        return name;    // reported by createPlugIn
+    }
+
+    private int run()
+            throws IOException {
+
+        final Preferences   prefs           = getUserPrefs();
+        final double        prefsVersion    = prefs.getDouble(PrefsUtil.KEY_VERSION, 0.0);
+
+        if (prefsVersion < Main.APP_VERSION) {
+            final List<String> warnings = PrefsUtil.createDefaults(prefs, prefsVersion);
+            if (warnings != null) {
+                for (String warning : warnings) System.err.println(warning);
+            }
+        }
+        final PrefCacheManager cm = new PrefCacheManager(prefs.node(PrefCacheManager.DEFAULT_NODE));
+        if (cache && !cm.isActive()) {
+            throw new IOException("The cache is not active. Activate it in the preferences of Eisenkraut.");
+        }
+        if ((outFolder != null) && !outFolder.isDirectory() && !outFolder.mkdirs()) {
+            throw new IOException("Could not create folder " + outFolder);
+        }
+        // fail early
+        if (plugInClass != null) createPlugIn().dispose();
+
+        final ExecutorService       exec    = Executors.newFixedThreadPool(Math.min(numThreads, files.size()));
+        final List<Future<Result>>  futures = new ArrayList<Future<Result>>(files.size());
+        final long                  t0      = System.currentTimeMillis();
+        long                        frames  = 0L;
+        double                      seconds = 0.0;
+        int                         failed  = 0;
+
+        for (final File f : files) {
+            futures.add(exec.submit(new Callable<Result>() {
+                public Result call() throws Exception {
+                    return process(f);
+                }
+            }));
+        }
+        exec.shutdown();
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                final Result r = futures.get(i).get();
+                frames  += r.frames;
+                seconds += r.frames / r.rate;
+            } catch (ExecutionException e1) {
+                final Throwable cause = e1.getCause() == null ? e1 : e1.getCause();
+                System.err.println(files.get(i).getName() + ": FAILED (" + cause + ")");
+                failed++;
+            } catch (InterruptedException e1) {
+                System.err.println("Interrupted");
+                return 1;
+            }
+        }
+
+        final double elapsed = Math.max(1, System.currentTimeMillis() - t0) / 1000.0;
+        System.out.println(String.format(Locale.US,
+                "%d of %d files in %.2f s, %.1f files/s, %.0f frames/s (%.1f x realtime)",
+                files.size() - failed, files.size(), elapsed, (files.size() - failed) / elapsed,
+                frames / elapsed, seconds / elapsed));
+
+        return failed == 0 ? 0 : 1;
+    }
+
+    private Result process(File f)
+            throws IOException, InterruptedException {
+
+        final long  t0  = System.currentTimeMillis();
+        Result      r   = null;
+
+        if (cache) {
+            final Session doc;
+            synchronized (sync) {
+                doc = Session.newFrom(f, false, false);
+            }
+            try {
+                final DecimatedWaveTrail dwt = doc.createDecimatedWaveTrail();
+                final DecimatedSonaTrail dst = sona ? doc.createDecimatedSonaTrail() : null;
+                dwt.awaitCompletion();
+                if (dst != null) dst.awaitCompletion();
+                r = new Result(doc);
+            } finally {
+                synchronized (sync) {
+                    doc.dispose();
+                }
+            }
+        }
+
+        // rendering uses a separate document so the overviews need not follow the edits
+        if (plugInClass != null) {
+            final Session doc;
+            synchronized (sync) {
+                doc = Session.newFrom(f, false, false);
+            }
+            final RenderPlugIn plugIn = createPlugIn();
+            try {
+                final AudioFileDescr afd = new AudioFileDescr(doc.getDisplayDescr());
+                afd.file = new File(outFolder, f.getName());
+                if (afd.file.getAbsoluteFile().equals(f.getAbsoluteFile())) {
+                    throw new IOException("Output would overwrite input");
+                }
+                new BatchRenderer(doc, plugIn).render(afd);
+                r = new Result(doc);
+            } finally {
+                plugIn.dispose();
+                synchronized (sync) {
+                    doc.dispose();
+                }
+            }
+        }
+
+        final double elapsed = Math.max(1, System.currentTimeMillis() - t0) / 1000.0;
+        System.out.println(String.format(Locale.US, "%s: %d frames in %.2f s (%.1f x realtime)",
+                f.getName(), r.frames, elapsed, r.frames / r.rate / elapsed));
+        return r;
+    }
+
+    private RenderPlugIn createPlugIn()
+            throws IOException {
+
+        final RenderPlugIn plugIn;
+        try {
+            plugIn = (RenderPlugIn) Class.forName(plugInClass).newInstance();
+        } catch (InstantiationException e1) {
+            throw new IOException("Could not create plug-in " + plugInClass + " (" + e1 + ")");
+        } catch (IllegalAccessException e1) {
+            throw new IOException("Could not create plug-in " + plugInClass + " (" + e1 + ")");
+        } catch (ClassNotFoundException e1) {
+            throw new IOException("Plug-in " + plugInClass + " not found");
+        } catch (ClassCastException e1) {
+            throw new IOException(plugInClass + " is not a plug-in");
+        }
+        plugIn.init(getUserPrefs().node(PrefsUtil.NODE_PLUGINS).node(
+                plugInClass.substring(plugInClass.lastIndexOf('.') + 1)));
+        return plugIn;
+    }
+
+    // the user interface is never initialized, hence these are not called
+
+    protected BasicMenuFactory createMenuFactory() {
+        return null;
+    }
+
+    protected DocumentHandler createDocumentHandler() {
+        return null;
+    }
+
+    protected BasicWindowHandler createWindowHandler() {
+        return null;
+    }
+
+// ------------ Application interface ------------
+
+    public static String getMacOSCreator() {
+        return Main.getMacOSCreator();
+    }
+
+    public double getVersion() {
+        return Main.APP_VERSION;
+    }
+
+// ------------ internal classes ------------
+
+    private static final class Result {
+        final long      frames;
+        final double    rate;
+
+        Result(Session doc) {
+            frames  = doc.timeline.getLength();
+            rate    = doc.timeline.getRate();
+        }
+    }
+}
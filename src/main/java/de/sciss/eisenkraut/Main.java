@@ -48,6 +48,7 @@ import java.awt.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.prefs.Preferences;
 
@@ -71,7 +72,7 @@ public class Main
         extends BasicApplication
         implements OSCRouter {
 
-    private static final String APP_NAME    = "Eisenkraut";
+    static final String APP_NAME    = "Eisenkraut";
 
     /*
      *  Current version of the application. This is stored
@@ -79,7 +80,7 @@ public class Main
      *
      *  @todo   should be saved in the session file as well
      */
-    private static final double APP_VERSION     = 1.3;
+    static final double APP_VERSION     = 1.3;
 
     public static final String VERSION_STRING   = "1.3.2";
 
@@ -351,11 +352,19 @@ public class Main
     /**
      *  java VM starting method. does some
      *  static initializations and then creates
-     *  an instance of <code>Main</code>.
+     *  an instance of <code>Main</code>. If the first
+     *  argument is <code>-batch</code>, the headless
+     *  batch mode is run instead.
      *
      *  @param  args    are not parsed.
+     *
+     *  @see    Batch
      */
     public static void main(final String args[]) {
+        if ((args.length > 0) && args[0].equals("-batch")) {
+            Batch.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         // --- run the main application ---
         // Schedule a job for the event-dispatching thread:
         // creating and showing this application's GUI.
@@ -17,15 +17,13 @@ import java.awt.AlphaComposite;
 import java.awt.Composite;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import javax.swing.JComponent;
 import javax.swing.OverlayLayout;
 
 @SuppressWarnings("serial")
 public class CrossfadePanel
         extends JComponent
-        implements ActionListener {
+        implements FrameScheduler.Client {
 
     private JComponent  a, b;
     private float       fade = 0f;
@@ -33,14 +31,13 @@ public class CrossfadePanel
     private float       targetFade;
     private long        fadeStart;          // abs millis
     private float       fadeWeight;
-    private final javax.swing.Timer timer;
+
+    private static final int FADE_PERIOD = 50;     // milliseconds between fade steps
 
     public CrossfadePanel() {
         super();
 
         setLayout(new OverlayLayout(this));
-
-        timer = new javax.swing.Timer(50, this);
     }
 
     public void setComponentA(JComponent c) {
@@ -68,7 +65,7 @@ public class CrossfadePanel
      *  @throws IllegalArgumentException    if fade less than 0 or fade greater than 1
      */
     public void setFade(float fade) {
-        timer.stop();
+        FrameScheduler.getInstance().removeClient(this);
 
         if ((fade < 0f) || (fade > 1f)) {
             throw new IllegalArgumentException(String.valueOf(fade));
@@ -104,7 +101,7 @@ public class CrossfadePanel
      */
     public void performFade(float target, int initialDelay, int fadeTime) {
 
-        timer.stop();
+        FrameScheduler.getInstance().removeClient(this);
 
         if ((target < 0f) || (target > 1f) || (initialDelay < 0) || (fadeTime < 0)) {
             throw new IllegalArgumentException();
@@ -116,8 +113,8 @@ public class CrossfadePanel
         fadeWeight  = 1.0f / (Math.max(1, fadeTime));
 
         if (sourceFade != targetFade) {
-            timer.setInitialDelay(initialDelay);
-            timer.start();
+            // the fade position stays at zero until the initial delay has passed
+            FrameScheduler.getInstance().addClient(this, FADE_PERIOD);
         }
 
         checkVisibility();
@@ -140,21 +137,21 @@ public class CrossfadePanel
         g2.setComposite(origCmp);
     }
 
-    // --------------- ActionListener interface ---------------
+    // --------------- FrameScheduler.Client interface ---------------
 
-    public void actionPerformed(ActionEvent e) {
+    public void frameUpdate(long when) {
 
-        final long  delta   = System.currentTimeMillis() - fadeStart;
+        final long  delta   = when - fadeStart;
         final float fadePos = Math.max(0f, Math.min(1f, delta * fadeWeight));
         final float newFade = sourceFade * (1f - fadePos) + targetFade * fadePos;
 
         if (newFade != fade) {
             fade = newFade;
-            repaint();
+            FrameScheduler.getInstance().repaint(this);
         }
 
         if (fadePos == 1f) {
-            timer.stop();
+            FrameScheduler.getInstance().removeClient(this);
             checkVisibility();
         }
     }
@@ -0,0 +1,366 @@
+/*
+ *  FrameScheduler.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.gui;
+
+import java.awt.Component;
+import java.awt.Rectangle;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.RepaintManager;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ *  The single display refresh clock of the application. Instead of
+ *  running their own timers, animated elements such as the playhead,
+ *  the level meters and the time labels register a <code>Client</code>
+ *  which is called back on the event dispatch thread. All clients share
+ *  one tick, running at the shortest interval requested, but not faster
+ *  than <code>FRAME_PERIOD</code>.
+ *  <p>
+ *  While the scheduler is running, repaints requested through the
+ *  <code>repaint</code> methods are collected per window and painted
+ *  in one pass at the end of the tick. Clients should use these methods
+ *  rather than calling <code>repaint</code> on their components.
+ */
+public final class FrameScheduler
+        implements ActionListener {
+
+    /**
+     *  The shortest tick period in milliseconds,
+     *  corresponding to a display rate of about 60 fps.
+     */
+    public static final int FRAME_PERIOD = 16;
+
+    private static FrameScheduler instance = null;    // lazy
+
+    private final Timer                 timer;
+    private final List<Entry>           entries = new ArrayList<Entry>();
+    private Entry[]                     ticking = null;     // copy of entries used by the tick; lazy
+    private final Map<Window, Map<Component, Rectangle>> dirty =
+            new LinkedHashMap<Window, Map<Component, Rectangle>>();
+
+    // statistics, guarded by this
+    private long    numTicks        = 0;
+    private long    numOverruns     = 0;
+    private long    numFramesLost   = 0;
+    private long    sumTickNanos    = 0;
+    private long    maxTickNanos    = 0;
+    private long    lastTickStart   = 0;    // System.nanoTime, or 0 after the timer was stopped
+
+    private FrameScheduler() {
+        timer = new Timer(FRAME_PERIOD, this);
+        timer.setCoalesce(true);
+    }
+
+    public static synchronized FrameScheduler getInstance() {
+        if (instance == null) instance = new FrameScheduler();
+        return instance;
+    }
+
+    /**
+     *  Registers a client, or changes the interval of a client
+     *  that was already registered.
+     *
+     *  @param  c           the client to call back on each tick
+     *  @param  interval    the desired period in milliseconds. The client is
+     *                      called on the first tick at which at least about
+     *                      this period has passed since its previous call
+     */
+    public synchronized void addClient(Client c, int interval) {
+        if (interval <= 0) throw new IllegalArgumentException(String.valueOf(interval));
+
+        final Entry e = find(c);
+        if (e != null) {
+            e.interval = interval;
+        } else {
+            entries.add(new Entry(c, interval));
+            ticking = null;
+        }
+        updateTimer();
+    }
+
+    /**
+     *  Unregisters a client. It is not called again, even
+     *  if it is removed from within a tick. Removing a client
+     *  which is not registered has no effect.
+     */
+    public synchronized void removeClient(Client c) {
+        final Entry e = find(c);
+        if (e == null) return;
+
+        e.removed = true;
+        entries.remove(e);
+        ticking = null;
+        updateTimer();
+    }
+
+    public synchronized boolean containsClient(Client c) {
+        return find(c) != null;
+    }
+
+    public void repaint(Component c) {
+        repaint(c, 0, 0, c.getWidth(), c.getHeight());
+    }
+
+    public void repaint(Component c, Rectangle r) {
+        repaint(c, r.x, r.y, r.width, r.height);
+    }
+
+    /**
+     *  Marks a region of a component as dirty. If the scheduler is running,
+     *  the region is painted at the end of the next tick, together with all
+     *  other dirty regions of the same window. Otherwise the component's
+     *  <code>repaint</code> method is called right away.
+     *
+     *  @param  c   the component to paint
+     *  @param  x   the left of the region in the component's coordinates
+     *  @param  y   the top of the region in the component's coordinates
+     *  @param  w   the width of the region
+     *  @param  h   the height of the region
+     */
+    public void repaint(Component c, int x, int y, int w, int h) {
+        if ((w <= 0) || (h <= 0)) return;
+
+        synchronized (this) {
+            if (timer.isRunning()) {
+                final Window win = SwingUtilities.getWindowAncestor(c);
+                if (win == null) return;    // not displayed
+
+                Map<Component, Rectangle> winDirty = dirty.get(win);
+                if (winDirty == null) {
+                    winDirty = new LinkedHashMap<Component, Rectangle>();
+                    dirty.put(win, winDirty);
+                }
+                final Rectangle r = winDirty.get(c);
+                if (r == null) {
+                    winDirty.put(c, new Rectangle(x, y, w, h));
+                } else {
+                    SwingUtilities.computeUnion(x, y, w, h, r);
+                }
+                return;
+            }
+        }
+        c.repaint(x, y, w, h);
+    }
+
+    /**
+     *  Returns the statistics of the ticks since the
+     *  application was started or the statistics were reset.
+     */
+    public synchronized Statistics getStatistics() {
+        return new Statistics(numTicks, numOverruns, numFramesLost,
+                numTicks == 0 ? 0.0 : (double) sumTickNanos / (numTicks * 1000000L),
+                (double) maxTickNanos / 1000000L);
+    }
+
+    public synchronized void resetStatistics() {
+        numTicks        = 0;
+        numOverruns     = 0;
+        numFramesLost   = 0;
+        sumTickNanos    = 0;
+        maxTickNanos    = 0;
+    }
+
+    public Action getDebugDumpAction() {
+        return new ActionDebugDump();
+    }
+
+    private Entry find(Client c) {
+        for (Entry e : entries) {
+            if (e.c == c) return e;
+        }
+        return null;
+    }
+
+    // @synchronization caller must have sync on this
+    private void updateTimer() {
+        if (entries.isEmpty()) {
+            timer.stop();
+            lastTickStart = 0;
+            // there won't be another tick, so hand pending regions to the repaint manager
+            for (Map<Component, Rectangle> winDirty : dirty.values()) {
+                for (Map.Entry<Component, Rectangle> e : winDirty.entrySet()) {
+                    final Rectangle r = e.getValue();
+                    e.getKey().repaint(r.x, r.y, r.width, r.height);
+                }
+            }
+            dirty.clear();
+            return;
+        }
+
+        int period = Integer.MAX_VALUE;
+        for (Entry e : entries) {
+            period = Math.min(period, e.interval);
+        }
+        period = Math.max(FRAME_PERIOD, period);
+        timer.setDelay(period);
+        if (!timer.isRunning()) {
+            timer.setInitialDelay(period);
+            timer.start();
+        }
+    }
+
+    // paints all regions collected since the previous tick
+    private void flushRepaints() {
+        final List<Map<Component, Rectangle>> windows;
+        synchronized (this) {
+            if (dirty.isEmpty()) return;
+            windows = new ArrayList<Map<Component, Rectangle>>(dirty.values());
+            dirty.clear();
+        }
+
+        RepaintManager rm = null;
+        for (Map<Component, Rectangle> winDirty : windows) {
+            for (Map.Entry<Component, Rectangle> e : winDirty.entrySet()) {
+                final Component c = e.getKey();
+                final Rectangle r = e.getValue();
+                if (!c.isShowing()) continue;
+                c.repaint(r.x, r.y, r.width, r.height);
+                if (rm == null) rm = RepaintManager.currentManager(c);
+            }
+        }
+        if (rm != null) rm.paintDirtyRegions();
+        GraphicsUtil.sync();
+    }
+
+    // --------------- ActionListener interface ---------------
+
+    public void actionPerformed(ActionEvent ae) {
+        final long      startNanos  = System.nanoTime();
+        final long      when        = System.currentTimeMillis();
+        final Entry[]   tick;
+        final int       period;
+
+        synchronized (this) {
+            if (ticking == null) ticking = entries.toArray(new Entry[entries.size()]);
+            tick    = ticking;
+            period  = timer.getDelay();
+        }
+
+        final int tolerance = period >> 1;
+        for (Entry e : tick) {
+            if (e.removed || (when - e.last < e.interval - tolerance)) continue;
+            e.last = when;
+            e.c.frameUpdate(when);
+        }
+        flushRepaints();
+
+        final long stopNanos    = System.nanoTime();
+        final long periodNanos  = period * 1000000L;
+        final long tickNanos    = stopNanos - startNanos;
+        synchronized (this) {
+            numTicks++;
+            sumTickNanos += tickNanos;
+            if (tickNanos > maxTickNanos) maxTickNanos = tickNanos;
+            boolean overrun = tickNanos > periodNanos;
+            if (lastTickStart != 0) {
+                final long lost = (startNanos - lastTickStart) / periodNanos - 1;
+                if (lost > 0) {
+                    numFramesLost += lost;
+                    overrun = true;
+                }
+            }
+            if (overrun) numOverruns++;
+            lastTickStart = timer.isRunning() ? startNanos : 0;
+        }
+    }
+
+    // --------------- internal classes ---------------
+
+    /**
+     *  An element updated on each display frame.
+     */
+    public interface Client {
+        /**
+         *  Called on the event dispatch thread.
+         *
+         *  @param  when    the time of the tick, as returned by <code>System.currentTimeMillis</code>
+         */
+        public void frameUpdate(long when);
+    }
+
+    /**
+     *  A snapshot of the tick statistics. A tick overruns if processing
+     *  the clients and painting took longer than the tick period, or if
+     *  it started so late that whole frames were lost.
+     */
+    public static final class Statistics {
+        /**
+         *  Number of ticks processed
+         */
+        public final long   numTicks;
+        /**
+         *  Number of ticks that took too long or started too late
+         */
+        public final long   numOverruns;
+        /**
+         *  Number of tick periods that passed without a tick
+         */
+        public final long   numFramesLost;
+        /**
+         *  Mean and maximum processing time of a tick in milliseconds
+         */
+        public final double meanTickDuration;
+        public final double maxTickDuration;
+
+        Statistics(long numTicks, long numOverruns, long numFramesLost,
+                   double meanTickDuration, double maxTickDuration) {
+            this.numTicks           = numTicks;
+            this.numOverruns        = numOverruns;
+            this.numFramesLost      = numFramesLost;
+            this.meanTickDuration   = meanTickDuration;
+            this.maxTickDuration    = maxTickDuration;
+        }
+
+        public String toString() {
+            return "FrameScheduler.Statistics[ticks = " + numTicks + ", overruns = " + numOverruns +
+                    ", framesLost = " + numFramesLost + ", meanDur = " + meanTickDuration +
+                    " ms, maxDur = " + maxTickDuration + " ms]";
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class ActionDebugDump
+            extends AbstractAction {
+
+        protected ActionDebugDump() {
+            super("Dump Frame Statistics");
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            System.err.println(getStatistics());
+            resetStatistics();
+        }
+    }
+
+    private static final class Entry {
+        final Client        c;
+        int                 interval;
+        long                last        = 0L;
+        volatile boolean    removed     = false;
+
+        Entry(Client c, int interval) {
+            this.c          = c;
+            this.interval   = interval;
+        }
+    }
+}
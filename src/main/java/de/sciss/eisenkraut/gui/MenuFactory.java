@@ -23,6 +23,7 @@ import de.sciss.common.ProcessingThread;
 import de.sciss.eisenkraut.Main;
 import de.sciss.eisenkraut.io.AudioStake;
 import de.sciss.eisenkraut.io.PrefCacheManager;
+import de.sciss.eisenkraut.io.ProjectFile;
 import de.sciss.eisenkraut.net.SuperColliderClient;
 import de.sciss.eisenkraut.session.Session;
 import de.sciss.eisenkraut.util.PrefsUtil;
@@ -178,6 +179,7 @@ public class MenuFactory
         mg.add(new MenuSeparator(), i + 3);
         i = mg.indexOf("saveCopyAs");
         mg.add(new MenuItem("saveSelectionAs", getResourceString("menuSaveSelectionAs")), i + 1);
+        mg.add(new MenuItem("saveProjectAs", getResourceString("menuSaveProjectAs")), i + 2);
 
         // --- timeline menu ---
         i = indexOf("edit");
@@ -296,6 +298,7 @@ public class MenuFactory
         mg.add(new MenuItem("dumpAudioStakes", AudioStake.getDebugDumpAction()));
         mg.add(new MenuItem("dumpNodeTree", SuperColliderClient.getInstance().getDebugNodeTreeAction()));
         mg.add(new MenuItem("dumpKillAll", SuperColliderClient.getInstance().getDebugKillAllAction()));
+        mg.add(new MenuItem("dumpFrameStats", FrameScheduler.getInstance().getDebugDumpAction()));
         i = indexOf("help");
 
         remove(i);
@@ -397,6 +400,7 @@ public class MenuFactory
 
         for (int i = 0; i < dh.getDocumentCount(); i++) {
             doc = (Session) dh.getDocument(i);
+            if (f.equals(doc.getProjectFile())) return doc;
             afds = doc.getDescr();
             for (AudioFileDescr afd : afds) {
                 if ((afd.file != null) && afd.file.equals(f)) {
@@ -552,8 +556,13 @@ public class MenuFactory
             }
 
             try {
-                doc = Session.newFrom(path);
-                addRecent(doc.getDisplayDescr().file);
+                if (ProjectFile.isProjectFile(path)) {
+                    doc = Session.newFromProject(path);
+                    addRecent(path);
+                } else {
+                    doc = Session.newFrom(path);
+                    addRecent(doc.getDisplayDescr().file);
+                }
                 AbstractApplication.getApplication().getDocumentHandler().addDocument(this, doc);
                 doc.createFrame();    // must be performed after the doc was added
                 return true;
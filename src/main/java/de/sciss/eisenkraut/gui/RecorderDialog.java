@@ -19,7 +19,9 @@ import de.sciss.app.DynamicAncestorAdapter;
 import de.sciss.app.DynamicPrefChangeManager;
 import de.sciss.common.BasicMenuFactory;
 import de.sciss.common.BasicWindowHandler;
+import de.sciss.eisenkraut.io.DecimatedWaveTrail;
 import de.sciss.eisenkraut.io.RoutingConfig;
+import de.sciss.eisenkraut.io.TakeDecimation;
 import de.sciss.eisenkraut.net.OSCRouter;
 import de.sciss.eisenkraut.net.OSCRouterWrapper;
 import de.sciss.eisenkraut.net.RoutedOSCMessage;
@@ -99,7 +101,7 @@ public class RecorderDialog
 
     protected Context ct = null;
 
-    private final javax.swing.Timer meterTimer;
+    private final FrameScheduler.Client meterClient;
 
     protected NodeWatcher nw;
 
@@ -116,6 +118,11 @@ public class RecorderDialog
     private File result = null;
     private boolean stopCommit = false;    // true to close dlg after stop
 
+    // overview of the take calculated while recording
+    private final DecimatedWaveTrail dwt;
+    private TakeDecimation takeDec = null;
+    private TakeDecimation resultDec = null;
+
     private final SuperColliderClient superCollider;
 
     protected boolean clipped = false;
@@ -143,6 +150,7 @@ public class RecorderDialog
         docFrame        = doc.getFrame();
         superCollider   = SuperColliderClient.getInstance();
         numChannels     = doc.getAudioTrail().getChannelNum();
+        dwt             = doc.getDecimatedWaveTrail();
 
         doc.getTransport().stop();
 
@@ -223,8 +231,8 @@ public class RecorderDialog
         cp.add(recPane, BorderLayout.NORTH);
         cp.add(butPane, BorderLayout.SOUTH);
 
-        meterTimer = new Timer(100, new ActionListener() {
-            public void actionPerformed(ActionEvent e) {
+        meterClient = new FrameScheduler.Client() {
+            public void frameUpdate(long when) {
                 final float value = docFrame.getMaxMeterHold();
                 final boolean valueClip = value > -0.2f;
                 peakArgs[0] = value;
@@ -234,7 +242,7 @@ public class RecorderDialog
                     lbPeak.setForeground(Color.red);
                 }
             }
-        });
+        };
 
         recLenTimer = new RecLenTimer(lbTime, recFrames, doc.timeline.getRate());
 
@@ -277,7 +285,7 @@ public class RecorderDialog
 
         docFrame.setForceMeters( true );
         player.setActiveInput( true );
-        meterTimer.start();
+        FrameScheduler.getInstance().addClient(meterClient, 100);
 
         GUIUtil.setInitialDialogFocus(rp);    // necessary to get keyboard shortcuts working
 
@@ -312,6 +320,16 @@ public class RecorderDialog
         return result;
     }
 
+    /**
+     *  Returns the overview calculated while recording the
+     *  result file, or <code>null</code> if not available.
+     *  The caller is responsible for disposing it.
+     */
+    public TakeDecimation getResultDecimation()
+    {
+        return resultDec;
+    }
+
     private void createRecordConfig() {
         final String cfgName = classPrefs.get(KEY_CONFIG, null);
 
@@ -376,8 +394,10 @@ public class RecorderDialog
     }
 
     protected void disposeRecorder() {
+        disposeTakeDecimation();
         osc.remove();
-        meterTimer.stop();
+        FrameScheduler.getInstance().removeClient(meterClient);
+        recLenTimer.stop();
         docFrame.setForceMeters(false);
         setVisible(false);
         player.setActiveInput(false);
@@ -387,6 +407,13 @@ public class RecorderDialog
         dispose();    // JFrame / JDialog
     }
 
+    private void disposeTakeDecimation() {
+        if (takeDec != null) {
+            takeDec.dispose();
+            takeDec = null;
+        }
+    }
+
     private void disposeContext() {
         if (ct != null) {
             try {
@@ -529,6 +556,14 @@ public class RecorderDialog
                 actionAbort.setEnabled(true);
                 actionClose.setEnabled(false);
                 recLenTimer.restart();
+                disposeTakeDecimation();
+                if (dwt != null) {
+                    try {
+                        takeDec = new TakeDecimation(dwt, ct.recFile);
+                    } catch (IOException e1) {  // the overview is then calculated after inserting the take
+                        printError("nodeAction", e1);
+                    }
+                }
                 break;
 
             case NodeEvent.END:
@@ -539,10 +574,16 @@ public class RecorderDialog
                 actionClose.setEnabled(true);
                 if (ct != null) {
                     if (stopCommit) {
+                        if (takeDec != null) {
+                            takeDec.finish();
+                            resultDec   = takeDec;
+                            takeDec     = null;
+                        }
                         result = ct.recFile;
                         ct.forgetFile(true);
                         disposeRecorder();
                     } else {
+                        disposeTakeDecimation();
                         try {
                             ct.recreateFile();
                         } catch (IOException e1) {
@@ -797,8 +838,7 @@ public class RecorderDialog
 
     @SuppressWarnings("serial")
     private static class RecLenTimer
-            extends javax.swing.Timer
-            implements ActionListener {
+            implements FrameScheduler.Client {
 
         private final TimeLabel lbTime;
         private final MutableLong frames;
@@ -806,23 +846,24 @@ public class RecorderDialog
         private final double sampleRate;
 
         protected RecLenTimer(TimeLabel lbTime, MutableLong frames, double sampleRate) {
-            super(66, null);
             this.lbTime = lbTime;
             this.frames = frames;
             this.sampleRate = sampleRate;
-            addActionListener(this);
         }
 
         public void restart() {
             startTime = System.currentTimeMillis();
-            super.restart();
+            FrameScheduler.getInstance().addClient(this, 66);
         }
 
-        public void actionPerformed(ActionEvent e) {
-            final double secs = (double) (System.currentTimeMillis() - startTime) / 1000;
+        public void stop() {
+            FrameScheduler.getInstance().removeClient(this);
+        }
+
+        public void frameUpdate(long when) {
+            final double secs = (double) (when - startTime) / 1000;
             frames.set((long) (secs * sampleRate + 0.5));
             lbTime.setTime(secs);
-            GraphicsUtil.sync();
         }
     }
 }
@@ -0,0 +1,376 @@
+/*
+ *  WaveformTileCache.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.gui;
+
+import de.sciss.eisenkraut.io.DecimatedWaveTrail;
+import de.sciss.eisenkraut.io.DecimationInfo;
+import de.sciss.io.Span;
+import de.sciss.util.Disposable;
+
+import java.awt.EventQueue;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  A cache of waveform images for a <code>WaveformView</code>.
+ *  The timeline is divided into tiles of about <code>TILE_WIDTH</code>
+ *  pixels, and each channel of a tile is rendered into an image by a
+ *  background thread, so painting merely copies images. Tiles are
+ *  evicted in least-recently-used order once the memory budget is
+ *  exceeded.
+ *  <p>
+ *  Synchronization: all methods must be called in the event thread.
+ */
+final class WaveformTileCache
+        implements Disposable {
+
+    static final int            TILE_WIDTH      = 256;
+    private static final long   MEMORY_BUDGET   = 48L << 20;    // bytes
+
+    private final Runnable                      repaint;
+    private final Map<Key, Tile>                tiles       = new LinkedHashMap<Key, Tile>(64, 0.75f, true);
+    private final Map<Key, Job>                 pending     = new HashMap<Key, Job>();
+    private final AtomicInteger                 paintCount  = new AtomicInteger();
+    private final ExecutorService               executor;
+    private DecimatedWaveTrail                  trail       = null;
+    private long                                memory      = 0;
+    private volatile int                        generation  = 0;
+
+    /**
+     *  @param  repaint     invoked in the event thread when new tiles are available
+     */
+    WaveformTileCache(Runnable repaint) {
+        this.repaint = repaint;
+
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "Waveform tiles");
+                t.setDaemon(true);
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            }
+        });
+    }
+
+    /**
+     *  Paints the visible tiles. Tiles which are not yet
+     *  available are left blank and are requested from the
+     *  background thread.
+     *
+     *  @param  docLength   the number of frames of the document
+     *  @param  rects   the bounds of each channel
+     *  @param  logAmp  whether the amplitude scale is logarithmic
+     *  @param  minY    the amplitude (or decibels) at the bottom of each channel
+     *  @param  maxY    the amplitude (or decibels) at the top of each channel
+     */
+    void paint(Graphics2D g2, DecimatedWaveTrail dt, Span viewSpan, long docLength, int width, Rectangle[] rects,
+               int verticalScale, boolean logAmp, float minY, float maxY) {
+
+        if (dt != trail) {
+            clear();
+            trail = dt;
+        }
+        paintCount.incrementAndGet();
+
+        final double    fpp         = (double) viewSpan.getLength() / width;   // frames per pixel
+        final long      tileFrames  = Math.max(1L, Math.round(TILE_WIDTH * fpp));
+        final long      originX     = Math.round(viewSpan.start / fpp);
+        final long      stopX       = originX + width;
+        final int[]     heights     = new int[rects.length];
+        int             totalHeight = 0;
+
+        for (int ch = 0; ch < rects.length; ch++) {
+            heights[ch]     = rects[ch].height;
+            if (heights[ch] <= 0) return;
+            totalHeight    += heights[ch];
+        }
+
+        for (long tile = viewSpan.start / tileFrames; ; tile++) {
+            final long tileStart = tile * tileFrames;
+            if (tileStart >= docLength) break;
+            final long tileStartX = Math.round(tileStart / fpp);
+            if (tileStartX >= stopX) break;
+
+            final long  tileStop    = Math.min(docLength, tileStart + tileFrames);
+            final int   tileWidth   = (int) Math.max(1L, Math.round(tileStop / fpp) - tileStartX);
+            final int   x           = (int) (tileStartX - originX);
+            final Key   key         = new Key(fpp, tile, verticalScale, minY, maxY, -1, totalHeight);
+            boolean     missing     = false;
+
+            for (int ch = 0; ch < rects.length; ch++) {
+                final Rectangle r       = rects[ch];
+                final Tile      t       = tiles.get(new Key(key, ch, heights[ch]));
+                if (t == null) {
+                    missing = true;
+                } else {
+                    g2.drawImage(t.image, r.x + x, r.y, null);
+                }
+            }
+            if (missing) {
+                final Job job = pending.get(key);
+                if (job != null) {
+                    job.paintId = paintCount.get();     // still wanted
+                } else {
+                    request(new Job(key, dt, new Span(tileStart, tileStop), tileWidth, heights,
+                            g2.getRenderingHints(), logAmp, minY, maxY));
+                }
+            }
+        }
+    }
+
+    /**
+     *  Removes all tiles whose frames intersect a span.
+     */
+    void invalidate(Span span) {
+        for (Iterator<Tile> iter = tiles.values().iterator(); iter.hasNext(); ) {
+            final Tile t = iter.next();
+            if (t.span.touches(span)) {
+                memory -= t.getMemory();
+                iter.remove();
+            }
+        }
+        discardPending();
+    }
+
+    /**
+     *  Removes all tiles which were rendered
+     *  while the overview was not yet complete.
+     */
+    void removeIncomplete() {
+        for (Iterator<Tile> iter = tiles.values().iterator(); iter.hasNext(); ) {
+            final Tile t = iter.next();
+            if (t.incomplete) {
+                memory -= t.getMemory();
+                iter.remove();
+            }
+        }
+    }
+
+    void clear() {
+        tiles.clear();
+        memory = 0;
+        discardPending();
+    }
+
+    // -------------- Disposable interface --------------
+
+    public void dispose() {
+        clear();
+        trail = null;
+        executor.shutdownNow();
+    }
+
+    // -------------- private methods --------------
+
+    // results of jobs already submitted are ignored
+    private void discardPending() {
+        pending.clear();
+        generation++;
+    }
+
+    private void request(Job job) {
+        job.generation  = generation;
+        job.paintId     = paintCount.get();
+        pending.put(job.key, job);
+        executor.execute(job);
+    }
+
+    private void jobSkipped(Job job) {
+        if (pending.get(job.key) != job) return;
+
+        if (job.paintId == paintCount.get()) {  // touched again in the meantime
+            executor.execute(job);
+        } else {
+            pending.remove(job.key);
+        }
+    }
+
+    private void jobDone(Job job, BufferedImage[] images, boolean busy) {
+        if ((job.generation != generation) || (pending.get(job.key) != job)) return;
+
+        pending.remove(job.key);
+        if (images == null) return;     // failed; retried with the next paint
+        // the overview may have been completed in the meantime,
+        // so simply render the tile again
+        if (busy && !job.trail.isBusy()) {
+            repaint.run();
+            return;
+        }
+
+        for (int ch = 0; ch < images.length; ch++) {
+            final Tile t    = new Tile(images[ch], job.span, busy);
+            final Tile old  = tiles.put(new Key(job.key, ch, images[ch].getHeight()), t);
+            if (old != null) memory -= old.getMemory();
+            memory += t.getMemory();
+        }
+        for (Iterator<Tile> iter = tiles.values().iterator(); (memory > MEMORY_BUDGET) && iter.hasNext(); ) {
+            memory -= iter.next().getMemory();
+            iter.remove();
+        }
+        repaint.run();
+    }
+
+    // -------------- internal classes --------------
+
+    private static final class Key {
+        private final long  fpp;        // double bits
+        private final long  tile;
+        private final int   verticalScale;
+        private final int   minY;       // float bits
+        private final int   maxY;       // float bits
+        private final int   ch;
+        private final int   height;
+
+        Key(double fpp, long tile, int verticalScale, float minY, float maxY, int ch, int height) {
+            this.fpp            = Double.doubleToLongBits(fpp);
+            this.tile           = tile;
+            this.verticalScale  = verticalScale;
+            this.minY           = Float.floatToIntBits(minY);
+            this.maxY           = Float.floatToIntBits(maxY);
+            this.ch             = ch;
+            this.height         = height;
+        }
+
+        Key(Key k, int ch, int height) {
+            fpp             = k.fpp;
+            tile            = k.tile;
+            verticalScale   = k.verticalScale;
+            minY            = k.minY;
+            maxY            = k.maxY;
+            this.ch         = ch;
+            this.height     = height;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            final Key k = (Key) o;
+            return (fpp == k.fpp) && (tile == k.tile) && (verticalScale == k.verticalScale) &&
+                    (minY == k.minY) && (maxY == k.maxY) && (ch == k.ch) && (height == k.height);
+        }
+
+        public int hashCode() {
+            int h = (int) (fpp ^ (fpp >>> 32));
+            h = 31 * h + (int) (tile ^ (tile >>> 32));
+            h = 31 * h + verticalScale;
+            h = 31 * h + minY;
+            h = 31 * h + maxY;
+            h = 31 * h + ch;
+            h = 31 * h + height;
+            return h;
+        }
+    }
+
+    private static final class Tile {
+        final BufferedImage image;
+        final Span          span;
+        final boolean       incomplete;
+
+        Tile(BufferedImage image, Span span, boolean incomplete) {
+            this.image      = image;
+            this.span       = span;
+            this.incomplete = incomplete;
+        }
+
+        long getMemory() {
+            return ((long) image.getWidth() * image.getHeight()) << 2;
+        }
+    }
+
+    /*
+     *  Renders all channels of a tile. A job which is not
+     *  visible any more by the time it is started is skipped.
+     */
+    private final class Job
+            implements Runnable {
+
+        final Key                   key;
+        final DecimatedWaveTrail    trail;
+        final Span                  span;
+        final int                   width;
+        final int[]                 heights;
+        final RenderingHints        hints;
+        final boolean               logAmp;
+        final float                 minY, maxY;
+        int                         generation;     // set before submission
+        volatile int                paintId;
+
+        Job(Key key, DecimatedWaveTrail trail, Span span, int width, int[] heights, RenderingHints hints,
+            boolean logAmp, float minY, float maxY) {
+            this.key        = key;
+            this.trail      = trail;
+            this.span       = span;
+            this.width      = width;
+            this.heights    = heights;
+            this.hints      = hints;
+            this.logAmp     = logAmp;
+            this.minY       = minY;
+            this.maxY       = maxY;
+        }
+
+        public void run() {
+            if (generation != WaveformTileCache.this.generation) return;    // discarded
+            if (paintId != paintCount.get()) {
+                EventQueue.invokeLater(new Runnable() {
+                    public void run() {
+                        jobSkipped(Job.this);
+                    }
+                });
+                return;
+            }
+
+            final Graphics2D[]      gs      = new Graphics2D[heights.length];
+            final Rectangle[]       rects   = new Rectangle[heights.length];
+            BufferedImage[]         images  = new BufferedImage[heights.length];
+            boolean                 busy;
+
+            try {
+                for (int ch = 0; ch < heights.length; ch++) {
+                    images[ch]  = new BufferedImage(width, heights[ch], BufferedImage.TYPE_INT_ARGB);
+                    gs[ch]      = images[ch].createGraphics();
+                    gs[ch].setRenderingHints(hints);
+                    rects[ch]   = new Rectangle(0, 0, width, heights[ch]);
+                }
+                // like the view, include the first frame of the successive tile
+                final DecimationInfo info = trail.getBestSubsample(new Span(span.start, span.stop + 1), width);
+                busy = trail.drawWaveform(info, rects, gs, logAmp, minY, maxY);
+            } catch (RuntimeException e1) {     // e.g. trail disposed while rendering
+                e1.printStackTrace();
+                images  = null;
+                busy    = false;
+            } finally {
+                for (Graphics2D g : gs) {
+                    if (g != null) g.dispose();
+                }
+            }
+
+            final BufferedImage[]   images1 = images;
+            final boolean           busy1   = busy;
+            EventQueue.invokeLater(new Runnable() {
+                public void run() {
+                    jobDone(Job.this, images1, busy1);
+                }
+            });
+        }
+    }
+}
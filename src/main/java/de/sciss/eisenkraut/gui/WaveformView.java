@@ -21,6 +21,7 @@ import de.sciss.eisenkraut.session.Session;
 import de.sciss.eisenkraut.util.PrefsUtil;
 import de.sciss.gui.ComponentHost;
 import de.sciss.io.Span;
+import de.sciss.timebased.Trail;
 import de.sciss.util.Disposable;
 
 import javax.swing.*;
@@ -58,6 +59,9 @@ public class WaveformView
 
     private final ComponentHost host;
 
+    private final WaveformTileCache tiles;
+    private final Trail.Listener    trailListener;
+
     public WaveformView(Session doc) {
         this(doc, null);
     }
@@ -71,6 +75,19 @@ public class WaveformView
         fullChannels = at.getChannelNum();
 
         this.doc = doc;
+
+        tiles = new WaveformTileCache(new Runnable() {
+            public void run() {
+                triggerRedisplay();
+            }
+        });
+        trailListener = new Trail.Listener() {
+            public void trailModified(Trail.Event e) {
+                tiles.invalidate(e.getAffectedSpan());
+                triggerRedisplay();
+            }
+        };
+        at.addListener(trailListener);
     }
 
     public void setNullLine(boolean onOff) {
@@ -178,6 +195,7 @@ public class WaveformView
 
     public void update(Span s) {
         viewSpan = s;
+        tiles.removeIncomplete();  // the overview may have progressed
         triggerRedisplay();
     }
 
@@ -248,7 +266,7 @@ public class WaveformView
         int y;
 
         info = dt.getBestSubsample(new Span(viewSpan.start, viewSpan.stop + 1), w);
-        dt.drawWaveform(info, this, g2);
+        paintTiles(g2, dt, false);
 
         if (nullLine) {
             g2.setPaint(pntNull);
@@ -271,7 +289,7 @@ public class WaveformView
         int y;
 
         info = dt.getBestSubsample( new Span( viewSpan.start, viewSpan.stop + 1 ), w );
-        dt.drawWaveform( info, this, g2 );
+        paintTiles(g2, dt, true);
 
         if (nullLine) {
             g2.setPaint(pntNull);
@@ -284,6 +302,17 @@ public class WaveformView
         }
     }
 
+    // the waveform is rendered in the background, painting only copies the images
+    private void paintTiles(Graphics2D g2, DecimatedWaveTrail dt, boolean logAmp) {
+        final Rectangle[] rects = new Rectangle[fullChannels];
+
+        for (int ch = 0; ch < fullChannels; ch++) {
+            rects[ch] = new Rectangle(rectForChannel(ch));
+        }
+        tiles.paint(g2, dt, viewSpan, doc.getAudioTrail().getSpan().stop, getWidth(), rects, verticalScale, logAmp,
+                logAmp ? ampLogMin : ampLinMin, logAmp ? ampLogMax : ampLinMax);
+    }
+
     private void paintFreqSpect(Graphics2D g2) {
         final DecimatedSonaTrail dt = doc.getDecimatedSonaTrail();
         if (dt == null) return;
@@ -304,5 +333,8 @@ public class WaveformView
   
     // -------------- Disposable interface --------------
 
-    public void dispose() { /* empty */ }
+    public void dispose() {
+        doc.getAudioTrail().removeListener(trailListener);
+        tiles.dispose();
+    }
 }
@@ -0,0 +1,205 @@
+/*
+ *  AIFFHeader.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/*
+ *  The parts of an AIFF or AIFC header needed to access the sample
+ *  frames of a file directly: the sample layout, the position of the
+ *  frame count, and the position of the sound data chunk. The chunks
+ *  are parsed up to the sound data chunk, so the header of a file which
+ *  is still being written can be read as soon as that chunk has begun.
+ *  Compressed AIFC files are not supported.
+ */
+final class AIFFHeader {
+
+    // four character codes, big endian
+    private static final int FORM_MAGIC = 0x464F524D;  // 'FORM'
+    private static final int AIFF_MAGIC = 0x41494646;  // 'AIFF'
+    private static final int AIFC_MAGIC = 0x41494643;  // 'AIFC'
+    private static final int COMM_MAGIC = 0x434F4D4D;  // 'COMM'
+    private static final int SSND_MAGIC = 0x53534E44;  // 'SSND'
+    private static final int NONE_MAGIC = 0x4E4F4E45;  // 'NONE'
+    private static final int TWOS_MAGIC = 0x74776F73;  // 'twos'
+    private static final int SOWT_MAGIC = 0x736F7774;  // 'sowt'
+    private static final int FL32_MAGIC = 0x666C3332;  // 'fl32'
+    private static final int FL64_MAGIC = 0x666C3634;  // 'fl64'
+
+    final int           numChannels;
+    final int           bitsPerSample;
+    final int           bytesPerSample;
+    final int           frameSize;
+    final boolean       isFloat;
+    final ByteOrder     order;
+    final long          numFrames;      // as found in the header
+    final long          commOffset;     // position of the frame count
+    final long          ssndOffset;     // position of the sound data chunk
+    final long          ssndLen;        // length of the sound data chunk, excluding its id and length
+    final long          dataOffset;     // position of the first sample frame
+
+    private AIFFHeader(int numChannels, int bitsPerSample, boolean isFloat, ByteOrder order, long numFrames,
+                       long commOffset, long ssndOffset, long ssndLen, long dataOffset) {
+        this.numChannels    = numChannels;
+        this.bitsPerSample  = bitsPerSample;
+        this.isFloat        = isFloat;
+        this.order          = order;
+        this.numFrames      = numFrames;
+        this.commOffset     = commOffset;
+        this.ssndOffset     = ssndOffset;
+        this.ssndLen        = ssndLen;
+        this.dataOffset     = dataOffset;
+        bytesPerSample      = (bitsPerSample + 7) >> 3;
+        frameSize           = numChannels * bytesPerSample;
+    }
+
+    /**
+     *  @return the header, or <code>null</code> if the file is not an
+     *          AIFF or AIFC file, the header has not been written completely,
+     *          or the encoding is not supported
+     */
+    static AIFFHeader read(FileChannel ch)
+            throws IOException {
+
+        ByteBuffer b = read(ch, 0, 12);
+        if ((b == null) || (b.getInt(0) != FORM_MAGIC)) return null;
+        final int formType = b.getInt(8);
+        if ((formType != AIFF_MAGIC) && (formType != AIFC_MAGIC)) return null;
+
+        long        pos             = 12;
+        long        commOffset      = -1;
+        long        numFrames       = 0;
+        int         numChannels     = 0;
+        int         bitsPerSample   = 0;
+        boolean     isFloat         = false;
+        ByteOrder   order           = ByteOrder.BIG_ENDIAN;
+
+        while ((b = read(ch, pos, 8)) != null) {
+            final int   ckID    = b.getInt(0);
+            final long  ckLen   = b.getInt(4) & 0xFFFFFFFFL;
+
+            if (ckID == COMM_MAGIC) {
+                b = read(ch, pos + 8, formType == AIFC_MAGIC ? 22 : 8);
+                if (b == null) return null;
+                numChannels     = b.getShort(0);
+                commOffset      = pos + 10;
+                numFrames       = b.getInt(2) & 0xFFFFFFFFL;
+                bitsPerSample   = b.getShort(6);
+                if (formType == AIFC_MAGIC) {
+                    final int compression = b.getInt(18);   // behind the sample rate
+                    if ((compression | 0x20202020) == FL32_MAGIC) {     // 'fl32', 'FL32'
+                        isFloat         = true;
+                        bitsPerSample   = 32;
+                    } else if ((compression | 0x20202020) == FL64_MAGIC) {
+                        isFloat         = true;
+                        bitsPerSample   = 64;
+                    } else if (compression == SOWT_MAGIC) {
+                        order = ByteOrder.LITTLE_ENDIAN;
+                    } else if ((compression != NONE_MAGIC) && (compression != TWOS_MAGIC)) {
+                        return null;
+                    }
+                }
+            } else if (ckID == SSND_MAGIC) {
+                if ((commOffset < 0) || (numChannels <= 0)) return null;
+                if (!isFloat && ((bitsPerSample < 8) || (bitsPerSample > 32))) return null;
+                b = read(ch, pos + 8, 4);
+                if (b == null) return null;
+                final long offset = b.getInt(0) & 0xFFFFFFFFL;
+                return new AIFFHeader(numChannels, bitsPerSample, isFloat, order, numFrames, commOffset,
+                                      pos, ckLen, pos + 16 + offset);
+            }
+            pos += 8 + ckLen + (ckLen & 1);
+        }
+        return null;
+    }
+
+    /**
+     *  Reads the frame count again. Programs recording to a file
+     *  usually write it when the file is closed.
+     */
+    long readFrameCount(FileChannel ch)
+            throws IOException {
+
+        final ByteBuffer b = read(ch, commOffset, 4);
+        return b == null ? -1 : b.getInt(0) & 0xFFFFFFFFL;
+    }
+
+    /**
+     *  Whether the sound data chunk is the last chunk of the file.
+     */
+    boolean isDataLast(FileChannel ch)
+            throws IOException {
+
+        return ssndOffset + 8 + ssndLen + (ssndLen & 1) == ch.size();
+    }
+
+    /**
+     *  Whether the sample frames of both files are stored in the same way.
+     */
+    boolean matches(AIFFHeader that) {
+        return (numChannels == that.numChannels) && (bitsPerSample == that.bitsPerSample) &&
+               (isFloat == that.isFloat) && ((order == that.order) || (bitsPerSample == 8));
+    }
+
+    /**
+     *  Converts sample frames to floating point.
+     */
+    void decode(byte[] bytes, float[][] buf, int len) {
+        final ByteBuffer bb = ByteBuffer.wrap(bytes, 0, len * frameSize).order(order);
+
+        for (int i = 0; i < len; i++) {
+            for (int ch = 0; ch < numChannels; ch++) {
+                final float f1;
+                if (isFloat) {
+                    f1 = bytesPerSample == 4 ? bb.getFloat() : (float) bb.getDouble();
+                } else {
+                    switch (bytesPerSample) {
+                        case 1:
+                            f1 = bb.get() / 128f;
+                            break;
+                        case 2:
+                            f1 = bb.getShort() / 32768f;
+                            break;
+                        case 3: {
+                            final int b0 = bb.get(), b1 = bb.get() & 0xFF, b2 = bb.get();
+                            f1 = (order == ByteOrder.BIG_ENDIAN ?
+                                    (b0 << 16) | (b1 << 8) | (b2 & 0xFF) :
+                                    (b2 << 16) | (b1 << 8) | (b0 & 0xFF)) / 8388608f;
+                            break;
+                        }
+                        default:
+                            f1 = bb.getInt() / 2147483648f;
+                            break;
+                    }
+                }
+                buf[ch][i] = f1;
+            }
+        }
+    }
+
+    // returns null if the file is too short
+    private static ByteBuffer read(FileChannel ch, long pos, int len)
+            throws IOException {
+
+        if (pos + len > ch.size()) return null;
+        final ByteBuffer b = ByteBuffer.allocate(len);
+        while (b.hasRemaining()) {
+            if (ch.read(b, pos + b.position()) < 0) return null;
+        }
+        return b;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *  AdoptedTake.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.io;
+
+import de.sciss.eisenkraut.edit.EditDeleteFileWhenDying;
+import de.sciss.io.AudioFile;
+
+/*
+ *  A recorded sound file owned by an audio trail, see AudioTrail.adoptTake.
+ *  The stakes reading the file count their references, and the file is
+ *  closed and deleted when the last of them has been disposed.
+ */
+final class AdoptedTake {
+
+    final AudioFile         af;
+    // the overview calculated while recording, or null
+    final TakeDecimation    decimation;
+
+    private int     refCount    = 0;
+    private boolean deleted     = false;
+
+    AdoptedTake(AudioFile af, TakeDecimation decimation) {
+        this.af         = af;
+        this.decimation = decimation;
+    }
+
+    synchronized void retain() {
+        if (deleted) throw new IllegalStateException("Take was already deleted");
+        refCount++;
+    }
+
+    synchronized void release() {
+        if (--refCount == 0) delete();
+    }
+
+    synchronized boolean isDeleted() {
+        return deleted;
+    }
+
+    // called by the trail when it no longer needs the file, regardless of remaining references
+    synchronized void delete() {
+        if (deleted) return;
+        deleted = true;
+        new EditDeleteFileWhenDying(af).die();
+    }
+}
@@ -13,17 +13,20 @@
 
 package de.sciss.eisenkraut.io;
 
+import de.sciss.io.AudioFileDescr;
 import de.sciss.io.CacheManager;
 import de.sciss.io.InterleavedStreamFile;
 import de.sciss.io.Span;
 import de.sciss.jcollider.Buffer;
 import de.sciss.net.OSCBundle;
 import de.sciss.timebased.BasicStake;
+import org.w3c.dom.Element;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -54,6 +57,11 @@ public abstract class AudioStake
 		super.dispose();
 	}
 
+	protected void releaseClaims() {
+		if (DEBUG) allStakes.remove(this);    // views are not disposed
+		super.releaseClaims();
+	}
+
 	public static void debugCheckDisposal() {
 		if (DEBUG) {
 			System.err.println("======= There are " + allStakes.size() + " un-disposed stakes. ======= dump:");
@@ -74,6 +82,61 @@ public abstract class AudioStake
 	public abstract void flush() throws IOException;
 	public abstract void addBufferReadMessages( OSCBundle bndl, Span s, Buffer[] bufs, int bufOff );
 
+	/*
+	 *	Copies frames verbatim to the copier's target file, starting at targetFrame.
+	 *	Returns false if the stake is not backed by a compatible sound file,
+	 *	in which case nothing has been written. The default implementation
+	 *	always returns false.
+	 */
+	boolean copyFramesRaw( SampleDataCopier copier, long targetFrame, Span readSpan ) throws IOException
+	{
+		return false;
+	}
+
+	/*
+	 *	Makes sure that the buffer read messages for readSpan refer to frames
+	 *	which are present in a file. Stakes which render their frames in the
+	 *	background play frames not yet rendered as silence; this method renders
+	 *	them on the calling thread instead. The default implementation does
+	 *	nothing.
+	 */
+	void renderFrames( Span readSpan ) throws IOException
+	{
+		/* empty */
+	}
+
+	/*
+	 *	Rewrites the header of the sound file read by this stake in place,
+	 *	if the stake reads the whole file, which is the file described by afd.
+	 *	Returns false if that is not the case or the header cannot be rewritten,
+	 *	in which case nothing has been written. The default implementation
+	 *	always returns false.
+	 */
+	boolean rewriteHeader( AudioFileDescr afd ) throws IOException
+	{
+		return false;
+	}
+
+	/*
+	 *	Tells whether all sound files read by this stake are contained
+	 *	in the given collection, i.e. whether the stake stays valid as
+	 *	long as those files are kept open. The default implementation
+	 *	returns false.
+	 */
+	boolean isBackedBy( Collection<? extends InterleavedStreamFile> files )
+	{
+		return false;
+	}
+
+	/*
+	 *	Describes the stake for a project file, see ProjectFile.
+	 *	The default implementation throws an IOException.
+	 */
+	Element toProject( ProjectFile.Writer w ) throws IOException
+	{
+		throw new IOException( getClass().getName() + " cannot be saved in a project" );
+	}
+
 	public abstract void debugDump();
 	
 	public abstract void close() throws IOException;
@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import de.sciss.eisenkraut.session.Session;
 
@@ -61,15 +62,25 @@ public class AudioTrail
 	private static final int		BUFSIZE				= 8192;
 	// for chunks greater or equal than this use a dedicated SilentAudioStake instead of writing zeros to regular AudioStake
 	private static final int 		MIN_SILENT_SIZE 	= 65536;
+	// frames per verbatim copy when flattening (only determines the progress granularity)
+	private static final int		RAW_BUFSIZE			= 1048576;
 
 	private final int[][]			channelMaps;
 	private final int				numChannels;
 	private final boolean			singleFile;
     private AudioFile[]				tempF				= null;
+	// the memory mapping of the single temp file, see MappedAudioStake
+	private MappedSampleFile		tempMap				= null;
 
 	private final AudioFile[]		audioFiles;
+	// files read by the stakes of a restored project, see ProjectFile
+	private AudioFile[]				projectFiles		= new AudioFile[0];
+	// recorded files read in place, see adoptTake
+	private final List<AdoptedTake>	takes				= new ArrayList<AdoptedTake>();
 
 	private int						numDepDec			= 0;
+	// buffer reads which played silence because a transformed view was not rendered yet
+	private final AtomicInteger		numRenderUnderruns	= new AtomicInteger();
 
 
 	public static AudioTrail newFrom(AudioFile af)
@@ -135,6 +146,15 @@ public class AudioTrail
 		return new AudioTrail(channelMaps, afd.rate, new AudioFile[1]);
 	}
 
+	/*
+	 *	Creates an empty trail for a project. The trail's content is not
+	 *	a copy of any sound file, therefore it has no audio files (like a new
+	 *	document), and overview caches are not used.
+	 */
+	static AudioTrail newFromProject(int[][] channelMaps, double rate, int numFiles) {
+		return new AudioTrail(channelMaps, rate, new AudioFile[numFiles]);
+	}
+
 	protected BasicTrail createEmptyCopy() {
 		return new AudioTrail(this.channelMaps, this.getRate(), new AudioFile[0]);
 	}
@@ -158,12 +178,38 @@ public class AudioTrail
 		return audioFiles;
 	}
 
+	// hands over the files read by the stakes of a restored project
+	void setProjectFiles(AudioFile[] files) {
+		projectFiles = files;
+	}
+
+	AudioFile[] getProjectFiles() {
+		return projectFiles;
+	}
+
+	/*
+	 *	Returns the files owned by the trail, i.e. the temporary files
+	 *	(see alloc) and the adopted takes (see adoptTake). Projects
+	 *	must not refer to these files, since they are deleted later.
+	 */
+	synchronized AudioFile[] getTempFiles() {
+		final List<AudioFile> files = new ArrayList<AudioFile>();
+		if (tempF != null) files.addAll(Arrays.asList(tempF));
+		for (AdoptedTake take : takes) {
+			if (!take.isDeleted()) files.add(take.af);
+		}
+		return files.toArray(new AudioFile[files.size()]);
+	}
+
 	public void closeAll()
 			throws IOException {
 
 		for (AudioFile audioFile : audioFiles) {
 			if (audioFile != null) audioFile.close();
 		}
+		for (AudioFile projectFile : projectFiles) {
+			projectFile.close();
+		}
 	}
 
 	public void exchange(AudioFile af)
@@ -178,6 +224,7 @@ public class AudioTrail
 
 		clearIgnoreDependants();
 		deleteTempFiles();
+		deleteTakes();
 		addIgnoreDependants(new InterleavedAudioStake(span, af, span));
 	}
 
@@ -212,6 +259,7 @@ public class AudioTrail
 
 		clearIgnoreDependants();
 		deleteTempFiles();
+		deleteTakes();
 		addIgnoreDependants(new MultiMappedAudioStake(span, afs, fileSpans, channelMaps));
 	}
 
@@ -221,7 +269,11 @@ public class AudioTrail
 		for (AudioFile audioFile : audioFiles) {
 			if (audioFile != null) audioFile.cleanUp();
 		}
+		for (AudioFile projectFile : projectFiles) {
+			projectFile.cleanUp();
+		}
 		deleteTempFiles();
+		deleteTakes();
 	}
 
 	public int getDefaultTouchMode() {
@@ -246,6 +298,52 @@ public class AudioTrail
 		AudioStake.debugCheckDisposal();
 	}
 
+	/**
+	 *	Creates a stake which reads a recorded sound file in place instead of
+	 *	copying it. The trail takes ownership of the file: it is closed and
+	 *	deleted when the last stake reading it has been disposed, e.g. when
+	 *	an undone insertion drops out of the undo history, and at the latest
+	 *	when the trail is disposed. The caller adds the stake to the trail,
+	 *	usually after ripple inserting its span.
+	 *
+	 *	@param	af	the recorded file, opened for reading. It must match the
+	 *				trail's rate and number of channels, and the trail must
+	 *				consist of a single file (see canAdoptTake)
+	 *	@param	pos	the position of the take in the trail
+	 *	@return	a stake spanning the whole file, starting at <code>pos</code>
+	 */
+	public AudioStake adoptTake(AudioFile af, long pos) {
+		return adoptTake(af, pos, null);
+	}
+
+	/**
+	 *	Like <code>adoptTake(AudioFile, long)</code>, additionally passing
+	 *	the overview calculated while recording. When the stake is added,
+	 *	the trail's <code>DecimatedWaveTrail</code> adopts these decimations
+	 *	instead of reading the take again.
+	 *
+	 *	@param	decimation	the overview of the take, or <code>null</code>
+	 */
+	public synchronized AudioStake adoptTake(AudioFile af, long pos, TakeDecimation decimation) {
+		if (!canAdoptTake(af.getDescr())) throw new IllegalArgumentException("Take does not match the trail");
+
+		final long				len		= af.getFrameNum();
+		final AdoptedTake		take	= new AdoptedTake(af, decimation);
+		final AudioStake		stake	= new InterleavedAudioStake(new Span(pos, pos + len), take, new Span(0, len));
+
+		takes.add(take);
+		return stake;
+	}
+
+	/**
+	 *	Tells whether a recorded file with the given format can be
+	 *	adopted as a stake, see adoptTake.
+	 */
+	public boolean canAdoptTake(AudioFileDescr afd) {
+		// the stakes of a multi-file trail need a separate buffer per file for playback
+		return singleFile && (afd.channels == numChannels) && (afd.rate == getRate());
+	}
+
 	public AudioStake allocSilent(Span span) {
 		return new SilentAudioStake(span, numChannels);
 	}
@@ -275,7 +373,7 @@ public class AudioTrail
 		// }
 
 		if (singleFile) {
-			return new InterleavedAudioStake(span, tempF[0], fileSpans[0]);
+			return new MappedAudioStake(span, tempMap, fileSpans[0]);
 		} else {
 			return new MultiMappedAudioStake(span, tempF, fileSpans, channelMaps);
 		}
@@ -317,6 +415,37 @@ public class AudioTrail
 		}
 	}
 
+	/**
+	 *	Renders the frames of views which transform the audio on the fly,
+	 *	as far as they lie within the given span. <code>addBufferReadMessages</code>
+	 *	does not wait for such frames and plays silence instead if they have not
+	 *	been rendered in the background yet. Callers which do not stream in
+	 *	realtime, such as the creation of non-realtime scores, invoke this method
+	 *	first.
+	 */
+	public void renderFrames(Span span)
+			throws IOException {
+
+		for (Stake stake : getRange(span, true)) {
+			final Span subSpan = new Span(Math.max(stake.getSpan().start, span.start),
+					Math.min(stake.getSpan().stop, span.stop));
+			if (!subSpan.isEmpty()) ((AudioStake) stake).renderFrames(subSpan);
+		}
+	}
+
+	/**
+	 *	Returns the number of times <code>addBufferReadMessages</code> played
+	 *	silence because the frames of a transformed view had not been rendered yet.
+	 */
+	public int getNumRenderUnderruns() {
+		return numRenderUnderruns.get();
+	}
+
+	// called by TransformedAudioStake
+	void renderUnderrun() {
+		numRenderUnderruns.incrementAndGet();
+	}
+
 	public static final int MODE_INSERT		= Session.EDIT_INSERT;
 	public static final int MODE_OVERWRITE	= Session.EDIT_OVERWRITE;
 	public static final int MODE_MIX		= Session.EDIT_MIX;
@@ -338,6 +467,11 @@ public class AudioTrail
 	 *						; so to copy channels 0 and 2 of a four channel source to a target stereo trail,
 	 *						trackMap would be [ 0, 2 ] for example. A mono to stereo would be [ 0, 0 ].
 	 *						index -1 indicates bypass (for MODE_INSERT or clearUnused filled with zeroes)
+	 *
+	 *	When inserting or overwriting all channels one-to-one from a trail whose stakes are
+	 *	backed by this trail's own files (e.g. a clipboard cut from this trail), the source
+	 *	stakes are not copied but spliced into this trail. In that case only the blend
+	 *	regions at the edges are written physically.
 	 */
 	public boolean copyRangeFrom(AudioTrail srcTrail, Span copySpan, long insertPos, int mode,
 								 Object source, AbstractCompoundEdit ce, int[] trackMap, BlendContext bcPre, BlendContext bcPost)
@@ -355,6 +489,18 @@ public class AudioTrail
 		final int				bufLen		= (int) Math.min( len, BUFSIZE );
 		final double			progWeight	= 1.0 / len;
 
+        if ((mode == MODE_INSERT) || (mode == MODE_OVERWRITE)) {
+            final long preLen   = bcPre  == null ? 0L : bcPre .getLen();
+            final long postLen  = bcPost == null ? 0L : bcPost.getLen();
+            if ((preLen + postLen < len) && isIdentityMap(srcTrail, trackMap)) {
+                final List<Stake> spliced = getSpliceRange(srcTrail,
+                        new Span(copySpan.start + preLen, copySpan.stop - postLen), insertPos - copySpan.start);
+                if (spliced != null) {
+                    return spliceRangeFrom(srcTrail, copySpan, insertPos, mode, source, ce, spliced, bcPre, bcPost);
+                }
+            }
+        }
+
 		// throws IOException
         writeStake = alloc(new Span(insertPos, insertPos + len));
 
@@ -362,7 +508,8 @@ public class AudioTrail
             switch (mode) {
                 case MODE_INSERT:
                     if (hasBlend) {
-                        insertRangeFrom(srcTrail, copySpan.start, writeStake, insertPos, len, bufLen, trackMap, progWeight, bcPre, bcPost);
+                        insertRangeFrom(srcTrail, copySpan.start, writeStake, insertPos, len, bufLen, trackMap, progWeight,
+                                bcPre, bcPost, insertPos - len);
                     } else {
                         insertRangeFrom(srcTrail, copySpan.start, writeStake, insertPos, len, bufLen, trackMap, progWeight);
                     }
@@ -400,6 +547,112 @@ public class AudioTrail
         }
     }
 
+    private static boolean isIdentityMap(AudioTrail srcTrail, int[] trackMap) {
+        if ((srcTrail == null) || (srcTrail.getChannelNum() != trackMap.length)) return false;
+        for (int i = 0; i < trackMap.length; i++) {
+            if (trackMap[i] != i) return false;
+        }
+        return true;
+    }
+
+    /*
+     *	Returns trimmed duplicates of the source stakes covering span, shifted by
+     *	the given amount, or null if they cannot be spliced into this trail.
+     *	This is the case if they do not cover the span without gaps, if their
+     *	channel layout differs, or if they read from files which are not owned
+     *	by this trail (those might be deleted when the source document is closed).
+     */
+    private List<Stake> getSpliceRange(AudioTrail srcTrail, Span span, long shift) {
+        if (!Arrays.deepEquals(srcTrail.getChannelMaps(), this.channelMaps)) return null;
+
+        final List<InterleavedStreamFile> files = new ArrayList<InterleavedStreamFile>();
+        for (AudioFile audioFile : audioFiles) {
+            if (audioFile != null) files.add(audioFile);
+        }
+        files.addAll(Arrays.asList(projectFiles));
+        synchronized (this) {   // see alloc
+            if (tempF != null) files.addAll(Arrays.asList(tempF));
+        }
+
+        final List<Stake> stakes = srcTrail.getCutRange(span, true, TOUCH_SPLIT, shift);
+        long    pos = span.start + shift;
+        boolean ok  = true;
+        for (Stake stake : stakes) {
+            final AudioStake as = (AudioStake) stake;
+            if ((as.getSpan().start != pos) || (as.getChannelNum() != numChannels) || !as.isBackedBy(files)) {
+                ok = false;
+                break;
+            }
+            pos = as.getSpan().stop;
+        }
+        if (ok && (pos == span.stop + shift)) return stakes;
+
+        for (Stake stake : stakes) stake.dispose();
+        return null;
+    }
+
+    // splices the stakes of the middle part and renders only the blend regions
+    private boolean spliceRangeFrom(AudioTrail srcTrail, Span copySpan, long insertPos, int mode, Object source,
+                                    AbstractCompoundEdit ce, List<Stake> spliced, BlendContext bcPre, BlendContext bcPost)
+            throws IOException {
+
+        final long              len         = copySpan.getLength();
+        final long              preLen      = bcPre  == null ? 0L : bcPre .getLen();
+        final long              postLen     = bcPost == null ? 0L : bcPost.getLen();
+        final int[]             trackMap    = new int[numChannels];
+        final List<Stake>       stakes      = new ArrayList<Stake>(spliced.size() + 2);
+        final double            progWeight  = 1.0 / Math.max(1L, preLen + postLen);
+        AudioStake              writeStake  = null;
+        int                     bufLen;
+
+        for (int i = 0; i < trackMap.length; i++) trackMap[i] = i;
+
+        try {
+            if (preLen > 0) {
+                bufLen      = (int) Math.min(preLen, BUFSIZE);
+                writeStake  = alloc(new Span(insertPos, insertPos + preLen));
+                if (mode == MODE_INSERT) {
+                    insertRangeFrom(srcTrail, copySpan.start, writeStake, insertPos, preLen, bufLen, trackMap,
+                            progWeight, bcPre, null, insertPos - len);
+                } else {
+                    overwriteRangeFrom(srcTrail, copySpan.start, writeStake, insertPos, preLen, bufLen, trackMap,
+                            progWeight, bcPre, null);
+                }
+                stakes.add(writeStake);
+                writeStake = null;
+            }
+            if (postLen > 0) {
+                final long postPos = insertPos + len - postLen;
+                bufLen      = (int) Math.min(postLen, BUFSIZE);
+                writeStake  = alloc(new Span(postPos, postPos + postLen));
+                // the fade-in of this trail is read from the same position
+                // as in the rendering of the full range
+                if (mode == MODE_INSERT) {
+                    insertRangeFrom(srcTrail, copySpan.stop - postLen, writeStake, postPos, postLen, bufLen, trackMap,
+                            progWeight, null, bcPost, insertPos - postLen);
+                } else {
+                    overwriteRangeFrom(srcTrail, copySpan.stop - postLen, writeStake, postPos, postLen, bufLen, trackMap,
+                            progWeight, null, bcPost);
+                }
+                stakes.add(writeStake);
+                writeStake = null;
+            }
+            stakes.addAll(spliced);
+            this.editAddAll(source, stakes, ce);
+            return true;
+        } catch (InterruptedException e1) {    // thrown by ProcessingThread.updateAndCheckCancel()
+            if (writeStake != null) writeStake.dispose();
+            for (Stake stake : stakes) stake.dispose();
+            for (Stake stake : spliced) stake.dispose();
+            return false;
+        } catch (IOException e1) {
+            if (writeStake != null) writeStake.dispose();
+            for (Stake stake : stakes) stake.dispose();
+            for (Stake stake : spliced) stake.dispose();
+            throw e1;
+        }
+    }
+
 	private static void setProgression(long len, double progWeight)
 			throws ProcessingThread.CancelledException {
 		ProcessingThread.update((float) (len * progWeight));
@@ -549,8 +802,10 @@ public class AudioTrail
         writeStake.flush();
     }
 
+    // fadeOutOffset + framesWritten is the position of this trail which is faded in at the end
     private void insertRangeFrom(AudioTrail srcTrail, final long srcStart, AudioStake writeStake, final long insertPos, final long len,
-                                 final int bufLen, int[] trackMap, double progWeight, BlendContext bcPre, BlendContext bcPost)
+                                 final int bufLen, int[] trackMap, double progWeight, BlendContext bcPre, BlendContext bcPost,
+                                 final long fadeOutOffset)
             throws IOException, InterruptedException {
 
         final float[][]			srcBuf			= new float[srcTrail == null ? 0 : srcTrail.getChannelNum()][];
@@ -560,7 +815,6 @@ public class AudioTrail
 		final long				postLen			= bcPost == null ? 0L : bcPost.getLen();
 		final float[][]			mixBuf			= new float[this.getChannelNum()][bufLen];
         final float[][]			srcFadeBuf		= new float[this.getChannelNum()][];
-        final long				fadeOutOffset	= insertPos - len;
 		float[]					empty			= null;
 		boolean					srcUsed			= false;
 		boolean					writeMix		= false;
@@ -927,6 +1181,39 @@ public class AudioTrail
         }
     }
 
+    /**
+     *  Replaces the audio of a span by read-only views of the
+     *  current stakes which apply the given transform while reading.
+     *  No frames are copied, therefore the edit takes constant time
+     *  regardless of the span's length. Gaps between stakes are
+     *  kept (and mirrored if the transform reverses).
+     *
+     *  @param  transform   the transform to apply to all channels of the span
+     *
+     *  @throws IllegalArgumentException    if the transform does not match this trail's channels
+     */
+    public void editTransform(Object source, Span span, AudioTransform transform, AbstractCompoundEdit ce)
+            throws IOException {
+
+        transform.verify(numChannels);
+        if (span.isEmpty()) return;
+
+        final List<Stake>   stakes  = getCutRange(span, true, TOUCH_SPLIT, 0);
+        final List<Stake>   views   = new ArrayList<Stake>(stakes.size());
+        final long          mirror  = span.start + span.stop;
+        Span                viewSpan;
+
+        for (Stake stake : stakes) {
+            final Span s = stake.getSpan();
+            viewSpan = transform.isReverse() ? new Span(mirror - s.stop, mirror - s.start) : s;
+            views.add(TransformedAudioStake.create(this, (AudioStake) stake, viewSpan, transform));
+        }
+
+        this.editRemove(source, span, ce);
+        this.editInsert(source, span, ce);
+        this.editAddAll(source, views, ce);
+    }
+
     public void addDependant(BasicTrail sub) {
         super.addDependant(sub);
         if (sub instanceof DecimatedWaveTrail) {
@@ -1259,6 +1546,7 @@ public class AudioTrail
 			afd.channels			= getChannelNum();
 			afd.file				= IOUtil.createTempFile();
 			tempF					= new AudioFile[] { AudioFile.openAsWrite(afd)};
+			tempMap					= new MappedSampleFile(tempF[0]);
 		} else {
 			AudioFileDescr afd2;
 			final AudioFile[] tempF2 = new AudioFile[channelMaps.length];
@@ -1274,6 +1562,11 @@ public class AudioTrail
 	}
 
 	private void deleteTempFiles() {
+		// mapped files cannot be deleted on some platforms
+		if (tempMap != null) {
+			tempMap.close();
+			tempMap = null;
+		}
 		if (tempF != null) {
 			for (AudioFile aTempF : tempF) {
 				if (aTempF != null) {
@@ -1286,15 +1579,53 @@ public class AudioTrail
 		tempF = null;
 	}
 
+	private synchronized void deleteTakes() {
+		for (AdoptedTake take : takes) {
+			take.delete();
+		}
+		takes.clear();
+	}
+
+    /**
+     *  Saves the trail by rewriting only the header of the sound file it reads,
+     *  which is possible if the trail consists of one unedited stake covering
+     *  that whole file, and the file is the target of the save. Markers and
+     *  other properties of the header can be changed this way without copying
+     *  any frames.
+     *
+     *  @param  afd         the description of the target file, including the markers
+     *  @param  span        the span to save
+     *  @param  channelMap  see <code>flatten</code>
+     *
+     *  @return <code>true</code> if the header was rewritten, <code>false</code>
+     *          if the trail has to be flattened into a new file instead
+     */
+    public boolean rewriteHeader(AudioFileDescr afd, Span span, int[] channelMap)
+            throws IOException {
+
+        if ((getNumStakes() != 1) || (span.start != 0) || !span.equals(getSpan())) return false;
+        if (channelMap != null) {
+            if (channelMap.length != numChannels) return false;
+            for (int i = 0; i < channelMap.length; i++) {
+                if (channelMap[i] != i) return false;
+            }
+        }
+        return ((AudioStake) get(0, true)).rewriteHeader(afd);
+    }
+
 	public void flatten(InterleavedStreamFile f, Span span, int[] channelMap)
 			throws IOException {
 
         final Span       fileSpan   = new Span(f.getFramePosition(), span.getLength());
         final AudioStake stake      = new InterleavedAudioStake(span, f, fileSpan);
+        // stakes backed by sound files with the same sample layout as f
+        // are copied verbatim, without decoding and encoding the frames
+        final SampleDataCopier copier = f instanceof AudioFile ? new SampleDataCopier((AudioFile) f) : null;
 
         try {
-            flatten(stake, span, channelMap);
+            flatten(stake, span, channelMap, copier, fileSpan.start - span.start);
         } finally {
+            if (copier != null) copier.dispose();
             stake.dispose();
         }
     }
@@ -1314,13 +1645,18 @@ public class AudioTrail
         final AudioStake stake = new MultiMappedAudioStake(span, fs, fileSpans);
 
         try {
-            flatten(stake, span, channelMap);
+            flatten(stake, span, channelMap, null, 0);
         } finally {
             stake.dispose();
         }
     }
 
-    private void flatten(AudioStake target, Span span, int[] channelMap)
+    /*
+     *  @param  copier      if not null, used to copy source stakes verbatim
+     *                      where possible. copyOffset is added to the trail
+     *                      positions to obtain the copier's target frames
+     */
+    private void flatten(AudioStake target, Span span, int[] channelMap, SampleDataCopier copier, long copyOffset)
             throws IOException {
 //		if( target.getChannelNum() != numChannels ) {
 //			throw new IllegalArgumentException( "Wrong # of channels (required: " + numChannels +
@@ -1342,6 +1678,11 @@ public class AudioTrail
                 if ((aChannelMap < 0) || (aChannelMap >= numChannels)) throw new IllegalArgumentException();
             }
         }
+        // verbatim copies require the identity mapping
+        if (outChannels != numChannels) copier = null;
+        for (int i = 0; (copier != null) && (i < channelMap.length); i++) {
+            if (channelMap[i] != i) copier = null;
+        }
 
 //		final ProcessingThread	pt			= ProcessingThread.currentThread();
 //		final float[][]			data		= new float[ numChannels ][ BUFSIZE ];
@@ -1366,6 +1707,15 @@ public class AudioTrail
             source = (AudioStake) get(idx, true);
             sourceSpan = source.getSpan();
             readStop = Math.min(sourceSpan.stop, span.stop);
+            // the last frame of each stake is always written regularly,
+            // so the target file picks up the frames copied verbatim
+            while ((copier != null) && (readOff < readStop - 1)) {
+                chunkLen = (int) Math.min(RAW_BUFSIZE, readStop - 1 - readOff);
+                subSpan = new Span(readOff, readOff + chunkLen);
+                if (!source.copyFramesRaw(copier, readOff + copyOffset, subSpan)) break;
+                readOff += chunkLen;
+                setProgression(readOff - span.start, progWeight);
+            }
             while (readOff < readStop) {
                 chunkLen = (int) Math.min(BUFSIZE, readStop - readOff);
                 subSpan = new Span(readOff, readOff + chunkLen);
@@ -0,0 +1,78 @@
+/*
+ *  AudioTransform.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.io;
+
+/**
+ *  Describes a transformation of audio frames which is cheap
+ *  enough to be applied while reading: a gain factor per channel
+ *  (negative factors invert the polarity), a permutation of
+ *  the channels and time reversal.
+ *
+ *  @see    AudioTrail#editTransform(Object, de.sciss.io.Span, AudioTransform, de.sciss.app.AbstractCompoundEdit)
+ */
+public final class AudioTransform {
+
+    private final float[]   gains;
+    private final int[]     channelMap;
+    private final boolean   reverse;
+
+    /**
+     *  @param  gains       the gain factor of each channel, or <code>null</code> for unity gain
+     *  @param  channelMap  for each output channel the index of the input channel, or
+     *                      <code>null</code> for the identity. The mapping must be a permutation.
+     *  @param  reverse     whether the frames are reversed in time
+     */
+    public AudioTransform(float[] gains, int[] channelMap, boolean reverse) {
+        this.gains      = gains      == null ? null : gains.clone();
+        this.channelMap = channelMap == null ? null : channelMap.clone();
+        this.reverse    = reverse;
+    }
+
+    public float getGain(int ch) {
+        return gains == null ? 1f : gains[ch];
+    }
+
+    public int getInputChannel(int ch) {
+        return channelMap == null ? ch : channelMap[ch];
+    }
+
+    public boolean isReverse() {
+        return reverse;
+    }
+
+    /**
+     *  Verifies that the transform can be applied
+     *  to the given number of channels.
+     *
+     *  @throws IllegalArgumentException    if the arrays have the wrong size
+     *                                      or the channel map is not a permutation
+     */
+    public void verify(int numChannels) {
+        if ((gains != null) && (gains.length != numChannels)) {
+            throw new IllegalArgumentException("Wrong # of gains (required: " + numChannels + ")");
+        }
+        if (channelMap != null) {
+            if (channelMap.length != numChannels) {
+                throw new IllegalArgumentException("Wrong # of channels (required: " + numChannels + ")");
+            }
+            final boolean[] used = new boolean[numChannels];
+            for (int ch : channelMap) {
+                if ((ch < 0) || (ch >= numChannels) || used[ch]) {
+                    throw new IllegalArgumentException("Channel map is not a permutation");
+                }
+                used[ch] = true;
+            }
+        }
+    }
+}
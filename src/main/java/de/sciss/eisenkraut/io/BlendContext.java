@@ -30,11 +30,25 @@ public class BlendContext
 	 *  sense rate frames
 	 */
 	private final long		left, right;
-	private final double[]	eqn			= new double[ 4 ];
 //	private final double	yInA, yInB, yInD;
 	private final double	yOutA, yOutB, yOutD, yXInA, yXInB, yXInD;
-	private final double	wFact;
 	private final double	yIn0 = 0.0, yOut0 = 1.0;
+	private final double	xB, xA, xD;
+
+	// maximum number of intervals of the gain tables
+	private static final int	TABLE_SIZE	= 4096;
+	// table intervals across which the gain changes by more than
+	// this amount, or whose interpolated midpoint is off by more
+	// than MAX_ERROR, are calculated exactly instead of interpolated
+	private static final float	MAX_STEP	= 1.0e-3f;
+	private static final float	MAX_ERROR	= 2.0e-6f;
+	// number of frames processed per gain block
+	private static final int	BLOCK_SIZE	= 1024;
+
+	private final int		numIntervals;
+	private final double	tabScale;
+	private final float[]	gainIn, gainOut;
+	private final boolean[]	exactIn, exactOut;
 
 	/**
 	 *  Create a new BlendContext with
@@ -44,9 +58,9 @@ public class BlendContext
 		this.left		= left;
 		this.right		= right;
 
-		eqn[ 1 ]		=  3 * ctrlPt[0].getX();
-		eqn[ 2 ]		= -6 * ctrlPt[0].getX() + 3 * ctrlPt[1].getX();
-		eqn[ 3 ]		=  3 * ctrlPt[0].getX() - 3 * ctrlPt[1].getX() + 1;
+		xB				=  3 * ctrlPt[0].getX();
+		xA				= -6 * ctrlPt[0].getX() + 3 * ctrlPt[1].getX();
+		xD				=  3 * ctrlPt[0].getX() - 3 * ctrlPt[1].getX() + 1;
 
 //		yInD			=  3 * ctrlPt[0].getY() - 3 * ctrlPt[1].getY() + 1;
 //		yInA			= -6 * ctrlPt[0].getY() + 3 * ctrlPt[1].getY();
@@ -63,7 +77,106 @@ public class BlendContext
 		yOutA			= -6 * ctrlPt[0].getY() + 3 * ctrlPt[1].getY() + 3;
 		yOutB			=  3 * ctrlPt[0].getY() - 3;
 
-		wFact			= 1.0 / (left + right);
+		// tabulate the gains; if the blend is not longer than the table,
+		// there is one entry per frame and the lookup is exact. otherwise
+		// frames falling into steep or strongly bent intervals (near
+		// vertical tangents of the curve) are calculated exactly, so the
+		// interpolation error stays around 1.0e-5 (-100 dB), which is
+		// verified by BlendContextTest
+		numIntervals	= (int) Math.max( 1, Math.min( TABLE_SIZE, left + right ));
+		tabScale		= (double) numIntervals / Math.max( 1, left + right );
+		gainIn			= new float[ numIntervals + 1 ];
+		gainOut			= new float[ numIntervals + 1 ];
+		exactIn			= new boolean[ numIntervals ];
+		exactOut		= new boolean[ numIntervals ];
+		final double[] eqn	= new double[ 4 ];
+		final double[] res	= new double[ 3 ];
+		for( int k = 0; k <= numIntervals; k++ ) {
+			gainIn[ k ]		= calcGain( (double) k / numIntervals, true,  eqn, res );
+			gainOut[ k ]	= calcGain( (double) k / numIntervals, false, eqn, res );
+		}
+		final boolean interp = numIntervals < left + right;
+		for( int k = 0; interp && (k < numIntervals); k++ ) {
+			final double x	= (k + 0.5) / numIntervals;
+			exactIn[ k ]	= (Math.abs( gainIn[ k+1 ] - gainIn[ k ]) > MAX_STEP) ||
+							  (Math.abs( calcGain( x, true, eqn, res ) - (gainIn[ k ] + gainIn[ k+1 ]) * 0.5f ) > MAX_ERROR);
+			exactOut[ k ]	= (Math.abs( gainOut[ k+1 ] - gainOut[ k ]) > MAX_STEP) ||
+							  (Math.abs( calcGain( x, false, eqn, res ) - (gainOut[ k ] + gainOut[ k+1 ]) * 0.5f ) > MAX_ERROR);
+		}
+	}
+
+	/*
+	 *	Calculates the gain at a position x (0 ... 1) of the blend.
+	 *	eqn and res are scratch buffers of size 4 and 3.
+	 */
+	private float calcGain( double x, boolean in, double[] eqn, double[] res )
+	{
+		final double t		= solve( x, eqn, res );
+		final double tt		= t * t;
+		final double ttt	= tt * t;
+
+		if( in ) {
+			return (float) (ttt * yXInD + tt * yXInA + t * yXInB + yIn0);	// yX !!
+		} else {
+			return (float) (ttt * yOutD + tt * yOutA + t * yOutB + yOut0);
+		}
+	}
+
+	// finds the curve parameter t for a given x; due to rounding,
+	// near the ends the roots may lie slightly outside 0 ... 1, so
+	// the root closest to that interval is taken and clipped
+	private double solve( double x, double[] eqn, double[] res )
+	{
+		final int	numRoots;
+		double		t		= x;
+		double		dist	= Double.POSITIVE_INFINITY;
+		double		d;
+
+		eqn[ 0 ]	= -x;		// C = -x
+		eqn[ 1 ]	= xB;
+		eqn[ 2 ]	= xA;
+		eqn[ 3 ]	= xD;
+		numRoots	= CubicCurve2D.solveCubic( eqn, res );
+		for( int i = 0; i < numRoots; i++ ) {
+			d = res[ i ] < 0.0 ? -res[ i ] : (res[ i ] > 1.0 ? res[ i ] - 1.0 : 0.0);
+			if( d < dist ) {
+				dist	= d;
+				t		= res[ i ];
+			}
+		}
+		return Math.max( 0.0, Math.min( 1.0, t ));
+	}
+
+	/*
+	 *	Fills gain[ 0 ... len ) with the linearly interpolated
+	 *	table values for the frames blendOff ... blendOff + len.
+	 */
+	private void lookup( boolean in, long blendOff, float[] gain, int len )
+	{
+		final float[]	tab		= in ? gainIn  : gainOut;
+		final boolean[]	exact	= in ? exactIn : exactOut;
+		double[]		eqn		= null;
+		double[]		res		= null;
+		double			p;
+		int				k;
+
+		for( int i = 0; i < len; i++ ) {
+			p	= (blendOff + i) * tabScale;
+			k	= (int) p;
+			if( p <= 0.0 ) {
+				gain[ i ] = tab[ 0 ];
+			} else if( k >= numIntervals ) {
+				gain[ i ] = tab[ numIntervals ];
+			} else if( exact[ k ]) {
+				if( eqn == null ) {
+					eqn = new double[ 4 ];
+					res = new double[ 3 ];
+				}
+				gain[ i ] = calcGain( p / numIntervals, in, eqn, res );
+			} else {
+				gain[ i ] = tab[ k ] + (tab[ k+1 ] - tab[ k ]) * (float) (p - k);
+			}
+		}
 	}
 
 /*
@@ -134,43 +247,31 @@ public class BlendContext
 	 */
 	public void fadeIn( long blendOff, float[][] sourceBuf, int sourceOff, float[][] targetBuf, int targetOff, int length )
 	{
-		fade( blendOff, sourceBuf, sourceOff, targetBuf, targetOff, length, yXInD, yXInB, yXInA, yIn0 );	// yX !!
+		fade( blendOff, sourceBuf, sourceOff, targetBuf, targetOff, length, true );
 	}
 
 	public void fadeOut( long blendOff, float[][] sourceBuf, int sourceOff, float[][] targetBuf, int targetOff, int length )
 	{
-		fade( blendOff, sourceBuf, sourceOff, targetBuf, targetOff, length, yOutD, yOutB, yOutA, yOut0 );
+		fade( blendOff, sourceBuf, sourceOff, targetBuf, targetOff, length, false );
 	}
 
 	private void fade( long blendOff, float[][] sourceBuf, int sourceOff,
-					   float[][] targetBuf, int targetOff, int length, double yD, double yB, double yA, double y0 )
+					   float[][] targetBuf, int targetOff, int length, boolean in )
 	{
 		final int		numCh	= sourceBuf.length;
-		final double	wOff	= blendOff * wFact;
-		final double[]	res		= new double[ 3 ];
-		double			t, tt;
-		int				ch;
-		float			w;
-
-		for( int i = 0; i < length; i++, sourceOff++, targetOff++ ) {
-			eqn[ 0 ]	= -(wOff + wFact * i);		// C = -x
- 			CubicCurve2D.solveCubic( eqn, res );
-			t			= res[ 0 ];
-			if( t < 0.0 || t > 1.0 ) {
-				t		= res[ 1 ];
-				if( t < 0.0 || t > 1.0 ) {
-					t	= res[ 2 ];
-//					if( t < 0.0 || t > 1.0 ) {
-//						System.err.println( "oh dear. res[0] = "+res[0]+"; res[1] = "+res[1]+"; res[2] = "+res[2] );
-//					}
-				}
-			}
-			tt			= t * t;
-			w			= (float) (tt * t * yD + tt * yA + t * yB + y0);
-			
-			for( ch = 0; ch < numCh; ch++ ) {
-				if( targetBuf[ ch ] != null ) {
-					targetBuf[ ch ][ targetOff ] = sourceBuf[ ch ][ sourceOff ] * w;
+		final float[]	gain	= new float[ Math.min( length, BLOCK_SIZE )];
+		float[]			src, tgt;
+		int				len2;
+
+		for( int i = 0; i < length; i += len2, blendOff += len2, sourceOff += len2, targetOff += len2 ) {
+			len2 = Math.min( length - i, BLOCK_SIZE );
+			lookup( in, blendOff, gain, len2 );
+			for( int ch = 0; ch < numCh; ch++ ) {
+				tgt = targetBuf[ ch ];
+				if( tgt == null ) continue;
+				src = sourceBuf[ ch ];
+				for( int j = 0, k = sourceOff, m = targetOff; j < len2; j++, k++, m++ ) {
+					tgt[ m ] = src[ k ] * gain[ j ];
 				}
 			}
 		}
@@ -186,13 +287,10 @@ public class BlendContext
 	{
 //System.err.println( "kieka! "+blendLen );
 		final int		numCh	= sourceBufA.length;
-		final double	wOff	= blendOff * wFact;
-		final double[]	res		= new double[ 3 ];
-		int				len2;
-		double			t, tt, ttt;
+		int				len2, len3;
 		int				i		= 0;
 		int				ch;
-		float			wIn, wOut;
+		float[]			srcA, srcB, tgt;
 		
 		// plain A
 		len2 = (int) Math.min( length, -blendOff );
@@ -210,28 +308,21 @@ public class BlendContext
 
 		// xfade
 		len2 = (int) Math.min( length, left + right - blendOff );
-		for( ; i < len2; i++, sourceOffA++, sourceOffB++, targetOff++ ) {
-			eqn[ 0 ]	= -(wOff + wFact * i);		// C = -x
- 			CubicCurve2D.solveCubic( eqn, res );
-			t			= res[ 0 ];
-			if( t < 0.0 || t > 1.0 ) {
-				t		= res[ 1 ];
-				if( t < 0.0 || t > 1.0 ) {
-					t	= res[ 2 ];
-//					if( t < 0.0 || t > 1.0 ) {
-//						System.err.println( "oh dear. res[0] = "+res[0]+"; res[1] = "+res[1]+"; res[2] = "+res[2] );
-//					}
-				}
-			}
-			tt			= t * t;
-			ttt			= tt * t;
-			wIn			= (float) (ttt * yXInD + tt * yXInA + t * yXInB + yIn0);
-			wOut		= (float) (ttt * yOutD + tt * yOutA + t * yOutB + yOut0);
-			
-			for( ch = 0; ch < numCh; ch++ ) {
-				if( targetBuf[ ch ] != null ) {
-					targetBuf[ ch ][ targetOff ] = sourceBufB[ ch ][ sourceOffB ] * wIn +
-												   sourceBufA[ ch ][ sourceOffA ] * wOut;
+		if( i < len2 ) {
+			final float[] wIn	= new float[ Math.min( len2 - i, BLOCK_SIZE )];
+			final float[] wOut	= new float[ wIn.length ];
+			for( ; i < len2; i += len3, sourceOffA += len3, sourceOffB += len3, targetOff += len3 ) {
+				len3 = Math.min( len2 - i, BLOCK_SIZE );
+				lookup( true,  blendOff + i, wIn , len3 );
+				lookup( false, blendOff + i, wOut, len3 );
+				for( ch = 0; ch < numCh; ch++ ) {
+					tgt = targetBuf[ ch ];
+					if( tgt == null ) continue;
+					srcA = sourceBufA[ ch ];
+					srcB = sourceBufB[ ch ];
+					for( int j = 0, ka = sourceOffA, kb = sourceOffB, m = targetOff; j < len3; j++, ka++, kb++, m++ ) {
+						tgt[ m ] = srcB[ kb ] * wIn[ j ] + srcA[ ka ] * wOut[ j ];
+					}
 				}
 			}
 		}
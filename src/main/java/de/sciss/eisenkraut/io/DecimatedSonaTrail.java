@@ -25,7 +25,15 @@ import java.awt.image.BufferedImage;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.prefs.Preferences;
 
 import de.sciss.app.AbstractApplication;
@@ -67,6 +75,7 @@ public class DecimatedSonaTrail
 extends DecimatedTrail
 {
 	private static final int		UPDATE_PERIOD			= 4000; // milliseconds in async overview calculation
+	private static final int		PAR_HOPS				= 64;	// hops per parallel transform task
 
 	protected final Decimator		decimator;
 	
@@ -661,35 +670,16 @@ inlineDecim=1;
 		final DecimatedStake		das;
 		final Span					union		= fullScale.getSpan();
 		final Span					extSpan;
-		final long					fullrateStop, fullrateLen; // , insertLen;
-		final int					numFullBuf;
-		// final CacheManager cm = CacheManager.getInstance();
+		final int					numHops;
 		final AbstractCompoundEdit	ce			= null; // XXX
 		final Object				source		= null; // XXX
-//		final AudioStake			cacheReadAS;
-//		final AudioStake			cacheWriteAS;
 
 		synchronized( fileSync ) {
 			das = allocAsync( union );
-//das.GOGO = true;
 		}
 		extSpan			= das.getSpan();
-		// insertLen	= extSpan.getLength();
-		fullrateStop	= Math.min( extSpan.getStop(), fullScale.editGetSpan( ce ).stop );
-		fullrateLen		= fullrateStop - extSpan.getStart();
-
-//		cacheReadAS		= null; // openCacheForRead( model );
-//		if( cacheReadAS == null ) {
-//			// cacheWriteAS = fullScale.openCacheForWrite( model,
-//			// decimHelps[ 0 ].fullrateToSubsample( union.getLength() ));
-//			cacheWriteAS = null; // openCacheForWrite( model, (fullrateLen + MAXCEILADD) & MAXMASK );
-//			numFullBuf	= (int) (fullrateLen >> MAXSHIFT);
-			numFullBuf	= (int) ((fullrateLen - fftSize + stepSize + stepSize - 1) / stepSize);
-//		} else {
-//			// cached files always have integer fullBufs!
-//			numFullBuf	= (int) ((fullrateLen + MAXCEILADD) >> MAXSHIFT);
-//			cacheWriteAS = null;
-//		}
+		// one hop per stepSize, centred at the hop's position
+		numHops			= (int) (extSpan.getLength() / stepSize);
 
 		synchronized( bufSync ) {
 			createBuffers();
@@ -704,102 +694,9 @@ inlineDecim=1;
 final int pri = Thread.currentThread().getPriority();
 //System.out.println( "pri was " + pri );
 Thread.currentThread().setPriority( pri - 2 );
-				
-//				final CacheManager	cm					= PrefCacheManager.getInstance();
-				long				pos;
-				// long framesWritten = 0;
-				long				framesWrittenCache	= 0;
-//				boolean				cacheWriteComplete	= false;
-				Span				tag2;
-				int					len;
-				long				time;
-// WARNING: the variant with deferring the continueWrite
-// does not work because we loose the bufSync and hence
-// any readFrames destroys our buf. For high res analysis
-// the speed gain using the outBufOff cache method is
-// anyway <3%.
-//				int					outBufOff	= 0;
-				int					inBufOff = 0, nextLen = fftSize >> 1;
-				long				nextTime			= System.currentTimeMillis() + UPDATE_PERIOD;
-
-//				if( cacheReadAS != null ) {
-//					pos = decimHelps[ 0 ].fullrateToSubsample( extSpan.getStart() ); // XXX
-//				} else {
-					pos = extSpan.getStart();
-//				}
-//				minCoarse = MAXCOARSE >> decimHelps[ 0 ].shift;
 
 				try {
-//long t1 = System.currentTimeMillis();
-					for( int i = 0; (i < numFullBuf) && keepAsyncRunning; i++ ) {
-						synchronized( bufSync ) {
-//							if( (i % 100) == 0 ) System.out.println( "ici " + i + " / " + numFullBuf );
-							len = (int) Math.min( nextLen, fullrateStop - pos ); 
-//							if( inBufOff + len <= tmpBufSize ) {
-								tag2 = new Span( pos, pos + len );
-//								fullScale.readFrames( tmpBuf, inBufOff, tag2, null );
-								fullScale.readFrames( tmpBuf, fftSize - nextLen, tag2, null );
-//							} else { // hitting buffer boundaries
-//								tag2 = new Span( pos, pos + (tmpBufSize - inBufOff) );
-//								fullScale.readFrames( tmpBuf, inBufOff, tag2, null );
-//								tag2 = new Span( tag2.stop, pos + len );
-//								fullScale.readFrames( tmpBuf, 0, tag2, null );
-//							}
-							if( len < nextLen ) {
-								for( int ch = 0; ch < fullChannels; ch++ ) {
-									for( int j = (inBufOff + len) % tmpBufSize, k = nextLen - len; k >= 0; k-- ) {
-										tmpBuf[ ch ][ j ] = 0f;
-										if( ++j == tmpBufSize ) j = 0;
-									}
-								}
-							}
-//							decimator.decimatePCM( tmpBuf, tmpBuf2, outBufOff, 1, 1 );
-							decimator.decimatePCM( tmpBuf, tmpBuf2, 0, 1, 1 );
-//							if( ++outBufOff == 1 ) {
-//								das.continueWrite( 0, tmpBuf2, 0, outBufOff );
-								das.continueWrite( 0, tmpBuf2, 0, 1 );
-//								if( cacheWriteAS != null ) {
-////									cacheWriteAS.writeFrames( tmpBuf2, 0, new Span( framesWrittenCache, framesWrittenCache + outBufOff ));
-//									cacheWriteAS.writeFrames( tmpBuf2, 0, new Span( framesWrittenCache, framesWrittenCache + 1 ));
-//								}
-//								framesWrittenCache += outBufOff;
-								framesWrittenCache++;
-//								outBufOff = 0;
-//							}
-							pos += nextLen;
-							inBufOff = (inBufOff + nextLen) % tmpBufSize;
-							nextLen = stepSize;
-							for( int ch = 0; ch < fullChannels; ch++ ) {
-								System.arraycopy( tmpBuf[ ch ], nextLen, tmpBuf[ ch ], 0, fftSize - nextLen );
-							}
-//							System.out.println( "frame done" );
-						}
-						time = System.currentTimeMillis();
-						if( time >= nextTime ) {
-							nextTime = time + UPDATE_PERIOD;
-							if( asyncManager != null ) {
-								asyncManager.dispatchEvent( new AsyncEvent(
-									DecimatedSonaTrail.this, AsyncEvent.UPDATE, time, DecimatedSonaTrail.this ));
-							}
-						}
-					}
-					if( keepAsyncRunning ) {
-//						if( outBufOff > 0 ) {	// flush rest
-//							das.continueWrite( 0, tmpBuf2, 0, outBufOff );
-//							if( cacheWriteAS != null ) {
-//								cacheWriteAS.writeFrames( tmpBuf2, 0, new Span( framesWrittenCache, framesWrittenCache + outBufOff ));
-//							}
-//							framesWrittenCache += outBufOff;
-//							outBufOff = 0;
-//						}
-//						cacheWriteComplete = true;
-//						if( cacheWriteAS != null ) cacheWriteAS.addToCache( cm );
-					}
-//					das.flush();
-
-//final long t2 = System.currentTimeMillis();
-//System.out.println( "for doSlide = " + doSlide + "; len = " + extSpan.getLength() + "; calc took " + (t2-t1) + " ms; fftSize = " + fftSize + "; stepSize " + stepSize );
-					
+					transformParallel( das, extSpan.getStart(), numHops, null, true, 0.0 );
 				} catch( IOException e1 ) {
 					e1.printStackTrace();
 				} finally {
@@ -823,86 +720,187 @@ Thread.currentThread().setPriority( pri - 2 );
 			throws IOException {
 		if (DEBUG) System.err.println("addAllDep " + union.toString());
 
+		recalc(source, union, ce, true);
+	}
+
+	public void editRemove(Object source, Span span, int touchMode, AbstractCompoundEdit ce) {
+		super.editRemove(source, span, touchMode, ce);
+
+		// the hops around the cut now see different input
+		try {
+			recalc(source, new Span(span.start, span.start), ce, false);
+		} catch (IOException e1) {
+			e1.printStackTrace();
+		}
+	}
+
+	/*
+	 *	Recalculates all hops whose input windows overlap the given
+	 *	full-rate span, and replaces the corresponding stakes.
+	 */
+	private void recalc(Object source, Span span, AbstractCompoundEdit ce, boolean progress)
+			throws IOException {
+
+		final Span				fullSpan	= fullScale.editGetSpan(ce);
+		final int				half		= fftSize >> 1;
+		final Span				union		= new Span(Math.max(fullSpan.start, span.start - half + 1),
+													   Math.min(fullSpan.stop, span.stop + half));
 		final DecimatedStake	das;
 		final Span				extSpan;
-		final long				fullrateStop, fullrateLen; // , insertLen;
-		final int				numFullBuf;
-		final double			progWeight;
-		int						inBufOff = 0, nextLen = fftSize >> 1;
-		long					pos;
-		long					framesWritten = 0;
-		Span					tag2;
-//		float					f1;
-		int						len;
+		final int				numHops;
 
-		synchronized( fileSync ) {
-			das = alloc( union );
+		if (union.isEmpty()) return;
+
+		synchronized (fileSync) {
+			das = alloc(union);
 		}
-		extSpan			= das.getSpan();
-		pos				= extSpan.start;
-		// insertLen	= extSpan.getLength();
-		fullrateStop	= Math.min( extSpan.stop, fullScale.editGetSpan( ce ).stop );
-		fullrateLen		= fullrateStop - extSpan.start;
-		progWeight		= 1.0 / fullrateLen;
-//		numFullBuf		= (int) (fullrateLen >> MAXSHIFT);
-		numFullBuf		= (int) ((fullrateLen - fftSize + stepSize + stepSize - 1) / stepSize);
-//		numFullBuf		= (int) ((fullrateLen + stepSize - 1) / stepSize);
+		extSpan	= das.getSpan();
+		numHops	= (int) (extSpan.getLength() / stepSize);
 
-		synchronized( bufSync ) {
-			flushProgression();
+		if (progress) flushProgression();
+		synchronized (bufSync) {
 			createBuffers();
+		}
+		transformParallel(das, extSpan.start, numHops, ce, false, progress ? 1.0 / numHops : 0.0);
+
+		editClear(source, extSpan, ce);
+		editAdd(source, das, ce);
+	}
 
-			for( int i = 0; i < numFullBuf; i++ ) {
-				len = (int) Math.min( nextLen, fullrateStop - pos ); 
-				tag2 = new Span( pos, pos + len );
-//				fullScale.readFrames( tmpBuf, 0, tag2, ce );
-				fullScale.readFrames( tmpBuf, fftSize - nextLen, tag2, null );
-				if( len < nextLen ) {
-					for( int ch = 0; ch < fullChannels; ch++ ) {
-						for( int j = (inBufOff + len) % tmpBufSize, k = nextLen - len; k >= 0; k-- ) {
-							tmpBuf[ ch ][ j ] = 0f;
-							if( ++j == tmpBufSize ) j = 0;
+	/*
+	 *	Calculates numHops constant-Q frames, the first one centred
+	 *	at start, and writes them to das. The input windows are read
+	 *	from the full-rate trail (zero outside its span) and transformed
+	 *	in blocks of PAR_HOPS on the shared pool; the results are
+	 *	written strictly in order. In async mode, AsyncEvent.UPDATE is
+	 *	dispatched periodically and the calculation stops as soon as
+	 *	keepAsyncRunning becomes false; otherwise the progression is
+	 *	updated if progWeight is greater than zero.
+	 */
+	private void transformParallel(DecimatedStake das, long start, int numHops, AbstractCompoundEdit ce,
+								   boolean async, double progWeight)
+			throws IOException {
+
+		final ExecutorService			exec		= getPool();
+		final int						maxPending	= getNumPoolThreads() << 1;
+		final Span						validSpan	= fullScale.editGetSpan(ce);
+		final Queue<HopBuf>				freeBufs	= new ConcurrentLinkedQueue<HopBuf>();
+		final LinkedList<Future<HopBuf>> pending	= new LinkedList<Future<HopBuf>>();
+		final long						winOff		= fftSize >> 1;
+		int								hop			= 0;
+		int								hopsWritten	= 0;
+		long							time;
+		long							nextTime	= System.currentTimeMillis() + UPDATE_PERIOD;
+		HopBuf							b;
+		int								n;
+
+		try {
+			while ((!async || keepAsyncRunning) && ((hop < numHops) || !pending.isEmpty())) {
+				while ((hop < numHops) && (pending.size() < maxPending)) {
+					n = Math.min(PAR_HOPS, numHops - hop);
+					pending.add(exec.submit(new TransformBlock(start + (long) hop * stepSize - winOff, n,
+							validSpan, ce, async, freeBufs)));
+					hop += n;
+				}
+
+				b = pending.removeFirst().get();
+				if (b == null) break;  // aborted
+
+				das.continueWrite(0, b.outBuf, 0, b.numHops);
+				hopsWritten += b.numHops;
+				freeBufs.add(b);
+
+				if (async) {
+					time = System.currentTimeMillis();
+					if (time >= nextTime) {
+						nextTime = time + UPDATE_PERIOD;
+						if (asyncManager != null) {
+							asyncManager.dispatchEvent(new AsyncEvent(this, AsyncEvent.UPDATE, time, this));
 						}
 					}
+				} else if (progWeight > 0) {
+					setProgression(hopsWritten, progWeight);
 				}
-				decimator.decimatePCM( tmpBuf, tmpBuf2, 0, 1, 1 );
-//				subsampleWrite( tmpBuf, tmpBuf, das, MAXCOARSE, null, 0 );
-				das.continueWrite( 0, tmpBuf2, 0, 1 );
-//				pos += MAXCOARSE;
-//				framesWritten += MAXCOARSE;
-				pos += nextLen;
-				inBufOff = (inBufOff + nextLen) % tmpBufSize;
-				nextLen = stepSize;
-				for( int ch = 0; ch < fullChannels; ch++ ) {
-					System.arraycopy( tmpBuf[ ch ], nextLen, tmpBuf[ ch ], 0, fftSize - nextLen );
-				}
-
-				setProgression( framesWritten, progWeight );
 			}
+		} catch (InterruptedException e1) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e1.getMessage());
+		} catch (ExecutionException e1) {
+			final Throwable cause = e1.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IOException(cause);
+		} finally {
+			for (Future<HopBuf> f : pending) {
+				f.cancel(false);
+			}
+		}
+	}
 
-//			len = (int) (fullrateStop - pos);
-//			if( len > 0 ) {
-//				tag2 = new Span( pos, pos + len );
-//				fullScale.readFrames( tmpBuf, 0, tag2, ce );
-//				for( int ch = 0; ch < fullChannels; ch++ ) {
-//					f1 = tmpBuf[ ch ][ len - 1 ];
-//					for( int i = len; i < MAXCOARSE; i++ ) {
-//						tmpBuf[ ch ][ i ] = f1;
-//					}
-//				}
-//				subsampleWrite( tmpBuf, tmpBuf, das, MAXCOARSE, null, 0 );
-//				pos += MAXCOARSE;
-//				framesWritten += MAXCOARSE;
-//
-//				setProgression( framesWritten, progWeight );
-//			}
-		} // synchronized( bufSync )
+	// buffers of one block of hops: the full-rate input windows,
+	// the transform scratch buffers, and the output frames
+	private static final class HopBuf {
+		final float[][]		inBuf;
+		final float[][]		outBuf;
+		final ConstQ.Batch	batch;
+		int					numHops;
+
+		HopBuf(int fullChannels, int decimChannels, int inLen, ConstQ constQ) {
+			inBuf		= new float[fullChannels][inLen];
+			outBuf		= new float[decimChannels][PAR_HOPS];
+			batch		= constQ.createBatch(PAR_HOPS);
+		}
+	}
 
-		// editRemove( source, das.getSpan(), ce );
-		editClear( source, das.getSpan(), ce );
-		// System.err.println( "editRemove "+das.getSpan() );
-		editAdd( source, das, ce );
-		// System.err.println( "editAdd ..." );
+	// reads the input of a block of hops and transforms them
+	private class TransformBlock implements Callable<HopBuf> {
+		private final long					pos;
+		private final int					numHops;
+		private final Span					validSpan;
+		private final AbstractCompoundEdit	ce;
+		private final boolean				async;
+		private final Queue<HopBuf>			freeBufs;
+
+		protected TransformBlock(long pos, int numHops, Span validSpan, AbstractCompoundEdit ce, boolean async,
+								 Queue<HopBuf> freeBufs) {
+			this.pos		= pos;
+			this.numHops	= numHops;
+			this.validSpan	= validSpan;
+			this.ce			= ce;
+			this.async		= async;
+			this.freeBufs	= freeBufs;
+		}
+
+		public HopBuf call()
+				throws IOException {
+
+			if (async && !keepAsyncRunning) return null;
+
+			HopBuf b = freeBufs.poll();
+			if (b == null) b = new HopBuf(fullChannels, decimChannels, (PAR_HOPS - 1) * stepSize + fftSize, constQ);
+
+			final int	inLen		= (numHops - 1) * stepSize + fftSize;
+			final long	readStart	= Math.max(pos, validSpan.start);
+			final long	readStop	= Math.min(pos + inLen, validSpan.stop);
+			final int	zeroStop	= (int) Math.min(inLen, Math.max(0, readStart - pos));
+			final int	zeroStart	= (int) Math.max(zeroStop, readStop - pos);
+
+			for (int ch = 0; ch < fullChannels; ch++) {
+				final float[] inBufCh = b.inBuf[ch];
+				for (int i = 0; i < zeroStop; i++) inBufCh[i] = 0f;
+				for (int i = zeroStart; i < inLen; i++) inBufCh[i] = 0f;
+			}
+			if (readStop > readStart) {
+				fullScale.readFrames(b.inBuf, zeroStop, new Span(readStart, readStop), ce);
+			}
+
+			for (int ch = 0, outChanOff = 0; ch < fullChannels; ch++, outChanOff += numKernels) {
+				constQ.transform(b.inBuf[ch], 0, stepSize, numHops, b.outBuf, outChanOff, 0, b.batch);
+			}
+			b.numHops = numHops;
+			return b;
+		}
 	}
 
 	// ----------- private -----------
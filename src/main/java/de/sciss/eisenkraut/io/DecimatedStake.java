@@ -24,7 +24,9 @@ import de.sciss.util.MutableInt;
 import de.sciss.util.MutableLong;
 
 public class DecimatedStake extends BasicStake {
-	private final InterleavedStreamFile[]	fs;
+	private final InterleavedStreamFile[]	fs;				// null if cached
+	private final DecimationCache			cache;			// null if written to files
+	private final Object					sync;
 	private final Span[]					fileSpans;
 	private final Span[]					maxFileSpans;
 	private final MutableLong[]				framesWritten;
@@ -34,21 +36,34 @@ public class DecimatedStake extends BasicStake {
 
 	public DecimatedStake(Span span, InterleavedStreamFile[] fs, Span[] fileSpans, Span[] biasedSpans,
 						  DecimationHelp[] decimations) {
-		this(span, fs, fileSpans, fileSpans, null, biasedSpans, decimations);
+		this(span, fs, null, fileSpans, fileSpans, null, biasedSpans, decimations);
 	}
-	
-	private DecimatedStake( Span span, InterleavedStreamFile[] fs, Span[] fileSpans,
+
+	/*
+	 *	Creates a stake whose frames are read from a waveform cache.
+	 *	The frames are complete, the stake cannot be written to.
+	 */
+	DecimatedStake(Span span, DecimationCache cache, Span[] fileSpans, Span[] biasedSpans,
+				   DecimationHelp[] decimations) {
+		this(span, null, cache, fileSpans, fileSpans, null, biasedSpans, decimations);
+	}
+
+	private DecimatedStake( Span span, InterleavedStreamFile[] fs, DecimationCache cache, Span[] fileSpans,
 								Span[] maxFileSpans, MutableLong[] framesWritten, Span[] biasedSpans,
 								DecimationHelp[] decimations )
 	{
 		super( span );
 
 		this.fs				= fs;
+		this.cache			= cache;
+		sync				= fs != null ? fs : cache;
 		this.fileSpans		= fileSpans;
 		this.maxFileSpans	= maxFileSpans;
 		if( framesWritten == null ) {
-			this.framesWritten = new MutableLong[ fs.length ];
-			for( int i = 0; i < fs.length; i++ ) this.framesWritten[ i ] = new MutableLong( 0L );
+			this.framesWritten = new MutableLong[ decimations.length ];
+			for( int i = 0; i < decimations.length; i++ ) {
+				this.framesWritten[ i ] = new MutableLong( cache == null ? 0L : maxFileSpans[ i ].getLength() );
+			}
 		} else {
 			this.framesWritten	= framesWritten;
 		}
@@ -65,7 +80,7 @@ public class DecimatedStake extends BasicStake {
 
 	public Stake duplicate()
 	{
-		return new DecimatedStake( span, fs, fileSpans, maxFileSpans, framesWritten, biasedSpans, decimations );
+		return new DecimatedStake( span, fs, cache, fileSpans, maxFileSpans, framesWritten, biasedSpans, decimations );
 	}
 
 	public Stake replaceStart( long newStart )
@@ -85,7 +100,7 @@ public class DecimatedStake extends BasicStake {
 			newFileSpans[ i ]	= fileSpans[ i ].replaceStart( fileSpans[ i ].start + delta );
 			// XXX modify framesWritten ?
 		}
-		return new DecimatedStake( span.replaceStart( newStart ), fs, newFileSpans, maxFileSpans, framesWritten, newBiasedSpans, decimations );
+		return new DecimatedStake( span.replaceStart( newStart ), fs, cache, newFileSpans, maxFileSpans, framesWritten, newBiasedSpans, decimations );
 	}
 
 	public Stake replaceStop( long newStop )
@@ -105,7 +120,7 @@ public class DecimatedStake extends BasicStake {
 			newBiasedSpans[ i ]	= biasedSpans[ i ].replaceStop( newBiasedStop );
 			newFileSpans[ i ]	= fileSpans[ i ].replaceStop( fileSpans[ i ].start + newBiasedSpans[ i ].getLength() ); // XXX richtig?
 		}
-		return new DecimatedStake( span.replaceStop( newStop ), fs, newFileSpans, maxFileSpans, framesWritten, newBiasedSpans, decimations );
+		return new DecimatedStake( span.replaceStop( newStop ), fs, cache, newFileSpans, maxFileSpans, framesWritten, newBiasedSpans, decimations );
 	}
 
 	public Stake shiftVirtual( long delta )
@@ -115,7 +130,7 @@ public class DecimatedStake extends BasicStake {
 		for( int i = 0; i < SUBNUM; i++ ) {
 			newBiasedSpans[ i ]	= biasedSpans[ i ].shift( delta );
 		}
-		return new DecimatedStake( span.shift( delta ), fs, fileSpans, maxFileSpans, framesWritten, newBiasedSpans, decimations );
+		return new DecimatedStake( span.shift( delta ), fs, cache, fileSpans, maxFileSpans, framesWritten, newBiasedSpans, decimations );
 	}
 
 	public void readFrames( int sub, float[][] data, int dataOffset, Span readSpan, MutableInt framesRead, MutableInt framesBusy )
@@ -145,17 +160,13 @@ public class DecimatedStake extends BasicStake {
 			return;
 		}
 
-		synchronized( fs ) {
+		synchronized( sync ) {
 			readyLen = (int) Math.min( len, Math.max( 0, fileSpans[ sub ].start + framesWritten[ sub ].value() - fOffset ));
 			if( readyLen > 0 ) {
-				
-				if( fs[ sub ].getFramePosition() != fOffset ) {
-					fs[ sub ].seekFrame( fOffset );
-				}
 	// XXX TEST
 	//			fs[ sub ].readFrames( data, dataOffset, len );
 	//			readyLen = (int) Math.min( len, framesWritten[ sub ].value() - fOffset );
-				fs[ sub ].readFrames( data, dataOffset, readyLen );
+				readLevel( sub, data, dataOffset, fOffset, readyLen );
 			}
 		}
 		
@@ -174,13 +185,10 @@ public class DecimatedStake extends BasicStake {
 		final long	fOffset			= fileSpans[ sub ].start + ((newBiasedStart - (span.start + startBias)) >> decim.shift);
 		final int	readyLen;
 	
-		synchronized( fs ) {
+		synchronized( sync ) {
 			readyLen = (int) Math.min( 1, fileSpans[ sub ].start + framesWritten[ sub ].value() - fOffset );
 			if( readyLen == 1 ) {
-				if( fs[ sub ].getFramePosition() != fOffset ) {
-					fs[ sub ].seekFrame( fOffset );
-				}
-				fs[ sub ].readFrames( data, dataOffset, 1 );
+				readLevel( sub, data, dataOffset, fOffset, 1 );
 				return true;
 			} else {
 				return false;
@@ -188,9 +196,72 @@ public class DecimatedStake extends BasicStake {
 		}
 	}
 
+	/**
+	 *	Returns the largest span within both the given span and this stake
+	 *	which is covered by whole frames of the given decimation.
+	 *
+	 *	@return	the aligned span or <code>null</code> if not even one
+	 *			decimated frame lies within the span
+	 */
+	public Span getAlignedSpan( int sub, Span s )
+	{
+		final DecimationHelp	decim	= decimations[ sub ];
+		final long				bs		= biasedSpans[ sub ].start;
+		final long				lo		= Math.max( Math.max( s.start, span.start ), bs );
+		final long				hi		= Math.min( Math.min( s.stop, span.stop ), biasedSpans[ sub ].stop );
+		if( hi <= lo ) return null;
+
+		final long				start	= bs + (((lo - bs + decim.factor - 1) >> decim.shift) << decim.shift);
+		final long				stop	= bs + (((hi - bs) >> decim.shift) << decim.shift);
+		return( stop > start ? new Span( start, stop ) : null );
+	}
+
+	/**
+	 *	Reads whole decimated frames.
+	 *
+	 *	@param	alignedSpan	full rate span as returned by <code>getAlignedSpan</code>
+	 *	@return	<code>false</code> if the frames have not yet been calculated,
+	 *			in which case nothing is read
+	 */
+	public boolean readAlignedFrames( int sub, float[][] data, int dataOffset, Span alignedSpan )
+	throws IOException
+	{
+		final DecimationHelp	decim	= decimations[ sub ];
+		final long				fOffset	= fileSpans[ sub ].start + ((alignedSpan.start - biasedSpans[ sub ].start) >> decim.shift);
+		final int				len		= (int) (alignedSpan.getLength() >> decim.shift);
+
+		if( (fOffset < fileSpans[ sub ].start) || ((fOffset + len) > fileSpans[ sub ].stop) ) {
+			throw new IllegalArgumentException( fOffset + " ... " + (fOffset + len) + " not within " + fileSpans[ sub ].toString() );
+		}
+
+		synchronized( sync ) {
+			if( fOffset + len > maxFileSpans[ sub ].start + framesWritten[ sub ].value() ) return false;
+
+			readLevel( sub, data, dataOffset, fOffset, len );
+			return true;
+		}
+	}
+
+	/*
+	 *	@synchronization	caller must have sync on sync
+	 */
+	private void readLevel( int sub, float[][] data, int dataOffset, long fOffset, int len )
+	throws IOException
+	{
+		if( cache != null ) {
+			cache.read( sub, fOffset, data, dataOffset, len );
+			return;
+		}
+		if( fs[ sub ].getFramePosition() != fOffset ) {
+			fs[ sub ].seekFrame( fOffset );
+		}
+		fs[ sub ].readFrames( data, dataOffset, len );
+	}
+
 	public void continueWrite(int sub, float[][] data, int dataOffset, int len)
 			throws IOException {
 		if (len == 0) return; // return 0;
+		if (fs == null) throw new IllegalStateException("Cached stakes are read-only");
 
 		synchronized (fs) {
 			final long fOffset = fileSpans[sub].start + framesWritten[sub].value();
@@ -210,6 +281,8 @@ public class DecimatedStake extends BasicStake {
 
 	public void flush()
 			throws IOException {
+		if (fs == null) return;
+
 		synchronized (fs) {
 			for (InterleavedStreamFile f : fs) {
 				f.flush();
@@ -222,7 +295,7 @@ public class DecimatedStake extends BasicStake {
 		debugDumpBasics();
 		for( int i = 0; i < SUBNUM; i++ ) {
 			System.err.println( "  decim "+decimations[i].factor+" biased span "+biasedSpans[i].toString()+
-				"; f = " + fs[i].getFile().getName() + " (file span " + fileSpans[i].toString() + " )" );
+"; f = " + (fs != null ? fs[i].getFile().getName() : cache.getFileName() + " (cached)") + " (file span " + fileSpans[i].toString() + " )" );
 		}
 	}
 	
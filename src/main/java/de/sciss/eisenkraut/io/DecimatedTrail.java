@@ -32,6 +32,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class DecimatedTrail extends BasicTrail {
 
@@ -85,10 +89,15 @@ public abstract class DecimatedTrail extends BasicTrail {
 
     protected Thread				threadAsync				= null;
     protected AudioFile[]			tempFAsync				= null; // lazy
+    // decimations of recorded takes, see TakeDecimation
+    private final List<AudioFile[]>	takeF					= new ArrayList<AudioFile[]>();
     protected volatile boolean		keepAsyncRunning		= false;
 
     protected EventManager			asyncManager			= null;
 
+    // shared by all trails; lazy
+    private static ExecutorService	pool					= null;
+
     protected static final double	TWENTYBYLOG10			= 20 / MathUtil.LN10; // 8.685889638065;
     protected static final double	TENBYLOG10				= 10 / MathUtil.LN10;
 
@@ -131,6 +140,32 @@ public abstract class DecimatedTrail extends BasicTrail {
         ProcessingThread.flushProgression();
     }
 
+    /**
+     *  Returns the thread pool used to compute decimations
+     *  in parallel. The pool has one thread per available processor;
+     *  its threads are daemons running at lowered priority, so
+     *  the pool is never shut down.
+     */
+    protected static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(getNumPoolThreads(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger(0);
+
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "DecimatedTrail-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    t.setPriority(Thread.NORM_PRIORITY - 2);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+
+    protected static int getNumPoolThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
     protected final void killAsyncThread() {
         if (threadAsync != null) {
             synchronized (threadAsync) {
@@ -237,6 +272,28 @@ public abstract class DecimatedTrail extends BasicTrail {
         return new DecimatedStake(extSpan, tempFAsync, fileSpans, biasedSpans, decimHelps);
     }
 
+    /**
+     *  Returns the extent of the decimated stake covering a
+     *  fullrate span, i.e. the span aligned to the coarsest decimation.
+     */
+    protected Span getExtendedSpan(Span span) {
+        final long floorStart	= span.start & MAXMASK;
+        final long ceilStop		= (span.stop + MAXCEILADD) & MAXMASK;
+        return (floorStart == span.start) && (ceilStop == span.stop) ? span : new Span(floorStart, ceilStop);
+    }
+
+    // creates a stake reading the whole extended span from a waveform cache
+    DecimatedStake allocCached(Span extSpan, DecimationCache cache) {
+        final Span[] fileSpans	= new Span[ SUBNUM ];
+        final Span[] biasedSpans = new Span[ SUBNUM ];
+
+        for (int i = 0; i < SUBNUM; i++) {
+            fileSpans[i] = new Span(0, extSpan.getLength() >> decimHelps[i].shift);
+            biasedSpans[i] = extSpan;
+        }
+        return new DecimatedStake(extSpan, cache, fileSpans, biasedSpans, decimHelps);
+    }
+
     protected AudioFile[] createTempFiles()
     throws IOException
     {
@@ -275,6 +332,16 @@ public abstract class DecimatedTrail extends BasicTrail {
         }
     }
 
+    /*
+     *  Takes ownership of the decimation files of a recorded take,
+     *  they are deleted along with the other temp files.
+     */
+    void addTakeFiles(AudioFile[] tempFiles) {
+        synchronized (fileSync) {
+            takeF.add(tempFiles);
+        }
+    }
+
     protected void freeTempFiles()
     {
         synchronized( fileSync ) {
@@ -285,6 +352,10 @@ public abstract class DecimatedTrail extends BasicTrail {
             if( tempFAsync != null ) {
                 deleteTempFiles( tempFAsync );
             }
+            for (AudioFile[] tempFiles : takeF) {
+                deleteTempFiles(tempFiles);
+            }
+            takeF.clear();
         }
     }
 
@@ -330,6 +401,17 @@ public abstract class DecimatedTrail extends BasicTrail {
         return( (threadAsync != null) && threadAsync.isAlive() );
     }
 
+    /**
+     *  Waits until the overview has been calculated
+     *  and, if the cache is active, written to the cache.
+     *  Returns immediately if the overview was read from the cache.
+     */
+    public final void awaitCompletion()
+    throws InterruptedException
+    {
+        if( threadAsync != null ) threadAsync.join();
+    }
+
     public final void addAsyncListener( AsyncListener l )
     {
         if( !isBusy() ) {
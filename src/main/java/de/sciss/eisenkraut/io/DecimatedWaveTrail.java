@@ -14,12 +14,9 @@
 package de.sciss.eisenkraut.io;
 
 import de.sciss.app.AbstractCompoundEdit;
-import de.sciss.eisenkraut.Main;
 import de.sciss.eisenkraut.gui.WaveformView;
 import de.sciss.eisenkraut.util.PrefsUtil;
 import de.sciss.io.AudioFile;
-import de.sciss.io.AudioFileCacheInfo;
-import de.sciss.io.AudioFileDescr;
 import de.sciss.io.CacheManager;
 import de.sciss.io.Span;
 import de.sciss.timebased.Stake;
@@ -29,7 +26,16 @@ import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  *	TODO: common superclass of AudioTrail and DecimatedTrail
@@ -42,6 +48,7 @@ public class DecimatedWaveTrail
         extends DecimatedTrail {
 
     private static final int		UPDATE_PERIOD			= 2000; // milliseconds in async overview calculation
+    private static final int		PAR_BLOCKSIZE			= 65536; // fullrate frames per parallel decimation task
 
     private final Decimator			decimator;
 
@@ -259,6 +266,35 @@ public class DecimatedWaveTrail
      * scaling the Graphics2D by 1/4 at no significant CPU cost.
      */
     public void drawWaveform(DecimationInfo info, WaveformView view, Graphics2D g2) {
+        final Rectangle[]	rects	= new Rectangle[ fullChannels ];
+        final Graphics2D[]	gs		= new Graphics2D[ fullChannels ];
+        final boolean		logAmp	= view.getVerticalScale() == PrefsUtil.VSCALE_AMP_LOG;
+
+        for( int ch = 0; ch < fullChannels; ch++ ) {
+            rects[ ch ]	= new Rectangle( view.rectForChannel( ch ));
+            gs[ ch ]	= g2;
+        }
+        drawWaveform( info, rects, gs, logAmp, logAmp ? view.getAmpLogMin() : view.getAmpLinMin(),
+                      logAmp ? view.getAmpLogMax() : view.getAmpLinMax() );
+    }
+
+    /**
+     * Draws the waveform of each channel into a rectangle of a graphics
+     * context. Unlike the view based variant, this method does not need
+     * to be called in the event thread, so it can be used to render images
+     * in the background.
+     *
+     * @param rects		the bounds of each channel
+     * @param gs		the graphics context of each channel (may all be the same)
+     * @param logAmp	whether the amplitude scale is logarithmic
+     * @param minY		the amplitude (or decibels) at the bottom of each rectangle
+     * @param maxY		the amplitude (or decibels) at the top of each rectangle
+     * @return <code>true</code> if parts of the span have not yet been
+     *         decimated and were drawn as busy instead
+     */
+    public boolean drawWaveform( DecimationInfo info, Rectangle[] rects, Graphics2D[] gs, boolean logAmp,
+                                 float minY, float maxY )
+    {
         final boolean			fromPCM 		= info.idx == -1;
         final boolean			toPCM			= fromPCM && (info.inlineDecim == 1);
         // final long maxLen = toPCM ? tmpBufSize : (fromPCM ? Math.min(
@@ -269,18 +305,16 @@ public class DecimatedWaveTrail
 //		final int				polySize		= view.isLogarithmic() ?
 //			((int) info.sublength + 2) : ((int) (info.sublength << 1));
         final int				polySize		= (int) (info.sublength << 1);
-        final AffineTransform	atOrig			= g2.getTransform();
-        final Shape				clipOrig		= g2.getClip();
 
         final int[][]			peakPolyX		= new int[ fullChannels ][ polySize ];
         final int[][]			peakPolyY		= new int[ fullChannels ][ polySize ];
         final int[][]			rmsPolyX		= toPCM ? null : new int[ fullChannels ][ polySize ];
         final int[][]			rmsPolyY		= toPCM ? null : new int[ fullChannels ][ polySize ];
         final boolean[]			sampleAndHold	= toPCM ? new boolean[ fullChannels ] : null;
-        final float				maxY, minY, minInpY, deltaY, deltaYN;
+        final float				minInpY, deltaY, deltaYN;
         final float				offY;
         final int[]				off				= new int[ fullChannels ];
-        final boolean			logAmp			= view.getVerticalScale() == PrefsUtil.VSCALE_AMP_LOG;
+        final List<Span>		busyList		= new ArrayList<Span>();
 
         float[]					sPeakP;
         float					offX, scaleX, scaleY, f1;
@@ -290,17 +324,14 @@ public class DecimatedWaveTrail
         long					fullLen, fullStop;
         int						chunkLen, decimLen;
         Rectangle				r;
+        Graphics2D				g2;
+        AffineTransform			atOrig;
+        Shape					clipOrig;
 
         try {
-            drawBusyList.clear(); // "must be called in the event thread"
-
             if( logAmp ) {
-                maxY	= view.getAmpLogMax();
-                minY	= view.getAmpLogMin();
                 minInpY = (float) Math.exp( minY / TWENTYBYLOG10 );
             } else {
-                maxY	= view.getAmpLinMax();
-                minY	= view.getAmpLinMin();
                 minInpY	= 0;	// not used
             }
             deltaY	= maxY - minY;
@@ -337,7 +368,7 @@ public class DecimatedWaveTrail
                         if( !toPCM ) decimator.decimatePCM( tmpBuf, tmpBuf2, 0, decimLen, info.inlineDecim );
                     } else {
                         chunkSpan = new Span( start, start + fullLen );
-                        readFrames( info.idx, tmpBuf2, 0, drawBusyList, chunkSpan, null);
+                        readFrames( info.idx, tmpBuf2, 0, busyList, chunkSpan, null);
                         if( info.inlineDecim > 1 ) decimator.decimate( tmpBuf2, tmpBuf2, 0, decimLen, info.inlineDecim );
                     }
                     if( toPCM ) {
@@ -356,7 +387,7 @@ public class DecimatedWaveTrail
                         }
                         for( int ch = 0; ch < fullChannels; ch++ ) {
                             sPeakP				= tmpBuf[ ch ];
-                            r					= view.rectForChannel( ch );
+                            r					= rects[ ch ];
                             scaleX				= 4 * r.width / (float) (info.sublength - 1);
                             scaleY				= r.height * deltaYN;
                             offX				= scaleX * off[ ch ];
@@ -367,11 +398,11 @@ public class DecimatedWaveTrail
                     } else {
                         if( logAmp ) {
                             for( int ch = 0; ch < fullChannels; ch++ ) {
-                                off[ ch ] = decimator.drawLog( info, ch, peakPolyX, peakPolyY, rmsPolyX, rmsPolyY, decimLen, view.rectForChannel( ch ), deltaYN, off[ ch ], minY, minInpY );
+                                off[ ch ] = decimator.drawLog( info, ch, peakPolyX, peakPolyY, rmsPolyX, rmsPolyY, decimLen, rects[ ch ], deltaYN, off[ ch ], minY, minInpY );
                             }
                         } else {
                             for( int ch = 0; ch < fullChannels; ch++ ) {
-                                off[ ch ] = decimator.draw( info, ch, peakPolyX, peakPolyY, rmsPolyX, rmsPolyY, decimLen, view.rectForChannel( ch ), deltaYN, off[ ch ]);
+                                off[ ch ] = decimator.draw( info, ch, peakPolyX, peakPolyY, rmsPolyX, rmsPolyY, decimLen, rects[ ch ], deltaYN, off[ ch ]);
                             }
                         }
                     }
@@ -383,26 +414,32 @@ public class DecimatedWaveTrail
             // System.err.println( "busyList.size() = "+busyList.size() );
 
             if (toPCM) {
-                final Stroke strkOrig = g2.getStroke();
-                g2.setStroke(strkLine);
-                g2.setPaint(pntLine);
                 for (int ch = 0; ch < fullChannels; ch++) {
-                    r = view.rectForChannel(ch);
+                    r = rects[ch];
+                    g2 = gs[ch];
+                    atOrig = g2.getTransform();
+                    clipOrig = g2.getClip();
+                    final Stroke strkOrig = g2.getStroke();
+                    g2.setStroke(strkLine);
+                    g2.setPaint(pntLine);
                     g2.clipRect(r.x, r.y, r.width, r.height);
                     g2.translate(r.x, r.y + r.height * offY);
                     g2.scale(0.25f, 0.25f);
                     g2.drawPolyline(peakPolyX[ch], peakPolyY[ch], off[ch]);
                     g2.setTransform(atOrig);
                     g2.setClip(clipOrig);
+                    g2.setStroke(strkOrig);
                 }
-                g2.setStroke(strkOrig);
             } else {
                 for (int ch = 0; ch < fullChannels; ch++) {
-                    r = view.rectForChannel(ch);
+                    r = rects[ch];
+                    g2 = gs[ch];
+                    atOrig = g2.getTransform();
+                    clipOrig = g2.getClip();
                     g2.clipRect(r.x, r.y, r.width, r.height);
-                    if (!drawBusyList.isEmpty()) {
+                    if (!busyList.isEmpty()) {
                         g2.setPaint(pntBusy);
-                        for (Span aDrawBusyList : drawBusyList) {
+                        for (Span aDrawBusyList : busyList) {
                             chunkSpan = aDrawBusyList;
                             scaleX = r.width / (float) info.getTotalLength(); // (info.sublength - 1);
                             g2.fillRect((int) ((chunkSpan.start - info.span.start) * scaleX) + r.x, r.y,
@@ -419,9 +456,11 @@ public class DecimatedWaveTrail
                     g2.setClip(clipOrig);
                 }
             }
+            return !busyList.isEmpty();
         } catch( IOException e1 ) {
             System.err.println("draw waveform:");
             e1.printStackTrace();
+            return false;
         }
     }
 
@@ -511,6 +550,47 @@ public class DecimatedWaveTrail
         }
     }
 
+    /**
+     * Determines the peak amplitude (maximum absolute sample value) of the
+     * full rate trail. Within each decimated stake, the interior is covered by
+     * the peaks of the coarsest decimation that fits, descending to finer
+     * decimations towards the unaligned edges. Only the remaining edge frames,
+     * regions not covered by stakes and regions whose decimation has not yet
+     * been calculated are read at full rate.
+     *
+     * @param span      the full rate span to examine
+     * @param channels  for each full rate channel whether to include it
+     * @throws IOException
+     *             if a read error occurs
+     */
+    public float getPeak( Span span, boolean[] channels )
+    throws IOException
+    {
+        final Span          fullSpan    = fullScale.getSpan();
+        final long          start       = Math.max( span.start, fullSpan.start );
+        final long          stop        = Math.min( span.stop, fullSpan.stop );
+        final PeakReader    r           = new PeakReader( channels );
+        long                pos         = start;
+        long                lo, hi;
+
+        if( stop <= start ) return 0f;
+
+        // the median model does not keep peak values
+        if( (model != MODEL_MEDIAN) && (SUBNUM > 0) ) {
+            for( Stake stake : getRange( new Span( start, stop ), true )) {
+                lo = Math.max( pos, stake.getSpan().start );
+                hi = Math.min( stop, stake.getSpan().stop );
+                if( hi <= lo ) continue;
+                r.readFull( pos, lo );
+                r.readDecimated( (DecimatedStake) stake, lo, hi, SUBNUM - 1 );
+                pos = hi;
+            }
+        }
+        r.readFull( pos, stop );
+
+        return r.peak;
+    }
+
     /*
      * Same as in <code>NondestructiveDecimatedSampledTrack</code> but with
      * automaic bias adjust.
@@ -594,16 +674,24 @@ public class DecimatedWaveTrail
         final List<Stake> stakes		= fullScale.getAll(true);
         if( stakes.isEmpty() ) return;
 
-        final DecimatedStake		das;
         final Span					union		= fullScale.getSpan();
-        final Span					extSpan;
-        final long					fullrateStop, fullrateLen; // , insertLen;
-        final int					numFullBuf;
-        // final CacheManager cm = CacheManager.getInstance();
         final AbstractCompoundEdit	ce			= null; // XXX
         final Object				source		= null; // XXX
-        final AudioStake			cacheReadAS;
-        final AudioStake			cacheWriteAS;
+        final DecimationCache		cache		= openCacheForRead( model, getExtendedSpan( union ));
+
+        if( cache != null ) {
+            // all decimations are read from the cache, hence
+            // the overview is available at once
+            final DecimatedStake dcs = allocCached( getExtendedSpan( union ), cache );
+            editClear( source, dcs.getSpan(), ce );
+            editAdd( source, dcs, ce );
+            return;
+        }
+
+        final DecimatedStake		das;
+        final Span					extSpan;
+        final long					fullrateStop, fullrateLen; // , insertLen;
+        final DecimationCache.Writer cacheWriter;
 
         synchronized( fileSync ) {
             das			= allocAsync( union );
@@ -612,18 +700,7 @@ public class DecimatedWaveTrail
         // insertLen	= extSpan.getLength();
         fullrateStop	= Math.min( extSpan.getStop(), fullScale.editGetSpan( ce ).stop );
         fullrateLen		= fullrateStop - extSpan.getStart();
-
-        cacheReadAS		= openCacheForRead( model );
-        if( cacheReadAS == null ) {
-            // cacheWriteAS = fullScale.openCacheForWrite( model,
-            // decimHelps[ 0 ].fullrateToSubsample( union.getLength() ));
-            cacheWriteAS = openCacheForWrite( model, (fullrateLen + MAXCEILADD) & MAXMASK );
-            numFullBuf	= (int) (fullrateLen >> MAXSHIFT);
-        } else {
-            // cached files always have integer fullBufs!
-            numFullBuf	= (int) ((fullrateLen + MAXCEILADD) >> MAXSHIFT);
-            cacheWriteAS = null;
-        }
+        cacheWriter		= openCacheForWrite( model, new Span( extSpan.start, extSpan.start + ((fullrateLen + MAXCEILADD) & MAXMASK) ));
 
         synchronized( bufSync ) {
             createBuffers();
@@ -638,103 +715,25 @@ public class DecimatedWaveTrail
 final int pri = Thread.currentThread().getPriority();
 //System.out.println( "pri was " + pri );
 Thread.currentThread().setPriority( pri - 2 );
-                final int			minCoarse;
                 final CacheManager	cm					= PrefCacheManager.getInstance();
-                long				pos;
-                // long framesWritten = 0;
-                long				framesWrittenCache	= 0;
                 boolean				cacheWriteComplete	= false;
-                Span				tag2;
-                float				f1;
-                int					len;
-                long				time;
-                long				nextTime			= System.currentTimeMillis() + UPDATE_PERIOD;
-
-                if( cacheReadAS != null ) {
-                    pos = decimHelps[ 0 ].fullrateToSubsample( extSpan.getStart() );
-                } else {
-                    pos = extSpan.getStart();
-                }
-                minCoarse = MAXCOARSE >> decimHelps[ 0 ].shift;
 
                 try {
-                    for( int i = 0; (i < numFullBuf) && keepAsyncRunning; i++ ) {
-                        synchronized( bufSync ) {
-                            if( cacheReadAS != null ) {
-                                // System.out.println( "tmpBuf2.length = "+tmpBuf2.length+"; fullChannels = "+fullChannels + "; decimChannels = "+decimChannels );
-                                tag2 = new Span( pos, pos + minCoarse );
-                                cacheReadAS.readFrames( tmpBuf2, 0, tag2 );
-                                das.continueWrite( 0, tmpBuf2, 0, minCoarse );
-                                subsampleWrite2( tmpBuf2, das, minCoarse );
-                                pos += minCoarse;
-                            } else {
-                                tag2 = new Span(pos, pos + MAXCOARSE);
-                                // fullScale.readFrames( tmpBuf, 0, tag2, ce );
-                                fullScale.readFrames(tmpBuf, 0, tag2, null);
-                                // for( int k = 0; k < tmpBuf.length; k++ ) {
-                                // for( int j = 0; j < MAXCOARSE; j++ ) {
-                                // tmpBuf[ k ][ j ] = 0.125f; }}
-                                subsampleWrite( tmpBuf, tmpBuf2, das, MAXCOARSE,
-                                                cacheWriteAS, framesWrittenCache );
-                                pos += MAXCOARSE;
-                                framesWrittenCache += minCoarse;
-                            }
-                            // framesWritten += MAXCOARSE;
-                        }
-                        time = System.currentTimeMillis();
-                        if( time >= nextTime ) {
-                            nextTime = time + UPDATE_PERIOD;
-                            if( asyncManager != null ) {
-                                asyncManager.dispatchEvent( new AsyncEvent(
-                                        DecimatedWaveTrail.this, AsyncEvent.UPDATE, time, DecimatedWaveTrail.this ));
-                            }
-                        }
-                    }
+                    subsampleWriteParallel( das, extSpan.getStart(), fullrateStop, cacheWriter );
 
-                     // cached files always have integer fullBufs!
-                    if( (cacheReadAS == null) && keepAsyncRunning ) {
-                        len = (int) (fullrateStop - pos);
-                        if( len > 0 ) {
-                            synchronized( bufSync ) {
-                                tag2 = new Span( pos, pos + len );
-                                // fullScale.readFrames( tmpBuf, 0, tag2, ce );
-                                fullScale.readFrames( tmpBuf, 0, tag2, null );
-                                for( int ch = 0; ch < fullChannels; ch++ ) {
-                                    f1 = tmpBuf[ch][len - 1];
-                                    for( int i = len; i < MAXCOARSE; i++ ) {
-                                        tmpBuf[ch][i] = f1;
-                                    }
-                                }
-                                subsampleWrite( tmpBuf, tmpBuf2, das, MAXCOARSE,
-                                                cacheWriteAS, framesWrittenCache );
-                                // pos += MAXCOARSE;
-                                // framesWrittenCache += minCoarse;
-                            }
-                        }
-                    }
-                    if( keepAsyncRunning ) {
+                    if( keepAsyncRunning && (cacheWriter != null) ) {
+                        cacheWriter.close();
                         cacheWriteComplete = true;
-                        if( cacheWriteAS != null ) cacheWriteAS.addToCache( cm );
+                        for( File f : cacheWriter.getFiles() ) {
+                            cm.addFile( f );
+                        }
                     }
                 } catch( IOException e1 ) {
                     e1.printStackTrace();
                 } finally {
-                    if( cacheReadAS != null ) {
-                        cacheReadAS.cleanUp();
-                        cacheReadAS.dispose(); // !!!
-                    }
-                    if( cacheWriteAS != null ) {
-                        cacheWriteAS.cleanUp();
-                        cacheWriteAS.dispose(); // !!!
-                        if( !cacheWriteComplete ) { // indicates process was aborted ...
-                            final File[] f = createCacheFileNames();
-                             // ... therefore delete incomplete cache files!
-                            if( f != null ) {
-                                for (File aF : f) {
-                                    if (!aF.delete()) aF.deleteOnExit();
-                                }
-                            }
-                        }
+                    if( (cacheWriter != null) && !cacheWriteComplete ) { // indicates process was aborted ...
+                        // ... therefore delete incomplete cache files!
+                        cacheWriter.abort();
                     }
 
                     if (asyncManager != null) {
@@ -758,6 +757,20 @@ Thread.currentThread().setPriority( pri - 2 );
     {
         if( DEBUG ) System.err.println( "addAllDep " + union.toString() );
 
+        // a recorded take may have been decimated while recording
+        if( stakes.size() == 1 ) {
+            final Stake stake = stakes.get( 0 );
+            if( (stake instanceof InterleavedAudioStake) && stake.getSpan().equals( union )) {
+                final TakeDecimation td = ((InterleavedAudioStake) stake).getTakeDecimation();
+                final DecimatedStake prepared = td == null ? null : td.adopt( this, union );
+                if( prepared != null ) {
+                    editClear( source, union, ce );
+                    editAdd( source, prepared, ce );
+                    return;
+                }
+            }
+        }
+
         final DecimatedStake das;
         final Span extSpan;
         final long fullrateStop, fullrateLen; // , insertLen;
@@ -833,136 +846,54 @@ Thread.currentThread().setPriority( pri - 2 );
         return f;
     }
 
+    // the number of decimated channels of each cache file
+    private int[] getCacheChannels()
+    {
+        final int[][]	channelMaps	= createCacheChannelMaps();
+        final int[]		numCh		= new int[ channelMaps.length ];
+
+        for( int i = 0; i < numCh.length; i++ ) {
+            numCh[ i ] = channelMaps[ i ].length;
+        }
+        return numCh;
+    }
+
+    // the number of frames of each decimation of the extended span
+    private long[] getCacheFrames( Span extSpan )
+    {
+        final long[] numFrames = new long[ SUBNUM ];
+
+        for( int i = 0; i < SUBNUM; i++ ) {
+            numFrames[ i ] = extSpan.getLength() >> decimHelps[ i ].shift;
+        }
+        return numFrames;
+    }
+
     /*
-     * @returns the cached stake or null if no cache file is available
+     * @returns the mapped cache or null if no valid cache file is available
      */
-    private AudioStake openCacheForRead( int decimModel )
+    private DecimationCache openCacheForRead( int decimModel, Span extSpan )
     throws IOException
     {
-        final File[]		f			= createCacheFileNames();
-        if( f == null ) return null;
-
-        final AudioFile[]	audioFiles	= fullScale.getAudioFiles();
-        final Span[]		fileSpans	= new Span[ audioFiles.length ];
-        final AudioFile[]	cacheAFs	= new AudioFile[ audioFiles.length ];
-        final String		ourCode		= Main.getMacOSCreator(); // AbstractApplication.getApplication().getMacOSCreator();
-        final int[][]		channelMaps	= createCacheChannelMaps();
-        AudioStake			result		= null;
-        AudioFileDescr		afd;
-        byte[]				appCode;
-        AudioFileCacheInfo	infoA, infoB;
+        final File[] f = createCacheFileNames();
+        if( (f == null) || (extSpan.start != 0) ) return null;
 
-        try {
-            for( int i = 0; i < cacheAFs.length; i++ ) {
-// System.out.println( "openCacheForRead checking '" + f[ i ].getAbsolutePath() + "'" );
-
-                if( !f[ i ].isFile() ) return null;
-                cacheAFs[ i ] = AudioFile.openAsRead( f[ i ]);
-                cacheAFs[ i ].readAppCode();
-                afd = cacheAFs[ i ].getDescr();
-                final long expected = ((audioFiles[ i ].getFrameNum() + MAXCEILADD) & MAXMASK) >> decimHelps[ 0 ].shift;
-                // System.out.println( "expected " + expected+ "; cacheF " +
-                // cacheAFs[ i ].getFile().getAbsolutePath() );
-                if( expected != afd.length ) {
-                    // System.err.println( "expected numFrames = "+ expected +
-                    // ", but got " + afd.length );
-                    return null;
-                }
-                appCode = (byte[]) afd.getProperty( AudioFileDescr.KEY_APPCODE );
-                // System.err.println( "ourCode = '" + ourCode + "'; afd.appCode
-                // = '" + afd.appCode + "'; appCode = '" + appCode + "'" );
-                if( ourCode.equals( afd.appCode ) && (appCode != null) ) {
-                    infoA = AudioFileCacheInfo.decode( appCode );
-                    if( infoA != null ) {
-                        infoB = new AudioFileCacheInfo( audioFiles[ i ], decimModel, audioFiles[ i ].getFrameNum() );
-                        if( !infoA.equals( infoB )) {
-                            // System.err.println( "info mismatch!" );
-                            return null;
-                        }
-                        // System.err.println( "ok. numChans = " +
-                        // infoA.getNumChannels() );
-                    } else {
-                        return null;
-                    }
-                } else {
-                    return null;
-                }
-                fileSpans[ i ] = new Span( 0, cacheAFs[ i ].getFrameNum() );
-            }
-            // XXX WE NEED A WAY TO CLOSE THE FILES UPON STAKE DISPOSAL XXX
-            if( channelMaps.length == 1 ) {
-                result = new InterleavedAudioStake( fileSpans[ 0 ], cacheAFs[ 0 ], fileSpans[ 0 ]);
-            } else {
-                result = new MultiMappedAudioStake( fileSpans[ 0 ], cacheAFs, fileSpans, channelMaps );
-            }
-            return result;
-        } finally {
-            if( result == null ) {
-                for (AudioFile cacheAF : cacheAFs) {
-                    if (cacheAF != null) {
-                        cacheAF.cleanUp();
-                    }
-                }
-            }
-        }
+        return DecimationCache.open( f, fullScale.getAudioFiles(), getCacheChannels(), decimModel, decimHelps,
+                                     getCacheFrames( extSpan ));
     }
 
-    private AudioStake openCacheForWrite( int decimModel, long decimFrameNum )
+    private DecimationCache.Writer openCacheForWrite( int decimModel, Span extSpan )
     throws IOException
     {
-        final File[]			f			= createCacheFileNames();
-        if( f == null ) return null;
-
-        final AudioFile[]		audioFiles	= fullScale.getAudioFiles();
-        final AudioFileDescr	afdProto	= new AudioFileDescr();
-        final CacheManager		cm			= PrefCacheManager.getInstance();
-        final Span[]			fileSpans	= new Span[ audioFiles.length ];
-        final AudioFile[]		cacheAFs	= new AudioFile[ audioFiles.length ];
-        final String			ourCode		= Main.getMacOSCreator(); // AbstractApplication.getApplication().getMacOSCreator();
-        final int[][]			channelMaps	= createCacheChannelMaps();
-        AudioStake				result		= null;
-        AudioFileDescr			afd;
-        AudioFileCacheInfo		info;
-
-        afdProto.type			= AudioFileDescr.TYPE_AIFF;
-        afdProto.bitsPerSample	= 32;
-        afdProto.sampleFormat	= AudioFileDescr.FORMAT_FLOAT;
-        afdProto.rate			= decimHelps[ 0 ].rate; // getRate();
-        afdProto.appCode		= ourCode;
+        final File[] f = createCacheFileNames();
+        if( (f == null) || (extSpan.start != 0) ) return null;
 
-        try {
-            for( int i = 0; i < f.length; i++ ) {
-                cm.removeFile( f[ i ]); // in case it existed
-// System.out.println( "openCacheForWrite doing '" + f[ i ].getAbsolutePath() + "'" );
-                afd				= new AudioFileDescr( afdProto );
-                afd.channels	= channelMaps[ i ].length;
-                // System.out.println( "channels = " + afd.channels );
-                afd.file		= f[ i ];
-                info			= new AudioFileCacheInfo( audioFiles[ i ], decimModel, audioFiles[ i ].getFrameNum() );
-                afd.setProperty( AudioFileDescr.KEY_APPCODE, info.encode() );
-                cacheAFs[ i ]	= AudioFile.openAsWrite( afd );
-                fileSpans[ i ]	= new Span( 0, decimFrameNum );
-            }
-            // XXX WE NEED A WAY TO CLOSE THE FILES UPON STAKE DISPOSAL XXX
-            if( channelMaps.length == 1 ) {
-                result = new InterleavedAudioStake( fileSpans[ 0 ], cacheAFs[ 0 ], fileSpans[ 0 ]);
-            } else {
-                result = new MultiMappedAudioStake( fileSpans[ 0 ], cacheAFs, fileSpans, channelMaps);
-            }
-            // System.err.println( "Cache was written" );
-            return result;
-        } finally {
-            if (result == null) {
-                for (AudioFile cacheAF : cacheAFs) {
-                    if (cacheAF != null) {
-                        cacheAF.cleanUp();
-                        if (!cacheAF.getFile().delete()) {
-                            cacheAF.getFile().deleteOnExit();
-                        }
-                    }
-                }
-            }
+        final CacheManager cm = PrefCacheManager.getInstance();
+        for( File aF : f ) {
+            cm.removeFile( aF ); // in case it existed
         }
+        return new DecimationCache.Writer( f, fullScale.getAudioFiles(), getCacheChannels(), decimModel, decimHelps,
+                                           getCacheFrames( extSpan ));
     }
 
     /*
@@ -1014,8 +945,227 @@ Thread.currentThread().setPriority( pri - 2 );
         } // for( SUBNUM )
     }
 
+    /*
+     *  Calculates the decimations of the fullrate span start ... stop
+     *  on the shared pool. The span is split into blocks aligned
+     *  to MAXCOARSE which are read and decimated independently;
+     *  the results are written to the stake (and the cache) strictly
+     *  in order. A partial last block is padded with its last frame.
+     *  Returns early when keepAsyncRunning becomes false.
+     */
+    private void subsampleWriteParallel( DecimatedStake das, long start, long stop, DecimationCache.Writer cacheWriter )
+    throws IOException
+    {
+        if( SUBNUM < 1 ) return;
+
+        final ExecutorService				exec		= getPool();
+        final int							maxPending	= getNumPoolThreads() << 1;
+        final int							blockLen	= MAXCOARSE * Math.max( 1, PAR_BLOCKSIZE >> MAXSHIFT );
+        final Queue<ChunkBuf>				freeBufs	= new ConcurrentLinkedQueue<ChunkBuf>();
+        final LinkedList<Future<ChunkBuf>>	pending		= new LinkedList<Future<ChunkBuf>>();
+        long								pos			= start;
+        long								time;
+        long								nextTime	= System.currentTimeMillis() + UPDATE_PERIOD;
+        ChunkBuf							b;
+        int									len;
+
+        try {
+            while( keepAsyncRunning && ((pos < stop) || !pending.isEmpty()) ) {
+                while( (pos < stop) && (pending.size() < maxPending) ) {
+                    len = (int) Math.min( blockLen, stop - pos );
+                    pending.add( exec.submit( new DecimateChunk( pos, len, blockLen, freeBufs )));
+                    pos += len;
+                }
+
+                b = pending.removeFirst().get();
+                if( b == null ) break;  // aborted
+
+                for( int i = 0; i < SUBNUM; i++ ) {
+                    len = b.numFrames >> decimHelps[ i ].shift;
+                    das.continueWrite( i, b.subBufs[ i ], 0, len );
+                    if( cacheWriter != null ) cacheWriter.write( i, b.subBufs[ i ], 0, len );
+                }
+                freeBufs.add( b );
+
+                time = System.currentTimeMillis();
+                if( time >= nextTime ) {
+                    nextTime = time + UPDATE_PERIOD;
+                    dispatchAsyncUpdate( time );
+                }
+            }
+        } catch( InterruptedException e1 ) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( e1.getMessage() );
+        } catch( ExecutionException e1 ) {
+            final Throwable cause = e1.getCause();
+            if( cause instanceof IOException ) throw (IOException) cause;
+            if( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+            if( cause instanceof Error ) throw (Error) cause;
+            throw new IOException( cause );
+        } finally {
+            for( Future<ChunkBuf> f : pending ) {
+                f.cancel( false );
+            }
+        }
+    }
+
+    private void dispatchAsyncUpdate( long time )
+    {
+        if( asyncManager != null ) {
+            asyncManager.dispatchEvent( new AsyncEvent( this, AsyncEvent.UPDATE, time, this ));
+        }
+    }
+
+    // buffers of one block: the fullrate input and the output of each decimation stage
+    private static final class ChunkBuf
+    {
+        final float[][]		inBuf;
+        final float[][][]	subBufs;
+        int					numFrames;
+
+        ChunkBuf( int fullChannels, int decimChannels, int blockLen, DecimationHelp[] decimHelps )
+        {
+            inBuf	= new float[ fullChannels ][ blockLen ];
+            subBufs	= new float[ decimHelps.length ][][];
+            for( int i = 0; i < decimHelps.length; i++ ) {
+                subBufs[ i ] = new float[ decimChannels ][ blockLen >> decimHelps[ i ].shift ];
+            }
+        }
+    }
+
+    // reads and decimates one block; the decimators do not keep state,
+    // so they can be shared among the pool threads
+    private class DecimateChunk
+    implements Callable<ChunkBuf>
+    {
+        private final long				pos;
+        private final int				len;
+        private final int				blockLen;
+        private final Queue<ChunkBuf>	freeBufs;
+
+        protected DecimateChunk( long pos, int len, int blockLen, Queue<ChunkBuf> freeBufs )
+        {
+            this.pos		= pos;
+            this.len		= len;
+            this.blockLen	= blockLen;
+            this.freeBufs	= freeBufs;
+        }
+
+        public ChunkBuf call()
+        throws IOException
+        {
+            if( !keepAsyncRunning ) return null;
+
+            ChunkBuf	b	= freeBufs.poll();
+            if( b == null ) b = new ChunkBuf( fullChannels, decimChannels, blockLen, decimHelps );
+
+            final int	numFrames	= (len + MAXCEILADD) & (int) MAXMASK;
+            int			decim, subLen;
+            float		f1;
+
+            fullScale.readFrames( b.inBuf, 0, new Span( pos, pos + len ), null );
+            if( len < numFrames ) {
+                for( int ch = 0; ch < fullChannels; ch++ ) {
+                    f1 = b.inBuf[ ch ][ len - 1 ];
+                    for( int i = len; i < numFrames; i++ ) {
+                        b.inBuf[ ch ][ i ] = f1;
+                    }
+                }
+            }
+
+            decim	= decimHelps[ 0 ].shift;
+            subLen	= numFrames >> decim;
+            decimator.decimatePCM( b.inBuf, b.subBufs[ 0 ], 0, subLen, 1 << decim );
+            for( int i = 1; i < SUBNUM; i++ ) {
+                decim	= decimHelps[ i ].shift - decimHelps[ i - 1 ].shift;
+                subLen >>= decim;
+                decimator.decimate( b.subBufs[ i - 1 ], b.subBufs[ i ], 0, subLen, 1 << decim );
+            }
+            b.numFrames = numFrames;
+            return b;
+        }
+    }
+
     // ---------------------- decimation subclasses ----------------------
 
+    private class PeakReader
+    {
+        private final float[][]	fullBuf;
+        private final float[][]	decimBuf;
+        protected float			peak	= 0f;
+
+        protected PeakReader( boolean[] channels )
+        {
+            fullBuf		= new float[ fullChannels ][];
+            decimBuf	= new float[ decimChannels ][];
+            for( int ch = 0, ch2 = 0; ch < fullChannels; ch++, ch2 += modelChannels ) {
+                if( !channels[ ch ]) continue;
+                fullBuf[ ch ]		= new float[ 8192 ];
+                decimBuf[ ch2 ]		= new float[ 4096 ];	// positive peak
+                decimBuf[ ch2 + 1 ]	= new float[ 4096 ];	// negative peak
+            }
+        }
+
+        protected void readFull( long start, long stop )
+        throws IOException
+        {
+            int		len;
+            float	f1;
+
+            while( start < stop ) {
+                len = (int) Math.min( 8192, stop - start );
+                fullScale.readFrames( fullBuf, 0, new Span( start, start + len ));
+                for( float[] buf : fullBuf ) {
+                    if( buf == null ) continue;
+                    for( int i = 0; i < len; i++ ) {
+                        f1 = Math.abs( buf[ i ]);
+                        if( f1 > peak ) peak = f1;
+                    }
+                }
+                start += len;
+            }
+        }
+
+        protected void readDecimated( DecimatedStake ds, long start, long stop, int sub )
+        throws IOException
+        {
+            if( start >= stop ) return;
+            if( sub < 0 ) {
+                readFull( start, stop );
+                return;
+            }
+
+            final Span	aligned = ds.getAlignedSpan( sub, new Span( start, stop ));
+            final int	shift	= decimHelps[ sub ].shift;
+            final long	chunk	= 4096L << shift;
+            float		f1;
+            int			len;
+
+            if( aligned == null ) {
+                readDecimated( ds, start, stop, sub - 1 );
+                return;
+            }
+            for( long pos = aligned.start; pos < aligned.stop; pos += chunk ) {
+                final Span span = new Span( pos, Math.min( aligned.stop, pos + chunk ));
+                if( !ds.readAlignedFrames( sub, decimBuf, 0, span )) {	// still being calculated
+                    readFull( pos, stop );
+                    readDecimated( ds, start, aligned.start, sub - 1 );
+                    return;
+                }
+                len = (int) (span.getLength() >> shift);
+                for( int ch = 0; ch < decimChannels; ch += modelChannels ) {
+                    if( decimBuf[ ch ] == null ) continue;
+                    for( int i = 0; i < len; i++ ) {
+                        f1 = Math.max( decimBuf[ ch ][ i ], -decimBuf[ ch + 1 ][ i ]);
+                        if( f1 > peak ) peak = f1;
+                    }
+                }
+            }
+            readDecimated( ds, start, aligned.start, sub - 1 );
+            readDecimated( ds, aligned.stop, stop, sub - 1 );
+        }
+    }
+
     private abstract class Decimator
     {
         protected Decimator() { /* empty */ }
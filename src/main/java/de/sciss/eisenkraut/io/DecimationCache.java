@@ -0,0 +1,302 @@
+/*
+ *  DecimationCache.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.io;
+
+import de.sciss.io.AudioFile;
+import de.sciss.io.AudioFileCacheInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *  The waveform overview cache of a document. There is one
+ *  cache file per sound file, holding all decimation levels,
+ *  so that reopening the document does not require any calculation.
+ *  The format of a file is (big endian):
+ *  <pre>
+ *    int     magic ('EisD')
+ *    int     version
+ *    int     number of channels (sound file channels times model channels)
+ *    int     number of levels
+ *    per level:
+ *      int   decimation shift
+ *      long  number of frames
+ *      long  file offset of the level's frames
+ *    int     size of the cache info
+ *    byte[]  cache info (<code>AudioFileCacheInfo</code>), padded to four bytes
+ *    per level: interleaved 32-bit float frames
+ *  </pre>
+ *  The magic is written last, so an incomplete file is never accepted.
+ *  When a cache is opened, the levels are mapped read-only, and
+ *  reads are served from the mappings without locking.
+ */
+final class DecimationCache {
+
+    private static final int    MAGIC       = 0x45697344;  // 'EisD'
+    private static final int    VERSION     = 1;
+
+    private final File[]            files;
+    private final FloatBuffer[][]   levels;         // [ sub ][ file ]
+    private final int[]             numChannels;    // per file
+
+    private DecimationCache(File[] files, FloatBuffer[][] levels, int[] numChannels) {
+        this.files          = files;
+        this.levels         = levels;
+        this.numChannels    = numChannels;
+    }
+
+    /**
+     *  Opens and maps existing cache files.
+     *
+     *  @param  f           the cache files, one per sound file
+     *  @param  numChannels the number of decimated channels of each sound file
+     *  @param  numFrames   the expected number of frames of each level
+     *
+     *  @return the cache, or <code>null</code> if a file is missing, incomplete
+     *          or does not match the sound files
+     */
+    static DecimationCache open(File[] f, AudioFile[] audioFiles, int[] numChannels, int model,
+                                DecimationHelp[] decims, long[] numFrames)
+            throws IOException {
+
+        final FloatBuffer[][] levels    = new FloatBuffer[decims.length][f.length];
+        final int             headerLen = getHeaderLength(decims.length);
+
+        for (int i = 0; i < f.length; i++) {
+            if (!f[i].isFile()) return null;
+
+            final RandomAccessFile raf = new RandomAccessFile(f[i], "r");
+            try {
+                final FileChannel   ch      = raf.getChannel();
+                final long          size    = ch.size();
+                final long[]        offsets = new long[decims.length];
+                final long          frameBytes = (long) numChannels[i] << 2;
+
+                final ByteBuffer b = read(ch, 0, headerLen);
+                if ((b == null) || (b.getInt(0) != MAGIC) || (b.getInt(4) != VERSION) ||
+                    (b.getInt(8) != numChannels[i]) || (b.getInt(12) != decims.length)) return null;
+
+                for (int sub = 0, pos = 16; sub < decims.length; sub++, pos += 20) {
+                    offsets[sub] = b.getLong(pos + 12);
+                    if ((b.getInt(pos) != decims[sub].shift) || (b.getLong(pos + 4) != numFrames[sub]) ||
+                        (numFrames[sub] * frameBytes > Integer.MAX_VALUE) ||
+                        (offsets[sub] + numFrames[sub] * frameBytes > size)) return null;
+                }
+
+                final ByteBuffer bi = read(ch, headerLen, b.getInt(headerLen - 4));
+                if (bi == null) return null;
+                final AudioFileCacheInfo info = AudioFileCacheInfo.decode(bi.array());
+                if ((info == null) ||
+                    !info.equals(new AudioFileCacheInfo(audioFiles[i], model, audioFiles[i].getFrameNum()))) return null;
+
+                // the mappings stay valid after the channel is closed
+                for (int sub = 0; sub < decims.length; sub++) {
+                    levels[sub][i] = ch.map(FileChannel.MapMode.READ_ONLY, offsets[sub],
+                            numFrames[sub] * frameBytes).asFloatBuffer();
+                }
+            } finally {
+                raf.close();
+            }
+        }
+        return new DecimationCache(f, levels, numChannels.clone());
+    }
+
+    /**
+     *  Reads frames of a level. The channels of all
+     *  cache files are concatenated.
+     */
+    void read(int sub, long offset, float[][] data, int dataOffset, int len) {
+        for (int i = 0, j = 0; i < numChannels.length; i++) {
+            final FloatBuffer   fb      = levels[sub][i];
+            final int           numCh   = numChannels[i];
+            final int           start   = (int) offset * numCh;
+            for (int ch = 0; ch < numCh; ch++, j++) {
+                final float[] chBuf = data[j];
+                if (chBuf == null) continue;
+                for (int k = start + ch, m = dataOffset, stop = dataOffset + len; m < stop; k += numCh, m++) {
+                    chBuf[m] = fb.get(k);
+                }
+            }
+        }
+    }
+
+    String getFileName() {
+        return files[0].getName();
+    }
+
+    private static int getHeaderLength(int numLevels) {
+        return 20 + numLevels * 20;
+    }
+
+    // returns null if the file is too short
+    private static ByteBuffer read(FileChannel ch, long pos, int len)
+            throws IOException {
+
+        if ((len < 0) || (pos + len > ch.size())) return null;
+        final ByteBuffer b = ByteBuffer.allocate(len);
+        while (b.hasRemaining()) {
+            if (ch.read(b, pos + b.position()) < 0) return null;
+        }
+        return b;
+    }
+
+    // ---------------- internal classes ----------------
+
+    /**
+     *  Writes new cache files. The levels are written in parallel,
+     *  each one strictly in order.
+     */
+    static final class Writer {
+        private final File[]                files;
+        private final RandomAccessFile[]    rafs;
+        private final int[]                 numChannels;
+        private final long[][]              positions;  // [ file ][ sub ]
+        private final long[][]              stops;      // [ file ][ sub ]
+        private ByteBuffer                  buf         = null;
+
+        /**
+         *  @param  f           the cache files, one per sound file. Existing files are overwritten
+         *  @param  numChannels the number of decimated channels of each sound file
+         *  @param  numFrames   the number of frames of each level
+         */
+        Writer(File[] f, AudioFile[] audioFiles, int[] numChannels, int model, DecimationHelp[] decims,
+               long[] numFrames)
+                throws IOException {
+
+            final int headerLen = getHeaderLength(decims.length);
+
+            files               = f;
+            this.numChannels    = numChannels.clone();
+            rafs                = new RandomAccessFile[f.length];
+            positions           = new long[f.length][decims.length];
+            stops               = new long[f.length][decims.length];
+
+            boolean success = false;
+            try {
+                for (int i = 0; i < f.length; i++) {
+                    final byte[]        info        = new AudioFileCacheInfo(audioFiles[i], model,
+                                                        audioFiles[i].getFrameNum()).encode();
+                    final long          frameBytes  = (long) numChannels[i] << 2;
+                    final ByteBuffer    b           = ByteBuffer.allocate(headerLen + ((info.length + 3) & ~3));
+                    long                off         = b.capacity();
+
+                    b.putInt(0);    // the magic is written upon completion
+                    b.putInt(VERSION);
+                    b.putInt(numChannels[i]);
+                    b.putInt(decims.length);
+                    for (int sub = 0; sub < decims.length; sub++) {
+                        b.putInt(decims[sub].shift);
+                        b.putLong(numFrames[sub]);
+                        b.putLong(off);
+                        positions[i][sub]   = off;
+                        off                += numFrames[sub] * frameBytes;
+                        stops[i][sub]       = off;
+                    }
+                    b.putInt(info.length);
+                    b.put(info);
+                    b.clear();
+
+                    rafs[i] = new RandomAccessFile(f[i], "rw");
+                    rafs[i].setLength(0);
+                    write(rafs[i].getChannel(), b, 0);
+                }
+                success = true;
+            } finally {
+                if (!success) abort();
+            }
+        }
+
+        /**
+         *  Appends frames to a level. The channels of all
+         *  cache files are concatenated.
+         */
+        void write(int sub, float[][] data, int dataOffset, int len)
+                throws IOException {
+
+            for (int i = 0, j = 0; i < rafs.length; i++) {
+                final int   numCh       = numChannels[i];
+                final int   numBytes    = (len * numCh) << 2;
+                final long  pos         = positions[i][sub];
+
+                if (pos + numBytes > stops[i][sub]) {
+                    throw new IllegalArgumentException("Level " + sub + " overflow (" + files[i].getName() + ")");
+                }
+                if ((buf == null) || (buf.capacity() < numBytes)) buf = ByteBuffer.allocate(numBytes);
+                buf.clear();
+                for (int m = dataOffset, stop = dataOffset + len; m < stop; m++) {
+                    for (int ch = 0; ch < numCh; ch++) {
+                        buf.putFloat(data[j + ch][m]);
+                    }
+                }
+                buf.flip();
+                write(rafs[i].getChannel(), buf, pos);
+                positions[i][sub] = pos + numBytes;
+                j += numCh;
+            }
+        }
+
+        /**
+         *  Completes the cache files.
+         *
+         *  @throws IOException if not all frames have been written
+         */
+        void close()
+                throws IOException {
+
+            final ByteBuffer b = ByteBuffer.allocate(4);
+            for (int i = 0; i < rafs.length; i++) {
+                for (int sub = 0; sub < positions[i].length; sub++) {
+                    if (positions[i][sub] != stops[i][sub]) {
+                        throw new IOException("Incomplete cache file " + files[i].getName());
+                    }
+                }
+            }
+            for (RandomAccessFile raf : rafs) {
+                b.clear();
+                b.putInt(MAGIC);
+                b.flip();
+                write(raf.getChannel(), b, 0);
+                raf.close();
+            }
+        }
+
+        /**
+         *  Closes and deletes the cache files.
+         */
+        void abort() {
+            for (int i = 0; i < rafs.length; i++) {
+                if (rafs[i] != null) {
+                    try { rafs[i].close(); } catch (IOException e1) { /* ignore */ }
+                }
+                if (!files[i].delete()) files[i].deleteOnExit();
+            }
+        }
+
+        File[] getFiles() {
+            return files;
+        }
+
+        private static void write(FileChannel ch, ByteBuffer b, long pos)
+                throws IOException {
+
+            while (b.hasRemaining()) {
+                pos += ch.write(b, pos);
+            }
+        }
+    }
+}
@@ -13,14 +13,18 @@
 
 package de.sciss.eisenkraut.io;
 
+import de.sciss.io.AudioFile;
+import de.sciss.io.AudioFileDescr;
 import de.sciss.io.CacheManager;
 import de.sciss.io.InterleavedStreamFile;
 import de.sciss.io.Span;
 import de.sciss.jcollider.Buffer;
 import de.sciss.net.OSCBundle;
 import de.sciss.timebased.Stake;
+import org.w3c.dom.Element;
 
 import java.io.IOException;
+import java.util.Collection;
 
 public class InterleavedAudioStake
         extends AudioStake {
@@ -31,17 +35,55 @@ public class InterleavedAudioStake
 
     private final String				fileName;
 
+    // if the file is a take owned by the trail, see AudioTrail.adoptTake
+    private final AdoptedTake           take;
+    private boolean                     released    = false;
+
     public InterleavedAudioStake(Span span, InterleavedStreamFile f, Span fileSpan) {
-        this(span, f, fileSpan, fileSpan, getFileName(f));
+        this(span, f, fileSpan, fileSpan, getFileName(f), null);
+    }
+
+    InterleavedAudioStake(Span span, AdoptedTake take, Span fileSpan) {
+        this(span, take.af, fileSpan, fileSpan, getFileName(take.af), take);
     }
 
-    private InterleavedAudioStake(Span span, InterleavedStreamFile f, Span fileSpan, Span maxFileSpan, String fileName) {
+    private InterleavedAudioStake(Span span, InterleavedStreamFile f, Span fileSpan, Span maxFileSpan, String fileName,
+                                  AdoptedTake take) {
         super(span);
 
         this.f              = f;
         this.fileSpan       = fileSpan;
         this.maxFileSpan    = maxFileSpan;
         this.fileName       = fileName;
+        this.take           = take;
+        if (take != null) take.retain();
+    }
+
+    public void dispose() {
+        releaseTake();
+        super.dispose();
+    }
+
+    // a view created by the trail's stake tree, which keeps the take through its origin
+    protected void releaseClaims() {
+        releaseTake();
+        super.releaseClaims();
+    }
+
+    private void releaseTake() {
+        if ((take != null) && !released) {
+            released = true;
+            take.release();
+        }
+    }
+
+    /*
+     *  Returns the decimations calculated while recording the take
+     *  read by this stake, or <code>null</code> if there are none
+     *  or the stake covers only a part of the take.
+     */
+    TakeDecimation getTakeDecimation() {
+        return ((take != null) && fileSpan.equals(maxFileSpan)) ? take.decimation : null;
     }
 
     public void close()
@@ -61,7 +103,7 @@ public class InterleavedAudioStake
 
     public Stake duplicate()
     {
-        return new InterleavedAudioStake( span, f, fileSpan, maxFileSpan, fileName );
+        return new InterleavedAudioStake( span, f, fileSpan, maxFileSpan, fileName, take );
     }
 
     public Stake replaceStart(long newStart) {
@@ -71,7 +113,7 @@ public class InterleavedAudioStake
             throw new IllegalArgumentException(String.valueOf(newStart));
         }
 
-        return new InterleavedAudioStake(newSpan, f, newFileSpan, maxFileSpan, fileName);
+        return new InterleavedAudioStake(newSpan, f, newFileSpan, maxFileSpan, fileName, take);
     }
 
     public Stake replaceStop(long newStop) {
@@ -81,11 +123,11 @@ public class InterleavedAudioStake
             throw new IllegalArgumentException(String.valueOf(newStop));
         }
 
-        return new InterleavedAudioStake(newSpan, f, newFileSpan, maxFileSpan, fileName);
+        return new InterleavedAudioStake(newSpan, f, newFileSpan, maxFileSpan, fileName, take);
     }
 
     public Stake shiftVirtual(long delta) {
-        return new InterleavedAudioStake(span.shift(delta), f, fileSpan, maxFileSpan, fileName);
+        return new InterleavedAudioStake(span.shift(delta), f, fileSpan, maxFileSpan, fileName, take);
     }
 
     public int readFrames(float[][] data, int dataOffset, Span readSpan)
@@ -148,6 +190,44 @@ public class InterleavedAudioStake
         return len;
     }
 
+    boolean copyFramesRaw(SampleDataCopier copier, long targetFrame, Span readSpan)
+            throws IOException {
+
+        final long len = readSpan.getLength();
+        if (len == 0) return true;
+        final long fOffset = fileSpan.start + readSpan.start - span.start;
+
+        if ((fOffset < fileSpan.start) || ((fOffset + len) > fileSpan.stop)) {
+            throw new IllegalArgumentException(fOffset + " ... " + (fOffset + len) + " not within " + fileSpan.toString());
+        }
+
+        return (f instanceof AudioFile) && copier.copy((AudioFile) f, fOffset, targetFrame, len);
+    }
+
+    boolean rewriteHeader(AudioFileDescr afd)
+            throws IOException {
+
+        if (!(f instanceof AudioFile) || (afd.file == null)) return false;
+
+        final AudioFile af = (AudioFile) f;
+        if ((fileSpan.start != 0) || (fileSpan.stop != af.getFrameNum()) || !span.equals(fileSpan)) return false;
+        if (!afd.file.getCanonicalFile().equals(af.getFile().getCanonicalFile())) return false;
+
+        return SampleDataCopier.rewriteHeader(af, afd);
+    }
+
+    boolean isBackedBy(Collection<? extends InterleavedStreamFile> files) {
+        return files.contains(f);
+    }
+
+    Element toProject(ProjectFile.Writer w)
+            throws IOException {
+
+        final Element e = w.createStake(ProjectFile.STAKE_FILE, span);
+        w.addRef(e, f, fileSpan, null);
+        return e;
+    }
+
     public void addBufferReadMessages(OSCBundle bndl, Span readSpan, Buffer[] bufs, int bufOff) {
         final int len = (int) readSpan.getLength();
         if (len == 0) return;
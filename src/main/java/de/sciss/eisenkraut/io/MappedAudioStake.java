@@ -0,0 +1,257 @@
+/*
+ *  MappedAudioStake.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.io;
+
+import de.sciss.io.AudioFile;
+import de.sciss.io.CacheManager;
+import de.sciss.io.InterleavedStreamFile;
+import de.sciss.io.Span;
+import de.sciss.jcollider.Buffer;
+import de.sciss.net.OSCBundle;
+import de.sciss.timebased.Stake;
+import org.w3c.dom.Element;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ *  An audio stake for the 32-bit float Wave64 temp files
+ *  created by <code>AudioTrail</code>. Writing goes through
+ *  the regular audio file, but reading is done from the memory
+ *  mapping of the file shared by all stakes of the trail (see
+ *  <code>MappedSampleFile</code>). Therefore concurrent readers
+ *  do not need to synchronize on the file.
+ *  <p>
+ *  Frames are read from the mapping once the file has grown to
+ *  cover them. If mapping is not possible (wrong format), or
+ *  the frames have not been written yet, the stake falls back to
+ *  synchronized stream reading like <code>InterleavedAudioStake</code>.
+ */
+public class MappedAudioStake
+        extends AudioStake {
+
+    private final AudioFile             f;
+    private final Span                  fileSpan;
+    private final Span                  maxFileSpan;
+    private final MappedSampleFile      mapping;
+    private final int                   numChannels;
+
+    private final String                fileName;
+    private boolean                     released    = false;
+
+    MappedAudioStake(Span span, MappedSampleFile mapping, Span fileSpan) {
+        this(span, mapping, fileSpan, fileSpan, getFileName(mapping.f));
+    }
+
+    private MappedAudioStake(Span span, MappedSampleFile mapping, Span fileSpan, Span maxFileSpan, String fileName) {
+        super(span);
+
+        this.f              = mapping.f;
+        this.fileSpan       = fileSpan;
+        this.maxFileSpan    = maxFileSpan;
+        this.mapping        = mapping;
+        this.fileName       = fileName;
+        numChannels         = f.getChannelNum();
+        mapping.retain();
+    }
+
+    public void dispose() {
+        releaseMapping();
+        super.dispose();
+    }
+
+    // a view created by the trail's stake tree, which keeps the mapping through its origin
+    protected void releaseClaims() {
+        releaseMapping();
+        super.releaseClaims();
+    }
+
+    private void releaseMapping() {
+        if (!released) {
+            released = true;
+            mapping.release();
+        }
+    }
+
+    public void close()
+            throws IOException {
+        f.close();
+    }
+
+    public void cleanUp() {
+        try { close(); } catch (IOException e1) { /* ignore */ }
+    }
+
+    private static String getFileName(InterleavedStreamFile f) {
+        return f.getFile().getAbsolutePath();
+    }
+
+    public Stake duplicate() {
+        return new MappedAudioStake(span, mapping, fileSpan, maxFileSpan, fileName);
+    }
+
+    public Stake replaceStart(long newStart) {
+        final Span newFileSpan = fileSpan.replaceStart(fileSpan.start + newStart - span.start);
+        final Span newSpan = span.replaceStart(newStart);
+        if ((newSpan.getLength() < 0) || (newFileSpan.getLength() < 0) || !maxFileSpan.contains(newFileSpan)) {
+            throw new IllegalArgumentException(String.valueOf(newStart));
+        }
+
+        return new MappedAudioStake(newSpan, mapping, newFileSpan, maxFileSpan, fileName);
+    }
+
+    public Stake replaceStop(long newStop) {
+        final Span newFileSpan = fileSpan.replaceStop(fileSpan.stop + newStop - span.stop);
+        final Span newSpan = span.replaceStop(newStop);
+        if ((newSpan.getLength() < 0) || (newFileSpan.getLength() < 0) || !maxFileSpan.contains(newFileSpan)) {
+            throw new IllegalArgumentException(String.valueOf(newStop));
+        }
+
+        return new MappedAudioStake(newSpan, mapping, newFileSpan, maxFileSpan, fileName);
+    }
+
+    public Stake shiftVirtual(long delta) {
+        return new MappedAudioStake(span.shift(delta), mapping, fileSpan, maxFileSpan, fileName);
+    }
+
+    public int readFrames(float[][] data, int dataOffset, Span readSpan)
+            throws IOException {
+
+        final int len = (int) readSpan.getLength();
+        if (len == 0) return 0;
+        final long fOffset = fileSpan.start + readSpan.start - span.start;
+
+        if ((fOffset < fileSpan.start) || ((fOffset + len) > fileSpan.stop)) {
+            throw new IllegalArgumentException(fOffset + " ... " + (fOffset + len) + " not within " + fileSpan.toString());
+        }
+
+        if (!mapping.readFrames(data, dataOffset, fOffset, len)) {
+            synchronized (f) {
+                if (f.getFramePosition() != fOffset) {
+                    f.seekFrame(fOffset);
+                }
+                f.readFrames(data, dataOffset, len);
+            }
+        }
+        return len;
+    }
+
+    public int writeFrames(float[][] data, int dataOffset, Span writeSpan)
+            throws IOException {
+
+        final int len = (int) writeSpan.getLength();
+        if (len == 0) return 0;
+        final long fOffset = fileSpan.start + writeSpan.start - span.start;
+
+        if ((fOffset < fileSpan.start) || ((fOffset + len) > fileSpan.stop)) {
+            throw new IllegalArgumentException(fOffset + " ... " + (fOffset + len) + " not within " + fileSpan.toString());
+        }
+
+        // note: the mapping is coherent with writes through the file channel
+        synchronized (f) {
+            if (f.getFramePosition() != fOffset) {
+                f.seekFrame(fOffset);
+            }
+            f.writeFrames(data, dataOffset, len);
+        }
+        return len;
+    }
+
+    public long copyFrames(InterleavedStreamFile target, Span readSpan)
+            throws IOException {
+
+        final long len = readSpan.getLength();
+        if (len == 0) return 0;
+        final long fOffset = fileSpan.start + readSpan.start - span.start;
+
+        if ((fOffset < fileSpan.start) || ((fOffset + len) > fileSpan.stop)) {
+            throw new IllegalArgumentException(fOffset + " ... " + (fOffset + len) + " not within " + fileSpan.toString());
+        }
+
+        synchronized (f) {
+            if (f.getFramePosition() != fOffset) {
+                f.seekFrame(fOffset);
+            }
+            f.copyFrames(target, len);
+        }
+        return len;
+    }
+
+    boolean copyFramesRaw(SampleDataCopier copier, long targetFrame, Span readSpan)
+            throws IOException {
+
+        final long len = readSpan.getLength();
+        if (len == 0) return true;
+        final long fOffset = fileSpan.start + readSpan.start - span.start;
+
+        if ((fOffset < fileSpan.start) || ((fOffset + len) > fileSpan.stop)) {
+            throw new IllegalArgumentException(fOffset + " ... " + (fOffset + len) + " not within " + fileSpan.toString());
+        }
+
+        return copier.copy(f, fOffset, targetFrame, len);
+    }
+
+    boolean isBackedBy(Collection<? extends InterleavedStreamFile> files) {
+        return files.contains(f);
+    }
+
+    Element toProject(ProjectFile.Writer w)
+            throws IOException {
+
+        final Element e = w.createStake(ProjectFile.STAKE_FILE, span);
+        w.addRef(e, f, fileSpan, null);
+        return e;
+    }
+
+    public void addBufferReadMessages(OSCBundle bndl, Span readSpan, Buffer[] bufs, int bufOff) {
+        final int len = (int) readSpan.getLength();
+        if (len == 0) return;
+        final long fOffset = fileSpan.start + readSpan.start - span.start;
+
+        if ((fOffset < fileSpan.start) || ((fOffset + len) > fileSpan.stop)) {
+            throw new IllegalArgumentException(fOffset + " ... " + (fOffset + len) + " not within " + fileSpan.toString());
+        }
+
+        if ((bufs.length != 1) || (bufs[0].getNumChannels() != numChannels)) {
+            throw new IllegalArgumentException("Wrong # of buffers / channels (required: 1 / " + numChannels);
+        }
+
+        bndl.addPacket(bufs[0].readMsg(fileName, fOffset, len, bufOff));
+    }
+
+    public int getChannelNum() {
+        return numChannels;
+    }
+
+    public void flush()
+            throws IOException {
+        synchronized (f) {
+            // see InterleavedAudioStake
+            if (f.getFramePosition() != fileSpan.getStop()) {
+                f.seekFrame(fileSpan.getStop());
+            }
+            f.flush();
+        }
+    }
+
+    public void addToCache(CacheManager cm) {
+        cm.addFile(f.getFile());
+    }
+
+    public void debugDump() {
+        debugDumpBasics();
+        System.err.println(" ; f = " + f.getFile().getName() + " (file span " + fileSpan.toString() +
+                " ; mapped ? " + mapping.isMapped() + " )");
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ *  MappedSampleFile.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.io;
+
+import de.sciss.io.AudioFile;
+import de.sciss.io.AudioFileDescr;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ *  The read-only memory mapping of a 32-bit float Wave64 temp file,
+ *  shared by all <code>MappedAudioStake</code>s reading that file.
+ *  The file is opened once and its channel stays open as long as
+ *  stakes retain it. The sample data is mapped in windows of a fixed
+ *  number of frames, of which at most MAX_WINDOWS are held; the least
+ *  recently used window is recycled when another one is needed.
+ *  <p>
+ *  A window is mapped as soon as the file covers the frames requested
+ *  from it, and mapped anew when a later read needs more frames of a file
+ *  that is still growing. Windows are explicitly unmapped when they are
+ *  recycled or the file is released, but only once no reader uses them.
+ */
+final class MappedSampleFile {
+
+    // bytes per window (rounded down to whole frames)
+    private static final int    WINDOW_BYTES    = 1 << 22;
+    private static final int    MAX_WINDOWS     = 16;
+
+    final AudioFile             f;
+    private final int           numChannels;
+    private final int           frameBytes;
+    private final long          windowFrames;
+    private final boolean       mappable;
+
+    private final Window[]      windows         = new Window[MAX_WINDOWS];
+    private RandomAccessFile    raf             = null;
+    private FileChannel         ch;
+    private long                dataOff;
+    private boolean             failed          = false;
+    private boolean             closed          = false;
+    private int                 refCount        = 0;
+    private long                clock           = 0L;
+
+    MappedSampleFile(AudioFile f) {
+        final AudioFileDescr afd = f.getDescr();
+
+        this.f      = f;
+        numChannels = f.getChannelNum();
+        frameBytes  = numChannels << 2;
+        windowFrames= Math.max(1, WINDOW_BYTES / frameBytes);
+        mappable    = (afd.type == AudioFileDescr.TYPE_WAVE64) && (afd.sampleFormat == AudioFileDescr.FORMAT_FLOAT) &&
+                      (afd.bitsPerSample == 32) && (numChannels > 0);
+    }
+
+    synchronized void retain() {
+        refCount++;
+    }
+
+    // closes the channel and unmaps all windows when the last stake is gone
+    synchronized void release() {
+        if (--refCount == 0) closeChannel();
+    }
+
+    // called by the trail before the file is deleted, regardless of remaining stakes
+    synchronized void close() {
+        closed = true;
+        closeChannel();
+    }
+
+    synchronized boolean isMapped() {
+        for (Window w : windows) {
+            if (w != null) return true;
+        }
+        return false;
+    }
+
+    /*
+     *  De-interleaves frames from the mapping into data. Returns false
+     *  if the frames cannot be read from the mapping (wrong format, file
+     *  closed, frames not yet written), in which case the caller
+     *  reads them from the sound file.
+     */
+    boolean readFrames(float[][] data, int dataOffset, long fOffset, int len)
+            throws IOException {
+
+        long    pos     = fOffset;
+        int     off     = dataOffset;
+        int     left    = len;
+
+        while (left > 0) {
+            final long      idx     = pos / windowFrames;
+            final long      wStart  = idx * windowFrames;
+            final int       chunk   = (int) Math.min(left, wStart + windowFrames - pos);
+            final Window    w       = acquire(idx, (int) (pos + chunk - wStart));
+            if (w == null) return false;
+            try {
+                // absolute gets do not touch the buffer's position,
+                // so readers of the same window need no lock
+                final FloatBuffer fb = w.buf;
+                final int start = (int) (pos - wStart) * numChannels;
+                for (int c = 0; c < numChannels; c++) {
+                    final float[] chBuf = data[c];
+                    if (chBuf == null) continue;
+                    for (int i = 0, j = start + c, k = off; i < chunk; i++, j += numChannels, k++) {
+                        chBuf[k] = fb.get(j);
+                    }
+                }
+            } finally {
+                release(w);
+            }
+            pos  += chunk;
+            off  += chunk;
+            left -= chunk;
+        }
+        return true;
+    }
+
+    // returns a window covering at least numFrames frames, or null
+    private synchronized Window acquire(long idx, int numFrames)
+            throws IOException {
+
+        if (!mappable || failed || closed || (refCount == 0)) return null;
+        if (raf == null) {
+            raf = new RandomAccessFile(f.getFile(), "r");
+            ch  = raf.getChannel();
+            dataOff = SampleDataCopier.findWave64Data(ch);
+            if (dataOff < 0) {
+                failed = true;
+                closeChannel();
+                return null;
+            }
+        }
+
+        int slot = -1;
+        for (int i = 0; i < MAX_WINDOWS; i++) {
+            final Window w = windows[i];
+            if ((w != null) && (w.idx == idx)) {
+                if (w.numFrames >= numFrames) {
+                    w.users++;
+                    w.lastUse = ++clock;
+                    return w;
+                }
+                slot = i;   // the file has grown, map the window anew
+                break;
+            }
+        }
+
+        final long  pos         = dataOff + idx * windowFrames * frameBytes;
+        final long  available   = Math.min(windowFrames, (ch.size() - pos) / frameBytes);
+        // the frames have been allocated but not yet written
+        if (available < numFrames) return null;
+
+        if (slot < 0) slot = recycleSlot();
+        if (windows[slot] != null) retire(windows[slot]);
+
+        final MappedByteBuffer bb = ch.map(FileChannel.MapMode.READ_ONLY, pos, available * frameBytes);
+        final Window w  = new Window(idx, (int) available, bb);
+        w.users         = 1;
+        w.lastUse       = ++clock;
+        windows[slot]   = w;
+        return w;
+    }
+
+    private synchronized void release(Window w) {
+        if ((--w.users == 0) && w.retired) unmap(w.bb);
+    }
+
+    // an empty slot, or the one of the least recently used window
+    private int recycleSlot() {
+        int slot = 0;
+        for (int i = 0; i < MAX_WINDOWS; i++) {
+            final Window w = windows[i];
+            if (w == null) return i;
+            if (w.lastUse < windows[slot].lastUse) slot = i;
+        }
+        return slot;
+    }
+
+    private void retire(Window w) {
+        w.retired = true;
+        if (w.users == 0) unmap(w.bb);
+    }
+
+    private void closeChannel() {
+        for (int i = 0; i < MAX_WINDOWS; i++) {
+            if (windows[i] != null) {
+                retire(windows[i]);
+                windows[i] = null;
+            }
+        }
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e1) { /* ignore */ }
+            raf = null;
+            ch  = null;
+        }
+    }
+
+    // unmaps the buffer right away instead of waiting for the garbage collector,
+    // which on some platforms would keep the file from being deleted. where the
+    // runtime offers no means to do so, the buffer is left to the collector
+    private static void unmap(MappedByteBuffer bb) {
+        try {
+            final Method cleanerMethod = bb.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(bb);
+            if (cleaner != null) cleaner.getClass().getMethod("clean").invoke(cleaner);
+        } catch (Exception e1) { /* ignore */ }
+    }
+
+    private static final class Window {
+        final long              idx;
+        final int               numFrames;
+        final MappedByteBuffer  bb;
+        final FloatBuffer       buf;
+        int                     users   = 0;
+        long                    lastUse;
+        boolean                 retired = false;
+
+        Window(long idx, int numFrames, MappedByteBuffer bb) {
+            this.idx        = idx;
+            this.numFrames  = numFrames;
+            this.bb         = bb;
+            buf             = bb.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        }
+    }
+}
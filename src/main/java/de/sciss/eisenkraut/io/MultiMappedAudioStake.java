@@ -19,8 +19,10 @@ import de.sciss.io.Span;
 import de.sciss.jcollider.Buffer;
 import de.sciss.net.OSCBundle;
 import de.sciss.timebased.Stake;
+import org.w3c.dom.Element;
 
 import java.io.IOException;
+import java.util.Collection;
 
 public class MultiMappedAudioStake extends AudioStake {
 
@@ -265,6 +267,23 @@ public class MultiMappedAudioStake extends AudioStake {
         return len;
     }
 
+    boolean isBackedBy(Collection<? extends InterleavedStreamFile> files) {
+        for (InterleavedStreamFile f : fs) {
+            if (!files.contains(f)) return false;
+        }
+        return true;
+    }
+
+    Element toProject(ProjectFile.Writer w)
+            throws IOException {
+
+        final Element e = w.createStake(ProjectFile.STAKE_MULTI, span);
+        for (int i = 0; i < fs.length; i++) {
+            w.addRef(e, fs[i], fileSpans[i], channelMaps[i]);
+        }
+        return e;
+    }
+
     public void addBufferReadMessages(OSCBundle bndl, Span readSpan, Buffer[] bufs, int bufOff) {
         final int len = (int) readSpan.getLength();
         if (len == 0) return;
@@ -0,0 +1,804 @@
+/*
+ *  ProjectFile.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.io;
+
+import de.sciss.io.AudioFile;
+import de.sciss.io.AudioFileDescr;
+import de.sciss.io.InterleavedStreamFile;
+import de.sciss.io.Marker;
+import de.sciss.io.Span;
+import de.sciss.timebased.MarkerStake;
+import de.sciss.timebased.Stake;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ *  Reads and writes Eisenkraut projects. Instead of the sample frames,
+ *  a project stores the edit decision list of a document, that is the
+ *  stakes of its audio trail with their file references, file spans and
+ *  channel maps, along with the markers. Sound files are referenced by
+ *  their paths, whereas the regions of temporary files which are still
+ *  in use are copied into a media folder next to the project file. Saving
+ *  therefore costs time proportional to the number of stakes plus the
+ *  amount of rendered material, not to the length of the document.
+ *  Regions copied by an earlier save of the same session are referenced
+ *  again instead of being copied anew, and regions of the media folder of
+ *  another project are copied, so that each project only refers to its
+ *  own media files besides the original sound files.
+ *  <p>
+ *  The size and modification date of each referenced file is stored
+ *  along with its path. Reading a project fails if a file has changed
+ *  since, e.g. because it was overwritten by saving a document, instead
+ *  of restoring the stakes from different sample frames.
+ *  <p>
+ *  The project file is XML. The media folder has the name of the project
+ *  file without suffix, followed by <code>"_media"</code>.
+ */
+public final class ProjectFile {
+
+    public static final String  SUFFIX          = ".eisk";
+
+    private static final int    VERSION         = 1;
+    private static final String MEDIA_SUFFIX    = "_media";
+
+    private static final String ELEM_ROOT       = "eisenkraut-project";
+    private static final String ELEM_DESCR      = "file";
+    private static final String ELEM_MARKER     = "marker";
+    private static final String ELEM_TRAIL      = "trail";
+    private static final String ELEM_CHANNELS   = "channels";
+    private static final String ELEM_STAKE      = "stake";
+    private static final String ELEM_REF        = "ref";
+
+    private static final String ATTR_VERSION    = "version";
+    private static final String ATTR_RATE       = "rate";
+    private static final String ATTR_LENGTH     = "length";
+    private static final String ATTR_PATH       = "path";
+    private static final String ATTR_TYPE       = "type";
+    private static final String ATTR_BITS       = "bits";
+    private static final String ATTR_FORMAT     = "format";
+    private static final String ATTR_NUMCH      = "channels";
+    private static final String ATTR_POS        = "pos";
+    private static final String ATTR_NAME       = "name";
+    private static final String ATTR_START      = "start";
+    private static final String ATTR_STOP       = "stop";
+    private static final String ATTR_MAP        = "map";
+    private static final String ATTR_GAINS      = "gains";
+    private static final String ATTR_REVERSE    = "reverse";
+    private static final String ATTR_SIZE       = "size";
+    private static final String ATTR_MODIFIED   = "modified";
+
+    static final String         STAKE_FILE      = "file";
+    static final String         STAKE_MULTI     = "multi";
+    static final String         STAKE_SILENT    = "silent";
+    static final String         STAKE_TRANSFORM = "transform";
+
+    // regions of temporary and foreign media files which earlier saves
+    // have copied to media folders, by source file; see Writer.copyTempRegions
+    private static final Map<AudioFile, List<MediaCopy>> mediaCopies = new WeakHashMap<AudioFile, List<MediaCopy>>();
+
+    private ProjectFile() { /* no instances */ }
+
+    /**
+     *  Tells whether a file has the suffix of a project file.
+     */
+    public static boolean isProjectFile(File f) {
+        return f.getName().toLowerCase().endsWith(SUFFIX);
+    }
+
+    /**
+     *  Returns the folder holding the copies of temporary
+     *  files which are referenced by a project.
+     */
+    public static File getMediaFolder(File f) {
+        final String name = f.getName();
+        final String base = isProjectFile(f) ? name.substring(0, name.length() - SUFFIX.length()) : name;
+        return new File(f.getAbsoluteFile().getParentFile(), base + MEDIA_SUFFIX);
+    }
+
+    /**
+     *  Writes a project file. If a file with the same name exists,
+     *  it is replaced only after the new one has been written
+     *  successfully. Afterwards, files in the media folder which the
+     *  replaced project referenced are deleted, unless they are referenced
+     *  by the new project, by another project in the same folder, or
+     *  opened by the trail. Other files of the media folder are kept.
+     *
+     *  @param  f       the project file
+     *  @param  at      the audio trail to save
+     *  @param  markers the markers to save
+     *  @param  afds    the descriptions of the document's sound files, used
+     *                  as templates when the document is saved as audio
+     */
+    public static void write(File f, AudioTrail at, MarkerTrail markers, AudioFileDescr[] afds)
+            throws IOException {
+
+        f = f.getAbsoluteFile();
+
+        final Document      domDoc  = createDocument();
+        final Element       root    = domDoc.createElement(ELEM_ROOT);
+        final Writer        w       = new Writer(domDoc, getMediaFolder(f), at.getTempFiles());
+        final List<Stake>   stakes  = at.getAll(true);
+        Element             e;
+
+        domDoc.appendChild(root);
+        root.setAttribute(ATTR_VERSION, String.valueOf(VERSION));
+        root.setAttribute(ATTR_RATE, String.valueOf(at.getRate()));
+        root.setAttribute(ATTR_LENGTH, String.valueOf(at.getSpan().stop));
+
+        for (AudioFileDescr afd : afds) {
+            e = domDoc.createElement(ELEM_DESCR);
+            if (afd.file != null) e.setAttribute(ATTR_PATH, afd.file.getAbsolutePath());
+            e.setAttribute(ATTR_TYPE, String.valueOf(afd.type));
+            e.setAttribute(ATTR_BITS, String.valueOf(afd.bitsPerSample));
+            e.setAttribute(ATTR_FORMAT, String.valueOf(afd.sampleFormat));
+            e.setAttribute(ATTR_NUMCH, String.valueOf(afd.channels));
+            root.appendChild(e);
+        }
+
+        for (int i = 0; i < markers.getNumStakes(); i++) {
+            final MarkerStake ms = markers.get(i);
+            e = domDoc.createElement(ELEM_MARKER);
+            e.setAttribute(ATTR_POS, String.valueOf(ms.pos));
+            e.setAttribute(ATTR_NAME, ms.name);
+            root.appendChild(e);
+        }
+
+        final Element trail = domDoc.createElement(ELEM_TRAIL);
+        root.appendChild(trail);
+        for (int[] channelMap : at.getChannelMaps()) {
+            e = domDoc.createElement(ELEM_CHANNELS);
+            e.setAttribute(ATTR_MAP, formatInts(channelMap));
+            trail.appendChild(e);
+        }
+        for (Stake stake : stakes) {
+            trail.appendChild(((AudioStake) stake).toProject(w));
+        }
+
+        w.copyTempRegions();
+
+        // read before the file is replaced; null if it cannot be parsed
+        final Set<File> previous = f.exists() ? readRefs(f) : Collections.<File>emptySet();
+
+        final File fTemp = File.createTempFile("eis", null, f.getParentFile());
+        boolean success = false;
+        try {
+            final Transformer t = TransformerFactory.newInstance().newTransformer();
+            t.setOutputProperty(OutputKeys.INDENT, "yes");
+            t.transform(new DOMSource(domDoc), new StreamResult(fTemp));
+            if ((f.exists() && !f.delete()) || !fTemp.renameTo(f)) {
+                throw new IOException("Project file '" + f.getName() + "' could not be replaced");
+            }
+            success = true;
+        } catch (TransformerException e1) {
+            throw new IOException(e1.getLocalizedMessage());
+        } finally {
+            if (!success && !fTemp.delete()) fTemp.deleteOnExit();
+        }
+
+        if (previous != null) w.purgeMediaFolder(f, previous, at.getProjectFiles());
+    }
+
+    /**
+     *  Reads a project file.
+     *
+     *  @return the restored audio trail along with the descriptions of the
+     *          document's sound files. The markers are stored in the
+     *          <code>KEY_MARKERS</code> property of the first description.
+     */
+    public static Content read(File f)
+            throws IOException {
+
+        f = f.getAbsoluteFile();
+
+        final Document  domDoc;
+        final Element   root;
+
+        try {
+            domDoc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(f);
+        } catch (ParserConfigurationException e1) {
+            throw new IOException(e1.getLocalizedMessage());
+        } catch (SAXException e1) {
+            throw new IOException(e1.getLocalizedMessage());
+        }
+        root = domDoc.getDocumentElement();
+        if (!root.getTagName().equals(ELEM_ROOT)) throw new IOException("Not a project file: " + f.getName());
+        if (parseInt(root, ATTR_VERSION) > VERSION) {
+            throw new IOException("Project file '" + f.getName() + "' was written by a newer version");
+        }
+
+        final double                rate        = Double.parseDouble(root.getAttribute(ATTR_RATE));
+        final long                  length      = parseLong(root, ATTR_LENGTH);
+        final List<AudioFileDescr>  afds        = new ArrayList<AudioFileDescr>();
+        final List<Marker>          marks       = new ArrayList<Marker>();
+        final List<Element>         trails      = getChildren(root, ELEM_TRAIL);
+
+        for (Element e : getChildren(root, ELEM_DESCR)) {
+            final AudioFileDescr afd = new AudioFileDescr();
+            if (e.hasAttribute(ATTR_PATH)) afd.file = new File(e.getAttribute(ATTR_PATH));
+            afd.type            = parseInt(e, ATTR_TYPE);
+            afd.bitsPerSample   = parseInt(e, ATTR_BITS);
+            afd.sampleFormat    = parseInt(e, ATTR_FORMAT);
+            afd.channels        = parseInt(e, ATTR_NUMCH);
+            afd.rate            = rate;
+            afd.length          = length;
+            afds.add(afd);
+        }
+        for (Element e : getChildren(root, ELEM_MARKER)) {
+            marks.add(new Marker(parseLong(e, ATTR_POS), e.getAttribute(ATTR_NAME)));
+        }
+        if (afds.isEmpty() || (trails.size() != 1)) throw new IOException("Corrupt project file: " + f.getName());
+        afds.get(0).setProperty(AudioFileDescr.KEY_MARKERS, marks);
+
+        final Reader r = new Reader(f);
+        try {
+            final Element       trail       = trails.get(0);
+            final List<Element> chanElems   = getChildren(trail, ELEM_CHANNELS);
+            final int[][]       channelMaps = new int[chanElems.size()][];
+            for (int i = 0; i < channelMaps.length; i++) {
+                channelMaps[i] = parseInts(chanElems.get(i), ATTR_MAP);
+            }
+
+            final List<Element> stakeElems  = getChildren(trail, ELEM_STAKE);
+            final List<Stake>   stakes      = new ArrayList<Stake>(stakeElems.size());
+            final AudioTrail    at          = AudioTrail.newFromProject(channelMaps, rate, afds.size());
+            long                pos         = 0;
+
+            try {
+                for (Element e : stakeElems) {
+                    final AudioStake stake = r.readStake(e, at);
+                    stakes.add(stake);
+                    if ((stake.getSpan().start != pos) || (stake.getChannelNum() != at.getChannelNum())) {
+                        throw new IOException("Corrupt project file: " + f.getName());
+                    }
+                    pos = stake.getSpan().stop;
+                }
+                if (pos != length) throw new IOException("Corrupt project file: " + f.getName());
+                if (!stakes.isEmpty()) at.addAll(null, stakes);
+            } catch (RuntimeException e1) {     // e.g. number format
+                for (Stake stake : stakes) stake.dispose();
+                at.dispose();
+                throw new IOException("Corrupt project file: " + f.getName() + " (" + e1 + ")");
+            } catch (IOException e1) {
+                for (Stake stake : stakes) stake.dispose();
+                at.dispose();
+                throw e1;
+            }
+            at.setProjectFiles(r.files.toArray(new AudioFile[r.files.size()]));
+            return new Content(at, afds.toArray(new AudioFileDescr[afds.size()]));
+
+        } catch (IOException e1) {
+            r.cleanUp();
+            throw e1;
+        } catch (RuntimeException e1) {
+            r.cleanUp();
+            throw new IOException("Corrupt project file: " + f.getName() + " (" + e1 + ")");
+        }
+    }
+
+    // ---------------- helpers ----------------
+
+    /*
+     *  Returns the absolute paths of all files referenced
+     *  by a project, or null if it cannot be parsed.
+     */
+    private static Set<File> readRefs(File f) {
+        final Set<File>     result      = new HashSet<File>();
+        final File          projectDir  = f.getAbsoluteFile().getParentFile();
+        final NodeList      nl;
+
+        try {
+            nl = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(f).getElementsByTagName(ELEM_REF);
+        } catch (Exception e1) {    // parser configuration, SAX, IO
+            return null;
+        }
+        for (int i = 0; i < nl.getLength(); i++) {
+            final Element e = (Element) nl.item(i);
+            if (e.hasAttribute(ATTR_PATH)) result.add(resolve(projectDir, e.getAttribute(ATTR_PATH)));
+        }
+        return result;
+    }
+
+    private static File resolve(File projectDir, String path) {
+        File f = new File(path);
+        if (!f.isAbsolute()) f = new File(projectDir, f.getPath());
+        return f.getAbsoluteFile();
+    }
+
+    // tells whether a file lies in the media folder of some project
+    private static boolean isInMediaFolder(File f) {
+        final File dir = f.getParentFile();
+        return (dir != null) && dir.getName().endsWith(MEDIA_SUFFIX);
+    }
+
+    private static Document createDocument()
+            throws IOException {
+        try {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        } catch (ParserConfigurationException e1) {
+            throw new IOException(e1.getLocalizedMessage());
+        }
+    }
+
+    private static List<Element> getChildren(Element parent, String tagName) {
+        final NodeList      nl      = parent.getChildNodes();
+        final List<Element> result  = new ArrayList<Element>();
+
+        for (int i = 0; i < nl.getLength(); i++) {
+            final Node n = nl.item(i);
+            if ((n instanceof Element) && ((Element) n).getTagName().equals(tagName)) result.add((Element) n);
+        }
+        return result;
+    }
+
+    static String formatInts(int[] values) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+
+    static String formatFloats(float[] values) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+
+    private static int[] parseInts(Element e, String attr) {
+        final String s = e.getAttribute(attr).trim();
+        if (s.length() == 0) return new int[0];
+        final String[]  tokens  = s.split("\\s+");
+        final int[]     result  = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) result[i] = Integer.parseInt(tokens[i]);
+        return result;
+    }
+
+    private static float[] parseFloats(Element e, String attr) {
+        final String s = e.getAttribute(attr).trim();
+        if (s.length() == 0) return new float[0];
+        final String[]  tokens  = s.split("\\s+");
+        final float[]   result  = new float[tokens.length];
+        for (int i = 0; i < tokens.length; i++) result[i] = Float.parseFloat(tokens[i]);
+        return result;
+    }
+
+    private static int parseInt(Element e, String attr) {
+        return Integer.parseInt(e.getAttribute(attr));
+    }
+
+    private static long parseLong(Element e, String attr) {
+        return Long.parseLong(e.getAttribute(attr));
+    }
+
+    private static Span parseSpan(Element e) {
+        return new Span(parseLong(e, ATTR_START), parseLong(e, ATTR_STOP));
+    }
+
+    private static void setSpan(Element e, Span span) {
+        e.setAttribute(ATTR_START, String.valueOf(span.start));
+        e.setAttribute(ATTR_STOP, String.valueOf(span.stop));
+    }
+
+    // ---------------- internal classes ----------------
+
+    /**
+     *  The result of reading a project.
+     */
+    public static final class Content {
+        public final AudioTrail         trail;
+        public final AudioFileDescr[]   descr;
+
+        Content(AudioTrail trail, AudioFileDescr[] descr) {
+            this.trail  = trail;
+            this.descr  = descr;
+        }
+    }
+
+    /*
+     *  Used by the stakes to describe themselves, see AudioStake.toProject.
+     *  References to temporary files and to media files of other projects
+     *  are collected first and resolved once the regions have been copied
+     *  to the media folder.
+     */
+    static final class Writer {
+        private final Document                      domDoc;
+        private final File                          mediaDir;
+        private final Set<InterleavedStreamFile>    tempFiles;
+        private final Map<AudioFile, List<Ref>>     tempRefs    = new IdentityHashMap<AudioFile, List<Ref>>();
+        private final Set<File>                     mediaUsed   = new HashSet<File>();
+
+        Writer(Document domDoc, File mediaDir, AudioFile[] tempFiles) {
+            this.domDoc     = domDoc;
+            this.mediaDir   = mediaDir;
+            this.tempFiles  = Collections.newSetFromMap(new IdentityHashMap<InterleavedStreamFile, Boolean>());
+            if (tempFiles != null) this.tempFiles.addAll(Arrays.asList(tempFiles));
+        }
+
+        Element createStake(String type, Span span) {
+            final Element e = domDoc.createElement(ELEM_STAKE);
+            e.setAttribute(ATTR_TYPE, type);
+            setSpan(e, span);
+            return e;
+        }
+
+        void setTransform(Element stake, float[] gains, int[] channelMap, boolean reverse) {
+            stake.setAttribute(ATTR_GAINS, formatFloats(gains));
+            stake.setAttribute(ATTR_MAP, formatInts(channelMap));
+            stake.setAttribute(ATTR_REVERSE, String.valueOf(reverse));
+        }
+
+        void setNumChannels(Element stake, int numChannels) {
+            stake.setAttribute(ATTR_NUMCH, String.valueOf(numChannels));
+        }
+
+        /**
+         *  Adds a reference to a region of a sound file.
+         *
+         *  @param  channelMap  the channels of the file used by the stake, or <code>null</code> for all
+         */
+        void addRef(Element stake, InterleavedStreamFile f, Span fileSpan, int[] channelMap)
+                throws IOException {
+
+            final Element   e       = domDoc.createElement(ELEM_REF);
+            final File      path    = f.getFile().getAbsoluteFile();
+            if (channelMap != null) e.setAttribute(ATTR_MAP, formatInts(channelMap));
+            stake.appendChild(e);
+
+            if (mediaDir.equals(path.getParentFile())) {    // copy from a previous save
+                mediaUsed.add(path);
+                setPath(e, path);
+                setSpan(e, fileSpan);
+            } else if (tempFiles.contains(f) || isInMediaFolder(path)) {
+                // temporary files are deleted later, and media files of
+                // other projects may be deleted when those are saved again
+                List<Ref> refs = tempRefs.get(f);
+                if (refs == null) {
+                    refs = new ArrayList<Ref>();
+                    tempRefs.put((AudioFile) f, refs);
+                }
+                refs.add(new Ref(e, fileSpan));
+            } else {
+                setPath(e, path);
+                setSpan(e, fileSpan);
+            }
+        }
+
+        // paths in the media folder are stored relative to the project
+        private void setPath(Element ref, File path) {
+            ref.setAttribute(ATTR_PATH, mediaDir.equals(path.getParentFile()) ?
+                    mediaDir.getName() + '/' + path.getName() : path.getAbsolutePath());
+            ref.setAttribute(ATTR_SIZE, String.valueOf(path.length()));
+            ref.setAttribute(ATTR_MODIFIED, String.valueOf(path.lastModified()));
+        }
+
+        /*
+         *  Resolves the collected references. Regions which an earlier save
+         *  has copied to the media folder, and whose media file is unchanged,
+         *  are referenced there. The remaining regions of each source file are
+         *  copied to a new file in the media folder.
+         */
+        void copyTempRegions()
+                throws IOException {
+
+            if (tempRefs.isEmpty()) return;
+            if (!mediaDir.isDirectory() && !mediaDir.mkdirs()) {
+                throw new IOException("Media folder '" + mediaDir.getName() + "' could not be created");
+            }
+
+            for (Map.Entry<AudioFile, List<Ref>> entry : tempRefs.entrySet()) {
+                final AudioFile         tf      = entry.getKey();
+                final List<Region>      regions = Region.merge(entry.getValue());
+                final List<Region>      copy    = new ArrayList<Region>();
+
+                for (Region region : regions) {
+                    final MediaCopy mc = findCopy(tf, region);
+                    if (mc == null) {
+                        copy.add(region);
+                    } else {
+                        mediaUsed.add(mc.file);
+                        region.resolve(this, mc.file, mc.mediaStart - mc.fileSpan.start);
+                    }
+                }
+                if (!copy.isEmpty()) copyRegions(tf, copy);
+            }
+        }
+
+        // returns an unchanged copy of the region in the media folder, or null
+        private MediaCopy findCopy(AudioFile tf, Region region) {
+            synchronized (mediaCopies) {
+                final List<MediaCopy> copies = mediaCopies.get(tf);
+                if (copies == null) return null;
+
+                for (Iterator<MediaCopy> iter = copies.iterator(); iter.hasNext(); ) {
+                    final MediaCopy mc = iter.next();
+                    if (!mc.isValid()) {
+                        iter.remove();
+                    } else if (mediaDir.equals(mc.file.getParentFile()) && mc.fileSpan.contains(region.span)) {
+                        return mc;
+                    }
+                }
+                return null;
+            }
+        }
+
+        private void copyRegions(AudioFile tf, List<Region> regions)
+                throws IOException {
+
+            final AudioFileDescr    afd         = new AudioFileDescr(tf.getDescr());
+            final AudioFile         mf;
+            final long[]            mediaStarts = new long[regions.size()];
+            long                    mediaOffset = 0;
+
+            afd.file = File.createTempFile("eis", ".w64", mediaDir);
+            afd.setProperty(AudioFileDescr.KEY_MARKERS, null);
+            mf = AudioFile.openAsWrite(afd);
+            try {
+                for (int i = 0; i < mediaStarts.length; i++) {
+                    final Region region = regions.get(i);
+                    copyFrames(tf, region.span, mf);
+                    mediaStarts[i]  = mediaOffset;
+                    mediaOffset    += region.span.getLength();
+                }
+                mf.close();
+            } catch (IOException e1) {
+                mf.cleanUp();
+                if (!afd.file.delete()) afd.file.deleteOnExit();
+                throw e1;
+            }
+
+            final File file = afd.file.getAbsoluteFile();
+            mediaUsed.add(file);
+            synchronized (mediaCopies) {
+                List<MediaCopy> copies = mediaCopies.get(tf);
+                if (copies == null) {
+                    copies = new ArrayList<MediaCopy>();
+                    mediaCopies.put(tf, copies);
+                }
+                for (int i = 0; i < mediaStarts.length; i++) {
+                    final Region region = regions.get(i);
+                    region.resolve(this, file, mediaStarts[i] - region.span.start);
+                    copies.add(new MediaCopy(file, region.span, mediaStarts[i]));
+                }
+            }
+        }
+
+        private static void copyFrames(AudioFile source, Span span, AudioFile target)
+                throws IOException {
+
+            if (span.isEmpty()) return;
+            synchronized (source) {
+                source.seekFrame(span.start);
+                source.copyFrames(target, span.getLength());
+            }
+        }
+
+        /*
+         *  Deletes media files which the replaced version of the project
+         *  referenced and which are not needed any more. Files still
+         *  referenced by other projects in the same folder are kept.
+         */
+        void purgeMediaFolder(File f, Set<File> previous, AudioFile[] openFiles) {
+            final Set<File> keep = new HashSet<File>(mediaUsed);
+            for (AudioFile af : openFiles) keep.add(af.getFile().getAbsoluteFile());
+
+            final File      pf          = f.getAbsoluteFile();
+            final File[]    siblings    = pf.getParentFile().listFiles();
+            if (siblings == null) return;
+            for (File sibling : siblings) {
+                if (!isProjectFile(sibling) || sibling.getAbsoluteFile().equals(pf)) continue;
+                final Set<File> refs = readRefs(sibling);
+                if (refs == null) return;   // cannot tell what it refers to
+                keep.addAll(refs);
+            }
+
+            for (File mf : previous) {
+                if (mediaDir.equals(mf.getParentFile()) && mf.isFile() && !keep.contains(mf)) {
+                    if (!mf.delete()) System.err.println("Media file '" + mf.getName() + "' could not be deleted");
+                }
+            }
+        }
+    }
+
+    private static final class Ref {
+        final Element   elem;
+        final Span      fileSpan;
+
+        Ref(Element elem, Span fileSpan) {
+            this.elem       = elem;
+            this.fileSpan   = fileSpan;
+        }
+
+        static final Comparator<Ref> byStart = new Comparator<Ref>() {
+            public int compare(Ref a, Ref b) {
+                return a.fileSpan.start < b.fileSpan.start ? -1 : (a.fileSpan.start > b.fileSpan.start ? 1 : 0);
+            }
+        };
+    }
+
+    /*
+     *  A contiguous region of a source file covering one or more
+     *  references, so that each frame is copied at most once.
+     */
+    private static final class Region {
+        Span                span;
+        final List<Ref>     refs    = new ArrayList<Ref>();
+
+        private Region(Span span) {
+            this.span = span;
+        }
+
+        // merges overlapping and adjacent references
+        static List<Region> merge(List<Ref> refs) {
+            final List<Region>  result  = new ArrayList<Region>();
+            Region              region  = null;
+
+            Collections.sort(refs, Ref.byStart);
+            for (Ref ref : refs) {
+                if ((region == null) || (ref.fileSpan.start > region.span.stop)) {
+                    region = new Region(ref.fileSpan);
+                    result.add(region);
+                } else if (ref.fileSpan.stop > region.span.stop) {
+                    region.span = new Span(region.span.start, ref.fileSpan.stop);
+                }
+                region.refs.add(ref);
+            }
+            return result;
+        }
+
+        // lets the references point to the region's frames in a media file
+        void resolve(Writer w, File file, long shift) {
+            for (Ref ref : refs) {
+                w.setPath(ref.elem, file);
+                setSpan(ref.elem, ref.fileSpan.shift(shift));
+            }
+        }
+    }
+
+    /*
+     *  A region of a source file which has been copied to a media file.
+     *  The copy may be reused as long as the media file is unchanged.
+     */
+    private static final class MediaCopy {
+        final File  file;
+        final Span  fileSpan;
+        final long  mediaStart;
+        final long  size;
+        final long  modified;
+
+        MediaCopy(File file, Span fileSpan, long mediaStart) {
+            this.file       = file;
+            this.fileSpan   = fileSpan;
+            this.mediaStart = mediaStart;
+            size            = file.length();
+            modified        = file.lastModified();
+        }
+
+        boolean isValid() {
+            return file.isFile() && (file.length() == size) && (file.lastModified() == modified);
+        }
+    }
+
+    /*
+     *  Creates stakes from their descriptions. Each sound file
+     *  is opened once, and is owned by the restored trail.
+     */
+    private static final class Reader {
+        private final File                  projectDir;
+        private final Map<File, AudioFile>  opened  = new HashMap<File, AudioFile>();
+        final List<AudioFile>               files   = new ArrayList<AudioFile>();
+
+        Reader(File f) {
+            projectDir = f.getParentFile();
+        }
+
+        AudioStake readStake(Element e, AudioTrail at)
+                throws IOException {
+
+            final String        type    = e.getAttribute(ATTR_TYPE);
+            final Span          span    = parseSpan(e);
+            final List<Element> refs    = getChildren(e, ELEM_REF);
+
+            if (type.equals(STAKE_FILE)) {
+                if (refs.size() != 1) throw new IOException("Corrupt stake " + span);
+                final Element ref = refs.get(0);
+                return new InterleavedAudioStake(span, open(ref), parseSpan(ref));
+
+            } else if (type.equals(STAKE_MULTI)) {
+                final InterleavedStreamFile[]   fs          = new InterleavedStreamFile[refs.size()];
+                final Span[]                    fileSpans   = new Span[fs.length];
+                final int[][]                   channelMaps = new int[fs.length][];
+                for (int i = 0; i < fs.length; i++) {
+                    final Element ref = refs.get(i);
+                    fs[i]           = open(ref);
+                    fileSpans[i]    = parseSpan(ref);
+                    channelMaps[i]  = parseInts(ref, ATTR_MAP);
+                }
+                return new MultiMappedAudioStake(span, fs, fileSpans, channelMaps);
+
+            } else if (type.equals(STAKE_SILENT)) {
+                return new SilentAudioStake(span, parseInt(e, ATTR_NUMCH));
+
+            } else if (type.equals(STAKE_TRANSFORM)) {
+                final List<Element> inner = getChildren(e, ELEM_STAKE);
+                if (inner.size() != 1) throw new IOException("Corrupt stake " + span);
+                final AudioStake        stake   = readStake(inner.get(0), at);
+                final AudioTransform    t       = new AudioTransform(parseFloats(e, ATTR_GAINS),
+                        parseInts(e, ATTR_MAP), Boolean.valueOf(e.getAttribute(ATTR_REVERSE)));
+                try {
+                    t.verify(stake.getChannelNum());
+                } catch (IllegalArgumentException e1) {
+                    stake.dispose();
+                    throw new IOException("Corrupt stake " + span + " (" + e1.getLocalizedMessage() + ")");
+                }
+                return TransformedAudioStake.create(at, stake, span, t);
+
+            } else {
+                throw new IOException("Unknown stake type '" + type + "'");
+            }
+        }
+
+        private AudioFile open(Element ref)
+                throws IOException {
+
+            final File path = resolve(projectDir, ref.getAttribute(ATTR_PATH));
+
+            if (ref.hasAttribute(ATTR_SIZE) && ((path.length() != parseLong(ref, ATTR_SIZE)) ||
+                    (path.lastModified() != parseLong(ref, ATTR_MODIFIED)))) {
+                throw new IOException("Sound file '" + path.getAbsolutePath() + "' has changed since the project was saved");
+            }
+
+            AudioFile af = opened.get(path);
+            if (af == null) {
+                af = AudioFile.openAsRead(path);
+                opened.put(path, af);
+                files.add(af);
+            }
+            return af;
+        }
+
+        void cleanUp() {
+            for (AudioFile af : files) af.cleanUp();
+        }
+    }
+}
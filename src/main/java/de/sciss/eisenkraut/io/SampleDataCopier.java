@@ -0,0 +1,325 @@
+/*
+ *  SampleDataCopier.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.io;
+
+import de.sciss.io.AudioFile;
+import de.sciss.io.AudioFileDescr;
+import de.sciss.io.IOUtil;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ *  Copies sample frames from sound files to a target sound file
+ *  without decoding them, using <code>FileChannel.transferTo</code>.
+ *  This is possible if both files store their frames in the same way,
+ *  i.e. with the same number of channels, resolution, sample format,
+ *  byte order and signedness. The sample data offsets are found by
+ *  parsing the AIFF, WAVE, Wave64 and NeXT/Sun headers; other formats
+ *  are not supported.
+ *  <p>
+ *  Note that the target <code>AudioFile</code> does not know about frames
+ *  written this way. The caller must make sure that its length is updated,
+ *  e.g. by writing the last frame of each copied region regularly.
+ *  <p>
+ *  If only the header of a file differs, <code>rewriteHeader</code>
+ *  replaces it in place, so no frames need to be copied at all.
+ *  That replacement is not crash-safe.
+ */
+final class SampleDataCopier {
+
+    // four character codes, big endian
+    private static final int RIFF_MAGIC = 0x52494646;  // 'RIFF'
+    private static final int DATA_MAGIC = 0x64617461;  // 'data'
+    private static final int SND_MAGIC  = 0x2E736E64;  // '.snd'
+
+    private final Layout                        targetLayout;
+    private final Map<AudioFile, Layout>        sourceLayouts   = new IdentityHashMap<AudioFile, Layout>();
+
+    SampleDataCopier(AudioFile target)
+            throws IOException {
+
+        targetLayout    = readLayout(target, "rw");
+    }
+
+    /**
+     *  Copies frames verbatim from a source to the target file.
+     *
+     *  @return <code>true</code> if the frames were copied, <code>false</code>
+     *          if the files are incompatible, in which case nothing was written
+     */
+    boolean copy(AudioFile source, long sourceFrame, long targetFrame, long numFrames)
+            throws IOException {
+
+        if (targetLayout == null) return false;
+
+        final Layout sl;
+        if (sourceLayouts.containsKey(source)) {
+            sl = sourceLayouts.get(source);
+        } else {
+            sl = readLayout(source, "r");
+            sourceLayouts.put(source, sl);
+        }
+        if ((sl == null) || !sl.matches(targetLayout)) return false;
+
+        final FileChannel   sch         = sl.raf.getChannel();
+        final long          numBytes    = numFrames * sl.frameBytes;
+        long                pos         = sl.dataOffset + sourceFrame * sl.frameBytes;
+        long                rem         = numBytes;
+
+        if (sch.size() < pos + numBytes) return false;    // not yet written
+
+        final FileChannel tch = targetLayout.raf.getChannel();
+        tch.position(targetLayout.dataOffset + targetFrame * targetLayout.frameBytes);
+        while (rem > 0) {
+            final long n = sch.transferTo(pos, rem, tch);
+            if (n <= 0) throw new IOException("Could not copy sample data of " + source.getFile().getName());
+            pos += n;
+            rem -= n;
+        }
+        return true;
+    }
+
+    void dispose() {
+        for (Layout sl : sourceLayouts.values()) {
+            if (sl != null) {
+                try { sl.raf.close(); } catch (IOException e1) { /* ignore */ }
+            }
+        }
+        sourceLayouts.clear();
+        if (targetLayout != null) {
+            try { targetLayout.raf.close(); } catch (IOException e1) { /* ignore */ }
+        }
+    }
+
+    /**
+     *  Rewrites the header of an AIFF file in place, so that it becomes
+     *  the header the audio file API writes for a given description,
+     *  e.g. with other markers, while the sample frames stay where they
+     *  are. The new header is obtained by writing a file without frames;
+     *  its frame count and sound data chunk length are then set to those
+     *  of the existing file. A new header that is shorter than the old one
+     *  is padded by the offset field of the sound data chunk.
+     *  <p>
+     *  This is not crash-safe: no backup of the old header is kept, so if
+     *  the application or the system fails while the header is written, the
+     *  file may be left with a corrupt header. To keep that window small, the
+     *  lengths found in the old header must agree with the file length, and
+     *  only the bytes which differ from the old header are written, in one
+     *  write which is forced to the disk before this method returns.
+     *
+     *  @param  af  the file to rewrite, which must have been opened for reading
+     *  @param  afd the new description, whose sample format must match the file
+     *
+     *  @return <code>false</code> if the header cannot be rewritten, in which case
+     *          the file is left untouched: if the file is not an AIFF file, the
+     *          sample layout differs, chunks follow the sample data, the lengths
+     *          in the header do not agree with the file length, or the new header
+     *          does not fit in front of the sample data
+     */
+    static boolean rewriteHeader(AudioFile af, AudioFileDescr afd)
+            throws IOException {
+
+        if ((af.getDescr().type != AudioFileDescr.TYPE_AIFF) || (afd.type != AudioFileDescr.TYPE_AIFF)) return false;
+
+        final AudioFileDescr    afdHead = new AudioFileDescr(afd);
+        final AIFFHeader        hh;
+        final ByteBuffer        head;
+
+        afdHead.file = IOUtil.createTempFile("eis", ".aif");
+        try {
+            AudioFile.openAsWrite(afdHead).close();
+            final RandomAccessFile raf = new RandomAccessFile(afdHead.file, "r");
+            try {
+                final FileChannel ch = raf.getChannel();
+                hh = AIFFHeader.read(ch);
+                if ((hh == null) || !hh.isDataLast(ch)) return false;
+                head = read(ch, 0, (int) hh.ssndOffset + 16, ByteOrder.BIG_ENDIAN);
+            } finally {
+                raf.close();
+            }
+        } finally {
+            if (!afdHead.file.delete()) afdHead.file.deleteOnExit();
+        }
+        if (head == null) return false;
+
+        final RandomAccessFile raf = new RandomAccessFile(af.getFile(), "rw");
+        try {
+            final FileChannel   ch  = raf.getChannel();
+            final AIFFHeader    h   = AIFFHeader.read(ch);
+            if ((h == null) || !h.matches(hh) || !h.isDataLast(ch)) return false;
+
+            final long pad = h.dataOffset - head.capacity();
+            if (pad < 0) return false;
+
+            // the old header must describe exactly the file as it is
+            final long          fileLen = ch.size();
+            final long          dataLen = h.ssndLen - (h.dataOffset - h.ssndOffset - 8);
+            final ByteBuffer    old     = read(ch, 0, (int) h.dataOffset, ByteOrder.BIG_ENDIAN);
+            if ((old == null) || ((old.getInt(4) & 0xFFFFFFFFL) != fileLen - 8) ||
+                (dataLen != h.numFrames * h.frameSize)) return false;
+
+            final ByteBuffer    b       = ByteBuffer.allocate((int) h.dataOffset);
+            b.put(head.array());
+            b.putInt(4, (int) (fileLen - 8));                       // 'FORM' length
+            b.putInt((int) hh.commOffset, (int) h.numFrames);
+            b.putInt((int) hh.ssndOffset + 4, (int) (8 + pad + dataLen));
+            b.putInt((int) hh.ssndOffset + 8, (int) pad);           // the remaining bytes are zero
+
+            // write only the span of bytes which differ
+            final byte[]    oldBytes    = old.array();
+            final byte[]    newBytes    = b.array();
+            int             start       = 0;
+            int             stop        = newBytes.length;
+            while ((start < stop) && (oldBytes[start] == newBytes[start])) start++;
+            while ((stop > start) && (oldBytes[stop - 1] == newBytes[stop - 1])) stop--;
+            if (start == stop) return true;
+
+            b.limit(stop).position(start);
+            while (b.hasRemaining()) {
+                ch.write(b, b.position());
+            }
+            ch.force(true);
+            return true;
+        } finally {
+            raf.close();
+        }
+    }
+
+    // returns null if the format is not supported
+    private static Layout readLayout(AudioFile af, String mode)
+            throws IOException {
+
+        final AudioFileDescr    afd     = af.getDescr();
+        final RandomAccessFile  raf     = new RandomAccessFile(af.getFile(), mode);
+        final FileChannel       ch      = raf.getChannel();
+        final long              dataOff;
+        final boolean           bigEndian;
+        final boolean           unsigned;
+        boolean                 success = false;
+
+        try {
+            if (afd.type == AudioFileDescr.TYPE_AIFF) {
+                final AIFFHeader h = AIFFHeader.read(ch);
+                if (h == null) return null;
+                dataOff     = h.dataOffset;
+                bigEndian   = h.order == ByteOrder.BIG_ENDIAN;
+                unsigned    = false;
+            } else if (afd.type == AudioFileDescr.TYPE_WAVE) {
+                dataOff     = findRIFFData(ch);
+                bigEndian   = false;
+                unsigned    = afd.bitsPerSample == 8;
+            } else if (afd.type == AudioFileDescr.TYPE_WAVE64) {
+                dataOff     = findWave64Data(ch);
+                bigEndian   = false;
+                unsigned    = afd.bitsPerSample == 8;
+            } else if (afd.type == AudioFileDescr.TYPE_SND) {
+                final ByteBuffer b = read(ch, 0, 8, ByteOrder.BIG_ENDIAN);
+                dataOff     = (b == null) || (b.getInt(0) != SND_MAGIC) ? -1 : b.getInt(4) & 0xFFFFFFFFL;
+                bigEndian   = true;
+                unsigned    = false;
+            } else {
+                return null;
+            }
+            if (dataOff < 0) return null;
+
+            success = true;
+            return new Layout(raf, dataOff, afd, bigEndian, unsigned);
+        } finally {
+            if (!success) raf.close();
+        }
+    }
+
+    private static long findRIFFData(FileChannel ch)
+            throws IOException {
+
+        ByteBuffer  b   = read(ch, 0, 12, ByteOrder.BIG_ENDIAN);
+        if ((b == null) || (b.getInt(0) != RIFF_MAGIC)) return -1;
+        long        pos = 12;
+
+        while ((b = read(ch, pos, 8, ByteOrder.BIG_ENDIAN)) != null) {
+            if (b.getInt(0) == DATA_MAGIC) return pos + 8;
+            final long chunkLen = b.order(ByteOrder.LITTLE_ENDIAN).getInt(4) & 0xFFFFFFFFL;
+            pos += 8 + ((chunkLen + 1) & ~1L);
+        }
+        return -1;
+    }
+
+    /**
+     *  Returns the file offset of the sample data of a Wave64 file or -1.
+     *  Wave64 chunk GUIDs start with the four character code,
+     *  followed by a 64-bit little endian chunk size (including
+     *  the 24 byte header); chunks are aligned to eight bytes.
+     */
+    static long findWave64Data(FileChannel ch)
+            throws IOException {
+
+        ByteBuffer  b;
+        long        pos = 40;    // skip 'riff' chunk header and 'wave' GUID
+
+        while ((b = read(ch, pos, 24, ByteOrder.LITTLE_ENDIAN)) != null) {
+            final int  magic    = b.getInt(0);
+            final long chunkLen = b.getLong(16);
+            if (magic == 0x61746164) return pos + 24;   // 'data' in little endian
+            if (chunkLen < 24) return -1;
+            pos += (chunkLen + 7) & ~7L;
+        }
+        return -1;
+    }
+
+    // returns null if the file is too short
+    private static ByteBuffer read(FileChannel ch, long pos, int len, ByteOrder order)
+            throws IOException {
+
+        if (pos + len > ch.size()) return null;
+        final ByteBuffer b = ByteBuffer.allocate(len).order(order);
+        while (b.hasRemaining()) {
+            if (ch.read(b, pos + b.position()) < 0) return null;
+        }
+        return b;
+    }
+
+    private static final class Layout {
+        final RandomAccessFile  raf;
+        final long              dataOffset;
+        final int               numChannels;
+        final int               bitsPerSample;
+        final int               sampleFormat;
+        final int               frameBytes;
+        final boolean           bigEndian;
+        final boolean           unsigned;
+
+        Layout(RandomAccessFile raf, long dataOffset, AudioFileDescr afd, boolean bigEndian, boolean unsigned) {
+            this.raf            = raf;
+            this.dataOffset     = dataOffset;
+            this.bigEndian      = bigEndian;
+            this.unsigned       = unsigned;
+            numChannels         = afd.channels;
+            bitsPerSample       = afd.bitsPerSample;
+            sampleFormat        = afd.sampleFormat;
+            frameBytes          = ((bitsPerSample + 7) >> 3) * numChannels;
+        }
+
+        boolean matches(Layout that) {
+            return (numChannels == that.numChannels) && (bitsPerSample == that.bitsPerSample) &&
+                   (sampleFormat == that.sampleFormat) && (unsigned == that.unsigned) &&
+                   ((bigEndian == that.bigEndian) || (bitsPerSample == 8));
+        }
+    }
+}
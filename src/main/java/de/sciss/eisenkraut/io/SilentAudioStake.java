@@ -14,6 +14,7 @@
 package de.sciss.eisenkraut.io;
 
 import java.io.IOException;
+import java.util.Collection;
 
 import de.sciss.io.CacheManager;
 import de.sciss.io.InterleavedStreamFile;
@@ -21,6 +22,7 @@ import de.sciss.io.Span;
 import de.sciss.jcollider.Buffer;
 import de.sciss.net.OSCBundle;
 import de.sciss.timebased.Stake;
+import org.w3c.dom.Element;
 
 /**
  *	A fake silent audio stake that occupies no disk space.
@@ -125,6 +127,16 @@ public class SilentAudioStake extends AudioStake {
 		 /* empty */
 	}
 
+	boolean isBackedBy(Collection<? extends InterleavedStreamFile> files) {
+		return true;
+	}
+
+	Element toProject(ProjectFile.Writer w) {
+		final Element e = w.createStake(ProjectFile.STAKE_SILENT, span);
+		w.setNumChannels(e, numChannels);
+		return e;
+	}
+
 	public void addBufferReadMessages(OSCBundle bndl, Span s, Buffer[] bufs, int bufOff) {
 		final int len = (int) s.getLength();
 		if (len == 0) return;
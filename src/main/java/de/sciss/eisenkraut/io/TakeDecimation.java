@@ -0,0 +1,228 @@
+/*
+ *  TakeDecimation.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.io;
+
+import de.sciss.io.AudioFile;
+import de.sciss.io.Span;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ *  Calculates the waveform overview of a take while it is being recorded.
+ *  A thread tails the growing AIFF file written by the server's
+ *  <code>DiskOut</code> and appends the decimations of each new
+ *  block to temporary files, using the model of a document's
+ *  <code>DecimatedWaveTrail</code>. When the take is inserted into
+ *  the document (see <code>AudioTrail.adoptTake</code>), the trail
+ *  adopts these decimations instead of reading the whole take again.
+ *  <p>
+ *  Call <code>finish</code> when the recording has been stopped, so the
+ *  remaining frames are decimated once the server has closed the file,
+ *  and <code>dispose</code> when the take is not needed any more.
+ */
+public class TakeDecimation
+        implements Runnable {
+
+    private static final int    POLL_PERIOD     = 100;      // milliseconds between checks of the file
+    private static final int    FINISH_TIMEOUT  = 4000;     // milliseconds to wait for the file to be closed
+    private static final int    BLOCK_SIZE      = 65536;    // fullrate frames decimated at once
+
+    // large enough for any recording; the stake is trimmed on adoption
+    private static final long   CAPACITY        = 1L << 48;
+
+    private final DecimatedWaveTrail    trail;
+    private final File                  f;
+    private final AudioFile[]           tempFiles;
+    private final DecimatedStake        das;
+    private final Thread                thread;
+
+    private volatile boolean    finishRequested = false;
+    private volatile boolean    keepRunning     = true;
+    private boolean             complete        = false;    // guarded by this
+    private boolean             adopted         = false;    // guarded by this
+    private long                numFrames       = 0L;
+
+    /**
+     *  Starts tailing a take.
+     *
+     *  @param  trail   the overview of the document into which the take will be inserted
+     *  @param  f       the file the take is recorded to
+     *
+     *  @throws IOException if the temporary files cannot be created
+     */
+    public TakeDecimation(DecimatedWaveTrail trail, File f)
+            throws IOException {
+
+        final Span[] fileSpans      = new Span[trail.SUBNUM];
+        final Span[] biasedSpans    = new Span[trail.SUBNUM];
+        final Span   span           = new Span(0, CAPACITY);
+
+        for (int i = 0; i < trail.SUBNUM; i++) {
+            fileSpans[i]    = new Span(0, CAPACITY >> trail.decimHelps[i].shift);
+            biasedSpans[i]  = span;
+        }
+
+        this.trail  = trail;
+        this.f      = f;
+        tempFiles   = trail.createTempFiles();
+        das         = new DecimatedStake(span, tempFiles, fileSpans, biasedSpans, trail.decimHelps);
+
+        thread      = new Thread(this, "Take decimation");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 2);
+        thread.start();
+    }
+
+    /**
+     *  Tells that the recording has stopped. The remaining frames are
+     *  decimated as soon as the server has closed the file.
+     */
+    public void finish() {
+        finishRequested = true;
+        thread.interrupt();
+    }
+
+    /**
+     *  Stops the calculation and deletes the decimations,
+     *  unless they have been adopted by the trail.
+     */
+    public void dispose() {
+        keepRunning = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e1) { /* ignore */ }
+
+        synchronized (this) {
+            if (!adopted) trail.deleteTempFiles(tempFiles);
+        }
+    }
+
+    /*
+     *  Hands the decimations over to the trail, waiting for
+     *  the last frames if necessary. The files are from now
+     *  on owned by the trail.
+     *
+     *  @param  span    the span of the take in the trail
+     *  @return a stake covering the span, or <code>null</code> if the decimations
+     *          are not for this trail, do not match the take or are incomplete
+     */
+    DecimatedStake adopt(DecimatedWaveTrail target, Span span) {
+        if (target != trail) return null;
+
+        try {
+            thread.join(FINISH_TIMEOUT);
+        } catch (InterruptedException e1) {
+            return null;
+        }
+
+        synchronized (this) {
+            if (!complete || adopted || (span.getLength() != numFrames)) return null;
+            adopted = true;
+        }
+        trail.addTakeFiles(tempFiles);
+        return (DecimatedStake) das.shiftVirtual(span.start).replaceStop(span.stop);
+    }
+
+    public void run() {
+        AIFFHeader  h           = null;
+        long        deadline    = Long.MAX_VALUE;
+
+        try {
+            final RandomAccessFile  raf     = new RandomAccessFile(f, "r");
+            final int               numCh   = trail.fullChannels;
+            final int               blockLen= trail.MAXCOARSE * Math.max(1, BLOCK_SIZE >> trail.MAXSHIFT);
+            final float[][]         inBuf   = new float[numCh][blockLen];
+            final float[][]         outBuf  = new float[trail.decimChannels][blockLen >> trail.decimHelps[0].shift];
+            byte[]                  bytes   = new byte[0];
+            long                    framesRead  = 0L;
+
+            try {
+                while (keepRunning) {
+                    final boolean last = finishRequested;
+                    if (last && (deadline == Long.MAX_VALUE)) {
+                        deadline = System.currentTimeMillis() + FINISH_TIMEOUT;
+                    }
+
+                    if (h == null) {
+                        h = AIFFHeader.read(raf.getChannel());
+                        if ((h != null) && (h.numChannels != numCh)) return;    // cannot be inserted anyway
+                    }
+                    if (h != null) {
+                        // while recording, the header's frame count is not yet valid
+                        final long avail = last ? readFinalFrames(h, raf) : (raf.length() - h.dataOffset) / h.frameSize;
+                        if (avail >= 0) {
+                            final long stop = last ? avail : avail - (avail % trail.MAXCOARSE);
+                            while (keepRunning && (framesRead < stop)) {
+                                final int len = (int) Math.min(blockLen, stop - framesRead);
+                                if (bytes.length < len * h.frameSize) bytes = new byte[blockLen * h.frameSize];
+                                raf.seek(h.dataOffset + framesRead * h.frameSize);
+                                raf.readFully(bytes, 0, len * h.frameSize);
+                                h.decode(bytes, inBuf, len);
+                                framesRead += len;
+                                decimate(inBuf, outBuf, len);
+                            }
+                            if (last && (framesRead == stop)) {
+                                das.flush();
+                                synchronized (this) {
+                                    numFrames   = framesRead;
+                                    complete    = true;
+                                }
+                                return;
+                            }
+                        }
+                    }
+
+                    if (System.currentTimeMillis() > deadline) return;
+                    try {
+                        Thread.sleep(POLL_PERIOD);
+                    } catch (InterruptedException e1) { /* finish or dispose */ }
+                }
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e1) {
+            System.err.println("Take decimation : " + e1.getClass().getName() + " : " + e1.getLocalizedMessage());
+        }
+    }
+
+    /*
+     *  The frame count is written when the server closes the file.
+     *
+     *  @return the number of frames, or -1 if the file has not yet been closed
+     */
+    private static long readFinalFrames(AIFFHeader h, RandomAccessFile raf)
+            throws IOException {
+
+        final long n = h.readFrameCount(raf.getChannel());
+        return ((n > 0) && (raf.length() >= h.dataOffset + n * h.frameSize)) ? n : -1;
+    }
+
+    // len must be a multiple of MAXCOARSE, except for the last block which is padded
+    private void decimate(float[][] inBuf, float[][] outBuf, int len)
+            throws IOException {
+
+        final int fullLen = (len + trail.MAXCEILADD) & (int) trail.MAXMASK;
+
+        for (float[] chBuf : inBuf) {
+            final float f1 = chBuf[len - 1];
+            for (int i = len; i < fullLen; i++) {
+                chBuf[i] = f1;
+            }
+        }
+        trail.subsampleWrite(inBuf, outBuf, das, fullLen, null, 0);
+    }
+}
@@ -0,0 +1,518 @@
+/*
+ *  TransformedAudioStake.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.io;
+
+import de.sciss.io.CacheManager;
+import de.sciss.io.InterleavedStreamFile;
+import de.sciss.io.Span;
+import de.sciss.jcollider.Buffer;
+import de.sciss.net.OSCBundle;
+import de.sciss.timebased.Stake;
+import org.w3c.dom.Element;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ *  A read-only view of another audio stake which applies an
+ *  <code>AudioTransform</code> on the fly. Views of views are
+ *  collapsed into a single view of the underlying stake.
+ *  <p>
+ *  The sound server can only read from files, therefore for
+ *  playback the transformed frames are rendered into a region
+ *  of the trail's temp files. This happens in blocks on a background
+ *  thread, starting when the view is created, and the rendered blocks
+ *  are shared by all duplicates of the view. Buffer read messages are
+ *  created by the streaming thread, which must not wait for disk or
+ *  DSP work, so frames which have not been rendered yet are played as
+ *  silence and counted as render underruns of the trail. The rendering
+ *  then continues at the requested position. <code>renderFrames</code>
+ *  renders frames on the calling thread instead.
+ */
+final class TransformedAudioStake
+        extends AudioStake {
+
+    private static final int    BUFSIZE         = 8192;
+    private static final int    RENDER_BLOCK    = 65536;
+
+    private static ExecutorService renderer = null;
+
+    private final Core          core;
+    private final long          indexStart;     // index into the core's frames corresponding to span.start
+    private boolean             released        = false;
+
+    private TransformedAudioStake(Span span, Core core, long indexStart) {
+        super(span);
+
+        this.core       = core;
+        this.indexStart = indexStart;
+        core.retain();
+    }
+
+    /**
+     *  Creates a view of a stake, placed at the given span.
+     *  If the transform cancels out a previous one, a plain
+     *  (trimmed) duplicate of the underlying stake is returned.
+     *
+     *  @param  trail   the trail providing temp file regions for rendering
+     *  @param  stake   the stake to transform. It is taken over by the view
+     *                  and must not be disposed by the caller
+     *  @param  newSpan the span of the view, which must have the same length as the stake
+     */
+    static AudioStake create(AudioTrail trail, AudioStake stake, Span newSpan, AudioTransform t) {
+        final int       numChannels = stake.getChannelNum();
+        final long      len         = newSpan.getLength();
+        final float[]   gains       = new float[numChannels];
+        final int[]     channelMap  = new int[numChannels];
+        final AudioStake base;
+        final long      origin;
+        final boolean   reverse;
+        boolean         identity;
+
+        if (len != stake.getSpan().getLength()) throw new IllegalArgumentException(newSpan.toString());
+
+        if (stake instanceof TransformedAudioStake) {
+            final TransformedAudioStake view    = (TransformedAudioStake) stake;
+            final Core                  c       = view.core;
+            base    = c.inner;
+            origin  = c.position(t.isReverse() ? view.indexStart + len - 1 : view.indexStart);
+            reverse = c.reverse ^ t.isReverse();
+            for (int ch = 0; ch < numChannels; ch++) {
+                final int inCh  = t.getInputChannel(ch);
+                gains[ch]       = t.getGain(ch) * c.gains[inCh];
+                channelMap[ch]  = c.channelMap[inCh];
+            }
+        } else {
+            base    = stake;
+            origin  = t.isReverse() ? stake.getSpan().stop - 1 : stake.getSpan().start;
+            reverse = t.isReverse();
+            for (int ch = 0; ch < numChannels; ch++) {
+                gains[ch]       = t.getGain(ch);
+                channelMap[ch]  = t.getInputChannel(ch);
+            }
+        }
+
+        identity = !reverse;
+        for (int ch = 0; identity && (ch < numChannels); ch++) {
+            identity = (gains[ch] == 1f) && (channelMap[ch] == ch);
+        }
+        if (identity) {
+            final AudioStake result = trim(base, new Span(origin, origin + len), newSpan.start - origin);
+            stake.dispose();
+            return result;
+        }
+        if (base != stake) stake.dispose();    // collapsed into the new view
+
+        final Core                  core    = new Core(trail, base, origin, reverse, gains, channelMap, len);
+        final TransformedAudioStake result  = new TransformedAudioStake(newSpan, core, 0);
+        core.schedule(0);
+        return result;
+    }
+
+    /*
+     *  The single thread rendering all views in the background.
+     *  It is a daemon running at lowered priority, so it is never shut down.
+     */
+    private static synchronized ExecutorService getRenderer() {
+        if (renderer == null) {
+            renderer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "TransformedAudioStake");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.NORM_PRIORITY - 2);
+                    return t;
+                }
+            });
+        }
+        return renderer;
+    }
+
+    // returns a duplicate of stake restricted to the given span and shifted by delta
+    private static AudioStake trim(AudioStake stake, Span span, long delta) {
+        Stake result = stake.duplicate();
+        Stake temp;
+
+        if (span.start != result.getSpan().start) {
+            temp    = result;
+            result  = temp.replaceStart(span.start);
+            temp.dispose();    // delete temp product
+        }
+        if (span.stop != result.getSpan().stop) {
+            temp    = result;
+            result  = temp.replaceStop(span.stop);
+            temp.dispose();
+        }
+        if (delta != 0) {
+            temp    = result;
+            result  = temp.shiftVirtual(delta);
+            temp.dispose();
+        }
+        return (AudioStake) result;
+    }
+
+    public void dispose() {
+        release();
+        super.dispose();
+    }
+
+    // a view created by the trail's stake tree, which keeps the core through its origin
+    protected void releaseClaims() {
+        release();
+        super.releaseClaims();
+    }
+
+    private void release() {
+        if (!released) {
+            released = true;
+            core.release();
+        }
+    }
+
+    public void close() {
+        // the underlying stake is not ours
+    }
+
+    public void cleanUp() {
+        // the underlying stake is not ours
+    }
+
+    public Stake duplicate() {
+        return new TransformedAudioStake(span, core, indexStart);
+    }
+
+    public Stake replaceStart(long newStart) {
+        final Span newSpan = span.replaceStart(newStart);
+        if ((newSpan.getLength() < 0) || (newStart < span.start)) {
+            throw new IllegalArgumentException(String.valueOf(newStart));
+        }
+
+        return new TransformedAudioStake(newSpan, core, indexStart + newStart - span.start);
+    }
+
+    public Stake replaceStop(long newStop) {
+        final Span newSpan = span.replaceStop(newStop);
+        if ((newSpan.getLength() < 0) || (newStop > span.stop)) {
+            throw new IllegalArgumentException(String.valueOf(newStop));
+        }
+
+        return new TransformedAudioStake(newSpan, core, indexStart);
+    }
+
+    public Stake shiftVirtual(long delta) {
+        return new TransformedAudioStake(span.shift(delta), core, indexStart);
+    }
+
+    public int readFrames(float[][] data, int dataOffset, Span readSpan)
+            throws IOException {
+
+        final int len = (int) readSpan.getLength();
+        if (len == 0) return 0;
+        checkSpan(readSpan);
+
+        core.read(indexStart + readSpan.start - span.start, data, dataOffset, len);
+        return len;
+    }
+
+    public int writeFrames(float[][] data, int dataOffset, Span writeSpan) {
+        throw new UnsupportedOperationException("Transformed stakes are read-only");
+    }
+
+    public long copyFrames(InterleavedStreamFile target, Span readSpan)
+            throws IOException {
+
+        final long      len     = readSpan.getLength();
+        final float[][] buf     = new float[core.numChannels][(int) Math.min(len, BUFSIZE)];
+        int             chunkLen;
+
+        checkSpan(readSpan);
+        for (long pos = readSpan.start; pos < readSpan.stop; pos += chunkLen) {
+            chunkLen = (int) Math.min(BUFSIZE, readSpan.stop - pos);
+            readFrames(buf, 0, new Span(pos, pos + chunkLen));
+            target.writeFrames(buf, 0, chunkLen);
+        }
+        return len;
+    }
+
+    public void addBufferReadMessages(OSCBundle bndl, Span readSpan, Buffer[] bufs, int bufOff) {
+        final int len = (int) readSpan.getLength();
+        if (len == 0) return;
+        checkSpan(readSpan);
+
+        final long          index       = indexStart + readSpan.start - span.start;
+        final AudioStake    rendered    = core.getRendered(index, len);
+        if (rendered != null) {
+            rendered.addBufferReadMessages(bndl, new Span(index, index + len), bufs, bufOff);
+        } else {
+            core.trail.renderUnderrun();
+            for (Buffer buf : bufs) {    // play silence instead
+                bndl.addPacket(buf.fillMsg(bufOff * buf.getNumChannels(), len * buf.getNumChannels(), 0.0f));
+            }
+        }
+    }
+
+    void renderFrames(Span readSpan)
+            throws IOException {
+
+        final int len = (int) readSpan.getLength();
+        if (len == 0) return;
+        checkSpan(readSpan);
+
+        core.render(indexStart + readSpan.start - span.start, len);
+    }
+
+    /*
+     *  The view is described by the transform and the region of the
+     *  underlying stake it covers, placed at the view's span, as
+     *  expected by create().
+     */
+    Element toProject(ProjectFile.Writer w)
+            throws IOException {
+
+        final long          pos1    = core.position(indexStart);
+        final long          pos2    = core.position(indexStart + span.getLength() - 1);
+        final Span          region  = new Span(Math.min(pos1, pos2), Math.max(pos1, pos2) + 1);
+        final AudioStake    inner   = trim(core.inner, region, span.start - region.start);
+        final Element       e       = w.createStake(ProjectFile.STAKE_TRANSFORM, span);
+
+        try {
+            w.setTransform(e, core.gains, core.channelMap, core.reverse);
+            e.appendChild(inner.toProject(w));
+        } finally {
+            inner.dispose();
+        }
+        return e;
+    }
+
+    public int getChannelNum() {
+        return core.numChannels;
+    }
+
+    public void flush() {
+        /* empty */
+    }
+
+    public void addToCache(CacheManager cm) {
+        /* empty */
+    }
+
+    public void debugDump() {
+        debugDumpBasics();
+        System.err.println(" ; view at index " + indexStart + (core.reverse ? " (reversed)" : "") + " of:");
+        core.inner.debugDump();
+    }
+
+    private void checkSpan(Span readSpan) {
+        if ((readSpan.start < span.start) || (readSpan.stop > span.stop)) {
+            throw new IllegalArgumentException(readSpan.toString() + " not within " + span.toString());
+        }
+    }
+
+    // ---------------- internal classes ----------------
+
+    /*
+     *  The transform of a region of the underlying stake. Frame index i
+     *  of the view corresponds to frame position(i) of the underlying stake.
+     *  As a runnable, the core renders its blocks in the background, beginning
+     *  at the block last requested, until all blocks are rendered or no stake
+     *  uses the core any more.
+     */
+    private static final class Core
+            implements Runnable {
+
+        final AudioTrail    trail;
+        final AudioStake    inner;
+        final long          origin;
+        final boolean       reverse;
+        final float[]       gains;
+        final int[]         channelMap;
+        final int           numChannels;
+        final long          length;
+        private final int   numBlocks;
+
+        // held while a block is rendered, see renderBlock
+        private final Object renderLock     = new Object();
+
+        // frames rendered for playback, index space; guarded by this
+        private AudioStake  rendered        = null;
+        private final BitSet renderedBlocks = new BitSet();
+        private int         nextBlock       = 0;        // where the background rendering continues
+        private boolean     scheduled       = false;    // whether the core is queued or running on the renderer
+        private boolean     failed          = false;
+        private int         numClaims       = 0;        // number of stakes using the core
+
+        Core(AudioTrail trail, AudioStake inner, long origin, boolean reverse, float[] gains, int[] channelMap,
+             long length) {
+            this.trail      = trail;
+            this.inner      = inner;
+            this.origin     = origin;
+            this.reverse    = reverse;
+            this.gains      = gains;
+            this.channelMap = channelMap;
+            this.length     = length;
+            numChannels     = gains.length;
+            numBlocks       = (int) ((length + RENDER_BLOCK - 1) / RENDER_BLOCK);
+        }
+
+        long position(long index) {
+            return reverse ? origin - index : origin + index;
+        }
+
+        synchronized void retain() {
+            numClaims++;
+        }
+
+        // once no stake uses the core, the background rendering stops
+        synchronized void release() {
+            numClaims--;
+        }
+
+        void read(long index, float[][] data, int dataOffset, int len)
+                throws IOException {
+
+            final float[][] innerData   = new float[numChannels][];
+            final long      start       = reverse ? position(index + len - 1) : position(index);
+            float[]         chBuf;
+            float           f1;
+
+            // null channel bufs are passed on
+            for (int ch = 0; ch < numChannels; ch++) {
+                innerData[channelMap[ch]] = data[ch];
+            }
+            inner.readFrames(innerData, dataOffset, new Span(start, start + len));
+
+            for (int ch = 0; ch < numChannels; ch++) {
+                chBuf = data[ch];
+                if (chBuf == null) continue;
+                if (reverse) {
+                    for (int i = dataOffset, j = dataOffset + len - 1; i < j; i++, j--) {
+                        f1          = chBuf[i];
+                        chBuf[i]    = chBuf[j];
+                        chBuf[j]    = f1;
+                    }
+                }
+                f1 = gains[ch];
+                if (f1 != 1f) {
+                    for (int i = dataOffset, stop = dataOffset + len; i < stop; i++) {
+                        chBuf[i] *= f1;
+                    }
+                }
+            }
+        }
+
+        // queues the core on the renderer, continuing at the given block
+        synchronized void schedule(int block) {
+            nextBlock = block;
+            if (!scheduled && !failed) {
+                scheduled = true;
+                getRenderer().execute(this);
+            }
+        }
+
+        // returns the stake holding the frames index ... index + len (in index space)
+        // if they have all been rendered, otherwise schedules their rendering and
+        // returns null. does not block, so it may be called by the streaming thread
+        synchronized AudioStake getRendered(long index, int len) {
+            final int startBlock    = (int) (index / RENDER_BLOCK);
+            final int stopBlock     = (int) ((index + len + RENDER_BLOCK - 1) / RENDER_BLOCK);
+            final int missing       = renderedBlocks.nextClearBit(startBlock);
+
+            if (missing >= stopBlock) return rendered;
+            schedule(missing);
+            return null;
+        }
+
+        // makes sure the frames index ... index + len are rendered,
+        // blocking until they are
+        void render(long index, int len)
+                throws IOException {
+
+            final int       startBlock  = (int) (index / RENDER_BLOCK);
+            final int       stopBlock   = (int) ((index + len + RENDER_BLOCK - 1) / RENDER_BLOCK);
+            final float[][] buf         = new float[numChannels][BUFSIZE];
+
+            for (int block = startBlock; block < stopBlock; block++) {
+                renderBlock(block, buf);
+            }
+        }
+
+        // renders one block, then queues the core again behind the other
+        // views waiting, so the view being played is not held up for long
+        public void run() {
+            final int block = nextScheduledBlock();
+            if (block < 0) return;
+
+            try {
+                renderBlock(block, new float[numChannels][BUFSIZE]);
+                getRenderer().execute(this);
+            } catch (IOException e1) {
+                e1.printStackTrace();
+                synchronized (this) {
+                    failed      = true;     // the affected frames are played as silence
+                    scheduled   = false;
+                }
+            }
+        }
+
+        // returns -1 and leaves the renderer when there is nothing left to do
+        private synchronized int nextScheduledBlock() {
+            int block = -1;
+
+            if (numClaims > 0) {
+                block = renderedBlocks.nextClearBit(nextBlock);
+                if (block >= numBlocks) block = renderedBlocks.nextClearBit(0);
+                if (block >= numBlocks) block = -1;
+            }
+            if (block >= 0) {
+                nextBlock   = block + 1;
+            } else {
+                scheduled   = false;
+            }
+            return block;
+        }
+
+        // renders a block unless that has been done already. the core's monitor is
+        // only held briefly, so getRendered does not wait for the disk or the transform
+        private void renderBlock(int block, float[][] buf)
+                throws IOException {
+
+            synchronized (renderLock) {
+                AudioStake r;
+                synchronized (this) {
+                    if (renderedBlocks.get(block)) return;
+                    r = rendered;
+                }
+                if (r == null) {
+                    r = trail.alloc(new Span(0, length));
+                    synchronized (this) {
+                        rendered = r;
+                    }
+                }
+                final long stop = Math.min(length, (long) (block + 1) * RENDER_BLOCK);
+                int chunkLen;
+                for (long pos = (long) block * RENDER_BLOCK; pos < stop; pos += chunkLen) {
+                    chunkLen = (int) Math.min(BUFSIZE, stop - pos);
+                    read(pos, buf, 0, chunkLen);
+                    r.writeFrames(buf, 0, new Span(pos, pos + chunkLen));
+                }
+                r.flush();
+                synchronized (this) {
+                    renderedBlocks.set(block);
+                }
+            }
+        }
+    }
+}
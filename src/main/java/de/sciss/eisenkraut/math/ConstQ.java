@@ -26,10 +26,19 @@ public class ConstQ
 	public static final String KEY_MAXTIMERES	= "maxtimeres" ;	// Param (ms)
 	public static final String KEY_MAXFFTSIZE	= "maxfftsize";		// Param (String fftSize)
 	
-	private Kernel[]	kernels;
+	// the kernels are stored as one sparse matrix (compressed rows):
+	// the spectral coefficients of kernel k are kernRe/kernIm[ kernOff[ k ] ... kernOff[ k+1 ] ),
+	// starting at (interleaved complex) index kernStart[ k ] of the input spectrum
+	private float[]		kernRe;
+	private float[]		kernIm;
+	private int[]		kernOff;
+	private int[]		kernStart;
+	private float[]		kernFreq;
+	private int			minBin, maxBin;	// range of complex bins covered by any kernel
 	private int			numKernels;
 	private int			fftSize;
 	private float[]		fftBuf;
+	private FFTPlan		fftPlan;
 
 	// rather moderate defaults with 55 Hz, 8ms spacing, 4096 FFT...
 	private float		minFreq		= 55f;	// 27.5f;
@@ -155,7 +164,7 @@ public class ConstQ
 
 	public float getFrequency( int kernel )
 	{
-		return kernels[ kernel ].freq;
+		return kernFreq[ kernel ];
 	}
 	
 	public void createKernels()
@@ -174,7 +183,13 @@ public class ConstQ
 		maxFreq		= (float) Math.min( maxFreq, fs/2 );
 		q			= (float) (1 / (Math.pow( 2, 1.0/bandsPerOct ) - 1));
 		numKernels	= (int) Math.ceil( bandsPerOct * MathUtil.log2( maxFreq / minFreq ));
-		kernels		= new Kernel[ numKernels ];
+		kernOff		= new int[ numKernels + 1 ];
+		kernStart	= new int[ numKernels ];
+		kernFreq	= new float[ numKernels ];
+		kernRe		= new float[ 256 ];
+		kernIm		= new float[ 256 ];
+		minBin		= Integer.MAX_VALUE;
+		maxBin		= 0;
 //		cqKernels	= new float[ cqKernelNum ][];
 //		cqKernelOffs= new int[ cqKernelNum ];
 		maxKernLen	= q * fs / minFreq;
@@ -186,6 +201,7 @@ public class ConstQ
 //		LNKORR_ADD	= -2 * Math.log( fftSize );
 		fftSizeC	= fftSize << 1;
 		fftBuf		= new float[ fftSizeC ];
+		fftPlan		= FFTPlan.get( fftSize );
 //		thresh		= 0.0054f / fftLen; // for Hamming window
 		// weird observation : lowering the threshold will _increase_ the
 		// spectral noise, not improve analysis! so the truncating of the
@@ -253,7 +269,7 @@ public class ConstQ
 			// (the fft of a hamming is a gaussian,
 			// isn't it?)
 			
-			Fourier.complexTransform( fftBuf, fftSize, Fourier.FORWARD );
+			fftPlan.complexTransform( fftBuf, Fourier.FORWARD );
 			// with a "high" threshold like 0.0054, the
 			// point it _not_ to create a sparse matrix by
 			// gating the values. in fact we can locate
@@ -288,9 +304,30 @@ public class ConstQ
 			}
 
 //System.out.println( "Kernel k : specStart " + specStart + "; specStop " + specStop + "; centerFreq " + centerFreq );
-			kernels[ k ] = new Kernel( specStart, new float[ specStop - specStart ], (float) centerFreq );
-			System.arraycopy( fftBuf, specStart, kernels[ k ].data, 0, specStop - specStart );
+			final int num = (specStop - specStart) >> 1;
+			final int off = kernOff[ k ];
+			if( off + num > kernRe.length ) {
+				final int newSize = Math.max( off + num, kernRe.length << 1 );
+				final float[] newRe = new float[ newSize ];
+				final float[] newIm = new float[ newSize ];
+				System.arraycopy( kernRe, 0, newRe, 0, off );
+				System.arraycopy( kernIm, 0, newIm, 0, off );
+				kernRe = newRe;
+				kernIm = newIm;
+			}
+			for( int i = specStart, j = off; i < specStop; i += 2, j++ ) {
+				kernRe[ j ] = fftBuf[ i ];
+				kernIm[ j ] = fftBuf[ i+1 ];
+			}
+			kernOff[ k+1 ]	= off + num;
+			kernStart[ k ]	= specStart;
+			kernFreq[ k ]	= (float) centerFreq;
+			if( num > 0 ) {
+				minBin		= Math.min( minBin, specStart >> 1 );
+				maxBin		= Math.max( maxBin, (specStop >> 1) );
+			}
 		}
+		if( minBin > maxBin ) minBin = maxBin;
 	}
 
 //	/**
@@ -352,17 +389,36 @@ public class ConstQ
 	 * 	of the filter outputs.
 	 */
 	public float[] convolve( float[] output, int outOff )
+	{
+		return convolve( fftBuf, output, outOff );
+	}
+
+	/**
+	 * 	Creates a Fourier domain buffer suitable for the
+	 * 	variants of <code>transform</code> and <code>convolve</code>
+	 * 	which take an explicit buffer. Using one buffer per thread,
+	 * 	these methods may be called concurrently.
+	 */
+	public float[] createFFTBuffer()
+	{
+		return new float[ fftSize << 1 ];
+	}
+
+	/**
+	 * 	Like <code>convolve( float[], int )</code>, but reads
+	 * 	the input spectrum from the given buffer instead of
+	 * 	the internal one.
+	 */
+	public float[] convolve( float[] fftBuf, float[] output, int outOff )
 	{
 		if( output == null ) output = new float[ numKernels ];
 		
-		float[]	kern;
-		float	f1, f2;
+		float	f1, f2, re, im, kr, ki;
 				
 		for( int k = 0; k < numKernels; k++, outOff++ ) {
-			kern	= kernels[ k ].data;
 			f1		= 0f;
 			f2		= 0f;
-			for( int i = kernels[ k ].offset, j = 0; j < kern.length; i += 2, j += 2 ) {
+			for( int i = kernStart[ k ], j = kernOff[ k ], stop = kernOff[ k+1 ]; j < stop; i += 2, j++ ) {
 				// complex mult: a * b =
 				// (re(a)re(b)-im(a)im(b))+i(re(a)im(b)+im(a)re(b))
 				// ; since we left out the conjugation of the kernel(!!)
@@ -370,12 +426,13 @@ public class ConstQ
 				// (re(a)re(b)+im(a)im(b))+i(im(a)re(b)-re(a)im(b))
 				// ; in fact this conjugation is unimportant for the
 				// calculation of the magnitudes...
-				f1 += fftBuf[ i ] * kern[ j ] - fftBuf[ i+1 ] * kern[ j+1 ];
-				f2 += fftBuf[ i ] * kern[ j+1 ] + fftBuf[ i+1 ] * kern[ j ];
+				re	= fftBuf[ i ];
+				im	= fftBuf[ i+1 ];
+				kr	= kernRe[ j ];
+				ki	= kernIm[ j ];
+				f1 += re * kr - im * ki;
+				f2 += re * ki + im * kr;
 			}
-//			cBuf[ k ] = ;  // squared magnitude
-//			f1 = (float) ((Math.log( f1 * f1 + f2 * f2 ) + LNKORR_ADD) * gain);
-//f1 = Math.max( -160, f1 + 90 );
 			
 			// since we use constQ to decimate spectra, we actually
 			// are going to store a "mean square" of the amplitudes
@@ -391,17 +448,98 @@ public class ConstQ
 	}
 	
 	public float[] transform( float[] input, int inOff, int inLen, float output[], int outOff )
+	{
+		return transform( input, inOff, inLen, output, outOff, fftBuf );
+	}
+
+	/**
+	 * 	Like <code>transform( float[], int, int, float[], int )</code>,
+	 * 	but uses the given buffer (as returned by <code>createFFTBuffer</code>)
+	 * 	instead of the internal one.
+	 */
+	public float[] transform( float[] input, int inOff, int inLen, float output[], int outOff, float[] fftBuf )
 	{
 		if( output == null ) output = new float[ numKernels ];
 		
+		spectrum( input, inOff, inLen, fftBuf );
+		
+		return convolve( fftBuf, output, outOff );
+	}
+
+	/**
+	 * 	Creates the buffers required for the batched <code>transform</code>.
+	 * 	Each thread needs its own batch.
+	 *
+	 * 	@param	maxHops	the maximum number of hops per call
+	 */
+	public Batch createBatch( int maxHops )
+	{
+		return new Batch( fftSize, maxBin - minBin, maxHops );
+	}
+
+	/**
+	 * 	Batched variant of <code>transform</code>. Calculates the filter
+	 * 	outputs of <code>numHops</code> windows of <code>getFFTSize()</code>
+	 * 	frames of the input, the first starting at <code>inOff</code>,
+	 * 	the next ones spaced by <code>stepSize</code>. The spectra are
+	 * 	stored transposed (one row of hops per frequency bin), so the
+	 * 	kernel multiplication runs over contiguous arrays of hops which
+	 * 	the JIT can vectorise.
+	 *
+	 * 	@param	output		receives the squared magnitude of kernel k for
+	 * 						hop h in <code>output[ outChanOff + k ][ outOff + h ]</code>
+	 */
+	public void transform( float[] input, int inOff, int stepSize, int numHops, float[][] output,
+						   int outChanOff, int outOff, Batch batch )
+	{
+		if( numHops > batch.maxHops ) throw new IllegalArgumentException( String.valueOf( numHops ));
+		
+		final float[]	fft		= batch.fftBuf;
+		final float[][]	specRe	= batch.specRe;
+		final float[][]	specIm	= batch.specIm;
+		final float[]	accRe	= batch.accRe;
+		final float[]	accIm	= batch.accIm;
+		float[]			re, im, out;
+		float			kr, ki;
+		
+		for( int h = 0; h < numHops; h++, inOff += stepSize ) {
+			spectrum( input, inOff, fftSize, fft );
+			for( int b = minBin, i = minBin << 1, j = 0; b < maxBin; b++, j++ ) {
+				specRe[ j ][ h ] = fft[ i++ ];
+				specIm[ j ][ h ] = fft[ i++ ];
+			}
+		}
+		
+		for( int k = 0; k < numKernels; k++ ) {
+			for( int h = 0; h < numHops; h++ ) {
+				accRe[ h ] = 0f;
+				accIm[ h ] = 0f;
+			}
+			for( int j = kernOff[ k ], stop = kernOff[ k+1 ], b = (kernStart[ k ] >> 1) - minBin; j < stop; j++, b++ ) {
+				kr	= kernRe[ j ];
+				ki	= kernIm[ j ];
+				re	= specRe[ b ];
+				im	= specIm[ b ];
+				for( int h = 0; h < numHops; h++ ) {
+					accRe[ h ] += re[ h ] * kr - im[ h ] * ki;
+					accIm[ h ] += re[ h ] * ki + im[ h ] * kr;
+				}
+			}
+			out = output[ outChanOff + k ];
+			for( int h = 0, i = outOff; h < numHops; h++, i++ ) {
+				out[ i ] = accRe[ h ] * accRe[ h ] + accIm[ h ] * accIm[ h ];
+			}
+		}
+	}
+
+	// copies the input window (rotated by half a window) into fftBuf and transforms it
+	private void spectrum( float[] input, int inOff, int inLen, float[] fftBuf )
+	{
 		final int off, num, num2;
 
-//		gain *= TENBYLOG10;
 		off = fftSize >> 1;
 		num = Math.min( fftSize - off, inLen );
 		
-//System.out.println( "inOff " + inOff + "; num  " + num + " ; inOff + num " + (inOff + num) + "; input.length " + input.length + "; fftBuf.length " + fftBuf.length );
-		
 		System.arraycopy( input, inOff, fftBuf, off, num );
 		for( int i = off + num; i < fftSize; i++ ) {
 			fftBuf[ i ] = 0f;
@@ -414,22 +552,29 @@ public class ConstQ
 		
 		// XXX evtl., wenn inpWin weggelassen werden kann,
 		// optimierte overlap-add fft
-		Fourier.realTransform( fftBuf, fftSize, Fourier.FORWARD );
-		
-		return convolve( output, outOff );
+		fftPlan.realTransform( fftBuf, Fourier.FORWARD );
 	}
-		
-	private static class Kernel
+
+	/**
+	 * 	Scratch buffers for the batched <code>transform</code>.
+	 */
+	public static final class Batch
 	{
-		protected final int			offset;
-		protected final float[]		data;
-		protected final float		freq;
+		protected final float[]		fftBuf;
+		protected final float[][]	specRe;
+		protected final float[][]	specIm;
+		protected final float[]		accRe;
+		protected final float[]		accIm;
+		protected final int			maxHops;
 		
-		protected Kernel( int offset, float[] data, float freq )
+		protected Batch( int fftSize, int numBins, int maxHops )
 		{
-			this.offset	= offset;
-			this.data	= data;
-			this.freq	= freq;
+			this.maxHops	= maxHops;
+			fftBuf			= new float[ fftSize << 1 ];
+			specRe			= new float[ numBins ][ maxHops ];
+			specIm			= new float[ numBins ][ maxHops ];
+			accRe			= new float[ maxHops ];
+			accIm			= new float[ maxHops ];
 		}
 	}
 }
\ No newline at end of file
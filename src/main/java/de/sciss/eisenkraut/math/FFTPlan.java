@@ -0,0 +1,272 @@
+/*
+ *  FFTPlan.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.math;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *  A precomputed fast Fourier transform of a fixed size.
+ *  The plan holds the twiddle factors and bit reversal
+ *  tables, so unlike <code>Fourier</code> no trigonometric
+ *  recurrences are evaluated per call. The complex transform
+ *  is a split-radix decimation in frequency, which also serves
+ *  the half size transform of the real input path. The transforms work
+ *  in place, do not allocate, and produce exactly the same
+ *  data layout, sign convention and normalisation as the
+ *  corresponding methods in <code>Fourier</code>.
+ *  <p>
+ *  Plans are immutable and may be shared among threads;
+ *  use <code>get</code> to obtain a cached instance.
+ *
+ *  @see	Fourier
+ */
+public final class FFTPlan
+{
+	private static final Map<Integer, FFTPlan> plans = new HashMap<Integer, FFTPlan>();
+
+	private final int		size;
+	// cos and sin of 2 pi k / size, k < 3/4 size
+	private final float[]	cosTab;
+	private final float[]	sinTab;
+	// bit reversal swaps (pairs of physical indices) for
+	// complex length size resp. size/2
+	private final int[]		swapsFull;
+	private final int[]		swapsHalf;
+
+	/**
+	 *	Returns a plan for the given size, creating it if necessary.
+	 *
+	 *	@param	size	the transform size, which must be
+	 *					an integer power of 2 of at least 4
+	 */
+	public static FFTPlan get( int size )
+	{
+		final Integer key = size;
+		synchronized( plans ) {
+			FFTPlan plan = plans.get( key );
+			if( plan == null ) {
+				plan = new FFTPlan( size );
+				plans.put( key, plan );
+			}
+			return plan;
+		}
+	}
+
+	private FFTPlan( int size )
+	{
+		if( (size < 4) || ((size & (size - 1)) != 0) ) throw new IllegalArgumentException( String.valueOf( size ));
+
+		final int		half	= size >> 1;
+		final int		tabSize	= (size >> 2) * 3;	// split-radix uses angles up to 3 x 2 pi (size/4 - 1) / size
+		final double	norm	= 2 * Math.PI / size;
+
+		this.size	= size;
+		cosTab		= new float[ tabSize ];
+		sinTab		= new float[ tabSize ];
+		for( int k = 0; k < tabSize; k++ ) {
+			cosTab[ k ] = (float) Math.cos( norm * k );
+			sinTab[ k ] = (float) Math.sin( norm * k );
+		}
+		swapsFull	= createSwaps( size );
+		swapsHalf	= createSwaps( half );
+	}
+
+	private static int[] createSwaps( int len )
+	{
+		int		num	= 0;
+		int[]	tab	= new int[ len ];
+		int		j	= 0;
+		int		m;
+
+		for( int i = 0; i < len; i++ ) {
+			if( j > i ) {
+				tab[ num++ ] = i << 1;
+				tab[ num++ ] = j << 1;
+			}
+			for( m = len >> 1; (m >= 1) && (j >= m); j -= m, m >>= 1 ) ;
+			j += m;
+		}
+
+		final int[] result = new int[ num ];
+		System.arraycopy( tab, 0, result, 0, num );
+		return result;
+	}
+
+	public int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 *	One-dimensional discrete complex Fourier transform of
+	 *	length <code>getSize()</code>, see <code>Fourier.complexTransform</code>.
+	 *
+	 *	@param	a		complex array with real part in a[ 0, 2, 4, ... 2*size - 2 ],
+	 *					imaginary part in a[ 1, 3, ... 2 * size -1 ]
+	 *  @param  dir		use <code>Fourier.INVERSE</code> or <code>Fourier.FORWARD</code>
+	 */
+	public void complexTransform( float[] a, int dir )
+	{
+		complex( a, size, swapsFull, dir );
+	}
+
+	/**
+	 *	One-dimensional discrete real Fourier transform of
+	 *	length <code>getSize()</code>, see <code>Fourier.realTransform</code>.
+	 *
+	 *  Warning:	a actually has size + 2 elements! in FORWARD operation these
+	 *				last two elements must be zero.
+	 *
+	 *	@param	a		real array; output is complex with real part in a[ 0, 2, 4, ... size ],
+	 *					imaginary part in a[ 1, 3, ... size + 1 ].
+	 *  @param  dir		use <code>Fourier.INVERSE</code> or <code>Fourier.FORWARD</code>
+	 */
+	public void realTransform( float[] a, int dir )
+	{
+		final int	len		= size;
+		final int	cLen	= len >> 1;
+		final float	c1		= 0.5f;
+		final float	c2		= -dir * 0.5f;
+		final float	sgn		= dir;
+		int			i2, i3, i4;
+		float		h1Re, h1Im, h2Re, h2Im, wRe, wIm;
+
+		if( dir == Fourier.FORWARD ) {
+			complex( a, cLen, swapsHalf, dir );
+		}
+
+		// separate the two transforms and recombine them;
+		// the twiddle for i = 2k is exp( i * dir * 2 pi k / size )
+		for( int i = 2, k = 1; i < cLen; i += 2, k++ ) {
+			i2		= i  + 1;
+			i3		= len - i;
+			i4		= i3 + 1;
+			wRe		= cosTab[ k ];
+			wIm		= sgn * sinTab[ k ];
+			h1Re	= c1 * (a[ i  ] + a[ i3 ]);
+			h1Im	= c1 * (a[ i2 ] - a[ i4 ]);
+			h2Re	= -c2* (a[ i2 ] + a[ i4 ]);
+			h2Im	= c2 * (a[ i  ] - a[ i3 ]);
+			a[ i  ]	= h1Re + wRe * h2Re - wIm * h2Im;
+			a[ i2 ]	= h1Im + wRe * h2Im + wIm * h2Re;
+			a[ i3 ]	= h1Re - wRe * h2Re + wIm * h2Im;
+			a[ i4 ]	= -h1Im+ wRe * h2Im + wIm * h2Re;
+		}
+
+		if( dir == Fourier.INVERSE ) {
+			h1Re		= a[ 0 ];
+			a[ 0 ]		= c1 * (h1Re + a[ len ]);
+			a[ 1 ]		= c1 * (h1Re - a[ len ]);
+			a[ len ]	= 0.0f;
+			a[ len+1 ]	= 0.0f;
+			complex( a, cLen, swapsHalf, dir );
+		} else {
+			h1Re		= a[ 0 ];
+			a[ 0 ]		= h1Re + a[ 1 ];
+			a[ len ]	= h1Re - a[ 1 ];
+			a[ 1 ]		= 0.0f;
+			a[ len+1 ]	= 0.0f;
+		}
+	}
+
+	// split-radix decimation in frequency (Sorensen, Heideman and Burrus 1986),
+	// followed by the bit reversal. the algorithm computes the transform with
+	// the negative exponent; the positive one (FORWARD) is obtained by swapping
+	// the real and imaginary parts of input and output, i.e. by reading the real
+	// parts at the odd and the imaginary parts at the even indices.
+	// n is the complex length; the twiddle of angle 2 pi j / n2 is
+	// found at table index j * size / n2
+	private void complex( float[] a, int n, int[] swaps, int dir )
+	{
+		final int	re	= dir == Fourier.FORWARD ? 1 : 0;
+		final int	im	= 1 - re;
+		int			n4, tabStep, t, t3, is, id, i0, i1, i2, i3;
+		float		cc1, ss1, cc3, ss3, r1, r2, s1, s2, s3, temp;
+
+		// L-shaped butterflies
+		for( int n2 = n; n2 > 2; n2 >>= 1 ) {
+			n4		= n2 >> 2;
+			tabStep	= size / n2;
+			for( int j = 0; j < n4; j++ ) {
+				t		= j * tabStep;
+				t3		= 3 * t;
+				cc1		= cosTab[ t  ];
+				ss1		= sinTab[ t  ];
+				cc3		= cosTab[ t3 ];
+				ss3		= sinTab[ t3 ];
+				is		= j;
+				id		= n2 << 1;
+				while( is < n ) {
+					for( int k = is; k < n; k += id ) {
+						i0		= k << 1;
+						i1		= i0 + (n4 << 1);
+						i2		= i1 + (n4 << 1);
+						i3		= i2 + (n4 << 1);
+						r1		= a[ i0+re ] - a[ i2+re ];
+						a[ i0+re ] += a[ i2+re ];
+						r2		= a[ i1+re ] - a[ i3+re ];
+						a[ i1+re ] += a[ i3+re ];
+						s1		= a[ i0+im ] - a[ i2+im ];
+						a[ i0+im ] += a[ i2+im ];
+						s2		= a[ i1+im ] - a[ i3+im ];
+						a[ i1+im ] += a[ i3+im ];
+						s3		= r1 - s2;
+						r1	   += s2;
+						s2		= r2 - s1;
+						r2	   += s1;
+						a[ i2+re ] = r1 * cc1 - s2 * ss1;
+						a[ i2+im ] = -s2 * cc1 - r1 * ss1;
+						a[ i3+re ] = s3 * cc3 + r2 * ss3;
+						a[ i3+im ] = r2 * cc3 - s3 * ss3;
+					}
+					is		= (id << 1) - n2 + j;
+					id	  <<= 2;
+				}
+			}
+		}
+
+		// last stage, length-2 butterflies
+		for( is = 0, id = 4; is < n; is = (id << 1) - 2, id <<= 2 ) {
+			for( int k = is; k < n; k += id ) {
+				i0			= k << 1;
+				i1			= i0 + 2;
+				temp		= a[ i0   ];
+				a[ i0   ]	= temp + a[ i1   ];
+				a[ i1   ]	= temp - a[ i1   ];
+				temp		= a[ i0+1 ];
+				a[ i0+1 ]	= temp + a[ i1+1 ];
+				a[ i1+1 ]	= temp - a[ i1+1 ];
+			}
+		}
+
+		for( int k = 0; k < swaps.length; ) {
+			i0			= swaps[ k++ ];
+			i1			= swaps[ k++ ];
+			temp		= a[ i1 ];
+			a[ i1 ]		= a[ i0 ];
+			a[ i0 ]		= temp;
+			temp		= a[ i1+1 ];
+			a[ i1+1 ]	= a[ i0+1 ];
+			a[ i0+1 ]	= temp;
+		}
+
+		if( dir == Fourier.INVERSE ) {
+			final float gain = 1.0f / n;
+			for( int i = 0, j = n << 1; i < j; i++ ) {
+				a[ i ] *= gain;
+			}
+		}
+	}
+}
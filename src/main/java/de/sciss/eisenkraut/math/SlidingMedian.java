@@ -0,0 +1,241 @@
+/*
+ *  SlidingMedian.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+package de.sciss.eisenkraut.math;
+
+/**
+ * 	A running median over the most recent <code>winSize</code> samples
+ *	of each channel. The window is split into a max-heap holding the
+ *	lower half and a min-heap holding the upper half. Since each ring
+ *	buffer slot knows its heap position, the oldest sample can be
+ *	replaced in place, so the cost per sample is O(log winSize)
+ *	instead of the O(winSize) of moving a sorted window.
+ *	<p>
+ *	Until <code>winSize</code> samples have been seen, the median of
+ *	the samples so far is returned. For an even number of samples, the
+ *	upper of the two middle values is returned. This matches the sorted
+ *	window which <code>Needlehole</code> used before.
+ *	<p>
+ *	Different channels may be processed concurrently.
+ */
+public class SlidingMedian
+{
+	private final int			winSize;
+	private final Window[]		windows;
+
+	public SlidingMedian( int winSize, int numChannels )
+	{
+		if( winSize < 1 ) throw new IllegalArgumentException( "winSize " + winSize );
+
+		this.winSize	= winSize;
+		windows			= new Window[ numChannels ];
+		for( int ch = 0; ch < numChannels; ch++ ) {
+			windows[ ch ] = new Window( winSize );
+		}
+	}
+
+	public int getWinSize()
+	{
+		return winSize;
+	}
+
+	/**
+	 *	Filters a block of samples. <code>inBuf</code> and
+	 *	<code>outBuf</code> may be the same array with the same offsets.
+	 *
+	 *	@param	chan	the channel whose window is advanced
+	 */
+	public void process( float[] inBuf, int inOff, float[] outBuf, int outOff, int len, int chan )
+	{
+		final Window w = windows[ chan ];
+
+		for( int i = inOff, j = outOff, k = inOff + len; i < k; i++, j++ ) {
+			outBuf[ j ] = w.next( inBuf[ i ]);
+		}
+	}
+
+	/**
+	 *	Empties the windows of all channels.
+	 */
+	public void clear()
+	{
+		for( int ch = 0; ch < windows.length; ch++ ) {
+			windows[ ch ] = new Window( winSize );
+		}
+	}
+
+// -------------- internal classes --------------
+
+	private static final class Window
+	{
+		private final float[]	val;	// ring buffer of samples
+		private final int[]		lo;		// max-heap of slots (lower half)
+		private final int[]		hi;		// min-heap of slots (upper half, holds the median)
+		private final int[]		pos;	// per slot: index in lo, or ~index in hi
+		private int				numLo	= 0;
+		private int				numHi	= 0;
+		private int				idx		= 0;	// oldest slot, or next free one while filling
+
+		Window( int winSize )
+		{
+			val		= new float[ winSize ];
+			lo		= new int[ winSize >> 1 ];
+			hi		= new int[ (winSize + 1) >> 1 ];
+			pos		= new int[ winSize ];
+		}
+
+		float next( float x )
+		{
+			final int s = idx;
+
+			if( ++idx == val.length ) idx = 0;
+			val[ s ] = x;
+
+			if( numLo + numHi < val.length ) {
+				// still filling: the upper half gets the extra sample
+				// of an odd count, so insert there if the count becomes odd
+				if( numLo == numHi ) {
+					if( (numLo > 0) && (x < val[ lo[ 0 ]])) {
+						// the lower half's maximum moves up
+						final int m = lo[ 0 ];
+						lo[ 0 ]		= s;
+						pos[ s ]	= 0;
+						siftDownLo( 0 );
+						addHi( m );
+					} else {
+						addHi( s );
+					}
+				} else {
+					if( x > val[ hi[ 0 ]]) {
+						// the upper half's minimum moves down
+						final int m = hi[ 0 ];
+						hi[ 0 ]		= s;
+						pos[ s ]	= ~0;
+						siftDownHi( 0 );
+						addLo( m );
+					} else {
+						addLo( s );
+					}
+				}
+				return val[ hi[ 0 ]];
+			}
+
+			// the heap sizes are unchanged, so it suffices
+			// to restore the order of the heap which holds
+			// the slot, then that of the two roots
+			final int p = pos[ s ];
+			if( p >= 0 ) {
+				siftUpLo( p );
+				siftDownLo( pos[ s ]);
+			} else {
+				siftUpHi( ~p );
+				siftDownHi( ~pos[ s ]);
+			}
+			if( (numLo > 0) && (val[ lo[ 0 ]] > val[ hi[ 0 ]])) {
+				final int a = lo[ 0 ];
+				final int b = hi[ 0 ];
+				lo[ 0 ]		= b;
+				pos[ b ]	= 0;
+				hi[ 0 ]		= a;
+				pos[ a ]	= ~0;
+				siftDownLo( 0 );
+				siftDownHi( 0 );
+			}
+
+			return val[ hi[ 0 ]];
+		}
+
+		private void addLo( int s )
+		{
+			lo[ numLo ] = s;
+			siftUpLo( numLo++ );
+		}
+
+		private void addHi( int s )
+		{
+			hi[ numHi ] = s;
+			siftUpHi( numHi++ );
+		}
+
+		private void siftUpLo( int i )
+		{
+			final int	s	= lo[ i ];
+			final float	v	= val[ s ];
+
+			while( i > 0 ) {
+				final int parent	= (i - 1) >> 1;
+				final int ps		= lo[ parent ];
+				if( val[ ps ] >= v ) break;
+				lo[ i ]		= ps;
+				pos[ ps ]	= i;
+				i			= parent;
+			}
+			lo[ i ]		= s;
+			pos[ s ]	= i;
+		}
+
+		private void siftDownLo( int i )
+		{
+			final int	s	= lo[ i ];
+			final float	v	= val[ s ];
+
+			while( true ) {
+				int c = (i << 1) + 1;
+				if( c >= numLo ) break;
+				if( (c + 1 < numLo) && (val[ lo[ c + 1 ]] > val[ lo[ c ]])) c++;
+				final int cs = lo[ c ];
+				if( val[ cs ] <= v ) break;
+				lo[ i ]		= cs;
+				pos[ cs ]	= i;
+				i			= c;
+			}
+			lo[ i ]		= s;
+			pos[ s ]	= i;
+		}
+
+		private void siftUpHi( int i )
+		{
+			final int	s	= hi[ i ];
+			final float	v	= val[ s ];
+
+			while( i > 0 ) {
+				final int parent	= (i - 1) >> 1;
+				final int ps		= hi[ parent ];
+				if( val[ ps ] <= v ) break;
+				hi[ i ]		= ps;
+				pos[ ps ]	= ~i;
+				i			= parent;
+			}
+			hi[ i ]		= s;
+			pos[ s ]	= ~i;
+		}
+
+		private void siftDownHi( int i )
+		{
+			final int	s	= hi[ i ];
+			final float	v	= val[ s ];
+
+			while( true ) {
+				int c = (i << 1) + 1;
+				if( c >= numHi ) break;
+				if( (c + 1 < numHi) && (val[ hi[ c + 1 ]] < val[ hi[ c ]])) c++;
+				final int cs = hi[ c ];
+				if( val[ cs ] >= v ) break;
+				hi[ i ]		= cs;
+				pos[ cs ]	= ~i;
+				i			= c;
+			}
+			hi[ i ]		= s;
+			pos[ s ]	= ~i;
+		}
+	}
+}
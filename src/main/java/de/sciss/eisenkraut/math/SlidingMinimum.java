@@ -0,0 +1,95 @@
+/*
+ *  SlidingMinimum.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+package de.sciss.eisenkraut.math;
+
+/**
+ * 	The minimum of each run of <code>winSize</code> successive samples
+ *	of a block. A deque holds the samples which can still become the
+ *	minimum, in increasing order; each sample enters and leaves it at
+ *	most once, so the amortized cost per sample is constant, independent
+ *	of the window size, instead of the O(winSize) of searching the
+ *	window again whenever its minimum drops out.
+ *	<p>
+ *	If <code>absolute</code> is set, the samples are compared by their
+ *	absolute values, and the sample of smallest magnitude is returned
+ *	with its sign. Of equal samples, the earliest is returned. This
+ *	matches the search which <code>Needlehole</code> used before.
+ *	<p>
+ *	Different channels may be processed concurrently.
+ */
+public class SlidingMinimum
+{
+	private final int			winSize;
+	private final boolean		absolute;
+	private final int[][]		deques;		// per channel, sample indices
+	private final float[][]		keys;		// the compared values of the deques
+
+	public SlidingMinimum( int winSize, int numChannels, boolean absolute )
+	{
+		if( winSize < 1 ) throw new IllegalArgumentException( "winSize " + winSize );
+
+		this.winSize	= winSize;
+		this.absolute	= absolute;
+		deques			= new int[ numChannels ][ 0 ];
+		keys			= new float[ numChannels ][ 0 ];
+	}
+
+	public int getWinSize()
+	{
+		return winSize;
+	}
+
+	/**
+	 *	Filters a block of samples. The window of output sample <code>j</code>
+	 *	consists of the input samples <code>inOff + j</code> to
+	 *	<code>inOff + j + winSize - 1</code>, so <code>len + winSize - 1</code>
+	 *	input samples are read. Nothing is kept between calls.
+	 *	<code>inBuf</code> and <code>outBuf</code> must not overlap.
+	 *
+	 *	@param	chan	the channel whose deque is used
+	 */
+	public void process( float[] inBuf, int inOff, float[] outBuf, int outOff, int len, int chan )
+	{
+		final int	numIn	= len + winSize - 1;
+
+		// the deque never wraps around; it is reallocated if the blocks grow
+		if( deques[ chan ].length < numIn ) {
+			deques[ chan ]	= new int[ numIn ];
+			keys[ chan ]	= new float[ numIn ];
+		}
+
+		final int[]		dq		= deques[ chan ];
+		final float[]	key		= keys[ chan ];
+		int				head	= 0;
+		int				tail	= 0;	// exclusive
+		float			x;
+
+		for( int i = inOff, stop = inOff + numIn, start = inOff - winSize + 1, j = outOff - winSize + 1;
+			 i < stop; i++, start++, j++ ) {
+
+			x = absolute ? Math.abs( inBuf[ i ]) : inBuf[ i ];
+
+			// larger samples can never become the minimum; equal ones
+			// are kept, so the earliest of them stays in front
+			while( (tail > head) && (key[ tail - 1 ] > x) ) tail--;
+			dq[ tail ]	= i;
+			key[ tail ]	= x;
+			tail++;
+
+			if( start >= inOff ) {	// window start ... i is complete
+				if( dq[ head ] < start ) head++;
+				outBuf[ j ] = inBuf[ dq[ head ]];
+			}
+		}
+	}
+}
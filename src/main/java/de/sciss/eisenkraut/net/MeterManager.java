@@ -14,17 +14,15 @@
 package de.sciss.eisenkraut.net;
 
 import java.awt.EventQueue;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import javax.swing.Timer;
 
 import de.sciss.app.BasicEvent;
 import de.sciss.app.EventManager;
+import de.sciss.eisenkraut.gui.FrameScheduler;
 import de.sciss.gui.PeakMeterView;
 import de.sciss.jcollider.Bus;
 import de.sciss.jcollider.Constants;
@@ -39,7 +37,7 @@ import de.sciss.net.OSCBundle;
 import de.sciss.net.OSCMessage;
 
 public class MeterManager
-		implements OSCResponderNode.Action, Constants, ServerListener, ActionListener,
+		implements OSCResponderNode.Action, Constants, ServerListener, FrameScheduler.Client,
 		EventManager.Processor {
 
 	private List<Client> collAllClients		= new ArrayList<Client>();
@@ -56,7 +54,9 @@ public class MeterManager
 	private OSCBundle				meterBangBndl		= null;
 	private OSCResponderNode		resp				= null;
 
-	private final Timer				meterTimer;
+	// milliseconds between meter requests, see FrameScheduler
+	private static final int		METER_PERIOD		= 33;
+
 	private final SuperColliderClient sc;
 	
 	private int						numTask				= 0;
@@ -66,7 +66,6 @@ public class MeterManager
 	public MeterManager( SuperColliderClient sc )
 	{
 		this.sc		= sc;
-		meterTimer	= new javax.swing.Timer( 33, this );
 		elm			= new EventManager( this );
 		sc.addServerListener( this );
 	}
@@ -87,9 +86,9 @@ public class MeterManager
 		}
 	}
 
-	// ------------- ActionListener interface -------------
+	// ------------- FrameScheduler.Client interface -------------
 
-	public void actionPerformed( ActionEvent e )
+	public void frameUpdate( long when )
 	{
 		meterBang();
 	}
@@ -158,7 +157,7 @@ public class MeterManager
 	private void disposeServer() {
 		Client mc;
 
-		meterTimer.stop();
+		FrameScheduler.getInstance().removeClient( this );
 		
 		if( resp != null ) resp.remove();
 	
@@ -230,11 +229,11 @@ public class MeterManager
 				}
 				if( task ) {
 					if( ++numTask == 1 ) {
-						meterTimer.restart();
+						FrameScheduler.getInstance().addClient( this, METER_PERIOD );
 					}
 				} else {
 					if( --numTask == 0 ) {
-						meterTimer.stop();
+						FrameScheduler.getInstance().removeClient( this );
 					}
 				}
 			}
@@ -303,7 +302,7 @@ public class MeterManager
 		Client				mc;
 		int					srcChan;
 	
-		meterTimer.stop();
+		FrameScheduler.getInstance().removeClient( this );
 
 		if( resp != null ) resp.remove();
 
@@ -389,7 +388,7 @@ public class MeterManager
 						try {
 							server.sendBundle( bndl );
 							if( resp != null ) resp.add();
-							if( numTask > 0 ) meterTimer.restart();
+							if( numTask > 0 ) FrameScheduler.getInstance().addClient( this, METER_PERIOD );
 						}
 						catch( IOException e1 ) {
 							printError( "resortClients", e1 );
@@ -0,0 +1,114 @@
+/*
+ *  OSCDispatchTable.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.net;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ *  The OSC methods of a router class, resolved once by name:
+ *  <code>oscCmd_&lt;name&gt;( RoutedOSCMessage )</code>,
+ *  <code>oscQuery_&lt;name&gt;()</code> and
+ *  <code>oscGet_&lt;name&gt;( RoutedOSCMessage )</code>.
+ *  Tables are shared by all routers of the same class,
+ *  so incoming messages are dispatched with a map lookup
+ *  instead of searching the class for the method.
+ */
+final class OSCDispatchTable {
+
+    private static final String PREFIX_CMD      = "oscCmd_";
+    private static final String PREFIX_QUERY    = "oscQuery_";
+    private static final String PREFIX_GET      = "oscGet_";
+
+    private static final Class<?>[] msgTypes    = { RoutedOSCMessage.class };
+    private static final Class<?>[] noTypes     = {};
+
+    private static final ConcurrentMap<Class<?>, OSCDispatchTable> tables =
+            new ConcurrentHashMap<Class<?>, OSCDispatchTable>();
+
+    private final Map<String, Method> commands;
+    private final Map<String, Method> queries;
+    private final Map<String, Method> getters;
+
+    private OSCDispatchTable(Class<?> c) {
+        final Map<String, Method> cmd   = new HashMap<String, Method>();
+        final Map<String, Method> query = new HashMap<String, Method>();
+        final Map<String, Method> get   = new HashMap<String, Method>();
+
+        // like Class.getMethod, this includes the inherited public methods
+        for (Method m : c.getMethods()) {
+            final String    name    = m.getName();
+            final Class<?>[] types  = m.getParameterTypes();
+
+            if (name.startsWith(PREFIX_CMD) && Arrays.equals(types, msgTypes)) {
+                cmd.put(name.substring(PREFIX_CMD.length()), accessible(m));
+            } else if (name.startsWith(PREFIX_QUERY) && Arrays.equals(types, noTypes)) {
+                query.put(name.substring(PREFIX_QUERY.length()), accessible(m));
+            } else if (name.startsWith(PREFIX_GET) && Arrays.equals(types, msgTypes)) {
+                get.put(name.substring(PREFIX_GET.length()), accessible(m));
+            }
+        }
+        commands    = Collections.unmodifiableMap(cmd);
+        queries     = Collections.unmodifiableMap(query);
+        getters     = Collections.unmodifiableMap(get);
+    }
+
+    /**
+     *  Returns the table of a router class, creating it upon the first call.
+     */
+    static OSCDispatchTable forClass(Class<?> c) {
+        OSCDispatchTable t = tables.get(c);
+        if (t == null) {
+            t = new OSCDispatchTable(c);
+            final OSCDispatchTable t2 = tables.putIfAbsent(c, t);
+            if (t2 != null) t = t2;
+        }
+        return t;
+    }
+
+    // skips the access checks on each invocation; this also allows
+    // routers which are anonymous or private classes
+    private static Method accessible(Method m) {
+        try {
+            m.setAccessible(true);
+        } catch (SecurityException e1) { /* ignore, invoke checks access */ }
+        return m;
+    }
+
+    /**
+     *  @return the method <code>oscCmd_&lt;name&gt;</code> or <code>null</code>
+     */
+    Method getCommand(String name) {
+        return commands.get(name);
+    }
+
+    /**
+     *  @return the method <code>oscQuery_&lt;name&gt;</code> or <code>null</code>
+     */
+    Method getQuery(String name) {
+        return queries.get(name);
+    }
+
+    /**
+     *  @return the method <code>oscGet_&lt;name&gt;</code> or <code>null</code>
+     */
+    Method getGetter(String name) {
+        return getters.get(name);
+    }
+}
@@ -26,12 +26,12 @@ public class OSCRouterWrapper
 	private final OSCRouter	superRouter;
 	private final Map<String, OSCRouter> mapSubRouters = new HashMap<String, OSCRouter>();
 	
-	private static final Class[] oscCmdMethodTypes		= { RoutedOSCMessage.class };
-	private static final Class[] oscGetMethodTypes		= { RoutedOSCMessage.class };
+	private final OSCDispatchTable table;	// the osc methods of r
 
 	public OSCRouterWrapper(OSCRouter superRouter, OSCRouter thisRouter) {
 		r = thisRouter;
 		this.superRouter = superRouter;
+		table = OSCDispatchTable.forClass(r.getClass());
 		if (superRouter != null) superRouter.oscAddRouter(r);
 	}
 
@@ -53,7 +53,7 @@ public class OSCRouterWrapper
 		} else {
 			final Object[]	replyArgs;
 			final String	cmd;
-			Method			oscMethod;
+			final Method	oscMethod;
 
 			if (argCnt == 0) {
 				OSCRoot.failedArgCount(rom);
@@ -66,17 +66,19 @@ public class OSCRouterWrapper
 						OSCRoot.failedArgCount(rom);
 						return;
 					}
+					// resolve all properties before invoking any of them
+					final Method[] queryMethods = new Method[argCnt - 2];
+					for (int argIdx = 2; argIdx < argCnt; argIdx++) {
+						queryMethods[argIdx - 2] = table.getQuery(rom.msg.getArg(argIdx).toString());
+						if (queryMethods[argIdx - 2] == null) {
+							OSCRoot.failedArgValue(rom, argIdx);
+							return;
+						}
+					}
 					replyArgs = new Object[argCnt - 1];
 					replyArgs[0] = rom.msg.getArg(1);
-					int argIdx = 2;
-					try {
-						for (; argIdx < argCnt; argIdx++) {
-							oscMethod = r.getClass().getMethod("oscQuery_" + rom.msg.getArg(argIdx).toString(), (Class[]) null);
-							replyArgs[argIdx - 1] = oscMethod.invoke(r, (Object[]) null);
-						}
-					} catch (NoSuchMethodException e1) {
-						OSCRoot.failedArgValue(rom, argIdx);
-						return;
+					for (int i = 0; i < queryMethods.length; i++) {
+						replyArgs[i + 1] = queryMethods[i].invoke(r, (Object[]) null);
 					}
 					rom.reply(OSCRoot.OSC_QUERYREPLY, replyArgs);
 
@@ -86,27 +88,26 @@ public class OSCRouterWrapper
 						OSCRoot.failedArgCount(rom);
 						return;
 					}
-					final Object[] methodResult;
-					try {
-						oscMethod = r.getClass().getMethod("oscGet_" + rom.msg.getArg(2), oscGetMethodTypes);
-						methodResult = (Object[]) oscMethod.invoke(r, rom);
-						if (methodResult != null) {
-							replyArgs = new Object[methodResult.length + 1];
-							replyArgs[0] = rom.msg.getArg(1);
-							System.arraycopy(methodResult, 0, replyArgs, 1, methodResult.length);
-							rom.reply(OSCRoot.OSC_GETREPLY, replyArgs);
-						}
-					} catch (NoSuchMethodException e1) {
+					oscMethod = table.getGetter(rom.msg.getArg(2).toString());
+					if (oscMethod == null) {
 						OSCRoot.failedArgValue(rom, 2);
+						return;
+					}
+					final Object[] methodResult = (Object[]) oscMethod.invoke(r, rom);
+					if (methodResult != null) {
+						replyArgs = new Object[methodResult.length + 1];
+						replyArgs[0] = rom.msg.getArg(1);
+						System.arraycopy(methodResult, 0, replyArgs, 1, methodResult.length);
+						rom.reply(OSCRoot.OSC_GETREPLY, replyArgs);
 					}
 					
 				} else {	// any other command
-					try {
-						oscMethod = r.getClass().getMethod("oscCmd_" + cmd, oscCmdMethodTypes);
-						oscMethod.invoke(r, rom);
-					} catch (NoSuchMethodException e1) {
+					oscMethod = table.getCommand(cmd);
+					if (oscMethod == null) {
 						OSCRoot.failedUnknownCmd(rom);
+						return;
 					}
+					oscMethod.invoke(r, rom);
 				}
 			} catch (SecurityException e1) {
 				OSCRoot.failed(rom, e1);
@@ -17,6 +17,14 @@ import java.awt.EventQueue;
 import java.net.SocketAddress;
 import java.io.File;
 import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import de.sciss.eisenkraut.io.AudioTrail;
 import de.sciss.eisenkraut.io.RoutingConfig;
@@ -74,13 +82,19 @@ public class SuperColliderPlayer
 	private double					serverRate;
 	private double					sourceRate;
 	private double					srcFactor			= 1.0;
+	// the following four are only accessed by the streamer thread
 	protected long					playOffset; //			= -1;
 	protected int					clock;
+	protected Span					foldLoop			= null;
 	
 	private static final Span[]		emptySpans			= new Span[0];
 	
 	protected Span[][]				lastBufSpans		= new Span[][] { emptySpans, emptySpans };
 
+	private final Streamer			streamer;
+	// duration of a buffer half in nanoseconds; a refill taking longer counts as an underrun
+	protected volatile long			refillDeadline		= Long.MAX_VALUE;
+
 	private final Group				grpRoot;
 	private final Group				grpInput;
 	private final Group				grpOutput;
@@ -97,7 +111,6 @@ public class SuperColliderPlayer
 	private boolean					activeOutput	= false;
 	
 	protected volatile int			trigNodeID		= -1;	// current synthPhasor ID or -1
-	protected volatile OSCMessage	trigMsg			= null;	// most recently received /tr message
 	
 	private static final String		OSC_SUPERCOLLIDER	= "sc";
 	private final OSCRouterWrapper	osc;
@@ -111,7 +124,6 @@ public class SuperColliderPlayer
 		this.doc			= doc;
 
 		final AudioTrail	at			= doc.getAudioTrail();
-		final Runnable		runTrigger;
 		final SynthDef[]	defs;
 		OSCBundle			bndl;
 		
@@ -145,61 +157,7 @@ public class SuperColliderPlayer
 		
 		busPhasor			= Bus.audio( server );
 
-		runTrigger			= new Runnable() {
-			public void run()
-			{
-				final OSCMessage		msg		= trigMsg;	// this way we synchronize the access
-				final int				nodeID	= ((Number) msg.getArg( 0 )).intValue();
-				final int				nextClock, fill, bufOff;
-				final long				pos, start;
-				final OSCBundle			bndl2;
-				final int				even;
-				final Span[]			bufSpans;
-				int						numCh;
-
-				try {
-					clock		= ((Number) msg.getArg( 2 )).intValue();
-//System.err.println( "clock = " + clock );
-					nextClock	= clock + 1;
-					even		= nextClock & 1; // == 0;
-					bndl2		= new OSCBundle();
-
-					if( (ct == null) || (ct.synthPhasor == null) || (nodeID != ct.synthPhasor.getNodeID()) ) return;
-					if( trigNodeID == -1 ) return;	// transport not running anymore
-						pos		= nextClock * DISKBUF_SIZE_HM - ((1 - even) * DISKBUF_PAD) + playOffset;
-						start	= Math.max( 0, pos );
-						fill	= (int) (start - pos);
-						bufOff	= even * DISKBUF_SIZE_H;
-						if( fill > 0 ) {
-							for( int j = 0; j < ct.bufsDisk.length; j++ ) {
-								numCh = ct.bufsDisk[ j ].getNumChannels();
-								bndl2.addPacket( ct.bufsDisk[ j ].fillMsg( bufOff * numCh, fill * numCh, 0.0f ));
-							}
-						}
-						bufSpans = transport.foldSpans( new Span( start, pos + DISKBUF_SIZE_H ), MIN_LOOP_LEN );
-						doc.getAudioTrail().addBufferReadMessages( bndl2, bufSpans, ct.bufsDisk, bufOff + fill );
-
-						lastBufSpans[ even ] = bufSpans;
-if( DEBUG_FOLD ) {
-	System.out.println( "------C "+ nextClock + ", " + even + ", " + playOffset + ", " + pos );
-for( int k = 0, m = bufOff + fill; k < bufSpans.length; k++ ) {
-	System.out.println( "i = " + k + "; " + bufSpans[ k ] + " -> " + m );
-		m += bufSpans[ k ].getLength();
-	}
-	System.out.println();
-}
-						if( !server.sync( bndl2, TIMEOUT )) {
-							printTimeOutMsg( "bufUpdate" );
-					}
-				}
-				catch( IOException e1 ) {
-					printError( "Receive /tr", e1 );
-				}
-				catch( ClassCastException e2 ) {
-					printError( "Receive /tr", e2 );
-				}
-			}
-		};
+		streamer			= new Streamer();
 
 		trigResp			= new OSCResponderNode( server, "/tr", new OSCListener() {
 			public void messageReceived( OSCMessage msg, SocketAddress sender, long time )
@@ -207,8 +165,14 @@ for( int k = 0, m = bufOff + fill; k < bufSpans.length; k++ ) {
 				final int	nodeID	= ((Number) msg.getArg( 0 )).intValue();
 				
 				if( nodeID == trigNodeID ) {
-					trigMsg	= msg;
-					EventQueue.invokeLater( runTrigger );
+					final long now = System.nanoTime();
+					streamer.trigger( msg, now );
+					try {
+						transport.reportServerPosition( getClockFrames( ((Number) msg.getArg( 2 )).intValue() ), now );
+					}
+					catch( ClassCastException e1 ) {
+						printError( "Receive /tr", e1 );
+					}
 				}
 			}
 		});
@@ -300,6 +264,7 @@ for( int k = 0, m = bufOff + fill; k < bufSpans.length; k++ ) {
 
 	public void dispose() {
 		osc.remove();
+		streamer.dispose();
 
 		// we free the nodes even if the server is
 		// not running because we may simply have lost
@@ -469,12 +434,8 @@ for( int k = 0, m = bufOff + fill; k < bufSpans.length; k++ ) {
 			} else {
 				syncOutput.deactivate( bndl );
 			}
-			try {
-				server.sendBundle( bndl );
-			}
-			catch( IOException e1 ) {
-				printError( "Run Output Group", e1 );
-			}
+			// keep the order with respect to transportStop
+			streamer.send( bndl, "Run Output Group" );
 		}
 	}
 	
@@ -530,6 +491,10 @@ for( int k = 0, m = bufOff + fill; k < bufSpans.length; k++ ) {
 //new Exception().printStackTrace();
 		
 //		synchronized( sync ) {
+			// pending refills must not address the buffers freed below
+			if( !streamer.waitForJobs() ) {
+				printTimeOutMsg( "streamer" );
+			}
 			try {
 				server.sync( TIMEOUT ); // an n_free on a pausing node can crash scsynth otherwise (19-nov-07)
 				grpRoot.deepFree();
@@ -745,6 +710,21 @@ for( int k = 0, m = bufOff + fill; k < bufSpans.length; k++ ) {
 	public Object oscQuery_panBusNumChannels() {
 		return ((ct == null) ? null : ct.busPan.getNumChannels());
 	}
+	// the following report on the disk streaming since the transport was last started
+	public Object oscQuery_streamRefills() {
+		return streamer.numRefills.get();
+	}
+	public Object oscQuery_streamUnderruns() {
+		return streamer.numUnderruns.get();
+	}
+	// buffer reads which played silence because a transformed region was not rendered yet
+	public Object oscQuery_streamRenderUnderruns() {
+		return doc.getAudioTrail().getNumRenderUnderruns() - streamer.renderUnderrunsBase;
+	}
+	// milliseconds from receiving a /tr message to the completion of the refill
+	public Object oscQuery_streamMaxLatency() {
+		return (float) (streamer.maxLatency.get() * 1.0e-6);
+	}
 
 	// "createNRTFile", (String) fileName, (int) audioBusOffset, (int) controlBusOffset, (int) bufferOffset, (float) serverRate
 	// ; audio is written to <diskBusNumChannels> channels, beginning at <audioBusOffset>
@@ -827,6 +807,9 @@ for( int k = 0, m = bufOff + fill; k < bufSpans.length; k++ ) {
 			}
 			synthPhasor	= Synth.basicNew( "eisk-phasor", nrtServer );
 
+			// the score refers to the rendered frames of transformed regions
+			at.renderFrames( span );
+
 			for( nrtClock = 0, even = true;; nrtClock++, even = !even ) {
 				if( even ) {
 					pos = nrtClock * DISKBUF_SIZE_HM - DISKBUF_PAD + nrtPlayOffset;
@@ -924,23 +907,25 @@ for( int k = 0, m = bufOff + fill; k < bufSpans.length; k++ ) {
 
 	public void transportStop(Transport t, long pos) {
 		trigNodeID = -1;
+		refillDeadline = Long.MAX_VALUE;
 		if (!server.isRunning() || (ct == null)) return;
 
 		try {
 			trigResp.remove();
-			final OSCBundle bndl = new OSCBundle();
-			bndl.addPacket(grpInput.freeAllMsg());
-			if (!activeOutput) {
-				bndl.addPacket(grpOutput.runMsg(false));
-				syncOutput.deactivate(bndl);
-			}
-			if (!activeInput) {
-				syncInput.deactivate(bndl);
-			}
-			server.sendBundle(bndl);
 		} catch (IOException e1) {
 			printError("transportStop", e1);
 		}
+		final OSCBundle bndl = new OSCBundle();
+		bndl.addPacket(grpInput.freeAllMsg());
+		if (!activeOutput) {
+			bndl.addPacket(grpOutput.runMsg(false));
+			syncOutput.deactivate(bndl);
+		}
+		if (!activeInput) {
+			syncInput.deactivate(bndl);
+		}
+		// must not overtake the bundles of a preceding transportPlay
+		streamer.send(bndl, "transportStop");
 	}
 
 	// XXX sync
@@ -951,8 +936,22 @@ for( int k = 0, m = bufOff + fill; k < bufSpans.length; k++ ) {
 	
 	// irgendwie noch nicht so 100% fertig, manchmal scheinen buffer updates
 	// nicht korrekt (aktuell spielende buffer haelfte -> anschliessend alles ok)
-	public void transportReadjust( Transport t, long readjusted, double rate )
+	public void transportReadjust( Transport t, final long readjusted, double rate )
+	{
+		final Span loop = t.getFoldLoop();
+
+		streamer.enqueue( new Runnable() {
+			public void run()
+			{
+				readjust( readjusted, loop );
+			}
+		});
+	}
+
+	// sync : called in the streamer thread
+	protected void readjust( long readjusted, Span loop )
 	{
+		final Context	ct		= this.ct;
 		final OSCBundle	bndl;
 		Span[]			bufSpans;
 		long			pos, start;
@@ -960,7 +959,9 @@ for( int k = 0, m = bufOff + fill; k < bufSpans.length; k++ ) {
 
 //		pos = nextClock * DISKBUF_SIZE_HM - ((1 - even) * DISKBUF_PAD) + playOffset;
 		
-		playOffset = readjusted;
+		playOffset	= readjusted;
+		foldLoop	= loop;
+		if( ct == null ) return;
 		// now refresh dem buffers to make sure they reflect the new loop!
 			bndl		= new OSCBundle();
 			for( int i = 0; i < 2; i++ ) {
@@ -971,7 +972,7 @@ for( int k = 0, m = bufOff + fill; k < bufSpans.length; k++ ) {
 				start	= Math.max( 0, pos );
 				fill	= (int) (start - pos);
 				bufOff	= even * DISKBUF_SIZE_H;
-				bufSpans = t.foldSpans( new Span( start, pos + DISKBUF_SIZE_H ), MIN_LOOP_LEN );
+				bufSpans = Transport.foldSpans( new Span( start, pos + DISKBUF_SIZE_H ), MIN_LOOP_LEN, foldLoop );
 checkSpans:		if( bufSpans.length == lastBufSpans[ even ].length ) {
 					for( int j = 0; j < bufSpans.length; j++ ) {
 						if( !bufSpans[ j ].equals( lastBufSpans[ even ][ j ])) break checkSpans;
@@ -1007,16 +1008,85 @@ if( DEBUG_FOLD ) {
 			}
 		}
 	}
+
+	/*
+	 *	Returns the number of frames played when the phasor synth sent
+	 *	the given clock count. Odd counts are sent when the phasor crosses
+	 *	the middle of the disk buffer, even counts half a buffer duration
+	 *	later, when the phasor has wrapped around and skipped the padding.
+	 *	Counts start at one.
+	 */
+	protected long getClockFrames( int clockCount )
+	{
+		return (long) clockCount * DISKBUF_SIZE_HM + ((clockCount & 1) == 0 ? DISKBUF_PAD : 0);
+	}
+
+	// sync : called in the streamer thread. returns false if the trigger was obsolete
+	protected boolean refill( OSCMessage msg )
+	{
+		final Context			ct		= this.ct;
+		final int				nodeID	= ((Number) msg.getArg( 0 )).intValue();
+		final int				nextClock, fill, bufOff;
+		final long				pos, start;
+		final OSCBundle			bndl2;
+		final int				even;
+		final Span[]			bufSpans;
+		int						numCh;
+
+		try {
+			if( (ct == null) || (ct.synthPhasor == null) || (nodeID != ct.synthPhasor.getNodeID()) ) return false;
+			if( trigNodeID == -1 ) return false;	// transport not running anymore
+			clock		= ((Number) msg.getArg( 2 )).intValue();
+//System.err.println( "clock = " + clock );
+			nextClock	= clock + 1;
+			even		= nextClock & 1; // == 0;
+			bndl2		= new OSCBundle();
+
+				pos		= nextClock * DISKBUF_SIZE_HM - ((1 - even) * DISKBUF_PAD) + playOffset;
+				start	= Math.max( 0, pos );
+				fill	= (int) (start - pos);
+				bufOff	= even * DISKBUF_SIZE_H;
+				if( fill > 0 ) {
+					for( int j = 0; j < ct.bufsDisk.length; j++ ) {
+						numCh = ct.bufsDisk[ j ].getNumChannels();
+						bndl2.addPacket( ct.bufsDisk[ j ].fillMsg( bufOff * numCh, fill * numCh, 0.0f ));
+					}
+				}
+				bufSpans = Transport.foldSpans( new Span( start, pos + DISKBUF_SIZE_H ), MIN_LOOP_LEN, foldLoop );
+				doc.getAudioTrail().addBufferReadMessages( bndl2, bufSpans, ct.bufsDisk, bufOff + fill );
+
+				lastBufSpans[ even ] = bufSpans;
+if( DEBUG_FOLD ) {
+	System.out.println( "------C "+ nextClock + ", " + even + ", " + playOffset + ", " + pos );
+for( int k = 0, m = bufOff + fill; k < bufSpans.length; k++ ) {
+	System.out.println( "i = " + k + "; " + bufSpans[ k ] + " -> " + m );
+		m += bufSpans[ k ].getLength();
+	}
+	System.out.println();
+}
+				if( !server.sync( bndl2, TIMEOUT )) {
+					printTimeOutMsg( "bufUpdate" );
+			}
+		}
+		catch( IOException e1 ) {
+			printError( "Receive /tr", e1 );
+		}
+		catch( ClassCastException e2 ) {
+			printError( "Receive /tr", e2 );
+		}
+		return true;
+	}
 	
 	// sync : shared on MTE
-	public void transportPlay( Transport t, long pos, double rate )
+	public void transportPlay( Transport t, final long pos, double rate )
 	{
 		final float			realRate;
 		final float			interpolation;
 		final Span[]		bufSpans;
+		final Span			loop;
 		final long			start;
 		final int			fill;
-		OSCBundle			bndl;
+		final OSCBundle		bndlFill, bndlStart;
 
 		realRate			= (float) (rate * srcFactor);
 		interpolation		= realRate == 1.0f ? 1f : 3f;
@@ -1039,45 +1109,35 @@ if( DEBUG_FOLD ) {
 			}
 			
 //			if( !doc.bird.attemptShared( Session.DOOR_MTE, 500 )) return;
-			try {
-				bndl	= new OSCBundle();
-				start	= Math.max( 0, pos - DISKBUF_PAD );
-				fill	= (int) (start + DISKBUF_PAD - pos);
+				bndlFill	= new OSCBundle();
+				start		= Math.max( 0, pos - DISKBUF_PAD );
+				fill		= (int) (start + DISKBUF_PAD - pos);
 				if( fill > 0 ) {
 					for( int i = 0; i < ct.bufsDisk.length; i++ ) {
-						bndl.addPacket( ct.bufsDisk[ i ].fillMsg( 0, fill * ct.bufsDisk[ i ].getNumChannels(), 0.0f ));
+						bndlFill.addPacket( ct.bufsDisk[ i ].fillMsg( 0, fill * ct.bufsDisk[ i ].getNumChannels(), 0.0f ));
 					}
 				}
-				bufSpans = t.foldSpans( new Span( start, pos - DISKBUF_PAD + DISKBUF_SIZE ), MIN_LOOP_LEN );
-				doc.getAudioTrail().addBufferReadMessages( bndl, bufSpans, ct.bufsDisk, fill );
+				loop		= t.getFoldLoop();
+				bufSpans	= Transport.foldSpans( new Span( start, pos - DISKBUF_PAD + DISKBUF_SIZE ), MIN_LOOP_LEN, loop );
+				doc.getAudioTrail().addBufferReadMessages( bndlFill, bufSpans, ct.bufsDisk, fill );
 
 if( DEBUG_FOLD ) {
-	System.out.println( "------P "+ clock + ", X, " + playOffset + ", " + pos );
+	System.out.println( "------P X, " + pos );
 	for( int k = 0, m = fill; k < bufSpans.length; k++ ) {
 		System.out.println( "i = " + k + "; " + bufSpans[ k ] + " -> " + m );
 		m += bufSpans[ k ].getLength();
 	}
 	System.out.println();
 }
-				lastBufSpans[ 0 ] = emptySpans;
-				lastBufSpans[ 1 ] = emptySpans;
-				if( !server.sync( bndl, TIMEOUT )) {
-					printTimeOutMsg( "play" );
-					return;
-				}
-			}
-			catch( IOException e1 ) {
-				printError( "transportPlay", e1 );
-			}
 //			finally {
 //				doc.bird.releaseShared( Session.DOOR_MTE );
 //			}
 			
-			bndl		= new OSCBundle();
-			bndl.addPacket( grpInput.freeAllMsg() );
+			bndlStart	= new OSCBundle();
+			bndlStart.addPacket( grpInput.freeAllMsg() );
 			ct.newInputSynths();	// re-create synthsBufRd and synthPhasor
 			for( int i = 0, off = 0; i < ct.numFiles; i++ ) {
-				bndl.addPacket( ct.synthsBufRd[ i ].newMsg( grpInput, new String[] {
+				bndlStart.addPacket( ct.synthsBufRd[ i ].newMsg( grpInput, new String[] {
 					"i_aInBf",	                  "i_aOtBs",                       "i_aPhBs",            "i_intrp" }, new float[] {
 					ct.bufsDisk[ i ].getBufNum(), ct.busInternal.getIndex() + off, busPhasor.getIndex(), interpolation }
 				));
@@ -1085,25 +1145,46 @@ if( DEBUG_FOLD ) {
 				off += ct.chanMaps[ i ].length;
 			}
 			if( ct.numFiles > 0 ) {
-				bndl.addPacket( ct.synthPhasor.newMsg( grpInput, new String[] {
+				bndlStart.addPacket( ct.synthPhasor.newMsg( grpInput, new String[] {
 					"i_aInBf",					  "rate",   "i_aPhBs"          }, new float[] {
 					ct.bufsDisk[ 0 ].getBufNum(), realRate, busPhasor.getIndex() }));
 				nw.register( ct.synthPhasor );
 			}
-			bndl.addPacket( grpOutput.runMsg( true ));
+			bndlStart.addPacket( grpOutput.runMsg( true ));
 
-			playOffset	= pos;
-			clock		= 0;
 			try {
 				trigResp.add();
-				if( !activeInput ) syncInput.activate( bndl );
-				if( !activeOutput ) syncOutput.activate( bndl );
-				trigNodeID = ct.synthPhasor.getNodeID();
-				server.sendBundle( bndl );
 			}
 			catch( IOException e1 ) {
 				printError( "transportPlay", e1 );
 			}
+			if( !activeInput ) syncInput.activate( bndlStart );
+			if( !activeOutput ) syncOutput.activate( bndlStart );
+			trigNodeID		= ct.synthPhasor.getNodeID();
+			refillDeadline	= (long) (DISKBUF_SIZE_HM * 1.0e9 / (serverRate * realRate));
+			streamer.resetStats();
+
+			// the buffers must be filled before the synths are started;
+			// the streamer waits for that so the event thread does not need to
+			streamer.enqueue( new Runnable() {
+				public void run()
+				{
+					playOffset			= pos;
+					clock				= 0;
+					foldLoop			= loop;
+					lastBufSpans[ 0 ]	= emptySpans;
+					lastBufSpans[ 1 ]	= emptySpans;
+					try {
+						if( !server.sync( bndlFill, TIMEOUT )) {
+							printTimeOutMsg( "play" );
+						}
+						server.sendBundle( bndlStart );
+					}
+					catch( IOException e1 ) {
+						printError( "transportPlay", e1 );
+					}
+				}
+			});
 //		} // synchronized( sync )
 	}
 	
@@ -1228,4 +1309,154 @@ if( DEBUG_FOLD ) {
 			}
 		}
 	}
+
+	/*
+	 *	Performs the disk buffer refills and all other playback related
+	 *	server communication in a dedicated thread, so that refills are
+	 *	not delayed by repaints in the event thread, and the event thread
+	 *	never waits for the server. The /tr responder hands over the most
+	 *	recent trigger through an atomic reference, transport actions are
+	 *	queued as jobs. Jobs are processed in order and before a pending
+	 *	trigger, therefore the message order of the event thread is kept,
+	 *	and playOffset, clock, foldLoop and lastBufSpans are only accessed
+	 *	by this thread.
+	 */
+	private class Streamer
+			implements Runnable {
+
+		private final Thread					thread;
+		private final AtomicReference<Trigger>	pendingTrig		= new AtomicReference<Trigger>();
+		private final Queue<Runnable>			jobs			= new ConcurrentLinkedQueue<Runnable>();
+		private volatile boolean				quit			= false;
+
+		protected final AtomicInteger			numRefills		= new AtomicInteger();
+		protected final AtomicInteger			numUnderruns	= new AtomicInteger();
+		protected final AtomicLong				maxLatency		= new AtomicLong();	// nanoseconds
+		protected volatile int					renderUnderrunsBase;	// the trail's count when the stats were reset
+
+		protected Streamer()
+		{
+			thread = new Thread( this, "Streamer-" + doc.getName() );
+			thread.setDaemon( true );
+			thread.setPriority( Thread.MAX_PRIORITY );
+			thread.start();
+		}
+
+		// called by the OSC listener
+		protected void trigger( OSCMessage msg, long when )
+		{
+			if( pendingTrig.getAndSet( new Trigger( msg, when )) != null ) {
+				numUnderruns.incrementAndGet();	// the previous refill was skipped
+			}
+			LockSupport.unpark( thread );
+		}
+
+		protected void enqueue( Runnable job )
+		{
+			jobs.add( job );
+			LockSupport.unpark( thread );
+		}
+
+		protected void send( final OSCBundle bndl, final String loc )
+		{
+			enqueue( new Runnable() {
+				public void run()
+				{
+					try {
+						server.sendBundle( bndl );
+					}
+					catch( IOException e1 ) {
+						printError( loc, e1 );
+					}
+				}
+			});
+		}
+
+		/*
+		 *	Waits until all jobs enqueued so far have been
+		 *	processed. Returns false upon timeout.
+		 */
+		protected boolean waitForJobs()
+		{
+			if( Thread.currentThread() == thread ) return true;
+
+			final CountDownLatch latch = new CountDownLatch( 1 );
+			enqueue( new Runnable() {
+				public void run()
+				{
+					latch.countDown();
+				}
+			});
+			try {
+				return latch.await( (long) (TIMEOUT * 2000), TimeUnit.MILLISECONDS );
+			}
+			catch( InterruptedException e1 ) {
+				return false;
+			}
+		}
+
+		protected void resetStats()
+		{
+			numRefills.set( 0 );
+			numUnderruns.set( 0 );
+			maxLatency.set( 0 );
+			renderUnderrunsBase = doc.getAudioTrail().getNumRenderUnderruns();
+		}
+
+		protected void dispose()
+		{
+			quit = true;
+			LockSupport.unpark( thread );
+		}
+
+		public void run()
+		{
+			Runnable	job;
+			Trigger		trig;
+			long		latency, max;
+
+			while( !quit ) {
+				job = jobs.poll();
+				if( job != null ) {
+					try {
+						job.run();
+					}
+					catch( RuntimeException e1 ) {
+						printError( "Streamer", e1 );
+					}
+					continue;
+				}
+				trig = pendingTrig.getAndSet( null );
+				if( trig != null ) {
+					try {
+						if( !refill( trig.msg )) continue;
+					}
+					catch( RuntimeException e1 ) {
+						printError( "Receive /tr", e1 );
+					}
+					// a refill that completes after the buffer half has started playing is late
+					latency = System.nanoTime() - trig.when;
+					numRefills.incrementAndGet();
+					if( latency > refillDeadline ) numUnderruns.incrementAndGet();
+					do {
+						max = maxLatency.get();
+					} while( (latency > max) && !maxLatency.compareAndSet( max, latency ));
+					continue;
+				}
+				LockSupport.park( this );
+			}
+		}
+	}
+
+	private static final class Trigger
+	{
+		protected final OSCMessage	msg;
+		protected final long		when;	// System.nanoTime() upon reception
+
+		protected Trigger( OSCMessage msg, long when )
+		{
+			this.msg	= msg;
+			this.when	= when;
+		}
+	}
 }
@@ -50,8 +50,7 @@ public class Transport
 	private boolean loopInPlay 	= false;
 	private long 	loopStart, loopStop;
 	private double 	rate;
-	private double 	frameFactor;
-	private long 	lastUpdate;
+	private long 	lastElapsed;	// frames played at the last update
 
 	// high level listeners
 	private final List<TransportListener> collListeners  = new ArrayList<TransportListener>();
@@ -60,7 +59,7 @@ public class Transport
 	private long						startFrame;
 	private long						stopFrame;
 	private long						currentFrame;
-	private long						startTime;
+	private final TransportClock		clock;
 	
 	private double						rateScale	= 1.0;
 	
@@ -87,7 +86,7 @@ public class Transport
 
 		osc				= new OSCRouterWrapper( doc, this );
 		rate			= doc.timeline.getRate();
-		frameFactor		= rateScale * rate / 1000;
+		clock			= new TransportClock( rateScale * rate );
     }
 	
 	public void dispose()
@@ -188,11 +187,12 @@ public class Transport
 		loopInPlay		= isLooping() && loopStop > startFrame;
 		stopFrame		= loopInPlay ? loopStop : span.stop;
 		this.rateScale	= scale;
-		frameFactor		= scale * rate / 1000;
 		currentFrame	= startFrame;
+		lastElapsed		= 0;
 		running			= true;
+		clock.setRate( scale * rate, System.nanoTime() );
 		dispatchPlay( startFrame );
-		startTime		= System.currentTimeMillis();
+		clock.start( System.nanoTime() );
 	}
 	
 	public double getRateScale()
@@ -223,7 +223,7 @@ public class Transport
 						stopFrame	= loopStop;
 					}
 					// check for possible jumps
-					testFrame = startFrame + (long) ((lastUpdate - startTime) * frameFactor + 0.5);
+					testFrame = startFrame + lastElapsed;
 					if( loopInPlay && (testFrame >= loopStop) ) {
 						testFrame = ((testFrame - loopStart) % (loopStop - loopStart)) + loopStart;
 					}
@@ -239,7 +239,7 @@ public class Transport
 			if( looping ) {
 				if( running && loopInPlay ) {
 					// check for possible jumps
-					testFrame = startFrame + (long) ((lastUpdate - startTime) * frameFactor + 0.5);
+					testFrame = startFrame + lastElapsed;
 					// seamless re-adjustment of startFrame
 					// so currentFrame doesn't jump
 					if( testFrame != currentFrame ) {
@@ -278,8 +278,9 @@ public class Transport
 	 *	beyond doc.timeline.getLength() are possible and allowed.
 	 *
 	 *	Note: this method is not thread safe, hence should be called in the event
-	 *			thread. this means, the trigger responder in SuperColliderPlayer
-	 *			must be deferred!!!
+	 *			thread. Threads other than the event thread should obtain a snapshot
+	 *			of the loop settings via <code>getFoldLoop</code> and use the static
+	 *			variant of this method instead.
 	 *
 	 *	@param	unfolded	the linear extrapolated time span from transport play
 	 *	@param	loopMin		a minimum length of the loop such as to prevent cpu overload or
@@ -288,11 +289,39 @@ public class Transport
 	 *	@return				an array of folded spans (array length is greater than or equal to 1)
 	 */
 	public Span[] foldSpans( Span unfolded, int loopMin )
+	{
+		return foldSpans( unfolded, loopMin, getFoldLoop() );
+	}
+
+	/**
+	 *	Returns the loop span relevant for folding, that is the loop span
+	 *	if the loop is active and relevant (loopInPlay), otherwise <code>null</code>.
+	 *	Must be called in the event thread.
+	 */
+	public Span getFoldLoop()
+	{
+		return loopInPlay ? new Span( loopStart, loopStop ) : null;
+	}
+
+	/**
+	 *	'Folds' a time span with regard to given loop settings.
+	 *	This method is thread safe.
+	 *
+	 *	@param	unfolded	the linear extrapolated time span from transport play
+	 *	@param	loopMin		a minimum length of the loop
+	 *	@param	loop		the loop span as returned by <code>getFoldLoop</code>,
+	 *						or <code>null</code> if not looping
+	 *	@return				an array of folded spans (array length is greater than or equal to 1)
+	 *
+	 *	@see	#foldSpans( Span, int )
+	 */
+	public static Span[] foldSpans( Span unfolded, int loopMin, Span loop )
 	{
 		// the quick one
-		if( !loopInPlay || (unfolded.stop <= loopStop)) return new Span[] { unfolded };
+		if( (loop == null) || (unfolded.stop <= loop.stop)) return new Span[] { unfolded };
 		
-		final long loopLen		= Math.max( loopMin, loopStop - loopStart );
+		final long loopStart	= loop.start;
+		final long loopLen		= Math.max( loopMin, loop.stop - loopStart );
 		final long loopMinStop	= loopStart + loopLen;
 		final long foldStart	= (unfolded.start < loopMinStop) ? unfolded.start : ((unfolded.start - loopStart) % loopLen) + loopStart;
 		final long attemptStop	= foldStart + unfolded.getLength();
@@ -345,13 +374,27 @@ public class Transport
 		return updateCurrentFrame();
 	}
 
+	/**
+	 *	Corrects the playback position with a report from the sound server,
+	 *	compensating the drift between the server's sample clock and the
+	 *	system clock. May be called from any thread.
+	 *
+	 *	@param	elapsedFrames	the number of frames the server has played since the
+	 *							transport was started or positioned
+	 *	@param	when			the time at which the server reported the position,
+	 *							as returned by <code>System.nanoTime</code>
+	 */
+	public void reportServerPosition( long elapsedFrames, long when )
+	{
+		clock.report( elapsedFrames, when );
+	}
+
 	private long updateCurrentFrame()
 	{
-		final long now = System.currentTimeMillis();
-		if( (now == lastUpdate) || !running ) return currentFrame;
+		if( !running ) return currentFrame;
 		
-		currentFrame	= startFrame + (long) ((now - startTime) * frameFactor + 0.5);
-		lastUpdate		= now;
+		lastElapsed		= clock.getElapsedFrames( System.nanoTime() );
+		currentFrame	= startFrame + lastElapsed;
 		if( loopInPlay ) {
 			if( currentFrame >= loopStop ) {
 				currentFrame = ((currentFrame - loopStart) % (loopStop - loopStart)) + loopStart;
@@ -379,9 +422,9 @@ public class Transport
 			stopFrame		= loopInPlay ? loopStop : doc.timeline.getLength();
 //			rateScale		= rate;
 			currentFrame	= startFrame;
+			lastElapsed		= 0;
 			dispatchPosition( startFrame );
-			startTime		= System.currentTimeMillis();
-			lastUpdate		= startTime;
+			clock.start( System.nanoTime() );
 		} else {
 			currentFrame	= doc.timeline.getPosition();
 		}
@@ -389,7 +432,7 @@ public class Transport
 
 	public void timelineChanged( TimelineEvent e ) {
 		rate			= doc.timeline.getRate();
-		frameFactor		= rateScale * rate / 1000;
+		clock.setRate( rateScale * rate, System.nanoTime() );
 	}
 
 	public void timelineSelected(TimelineEvent e) { /* ignored */ }
@@ -435,6 +478,11 @@ public class Transport
 		return getCurrentFrame();
 	}
 
+	// ratio of the sound server's sample clock to the system clock
+	public Object oscQuery_clockDrift() {
+		return (float) clock.getDrift();
+	}
+
 	public Object oscQuery_running() {
 		return isRunning() ? 1 : 0;
 	}
@@ -0,0 +1,134 @@
+/*
+ *  TransportClock.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.realtime;
+
+/**
+ *  Tells the number of frames played since the transport was started.
+ *  Between the position reports of the sound server, the frames are
+ *  interpolated from <code>System.nanoTime</code>. Each report corrects
+ *  the interpolation in two ways: the rate is adjusted to the drift of
+ *  the server's sample clock against the system clock, measured over
+ *  all reports since the start, and a part of the remaining phase error
+ *  is taken over, so that the position converges without jumps. The
+ *  returned positions never decrease.
+ *  <p>
+ *  The drift is kept when the transport is restarted,
+ *  since it is a property of the audio hardware.
+ */
+final class TransportClock {
+
+    private static final double PHASE_GAIN      = 0.5;      // fraction of the phase error corrected per report
+    private static final double MAX_DRIFT       = 0.01;     // the server's clock may deviate by 1 percent
+    private static final double MAX_ERROR_SECS  = 0.5;      // larger deviations are considered stale reports
+    private static final int    MAX_OUTLIERS    = 2;        // ...unless they are repeated
+
+    private double  nominal;            // frames per nanosecond
+    private double  drift       = 1.0;  // server clock / system clock
+
+    private long    anchorNanos;
+    private double  anchorFrames;       // elapsed frames at anchorNanos
+    private long    lastElapsed;        // for monotony
+
+    private long    firstReportNanos;
+    private long    firstReportFrames;
+    private boolean hasReport;
+    private int     numOutliers;
+
+    /**
+     *  @param  framesPerSecond the nominal playback rate, i.e. the
+     *                          sample rate multiplied by the rate scale
+     */
+    TransportClock(double framesPerSecond) {
+        nominal = framesPerSecond * 1.0e-9;
+        start(System.nanoTime());
+    }
+
+    /**
+     *  Restarts counting from zero.
+     *
+     *  @param  nanos   the time of the start, as returned by <code>System.nanoTime</code>
+     */
+    synchronized void start(long nanos) {
+        anchorNanos     = nanos;
+        anchorFrames    = 0.0;
+        lastElapsed     = 0L;
+        hasReport       = false;
+        numOutliers     = 0;
+    }
+
+    /**
+     *  Changes the nominal playback rate without
+     *  changing the current position.
+     */
+    synchronized void setRate(double framesPerSecond, long nanos) {
+        anchorFrames    = predict(nanos);
+        anchorNanos     = nanos;
+        nominal         = framesPerSecond * 1.0e-9;
+        hasReport       = false;    // the drift measurement restarts at the new rate
+    }
+
+    /**
+     *  Returns the number of frames played at the given time.
+     */
+    synchronized long getElapsedFrames(long nanos) {
+        final long elapsed = Math.max(lastElapsed, (long) (predict(nanos) + 0.5));
+        lastElapsed = elapsed;
+        return elapsed;
+    }
+
+    /**
+     *  Corrects the clock with a position reported by the server.
+     *
+     *  @param  frames  the number of frames played since the start
+     *  @param  nanos   the time of the reception, as returned by <code>System.nanoTime</code>
+     */
+    synchronized void report(long frames, long nanos) {
+        final double err = frames - predict(nanos);
+
+        if (Math.abs(err) > MAX_ERROR_SECS * 1.0e9 * nominal) {
+            if (++numOutliers <= MAX_OUTLIERS) return;
+            // consistently off, e.g. because the server needed long to start
+            anchorFrames    = frames;
+            anchorNanos     = nanos;
+            hasReport       = false;
+        } else {
+            anchorFrames    = predict(nanos) + err * PHASE_GAIN;
+            anchorNanos     = nanos;
+        }
+        numOutliers = 0;
+
+        if (hasReport) {
+            if (nanos > firstReportNanos) {
+                final double measured = (frames - firstReportFrames) / ((nanos - firstReportNanos) * nominal);
+                drift = Math.max(1.0 - MAX_DRIFT, Math.min(1.0 + MAX_DRIFT, measured));
+            }
+        } else {
+            firstReportFrames   = frames;
+            firstReportNanos    = nanos;
+            hasReport           = true;
+        }
+    }
+
+    /**
+     *  Returns the measured ratio of the server's
+     *  sample clock to the system clock.
+     */
+    synchronized double getDrift() {
+        return drift;
+    }
+
+    private double predict(long nanos) {
+        return anchorFrames + (nanos - anchorNanos) * nominal * drift;
+    }
+}
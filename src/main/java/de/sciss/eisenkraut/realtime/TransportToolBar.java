@@ -16,6 +16,7 @@ package de.sciss.eisenkraut.realtime;
 import de.sciss.app.AbstractApplication;
 import de.sciss.app.Application;
 import de.sciss.common.BasicWindowHandler;
+import de.sciss.eisenkraut.gui.FrameScheduler;
 import de.sciss.eisenkraut.gui.GraphicsUtil;
 import de.sciss.eisenkraut.gui.TimeLabel;
 import de.sciss.eisenkraut.gui.ToolBar;
@@ -79,13 +80,17 @@ public class TransportToolBar
     protected double				rate;
     private int						customGroup		= 3;
 
+    // update periods in milliseconds, see FrameScheduler
+    private static final int		CUE_PERIOD		= 25;
+    private static final int		PLAY_PERIOD		= 27;
+
     // forward / rewind cueing
     protected boolean				isCueing		= false;
     protected int					cueStep;
-    protected final Timer			cueTimer;
+    protected final FrameScheduler.Client cueClient;
     protected long					cuePos;
 
-    private final Timer				playTimer;
+    private final FrameScheduler.Client playClient;
 
     /**
      *	Creates a new transport palette. Other classes
@@ -190,20 +195,18 @@ public class TransportToolBar
         // --- Listener ---
         // new DynamicAncestorAdapter(this).addTo(this);
 
-        cueTimer = new Timer(25, new ActionListener() {
-            public void actionPerformed(ActionEvent e) {
+        cueClient = new FrameScheduler.Client() {
+            public void frameUpdate(long when) {
                 cuePos = Math.max(0, Math.min(doc.timeline.getLength(), cuePos + (long) (cueStep * rate) / 1000));
                 doc.timeline.editPosition(this, cuePos);
-                GraphicsUtil.sync();
             }
-        });
+        };
 
-        playTimer = new Timer(27, new ActionListener() {
-            public void actionPerformed(ActionEvent e) {
+        playClient = new FrameScheduler.Client() {
+            public void frameUpdate(long when) {
                 lbTime.setTime(transport.getCurrentFrame() / rate);
-                GraphicsUtil.sync();
             }
-        });
+        };
 
         doc.timeline.addTimelineListener (this);
         transport   .addTransportListener(this);
@@ -262,22 +265,22 @@ public class TransportToolBar
         ggPlay.setSelected( false );
         if( isCueing ) {
             cuePos = pos;
-            cueTimer.restart();
+            FrameScheduler.getInstance().addClient(cueClient, CUE_PERIOD);
         }
-        playTimer.stop();
+        FrameScheduler.getInstance().removeClient(playClient);
     }
 
     public void transportPlay( Transport t, long pos, double pRate )
     {
         ggPlay.setSelected( true );
-        cueTimer.stop();
-        playTimer.restart();
+        FrameScheduler.getInstance().removeClient(cueClient);
+        FrameScheduler.getInstance().addClient(playClient, PLAY_PERIOD);
     }
 
     public void transportQuit( Transport t )
     {
-        cueTimer.stop();
-        playTimer.stop();
+        FrameScheduler.getInstance().removeClient(cueClient);
+        FrameScheduler.getInstance().removeClient(playClient);
     }
 
     public void transportPosition( Transport t, long pos, double pRate ) { /* ignore */ }
@@ -287,7 +290,8 @@ public class TransportToolBar
 
     public void dispose()
     {
-        playTimer.stop();
+        FrameScheduler.getInstance().removeClient(cueClient);
+        FrameScheduler.getInstance().removeClient(playClient);
     }
 
 // ---------------- actions ---------------- 
@@ -522,7 +526,7 @@ msgPane.add( ggCurrent );
             if( isCueing && !bm.isArmed() ) {
                 // System.out.println("---1");
                 isCueing	= false;
-                cueTimer.stop();
+                FrameScheduler.getInstance().removeClient(cueClient);
                 if( transportWasRunning ) {
                     transport.play( 1.0f );
                 }
@@ -534,7 +538,7 @@ msgPane.add( ggCurrent );
                 if( transportWasRunning ) {
                     transport.stop();
                 } else {
-                    cueTimer.restart();
+                    FrameScheduler.getInstance().addClient(cueClient, CUE_PERIOD);
                 }
             }
         }
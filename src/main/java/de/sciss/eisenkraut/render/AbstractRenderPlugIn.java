@@ -184,6 +184,19 @@ public abstract class AbstractRenderPlugIn implements RenderPlugIn {
 		return af;
 	}
 
+	/**
+	 *	Renders all channels of the current block in parallel, using the
+	 *	render threads of the host, and returns when all are done. Unlike
+	 *	<code>RenderContext.KEY_CHANNELRENDERER</code>, this is called from
+	 *	<code>producerRender</code>, so it can be combined with random access
+	 *	and with work on the whole block, and the unselected channels
+	 *	are rendered as well.
+	 */
+	protected static void renderChannels(ChannelRenderer cr, RenderSource source)
+			throws IOException {
+		new RenderPipeline.ChannelSlicer(cr, source, null).render();
+	}
+
 	protected static void fill(float[][] buf, int off, int len, float value) {
 		for (float[] chBuf : buf) {
 			for (int i = off, j = off + len; i < j; ) {
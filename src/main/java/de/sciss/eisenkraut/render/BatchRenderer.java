@@ -0,0 +1,294 @@
+/*
+ *  BatchRenderer.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.render;
+
+import de.sciss.app.AbstractCompoundEdit;
+import de.sciss.eisenkraut.edit.BasicCompoundEdit;
+import de.sciss.eisenkraut.io.AudioStake;
+import de.sciss.eisenkraut.io.AudioTrail;
+import de.sciss.eisenkraut.io.AudioTransform;
+import de.sciss.eisenkraut.session.Session;
+import de.sciss.eisenkraut.timeline.Track;
+import de.sciss.io.AudioFile;
+import de.sciss.io.AudioFileDescr;
+import de.sciss.io.Span;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ *  A plug-in host without user interface. It renders a plug-in
+ *  over a whole document in the calling thread, using the
+ *  settings last stored in the plug-in's preferences, and writes
+ *  the result to a new sound file. Like the <code>FilterDialog</code>,
+ *  it applies transforms (<code>RenderContext.KEY_TRANSFORM</code>)
+ *  as non-destructive edits, and feeds plug-ins which request random
+ *  access (<code>RenderContext.KEY_RANDOMACCESS</code>) the spans they ask
+ *  for, such as <code>Needlehole</code> when it normalizes. Unlike the dialog,
+ *  there are no cross-fades, and plug-ins requiring the clipboard are not supported.
+ *
+ *  @see    FilterDialog
+ */
+public class BatchRenderer
+        implements RenderConsumer, RenderHost {
+
+    private final Session           doc;
+    private final RenderPlugIn      plugIn;
+
+    private AbstractCompoundEdit    edit        = null;
+    private AudioStake              as          = null;
+    private float[][]               inBuf;
+    private boolean                 running     = false;
+    private float                   progress    = 0f;
+    private Exception               exception   = null;
+
+    /**
+     *  @param  doc     the document to process. It must not be shown in a frame
+     *  @param  plugIn  an initialized plug-in
+     */
+    public BatchRenderer(Session doc, RenderPlugIn plugIn) {
+        this.doc    = doc;
+        this.plugIn = plugIn;
+    }
+
+    /**
+     *  Renders the plug-in and writes the document to a sound file.
+     *
+     *  @param  target  the format and path of the output file. Markers
+     *                  are written if the format supports them
+     *
+     *  @throws IOException if reading or writing fails, or the plug-in fails
+     */
+    public void render(AudioFileDescr target)
+            throws IOException {
+
+        final AudioTrail at     = doc.getAudioTrail();
+        final Span       span   = new Span(0L, doc.timeline.getLength());
+
+        if (!span.isEmpty()) {
+            running = true;
+            try {
+                if (!process(span)) {
+                    if (exception instanceof IOException) throw (IOException) exception;
+                    throw new IOException(plugIn.getName() + " failed" +
+                            (exception == null ? "" : " (" + exception + ")"));
+                }
+            } finally {
+                running = false;
+            }
+        }
+
+        final Span outSpan = at.getSpan();
+        if (target.isPropertySupported(AudioFileDescr.KEY_MARKERS)) {
+            doc.markers.copyToAudioFile(target, outSpan);
+        } else {
+            target.setProperty(AudioFileDescr.KEY_MARKERS, null);
+        }
+        final AudioFile af = AudioFile.openAsWrite(target);
+        boolean success = false;
+        try {
+            at.flatten(af, outSpan, null);
+            af.close();
+            success = true;
+        } finally {
+            if (!success) {
+                af.cleanUp();
+                if (!target.file.delete()) target.file.deleteOnExit();
+            }
+        }
+    }
+
+    // mirrors FilterDialog.processStart and processRun
+    private boolean process(Span span)
+            throws IOException {
+
+        final AudioTrail            at          = doc.getAudioTrail();
+        final RenderContext         context     = new RenderContext(this, this,
+                Track.getInfos(doc.selectedTracks.getAll(), doc.tracks.getAll()), span, doc.timeline.getRate());
+        final RenderSource          source      = new RenderSource(context);
+        final Set<Object>           newOptions;
+        final RandomAccessRequester rar;
+        final int                   minBlockSize, maxBlockSize, blockSize;
+        long                        readOffset  = span.start;
+        long                        remaining   = span.getLength();
+        boolean                     finished    = false;
+        int                         readLen;
+
+        source.validAudio   = plugIn.getAudioPolicy() == RenderPlugIn.POLICY_MODIFY;
+        source.validMarkers = plugIn.getMarkerPolicy() == RenderPlugIn.POLICY_MODIFY;
+        if (source.validMarkers) {
+            source.markers = doc.markers.getCutTrail(span, doc.markers.getDefaultTouchMode(), 0);
+        }
+
+        try {
+            context.getModifiedOptions();   // clear state
+            if (!plugIn.producerBegin(source)) return false;
+
+            newOptions      = context.getModifiedOptions();
+            minBlockSize    = newOptions.contains(RenderContext.KEY_MINBLOCKSIZE) ?
+                    (Integer) context.getOption(RenderContext.KEY_MINBLOCKSIZE) : 1;
+            maxBlockSize    = newOptions.contains(RenderContext.KEY_MAXBLOCKSIZE) ?
+                    (Integer) context.getOption(RenderContext.KEY_MAXBLOCKSIZE) : 0x7FFFFF;
+            blockSize       = newOptions.contains(RenderContext.KEY_PREFBLOCKSIZE) ?
+                    (Integer) context.getOption(RenderContext.KEY_PREFBLOCKSIZE) :
+                    Math.max(minBlockSize, Math.min(maxBlockSize, 8192));
+            rar             = newOptions.contains(RenderContext.KEY_RANDOMACCESS) ?
+                    (RandomAccessRequester) context.getOption(RenderContext.KEY_RANDOMACCESS) : null;
+            if (newOptions.contains(RenderContext.KEY_CLIPBOARD)) {
+                setException(new IOException(plugIn.getName() + " requires the clipboard"));
+                return false;
+            }
+
+            if (source.validAudio && (rar == null) && (edit != null) &&
+                newOptions.contains(RenderContext.KEY_TRANSFORM)) {
+
+                // non-destructive edit, no rendering required
+                as.dispose();
+                as = null;
+                at.editBegin(edit);
+                at.editTransform(this, span, (AudioTransform) context.getOption(RenderContext.KEY_TRANSFORM), edit);
+                at.editEnd(edit);
+                if (source.validMarkers) editMarkers(source);
+                finished = true;
+                return true;
+            }
+
+            inBuf = new float[source.numAudioChannels][blockSize];
+            for (int ch = 0; ch < source.numAudioChannels; ch++) {
+                source.audioBlockBuf[ch] = new float[blockSize];
+            }
+
+            while (true) {
+                if (rar != null) {
+                    source.blockSpan = rar.getNextSpan();
+                    readLen = (int) source.blockSpan.getLength();
+                } else {
+                    readLen = (int) Math.min(blockSize, remaining);
+                    source.blockSpan = new Span(readOffset, readOffset + readLen);
+                    remaining  -= readLen;
+                    readOffset += readLen;
+                }
+                if (readLen == 0) break;
+                source.audioBlockBufLen = readLen;
+
+                at.readFrames(inBuf, 0, source.blockSpan);
+                for (int ch = 0; ch < source.numAudioChannels; ch++) {
+                    System.arraycopy(inBuf[ch], 0, source.audioBlockBuf[ch], 0, readLen);
+                }
+                if (!plugIn.producerRender(source)) return false;
+            }
+
+            finished = plugIn.producerFinish(source);
+            return finished;
+
+        } finally {
+            if (!finished) {
+                try {
+                    plugIn.producerCancel(source);
+                } catch (IOException e1) {
+                    if (exception == null) exception = e1;
+                }
+                if (edit != null) edit.cancel();
+            } else if (edit != null) {
+                edit.perform();
+                edit.end();
+            }
+            edit = null;
+            if (as != null) {
+                if (!finished) as.dispose();
+                as = null;
+            }
+            if (source.markers != null) {
+                source.markers.dispose();
+                source.markers = null;
+            }
+        }
+    }
+
+    private void editMarkers(RenderSource source) {
+        doc.markers.editBegin(edit);
+        doc.markers.editClear(this, source.context.getTimeSpan(), edit);
+        doc.markers.editAddAll(this, source.markers.getAll(true), edit);
+        doc.markers.editEnd(edit);
+    }
+
+// ---------------- RenderConsumer interface ----------------
+
+    public boolean consumerBegin(RenderSource source)
+            throws IOException {
+
+        edit    = new BasicCompoundEdit(plugIn.getName());
+        as      = doc.getAudioTrail().alloc(source.context.getTimeSpan());
+        return true;
+    }
+
+    public boolean consumerRender(RenderSource source)
+            throws IOException {
+
+        if (as == null) {
+            setException(new IllegalStateException("Plug-in rendered before consumption began"));
+            return false;
+        }
+        as.writeFrames(source.audioBlockBuf, source.audioBlockBufOff, source.blockSpan);
+        return true;
+    }
+
+    public boolean consumerFinish(RenderSource source)
+            throws IOException {
+
+        final AudioTrail at = doc.getAudioTrail();
+
+        if (edit == null) return true;
+
+        if (source.validAudio) {
+            as.flush();
+            at.editBegin(edit);
+            at.editRemove(this, as.getSpan(), edit);
+            at.editInsert(this, as.getSpan(), edit);
+            at.editAdd(this, as, edit);
+            at.editEnd(edit);
+            as = null;  // now owned by the trail
+        }
+        if (source.validMarkers) editMarkers(source);
+        return true;
+    }
+
+    public void consumerCancel(RenderSource source)
+            throws IOException { /* edits are cancelled by process() */ }
+
+// ---------------- RenderHost interface ----------------
+
+    public void showMessage(int type, String text) {
+        System.err.println(plugIn.getName() + ": " + text);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void setProgression(float p) {
+        progress = p;
+    }
+
+    /**
+     *  Returns the last progression reported by the plug-in.
+     */
+    public float getProgression() {
+        return progress;
+    }
+
+    public void setException(Exception e) {
+        exception = e;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ *  ChannelRenderer.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.render;
+
+import java.io.IOException;
+
+/**
+ *	Implemented by plug-ins which render
+ *	each channel independently of the others.
+ *
+ *	@see	RenderContext#KEY_CHANNELRENDERER
+ */
+public interface ChannelRenderer
+{
+	/**
+	 *	Renders one channel of the current block in place, i.e.
+	 *	<code>source.audioBlockBuf[ ch ]</code> from <code>audioBlockBufOff</code>
+	 *	for <code>audioBlockBufLen</code> frames. The host calls this
+	 *	concurrently for different channels, so the method must neither
+	 *	touch other channels nor modify shared state of the plug-in.
+	 *
+	 *	@param	source	render source containing the current
+	 *					data block
+	 *	@param	ch		the channel to render, which is selected in
+	 *					<code>source.audioTrackMap</code>
+	 *
+	 *	@throws	IOException	if a read/write error occurs
+	 */
+	public void renderChannel( RenderSource source, int ch )
+	throws IOException;
+}
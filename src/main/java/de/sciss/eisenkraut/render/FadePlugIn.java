@@ -23,7 +23,8 @@ import java.awt.geom.CubicCurve2D;
 import java.io.IOException;
 
 public abstract class FadePlugIn
-		extends AbstractRenderPlugIn {
+		extends AbstractRenderPlugIn
+		implements ChannelRenderer {
 
 	private final boolean	isFadeIn;	// true for fade-in, false for fade-out
 
@@ -65,6 +66,7 @@ public abstract class FadePlugIn
 //		prBlend			= new BlendContext( prTotalSpan.getLength(), CurvePanel.getControlPoints( prefs ));
 		prBlend			= new BlendContext( prTotalSpan.getLength(), 0, CurvePanel.getControlPoints( prefs ));
 		prBuf			= new float[ source.numAudioChannels ][];
+		source.context.setOption( RenderContext.KEY_CHANNELRENDERER, this );
 
 		return prConsumer.consumerBegin( source );
 	}
@@ -85,4 +87,18 @@ public abstract class FadePlugIn
 		}
 		return prConsumer.consumerRender( source );
 	}
+
+	public void renderChannel( RenderSource source, int ch )
+	{
+		// a buffer of its own, as other channels are faded concurrently
+		final float[][] buf = new float[][] { source.audioBlockBuf[ ch ]};
+
+		if( isFadeIn ) {
+			prBlend.fadeIn( source.blockSpan.start - prTotalSpan.start, buf,
+			                source.audioBlockBufOff, buf, source.audioBlockBufOff, source.audioBlockBufLen );
+		} else {
+			prBlend.fadeOut( source.blockSpan.start - prTotalSpan.start, buf,
+			                 source.audioBlockBufOff, buf, source.audioBlockBufOff, source.audioBlockBufLen );
+		}
+	}
 }
@@ -23,6 +23,7 @@ import de.sciss.eisenkraut.Main;
 import de.sciss.eisenkraut.edit.BasicCompoundEdit;
 import de.sciss.eisenkraut.io.AudioStake;
 import de.sciss.eisenkraut.io.AudioTrail;
+import de.sciss.eisenkraut.io.AudioTransform;
 import de.sciss.eisenkraut.io.BlendContext;
 import de.sciss.eisenkraut.io.MarkerTrail;
 import de.sciss.eisenkraut.session.Session;
@@ -198,8 +199,10 @@ public class FilterDialog
     private RenderContext createRenderContext() {
         final Span span0 = doc.timeline.getSelectionSpan();
         final Span span = !span0.isEmpty() ? span0 : new Span(0L, doc.timeline.getLength());
-        return new RenderContext(this, this,
+        final RenderContext context = new RenderContext(this, this,
                 Track.getInfos(doc.selectedTracks.getAll(), doc.tracks.getAll()), span, doc.timeline.getRate());
+        context.setDecimatedWaveTrail(doc.getDecimatedWaveTrail());
+        return context;
     }
 
 // ---------------- concrete methods ---------------- 
@@ -287,6 +290,10 @@ public class FilterDialog
             ProcessingThread.setNextProgStop(1.0f);
 
 //			if( consc.as != null ) {
+            if (consc.writer != null) {
+                consc.writer.flush();
+                consc.writer = null;
+            }
             if (source.validAudio) {
                 consc.as.flush();
                 at.editBegin(consc.edit);
@@ -296,12 +303,7 @@ public class FilterDialog
 //				if( !audioTrail.copyRangeFrom( (AudioTrail) srcTrail, copySpan, insertPos, mode, this, edit, trackMap2, bcPre, bcPost )) return CANCELLED;
                 at.editEnd(consc.edit);
             }
-            if (source.validMarkers) {
-                doc.markers.editBegin(consc.edit);
-                doc.markers.editClear (this, source.context.getTimeSpan(), consc.edit);
-                doc.markers.editAddAll(this, source.markers.getAll(true), consc.edit);
-                doc.markers.editEnd(consc.edit);
-            }
+            if (source.validMarkers) editMarkers(source, consc);
 //			consc.edit.perform();
 //			consc.edit.end();
 //			doc.getUndoManager().addEdit( consc.edit );
@@ -311,6 +313,13 @@ public class FilterDialog
         return true;
     }
 
+    private void editMarkers(RenderSource source, ConsumerContext consc) {
+        doc.markers.editBegin(consc.edit);
+        doc.markers.editClear (this, source.context.getTimeSpan(), consc.edit);
+        doc.markers.editAddAll(this, source.markers.getAll(true), consc.edit);
+        doc.markers.editEnd(consc.edit);
+    }
+
     /**
      *	Writes a block of the transformed data back
      *	to the transmitter trajectory tracks.
@@ -329,6 +338,9 @@ public class FilterDialog
             return false;
         }
 //		mte.continueWrite( consc.bs, source.blockBuf, source.blockBufOff, source.blockBufLen );
+        if (consc.writer == null) {
+            consc.writer = new RenderPipeline.WriteBehind(consc.as, source.numAudioChannels, source.audioBlockBufLen);
+        }
 
         preFade     = source.blockSpan.overlaps(consc.blendPreSpan);
         postFade    = source.blockSpan.overlaps(consc.blendPostSpan);
@@ -366,9 +378,9 @@ public class FilterDialog
                     consc.outBuf[ch] = consc.inBuf[ch];
                 }
             }
-            consc.as.writeFrames(consc.outBuf        , source.audioBlockBufOff, source.blockSpan);
+            consc.writer.write(consc.outBuf        , source.audioBlockBufOff, source.blockSpan);
         } else {
-            consc.as.writeFrames(source.audioBlockBuf, source.audioBlockBufOff, source.blockSpan);
+            consc.writer.write(source.audioBlockBuf, source.audioBlockBufOff, source.blockSpan);
         }
 
         consc.framesWritten += source.audioBlockBufLen;
@@ -442,6 +454,8 @@ public class FilterDialog
         final int minBlockSize, maxBlockSize, prefBlockSize;
         final Set<Object> newOptions;
         final RandomAccessRequester rar;
+        final AudioTransform transform;
+        final ChannelRenderer channelRenderer;
         final long pasteLength, preMaxLen, postMaxLen;
         final Span span;
         Object value;
@@ -532,6 +546,23 @@ public class FilterDialog
         consc.blendPostSpan = consc.bcPost == null ? new Span() :
                 span.replaceStart(span.stop - consc.bcPost.getLen());
 
+        // the transform can only replace rendering if there are no cross-fades
+        if (source.validAudio && (rar == null) && (consc.edit != null) &&
+            newOptions.contains(RenderContext.KEY_TRANSFORM) &&
+            consc.blendPreSpan.isEmpty() && consc.blendPostSpan.isEmpty()) {
+
+            transform = (AudioTransform) context.getOption(RenderContext.KEY_TRANSFORM);
+        } else {
+            transform = null;
+        }
+
+        // channels are only rendered in parallel for sequential input
+        if ((rar == null) && newOptions.contains(RenderContext.KEY_CHANNELRENDERER)) {
+            channelRenderer = (ChannelRenderer) context.getOption(RenderContext.KEY_CHANNELRENDERER);
+        } else {
+            channelRenderer = null;
+        }
+
         progress		= 0.0f;
 //		pt  = new ProcessingThread( this, doc.getFrame(), doc.bird, plugIn.getName(), new Object[] { context, null },
 //									Session.DOOR_ALL );
@@ -539,6 +570,8 @@ public class FilterDialog
         pt.putClientArg("context", context);
         pt.putClientArg("source", source);
         pt.putClientArg("rar", rar);
+        pt.putClientArg("transform", transform);
+        pt.putClientArg("channelRenderer", channelRenderer);
         pt.putClientArg("inTrnsLen", inTrnsLen);
         doc.start(pt);
     }
@@ -643,60 +676,89 @@ public class FilterDialog
         final int                   inTrnsLen       = (Integer) proc.getClientArg("inTrnsLen");
         final RandomAccessRequester rar             = (RandomAccessRequester) proc.getClientArg("rar");
         final boolean               randomAccess    = rar != null;
+        final AudioTransform        transform       = (AudioTransform) proc.getClientArg("transform");
+        final ChannelRenderer       channelRenderer = (ChannelRenderer) proc.getClientArg("channelRenderer");
 
         boolean consStarted     = false;
         boolean consFinished    = false;
 
-        int readLen, writeLen;
-        long readOffset, remainingRead;
+        RenderPipeline.ReadAhead    reader          = null;
+        int readLen;
 
         // --- resampling related ---
         final int						inOff				= 0;
 
         // --- init ---
 
-        remainingRead = context.getTimeSpan().getLength();
         if (source.validAudio) ProcessingThread.setNextProgStop(0.9f); // XXX arbitrary
 
 //		inOff		= 0;
-        readOffset	= context.getTimeSpan().getStart();
 
         try {
+            if (transform != null) {    // non-destructive edit, no rendering required
+                consc.as.dispose();
+                consc.as = null;
+                at.editBegin(consc.edit);
+                at.editTransform(this, rc.getTimeSpan(), transform, consc.edit);
+                at.editEnd(consc.edit);
+                if (source.validMarkers) editMarkers(source, consc);
+                return DONE;
+            }
+
             // --- rendering loop ---
 
-            while (!ProcessingThread.shouldCancel()) {
-                if (randomAccess) {
+            if (randomAccess) {
+                while (!ProcessingThread.shouldCancel()) {
                     source.blockSpan = rar.getNextSpan();
                     readLen = (int) source.blockSpan.getLength();
-                } else {
-                    readLen = (int) Math.min(inTrnsLen - inOff, remainingRead);
-                    source.blockSpan = new Span(readOffset, readOffset + readLen);
-                    // preparation for next loop iteration
-                    remainingRead -= readLen;
-                    readOffset += readLen;
-                }
-                if (readLen == 0) break;
-                writeLen = readLen;
-                source.audioBlockBufLen = writeLen;
-
-                // XXX optimization possibilities here:
-                // leave some channels null (both in readFrames
-                // as well as in arraycopy) depending on some
-                // kind of policy (maybe a new value of audioPolicy: POLICY_READONLY
-                // and POLICY_BYPASS would become POLICY_IGNORE
-                at.readFrames(consc.inBuf, inOff, source.blockSpan);
-                // looks like a bit of overload but in future
-                // versions, channel arrangement might be different than 1:1 from mte
-                for (int ch = 0; ch < source.numAudioChannels; ch++) {
-                    System.arraycopy(consc.inBuf[ch], inOff, source.audioBlockBuf[ch], 0, writeLen);
-                }
+                    if (readLen == 0) break;
+                    source.audioBlockBufLen = readLen;
+
+                    at.readFrames(consc.inBuf, inOff, source.blockSpan);
+                    for (int ch = 0; ch < source.numAudioChannels; ch++) {
+                        System.arraycopy(consc.inBuf[ch], inOff, source.audioBlockBuf[ch], 0, readLen);
+                    }
+
+                    // --- handle thread ---
+                    if (ProcessingThread.shouldCancel()) break;
 
-                // --- handle thread ---
-                if (ProcessingThread.shouldCancel()) break;
+                    // --- producer rendering ---
+                    if (!invokeProducerRender(proc, source, plugIn)) return FAILED;
+                } // while( isRunning() )
 
-                // --- producer rendering ---
-                if (!invokeProducerRender(proc, source, plugIn)) return FAILED;
-            } // while( isRunning() )
+            } else {
+                // blocks are read in a separate thread while the previous ones are rendered
+                final RenderPipeline.ChannelSlicer slicer = channelRenderer == null ? null :
+                        new RenderPipeline.ChannelSlicer(channelRenderer, source);
+                reader = new RenderPipeline.ReadAhead(at, rc.getTimeSpan(), source.numAudioChannels, inTrnsLen);
+
+                while (!ProcessingThread.shouldCancel()) {
+                    final RenderPipeline.Block b = reader.next();
+                    if (b == null) break;
+                    source.blockSpan        = b.span;
+                    source.audioBlockBufLen = (int) b.span.getLength();
+
+                    // exchange the buffers instead of copying; the
+                    // block reads its next frames into the previous ones
+                    for (int ch = 0; ch < source.numAudioChannels; ch++) {
+                        final float[] temp          = source.audioBlockBuf[ch];
+                        source.audioBlockBuf[ch]    = b.buf[ch];
+                        b.buf[ch]                   = temp;
+                    }
+                    reader.release(b);
+
+                    // --- handle thread ---
+                    if (ProcessingThread.shouldCancel()) break;
+
+                    // --- producer rendering ---
+                    if (slicer != null) {
+                        slicer.render();
+                        if (!rc.getConsumer().consumerRender(source)) return FAILED;
+                    } else {
+                        if (!invokeProducerRender(proc, source, plugIn)) return FAILED;
+                    }
+                } // while( isRunning() )
+            }
 
             // --- finishing ---
             consFinished = true;
@@ -707,6 +769,11 @@ public class FilterDialog
                 return (invokeProducerFinish(proc, source, plugIn) ? DONE : FAILED);
             }
         } finally {
+            if (reader != null) reader.dispose();
+            if (consc.writer != null) {     // not flushed, hence failed or cancelled
+                consc.writer.dispose();
+                consc.writer = null;
+            }
             if (consStarted && !consFinished) {    // on failure cancel rendering and undo edits
                 try {
                     invokeProducerCancel(proc, source, plugIn);
@@ -787,6 +854,7 @@ public class FilterDialog
         protected AudioStake				as;
         protected boolean					restoreUnused;
         protected float[][]					inBuf, outBuf;
+        protected RenderPipeline.WriteBehind	writer;
 
         protected ConsumerContext() { /* empty */ }
     }
@@ -21,6 +21,7 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.SwingConstants;
 
+import de.sciss.eisenkraut.io.AudioTransform;
 import de.sciss.gui.PrefComboBox;
 import de.sciss.gui.PrefParamField;
 import de.sciss.gui.StringItem;
@@ -31,7 +32,7 @@ import de.sciss.util.ParamSpace;
 
 public class Gain
 		extends AbstractRenderPlugIn
-		implements RandomAccessRequester {
+		implements RandomAccessRequester, ChannelRenderer {
 
 	private static final String KEY_GAIN		= "gain";
 	private static final String KEY_GAINTYPE	= "gaintype";
@@ -100,7 +101,17 @@ public class Gain
 		prConsumer		= source.context.getConsumer();
 		prHost			= source.context.getHost();
 		
-		if( prNormalize ) {	// needs to scan twice, hence random access
+		if( prNormalize && (source.context.getDecimatedWaveTrail() != null) && (source.audioTrackMap != null) ) {
+			// the peak can be looked up in the overview, no need to scan
+			prMaxAmp		= source.context.getDecimatedWaveTrail().getPeak( prTotalSpan, source.audioTrackMap );
+			prPeakKnown		= true;
+			prNextSpan		= null;
+			if( prMaxAmp > 0.0f ) {
+				prGain /= prMaxAmp;
+			}
+			setTransform( source );
+			return prConsumer.consumerBegin( source );
+		} else if( prNormalize ) {	// needs to scan twice, hence random access
 			source.context.setOption( RenderContext.KEY_PREFBLOCKSIZE, BLOCKSIZE);
 			source.context.setOption( RenderContext.KEY_RANDOMACCESS, this );
 			// request first block
@@ -111,10 +122,25 @@ public class Gain
 			prProgWeight	= 1.0f / (3 * Math.max( 1, prRenderLength ));
 			return true;
 		} else {
+			prNextSpan		= null;
+			setTransform( source );
 			return prConsumer.consumerBegin( source );
 		}
 	}
 
+	// the gain can be applied without rendering if the host supports it
+	private void setTransform( RenderSource source )
+	{
+		final float[] gains = new float[ source.numAudioChannels ];
+
+		for( int ch = 0; ch < source.numAudioChannels; ch++ ) {
+			gains[ ch ] = source.audioTrackMap[ ch ] ? prGain : 1.0f;
+		}
+		source.context.setOption( RenderContext.KEY_TRANSFORM, new AudioTransform( gains, null, false ));
+		// otherwise the channels can be scaled in parallel
+		source.context.setOption( RenderContext.KEY_CHANNELRENDERER, this );
+	}
+
 	public boolean producerRender( RenderSource source )
 	throws IOException
 	{
@@ -148,12 +174,9 @@ public class Gain
 			}
 		} else {
 			for( int ch = 0; ch < source.numAudioChannels; ch++ ) {
-				if( !source.audioTrackMap[ ch ]) continue;
-				for( int i = source.audioBlockBufOff, j = i + source.audioBlockBufLen; i < j; i++ ) {
-					source.audioBlockBuf[ ch ][ i ] *= prGain;
-				}
+				if( source.audioTrackMap[ ch ]) renderChannel( source, ch );
 			}
-			if( prNormalize ) {
+			if( prNextSpan != null ) {
 				// request next block
 				prNextSpan = new Span( prNextSpan.stop, Math.min( prTotalSpan.stop, prNextSpan.stop + BLOCKSIZE ));
 			}
@@ -161,6 +184,17 @@ public class Gain
 		}
 	}
 
+	// ---------- ChannelRenderer interface ----------
+
+	public void renderChannel( RenderSource source, int ch )
+	{
+		final float[] buf = source.audioBlockBuf[ ch ];
+
+		for( int i = source.audioBlockBufOff, j = i + source.audioBlockBufLen; i < j; i++ ) {
+			buf[ i ] *= prGain;
+		}
+	}
+
 	public String getName()
 	{
 		return getResourceString( "plugInGain" );
@@ -15,20 +15,41 @@ package de.sciss.eisenkraut.render;
 
 import java.io.IOException;
 
+import de.sciss.eisenkraut.io.AudioTransform;
+
 public class Invert
-		extends AbstractRenderPlugIn {
+		extends AbstractRenderPlugIn
+		implements ChannelRenderer {
+
+	public boolean producerBegin(RenderSource source)
+			throws IOException {
+		final float[] gains = new float[source.numAudioChannels];
+
+		for (int ch = 0; ch < source.numAudioChannels; ch++) {
+			gains[ch] = source.audioTrackMap[ch] ? -1.0f : 1.0f;
+		}
+		// the inversion can be applied without rendering if the host supports it
+		source.context.setOption(RenderContext.KEY_TRANSFORM, new AudioTransform(gains, null, false));
+		source.context.setOption(RenderContext.KEY_CHANNELRENDERER, this);
+		return super.producerBegin(source);
+	}
 
 	public boolean producerRender(RenderSource source)
 			throws IOException {
 		for (int ch = 0; ch < source.numAudioChannels; ch++) {
-			if (!source.audioTrackMap[ch]) continue;
-			for (int i = 0, j = source.audioBlockBufOff; i < source.audioBlockBufLen; i++, j++) {
-				source.audioBlockBuf[ch][j] *= -1;
-			}
+			if (source.audioTrackMap[ch]) renderChannel(source, ch);
 		}
 		return super.producerRender(source);
 	}
 
+	public void renderChannel(RenderSource source, int ch) {
+		final float[] buf = source.audioBlockBuf[ch];
+
+		for (int i = 0, j = source.audioBlockBufOff; i < source.audioBlockBufLen; i++, j++) {
+			buf[j] *= -1;
+		}
+	}
+
 	public String getName() {
 		return getResourceString("plugInInvert");
 	}
@@ -19,6 +19,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import de.sciss.eisenkraut.io.DecimatedWaveTrail;
 import de.sciss.eisenkraut.timeline.Track;
 import de.sciss.io.Span;
 
@@ -79,6 +80,32 @@ public class RenderContext {
 	 *	in sync with the blockBuf with regard to offset and length.
 	 */
 	public static final Object KEY_CLIPBOARD	 = "clipboard";
+	/**
+	 *  Key: Producer's output can be expressed as a transform of the input.<br>
+	 *  Value: AudioTransform
+	 *	<p>
+	 *	A plug-in sets this option in producerBegin() if its audio
+	 *	output is just a gain change, channel permutation or time
+	 *	reversal of the input. The plug-in host may then apply the
+	 *	transform as a non-destructive edit, in which case neither
+	 *	producerRender() nor producerFinish() is called. If the host
+	 *	cannot apply it (e.g. because of cross-fades at the edges),
+	 *	the option is ignored and rendering proceeds as usual.
+	 */
+	public static final Object KEY_TRANSFORM	 = "transform";
+	/**
+	 *  Key: Producer renders each channel independently.<br>
+	 *  Value: ChannelRenderer
+	 *	<p>
+	 *	A plug-in sets this option in producerBegin() if its
+	 *	producerRender() does nothing but modify each selected channel
+	 *	by itself and then call consumerRender(). The plug-in host may
+	 *	then render the channels of a block in parallel using
+	 *	ChannelRenderer.renderChannel() and call consumerRender() itself
+	 *	instead of producerRender(). Hosts may ignore the option,
+	 *	e.g. in random access mode.
+	 */
+	public static final Object KEY_CHANNELRENDERER = "channelrenderer";
 	/*
 	 *  Key: Object that produces output<br>
 	 *  Value: PlugIn
@@ -91,6 +118,7 @@ public class RenderContext {
 	private final Span				time;
 	private final double			sourceRate;
 	private int						sourceBlockSize;
+	private DecimatedWaveTrail		decimatedWaveTrail	= null;
 	
 	private final Map<Object, Object> options			= new HashMap<Object, Object>();
 	private final Set<Object> modifiedOptions = new HashSet<Object>();
@@ -184,6 +212,29 @@ public class RenderContext {
 		return sourceBlockSize;
 	}
 
+	/**
+	 *  Sets the waveform overview of the source
+	 *	audio. This shall only be called by the host.
+	 *
+	 *	@param	dwt	the overview or <code>null</code>
+	 */
+	public void setDecimatedWaveTrail( DecimatedWaveTrail dwt )
+	{
+		decimatedWaveTrail = dwt;
+	}
+
+	/**
+	 *  Queries the waveform overview of the source
+	 *	audio. Plug-ins can use it to determine peak
+	 *	values without scanning the source.
+	 *
+	 *	@return		the overview or <code>null</code> if not available
+	 */
+	public DecimatedWaveTrail getDecimatedWaveTrail()
+	{
+		return decimatedWaveTrail;
+	}
+
 	/**
 	 *  Replaces a value for an option
 	 *  (or create a new option if no
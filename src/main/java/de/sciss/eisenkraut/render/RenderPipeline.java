@@ -0,0 +1,346 @@
+/*
+ *  RenderPipeline.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.render;
+
+import de.sciss.eisenkraut.io.AudioStake;
+import de.sciss.eisenkraut.io.AudioTrail;
+import de.sciss.io.Span;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  The stages which let a render process overlap reading,
+ *  rendering and writing: a read-ahead thread, a write-behind
+ *  thread, and the parallel rendering of channels. The read and
+ *  write stages each circulate a fixed number of blocks between
+ *  a queue of free and a queue of filled blocks, so they never
+ *  run more than <code>NUM_BLOCKS</code> blocks ahead.
+ */
+final class RenderPipeline {
+
+    static final int NUM_BLOCKS = 4;
+
+    private static final Block END = new Block(0, 0);   // end of stream marker
+
+    // shared by all render processes; lazy
+    private static ExecutorService pool = null;
+
+    private RenderPipeline() { /* no instances */ }
+
+    /**
+     *  Returns the thread pool used to render channels
+     *  in parallel. The pool has one daemon thread
+     *  per available processor and is never shut down.
+     */
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(getNumPoolThreads(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger(0);
+
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "Render-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+
+    private static int getNumPoolThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    private static IOException toIOException(Throwable t) {
+        if (t instanceof IOException) return (IOException) t;
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        final IOException e = new IOException(t.toString());
+        e.initCause(t);
+        return e;
+    }
+
+    // ---------------- internal classes ----------------
+
+    static final class Block {
+        float[][]   buf;
+        Span        span;
+
+        Block(int numChannels, int size) {
+            buf = new float[numChannels][size];
+        }
+    }
+
+    /**
+     *  Reads the blocks of a sequential render process. The caller
+     *  takes a block with <code>next</code>, may exchange its arrays
+     *  for others, and hands it back with <code>release</code>.
+     */
+    static final class ReadAhead
+            implements Runnable {
+
+        private final AudioTrail            at;
+        private final Span                  span;
+        private final int                   blockSize;
+        private final BlockingQueue<Block>  free    = new ArrayBlockingQueue<Block>(NUM_BLOCKS);
+        private final BlockingQueue<Block>  full    = new ArrayBlockingQueue<Block>(NUM_BLOCKS + 1);
+        private final Thread                thread;
+        private volatile Throwable          failure = null;
+
+        ReadAhead(AudioTrail at, Span span, int numChannels, int blockSize) {
+            this.at         = at;
+            this.span       = span;
+            this.blockSize  = blockSize;
+
+            for (int i = 0; i < NUM_BLOCKS; i++) {
+                free.add(new Block(numChannels, blockSize));
+            }
+            thread = new Thread(this, "Render read-ahead");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         *  Waits for the next block.
+         *
+         *  @return the block or <code>null</code> if the span has been read completely
+         */
+        Block next()
+                throws IOException {
+
+            final Block b;
+            try {
+                b = full.take();
+            } catch (InterruptedException e1) {
+                throw new InterruptedIOException();
+            }
+            if (b == END) {
+                full.offer(END);
+                if (failure != null) throw toIOException(failure);
+                return null;
+            }
+            return b;
+        }
+
+        void release(Block b) {
+            free.offer(b);
+        }
+
+        /**
+         *  Stops the thread, waiting for a pending read to finish.
+         */
+        void dispose() {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e1) { /* ignore */ }
+        }
+
+        public void run() {
+            try {
+                for (long pos = span.start; pos < span.stop; ) {
+                    final Block b   = free.take();
+                    final int   len = (int) Math.min(blockSize, span.stop - pos);
+                    b.span = new Span(pos, pos + len);
+                    for (int ch = 0; ch < b.buf.length; ch++) {
+                        if (b.buf[ch].length < len) b.buf[ch] = new float[len];
+                    }
+                    at.readFrames(b.buf, 0, b.span);
+                    pos += len;
+                    full.put(b);
+                }
+            } catch (InterruptedException e1) {
+                return;
+            } catch (Throwable t) {     // passed on to the render thread
+                failure = t;
+            }
+            full.offer(END);    // there is always room for the marker
+        }
+    }
+
+    /**
+     *  Writes the rendered blocks to an audio stake. <code>write</code>
+     *  copies the frames, so the caller may reuse its buffers at once.
+     */
+    static final class WriteBehind
+            implements Runnable {
+
+        private final AudioStake            as;
+        private final BlockingQueue<Block>  free    = new ArrayBlockingQueue<Block>(NUM_BLOCKS);
+        private final BlockingQueue<Block>  full    = new ArrayBlockingQueue<Block>(NUM_BLOCKS + 1);
+        private final Thread                thread;
+        private volatile Throwable          failure = null;
+
+        WriteBehind(AudioStake as, int numChannels, int blockSize) {
+            this.as = as;
+
+            for (int i = 0; i < NUM_BLOCKS; i++) {
+                free.add(new Block(numChannels, blockSize));
+            }
+            thread = new Thread(this, "Render write-behind");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         *  Queues frames for writing.
+         *
+         *  @throws IOException if a previous write failed
+         */
+        void write(float[][] data, int dataOffset, Span span)
+                throws IOException {
+
+            if (failure != null) throw toIOException(failure);
+
+            final int len = (int) span.getLength();
+            try {
+                final Block b = free.take();
+                for (int ch = 0; ch < data.length; ch++) {
+                    if (b.buf[ch].length < len) b.buf[ch] = new float[len];
+                    System.arraycopy(data[ch], dataOffset, b.buf[ch], 0, len);
+                }
+                b.span = span;
+                full.put(b);
+            } catch (InterruptedException e1) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        /**
+         *  Waits until all queued frames have been written
+         *  and stops the thread.
+         *
+         *  @throws IOException if a write failed
+         */
+        void flush()
+                throws IOException {
+
+            try {
+                full.put(END);
+                thread.join();
+            } catch (InterruptedException e1) {
+                throw new InterruptedIOException();
+            }
+            if (failure != null) throw toIOException(failure);
+        }
+
+        /**
+         *  Stops the thread, discarding frames not yet written.
+         */
+        void dispose() {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e1) { /* ignore */ }
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    final Block b = full.take();
+                    if (b == END) return;
+                    // after a failure, blocks are recycled without
+                    // writing, so the render thread never stalls
+                    if (failure == null) {
+                        try {
+                            as.writeFrames(b.buf, 0, b.span);
+                        } catch (Throwable t) {
+                            failure = t;
+                        }
+                    }
+                    free.put(b);
+                }
+            } catch (InterruptedException e1) { /* disposed */ }
+        }
+    }
+
+    /**
+     *  Renders the selected (or all) channels of each block in parallel.
+     *  The channels are split into one slice per processor.
+     */
+    static final class ChannelSlicer {
+
+        private final List<Callable<Object>> tasks;
+
+        ChannelSlicer(ChannelRenderer cr, RenderSource source) {
+            this(cr, source, source.audioTrackMap);
+        }
+
+        /**
+         *  @param  chanMap the channels to render, or <code>null</code> for all
+         */
+        ChannelSlicer(final ChannelRenderer cr, final RenderSource source, boolean[] chanMap) {
+            final List<Integer> chans = new ArrayList<Integer>();
+            for (int ch = 0; ch < source.numAudioChannels; ch++) {
+                if ((chanMap == null) || chanMap[ch]) chans.add(ch);
+            }
+            final int numSlices = Math.min(chans.size(), getNumPoolThreads());
+
+            tasks = new ArrayList<Callable<Object>>(numSlices);
+            for (int i = 0; i < numSlices; i++) {
+                final int[] slice = new int[(chans.size() - i + numSlices - 1) / numSlices];
+                for (int j = 0, k = i; j < slice.length; j++, k += numSlices) {
+                    slice[j] = chans.get(k);
+                }
+                tasks.add(new Callable<Object>() {
+                    public Object call() throws IOException {
+                        for (int ch : slice) cr.renderChannel(source, ch);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        /**
+         *  Renders the current block of the source,
+         *  returning when all channels are done.
+         */
+        void render()
+                throws IOException {
+
+            if (tasks.size() == 1) {
+                try {
+                    tasks.get(0).call();
+                } catch (Exception e1) {
+                    throw toIOException(e1);
+                }
+                return;
+            }
+
+            final List<Future<Object>> results;
+            try {
+                results = getPool().invokeAll(tasks);
+                for (Future<Object> f : results) {
+                    f.get();
+                }
+            } catch (InterruptedException e1) {
+                throw new InterruptedIOException();
+            } catch (ExecutionException e1) {
+                throw toIOException(e1.getCause());
+            }
+        }
+    }
+}
@@ -13,6 +13,7 @@
 
 package de.sciss.eisenkraut.render;
 
+import de.sciss.eisenkraut.io.AudioTransform;
 import de.sciss.io.Span;
 import de.sciss.timebased.MarkerStake;
 import de.sciss.timebased.Stake;
@@ -58,6 +59,15 @@ public class Reverse extends AbstractRenderPlugIn {
             source.markers.addAll(this, collNew);
         }
 
+        // if all channels are reversed, this can be done without rendering
+        boolean allSelected = true;
+        for (int ch = 0; allSelected && (ch < source.numAudioChannels); ch++) {
+            allSelected = source.audioTrackMap[ch];
+        }
+        if (allSelected) {
+            source.context.setOption(RenderContext.KEY_TRANSFORM, new AudioTransform(null, null, true));
+        }
+
         return prConsumer.consumerBegin(source);
     }
 
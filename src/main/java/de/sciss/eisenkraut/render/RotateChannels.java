@@ -23,6 +23,7 @@ import javax.swing.SwingConstants;
 
 import de.sciss.app.AbstractApplication;
 import de.sciss.app.Application;
+import de.sciss.eisenkraut.io.AudioTransform;
 import de.sciss.gui.PrefParamField;
 import de.sciss.util.Param;
 import de.sciss.util.ParamSpace;
@@ -97,6 +98,8 @@ public class RotateChannels
 				prMap[ ch ] = ch;
 			}
 		}
+		// the rotation can be applied without rendering if the host supports it
+		source.context.setOption( RenderContext.KEY_TRANSFORM, new AudioTransform( null, prMap, false ));
 		return prConsumer.consumerBegin( source );
 	}
 
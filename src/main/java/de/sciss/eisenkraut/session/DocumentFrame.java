@@ -29,6 +29,7 @@ import de.sciss.eisenkraut.edit.TimelineVisualEdit;
 import de.sciss.eisenkraut.gui.AbstractTool;
 import de.sciss.eisenkraut.gui.AudioFileInfoPalette;
 import de.sciss.eisenkraut.gui.CrossfadePanel;
+import de.sciss.eisenkraut.gui.FrameScheduler;
 import de.sciss.eisenkraut.gui.GraphicsUtil;
 import de.sciss.eisenkraut.gui.MenuFactory;
 import de.sciss.eisenkraut.gui.ObserverPalette;
@@ -45,6 +46,8 @@ import de.sciss.eisenkraut.io.DecimatedTrail;
 import de.sciss.eisenkraut.io.DecimatedWaveTrail;
 import de.sciss.eisenkraut.io.DecimationInfo;
 import de.sciss.eisenkraut.io.MarkerTrail;
+import de.sciss.eisenkraut.io.ProjectFile;
+import de.sciss.eisenkraut.io.TakeDecimation;
 import de.sciss.eisenkraut.net.SuperColliderClient;
 import de.sciss.eisenkraut.net.SuperColliderPlayer;
 import de.sciss.eisenkraut.realtime.Transport;
@@ -175,6 +178,7 @@ public class DocumentFrame
     protected final ActionSave				actionSave;
     protected final ActionSaveAs			actionSaveAs;
     private final ActionSaveAs				actionSaveSelectionAs;
+    private final ActionSaveProject			actionSaveProject;
     private final MenuAction				actionProcess;
     protected final ActionProcessAgain		actionProcessAgain;
 
@@ -247,7 +251,8 @@ public class DocumentFrame
 
     protected boolean						disposed		= false;
 
-    private final Timer						playTimer;
+    private final FrameScheduler.Client		playClient;
+    private int								playInterval	= 33;
     private double							playRate		= 1.0;
 
     protected final ComponentBoundsRestrictor cbr;
@@ -607,13 +612,13 @@ public class DocumentFrame
         timeTB.addToolActionListener(this);
         timeTB.selectTool(ToolAction.POINTER);
 
-        playTimer = new Timer(33, new ActionListener() {
-            public void actionPerformed(ActionEvent e) {
+        playClient = new FrameScheduler.Client() {
+            public void frameUpdate(long when) {
                 timelinePos = transport.getCurrentFrame();
                 updatePositionAndRepaint();
                 scroll.setPosition(timelinePos, 50, TimelineScroll.TYPE_TRANSPORT);
             }
-        });
+        };
 
         // --- Actions ---
         actionNewFromSel	= new ActionNewFromSel();
@@ -622,6 +627,7 @@ public class DocumentFrame
         actionSaveAs		= new ActionSaveAs(false, false);
         ActionSaveAs actionSaveCopyAs = new ActionSaveAs(true, false);
         actionSaveSelectionAs = new ActionSaveAs(true, true);
+        actionSaveProject	= new ActionSaveProject();
         ActionSelectAll actionSelectAll = new ActionSelectAll();
         MenuAction actionInsertRec = new ActionInsertRec();
 
@@ -721,6 +727,7 @@ public class DocumentFrame
         mr.putMimic("file.saveAs", this, actionSaveAs);
         mr.putMimic("file.saveCopyAs", this, actionSaveCopyAs);
         mr.putMimic("file.saveSelectionAs", this, actionSaveSelectionAs);
+        mr.putMimic("file.saveProjectAs", this, actionSaveProject);
 
         mr.putMimic("edit.undo", this, doc.getUndoManager().getUndoAction());
         mr.putMimic("edit.redo", this, doc.getUndoManager().getRedoAction());
@@ -1124,7 +1131,7 @@ newLp:	for( int ch = 0; ch < newChannels; ch++ ) {
 
     public void dispose()
     {
-        playTimer.stop();
+        FrameScheduler.getInstance().removeClient( playClient );
 
         app.getMenuFactory().removeFromWindowMenu( actionShowWindow );
 
@@ -1132,6 +1139,7 @@ newLp:	for( int ch = 0; ch < newChannels; ch++ ) {
         Axis				chanRuler;
 
         lmm.dispose();
+        waveView.dispose();
         wavePanel.dispose();
         while( !collChannelHeaders.isEmpty() ) {
             chanHead = collChannelHeaders.remove( 0 );
@@ -1376,7 +1384,7 @@ newLp:	for( int ch = 0; ch < newChannels; ch++ ) {
             }
         }
         if( !vpUpdateRect.isEmpty() ) {
-            wavePanel.repaint( vpUpdateRect );
+            FrameScheduler.getInstance().repaint( wavePanel, vpUpdateRect );
         }
     }
 
@@ -1411,10 +1419,18 @@ newLp:	for( int ch = 0; ch < newChannels; ch++ ) {
         if (verticalSelection) updateSelection();
         vpUpdateRect = vpUpdateRect.union(vpPositionRect).union(vpSelectionRect).intersection(r);
         if (!vpUpdateRect.isEmpty()) {
-            wavePanel.repaint(vpUpdateRect);    // XXX ??
+            FrameScheduler.getInstance().repaint(wavePanel, vpUpdateRect);    // XXX ??
         }
     }
 
+    // update the playhead about once per pixel, but at least at 30 fps
+    private void updatePlayInterval() {
+        final FrameScheduler fs = FrameScheduler.getInstance();
+
+        playInterval = Math.max(1, Math.min((int) (1000 / (vpScale * timelineRate * playRate)), 33));
+        if (fs.containsClient(playClient)) fs.addClient(playClient, playInterval);
+    }
+
     protected void recalculateTransforms(Rectangle newRect) {
         int x, w;
 
@@ -1422,7 +1438,7 @@ newLp:	for( int ch = 0; ch < newChannels; ch++ ) {
 
         if (!timelineVis.isEmpty()) {
             vpScale = (float) vpRecentRect.width / (float) timelineVis.getLength(); // - 1;
-            playTimer.setDelay(Math.min((int) (1000 / (vpScale * timelineRate * playRate)), 33));
+            updatePlayInterval();
             vpPosition = (int) ((timelinePos - timelineVis.getStart()) * vpScale + 0.5f);
             vpPositionRect.setBounds(vpPosition, 0, 1, vpRecentRect.height);
             if (!timelineSel.isEmpty()) {
@@ -1612,7 +1628,7 @@ newLp:	for( int ch = 0; ch < newChannels; ch++ ) {
     {
         timelineRate				= doc.timeline.getRate();
         timelineLen					= doc.timeline.getLength();
-        playTimer.setDelay( Math.min( (int) (1000 / (vpScale * timelineRate * playRate)), 33 ));
+        updatePlayInterval();
         updateAFDGadget();
         updateOverviews( false, true );
     }
@@ -1640,13 +1656,13 @@ newLp:	for( int ch = 0; ch < newChannels; ch++ ) {
     public void transportPlay( Transport t, long pos, double rate )
     {
         playRate = rate;
-        playTimer.setDelay( Math.min( (int) (1000 / (vpScale * timelineRate * playRate)), 33 ));
-        playTimer.restart();
+        updatePlayInterval();
+        FrameScheduler.getInstance().addClient( playClient, playInterval );
     }
 
     public void transportStop( Transport t, long pos )
     {
-        playTimer.stop();
+        FrameScheduler.getInstance().removeClient( playClient );
     }
 
     public void transportPosition( Transport t, long pos, double rate ) { /* ignored */ }
@@ -1654,7 +1670,7 @@ newLp:	for( int ch = 0; ch < newChannels; ch++ ) {
 
     public void transportQuit( Transport t )
     {
-        playTimer.stop();
+        FrameScheduler.getInstance().removeClient( playClient );
     }
 
 // ---------------- RealtimeConsumer interface ---------------- 
@@ -2166,6 +2182,21 @@ newLp:	for( int ch = 0; ch < newChannels; ch++ ) {
             recFile	= recDlg.getResult();
 
             if( recFile != null ) {
+                // if possible, the document adopts the file instead of copying it
+                final TakeDecimation takeDec = recDlg.getResultDecimation();
+                try {
+                    if( doc.insertTake( recFile, doc.timeline.getPosition(), takeDec, getValue( NAME ).toString() )) return;
+                }
+                catch( IOException e1 ) {
+                    GUIUtil.displayError( getWindow(), e1, getValue( NAME ).toString() );
+                    confirmDelete( recFile );
+                    return;
+                }
+                finally {
+                    // a no-op if the overview has been adopted
+                    if( takeDec != null ) takeDec.dispose();
+                }
+
                 try {
 //					if( true ) throw new IOException( "test" );
                     tmpDoc	= Session.newFrom( recFile, false, false );
@@ -2323,6 +2354,67 @@ newLp:	for( int ch = 0; ch < newChannels; ch++ ) {
         }
     }
 
+    // action for the Save-Project-As menu item
+    @SuppressWarnings("serial")
+    private class ActionSaveProject
+            extends MenuAction {
+
+        protected ActionSaveProject() { /* empty */ }
+
+        public void actionPerformed(ActionEvent e) {
+            final File f = query();
+            if (f == null) return;
+
+            final ProcessingThread pt = doc.procSaveProject(getValue(NAME).toString(), f);
+            if (pt == null) return;
+
+            pt.addListener(new ProcessingThread.Listener() {
+                public void processStopped(ProcessingThread.Event e) {
+                    if (e.isDone()) app.getMenuFactory().addRecent(f);
+                }
+
+                public void processStarted(ProcessingThread.Event e) { /* empty */ }
+            });
+            doc.start(pt);
+        }
+
+        /*
+         *  Asks for the project file, defaulting to the
+         *  current project or the name of the first sound file
+         */
+        private File query() {
+            final Frame         frame   = (getWindow() instanceof Frame) ? (Frame) getWindow() : null;
+            final Preferences   prefs   = app.getUserPrefs();
+            final FileDialog    fDlg    = new FileDialog(frame, getResourceString("fileDlgSaveProject"), FileDialog.SAVE);
+            final File          proto   = doc.getProjectFile() != null ? doc.getProjectFile() : doc.getDisplayDescr().file;
+            String              strFile, strDir;
+
+            if (proto == null) {
+                strDir  = prefs.get(PrefsUtil.KEY_FILESAVEDIR, System.getProperty("user.home"));
+                strFile = getResourceString("frameUntitled") + ProjectFile.SUFFIX;
+            } else {
+                strDir  = proto.getParent();
+                strFile = proto.getName();
+                if (!ProjectFile.isProjectFile(proto)) {
+                    final int i = strFile.lastIndexOf('.');
+                    strFile = (i > 0 ? strFile.substring(0, i) : strFile) + ProjectFile.SUFFIX;
+                }
+            }
+            fDlg.setDirectory(strDir);
+            fDlg.setFile(strFile);
+            fDlg.setVisible(true);
+            strDir  = fDlg.getDirectory();
+            strFile = fDlg.getFile();
+
+            if (strFile == null) return null;   // means the dialog was cancelled
+
+            prefs.put(PrefsUtil.KEY_FILESAVEDIR, strDir);
+            if (!strFile.toLowerCase().endsWith(ProjectFile.SUFFIX)) strFile += ProjectFile.SUFFIX;
+
+            return new File(strDir, strFile);
+        }
+    }
+
     @SuppressWarnings("serial")
     private class ActionRevealFile extends MenuAction {
         private File f;
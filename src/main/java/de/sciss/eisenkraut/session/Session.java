@@ -35,6 +35,8 @@ import de.sciss.eisenkraut.io.DecimatedSonaTrail;
 import de.sciss.eisenkraut.io.DecimatedTrail;
 import de.sciss.eisenkraut.io.DecimatedWaveTrail;
 import de.sciss.eisenkraut.io.MarkerTrail;
+import de.sciss.eisenkraut.io.ProjectFile;
+import de.sciss.eisenkraut.io.TakeDecimation;
 import de.sciss.eisenkraut.net.OSCRoot;
 import de.sciss.eisenkraut.net.OSCRouter;
 import de.sciss.eisenkraut.net.OSCRouterWrapper;
@@ -74,6 +76,7 @@ public class Session
 	private final AudioFileDescr			displayAFD;
 	private AudioFileDescr[]				afds;
 	private String							name;
+	private File							projectFile		= null;
 	
 	public final Timeline					timeline;
 
@@ -113,6 +116,7 @@ public class Session
 	// --- actions ---
 
 	private final ActionSave			actionSave;
+	private final ActionSaveProject		actionSaveProject;
 	private final ActionCut				actionCut;
 	protected final ActionCopy			actionCopy;
 	private final ActionPaste			actionPaste;
@@ -182,6 +186,7 @@ public class Session
 		audioTracks			= new AudioTracks( this );
 
 		actionSave			= new ActionSave();
+		actionSaveProject	= new ActionSaveProject();
 		actionCut			= new ActionCut();
 		actionCopy			= new ActionCopy();
 		actionPaste			= new ActionPaste();
@@ -526,6 +531,28 @@ if( !audioTracks.isEmpty() ) throw new IllegalStateException( "Cannot call repea
 		return actionSave.initiate( procName, span, targetAFDs, channelMap, saveMarkers, asCopy );
 	}
 	
+	/**
+	 *	Creates a process which saves the document as a project.
+	 *	The document keeps working on its current sound files.
+	 *
+	 *	@see	ProjectFile
+	 */
+	public ProcessingThread procSaveProject( String procName, File f )
+	{
+		return actionSaveProject.initiate( procName, f );
+	}
+
+	/**
+	 *	Returns the file of the project the document
+	 *	was opened from or last saved to.
+	 *
+	 *	@return	the project file or <code>null</code>
+	 */
+	public File getProjectFile()
+	{
+		return projectFile;
+	}
+
 	public MenuAction getCutAction()
 	{
 		return actionCut;
@@ -572,6 +599,78 @@ if( !audioTracks.isEmpty() ) throw new IllegalStateException( "Cannot call repea
 		return actionPaste.initiate(tl, insertPos, procName, mode);
 	}
 
+	/**
+	 *	Ripple inserts a recorded sound file without copying its frames.
+	 *	The audio trail adopts the file (see <code>AudioTrail.adoptTake</code>),
+	 *	so the file is deleted once it is not referenced any more. This is only
+	 *	possible in insert mode with all audio tracks selected, if the file
+	 *	matches the document's format, and if no cross-fades are needed. Otherwise
+	 *	the method returns <code>false</code> and leaves the file untouched,
+	 *	and the caller should paste the recording instead.
+	 *
+	 *	@param	f			the recorded sound file
+	 *	@param	insertPos	the position at which to insert the recording
+	 *	@param	decimation	the overview calculated while recording, or <code>null</code>
+	 *	@param	procName	the name of the undoable edit
+	 *	@return	<code>true</code> if the recording was inserted and the file is owned by the document
+	 *	@throws	IOException	if the file cannot be opened
+	 */
+	public boolean insertTake(File f, long insertPos, TakeDecimation decimation, String procName)
+			throws IOException {
+
+		if (!checkProcess() || (getEditMode() != EDIT_INSERT)) return false;
+
+		final long				docLength			= timeline.getLength();
+		final List<Track.Info>	tis					= Track.getInfos(selectedTracks.getAll(), tracks.getAll());
+		final Flag				hasSelectedAudio	= new Flag(false);
+
+		if (!AudioTracks.checkSyncedAudio(tis, true, null, hasSelectedAudio) || !hasSelectedAudio.isSet()) return false;
+		if ((insertPos < 0) || (insertPos > docLength)) throw new IllegalArgumentException(String.valueOf(insertPos));
+		// pasting would cross-fade with the material on both sides
+		if ((insertPos > 0) && (insertPos < docLength) &&
+			(createBlendContext(insertPos, docLength - insertPos, true) != null)) return false;
+
+		final AudioFile af = AudioFile.openAsRead(f);
+		final long		pasteLength;
+		final Span		insertSpan;
+
+		if (!getAudioTrail().canAdoptTake(af.getDescr()) || (af.getFrameNum() == 0)) {
+			af.close();
+			return false;
+		}
+		pasteLength	= af.getFrameNum();
+		insertSpan	= new Span(insertPos, insertPos + pasteLength);
+
+		final AbstractCompoundEdit edit = new BasicCompoundEdit(procName);
+		if (!timeline.getSelectionSpan().isEmpty()) { // deselect
+			edit.addPerform(TimelineVisualEdit.select(this, this, new Span()));
+		}
+		for (Track.Info ti : tis) {
+			if (!ti.selected) continue;
+			ti.trail.editBegin(edit);
+			try {
+				ti.trail.editInsert(this, insertSpan, edit);
+				if (ti.trail instanceof AudioTrail) {
+					final AudioTrail at = (AudioTrail) ti.trail;
+					at.editAdd(this, at.adoptTake(af, insertPos, decimation), edit);
+				}
+			} finally {
+				ti.trail.editEnd(edit);
+			}
+		}
+		edit.addPerform(new EditSetTimelineLength(this, this, docLength + pasteLength));
+		if (timeline.getVisibleSpan().isEmpty()) {
+			edit.addPerform(TimelineVisualEdit.scroll(this, this, insertSpan));
+		}
+		edit.addPerform(TimelineVisualEdit.select(this, this, insertSpan));
+		edit.addPerform(TimelineVisualEdit.position(this, this, insertSpan.stop));
+		edit.perform();
+		edit.end();
+		getUndoManager().addEdit(edit);
+
+		return true;
+	}
+
 	public static Session newEmpty(AudioFileDescr afd)
 			throws IOException {
 		return newEmpty(afd, true, true);
@@ -620,6 +719,29 @@ if( !audioTracks.isEmpty() ) throw new IllegalStateException( "Cannot call repea
 		}
 	}
 
+	public static Session newFromProject(File path)
+			throws IOException {
+		return newFromProject(path, true, true);
+	}
+
+	public static Session newFromProject(File path, boolean createTransport, boolean createOSC)
+			throws IOException {
+
+		final ProjectFile.Content	c	= ProjectFile.read(path);
+		final Session				doc;
+
+		try {
+			doc				= new Session(c.descr, createOSC);
+			doc.projectFile	= path;
+			doc.setAudioTrail(null, c.trail);
+			if (createTransport) doc.createTransport();
+			return doc;
+		} catch (IOException e1) {
+			c.trail.dispose();
+			throw e1;
+		}
+	}
+
 	public static Session newFrom(File[] paths)
 			throws IOException {
 		return newFrom(paths, true, true);
@@ -1002,6 +1124,9 @@ if( !audioTracks.isEmpty() ) throw new IllegalStateException( "Cannot call repea
 			} else { // WARNING: we must clear KEY_MARKERS, it might contain copied data!
 				clientAFDs[ 0 ].setProperty( AudioFileDescr.KEY_MARKERS, null );
 			}
+			// an unedited file is saved by rewriting its header; afs then stays empty
+			if( (numFiles == 1) && audioTrail.rewriteHeader( clientAFDs[ 0 ], span, channelMap )) return DONE;
+
 			for( int i = 0; i < numFiles; i++ ) {
 				if( clientAFDs[ i ].file.exists() ) {
 //						tempFs[ i ]			= File.createTempFile( "eis", null, afds[ i ].file.getParentFile() );
@@ -1030,7 +1155,14 @@ if( !audioTracks.isEmpty() ) throw new IllegalStateException( "Cannot call repea
 			File							tempF;
 					
 			if( context.getReturnCode() == DONE ) {	// ------------------------------- DONE -------------------------------
-				if( asCopy ) {						// ............................... asCopy ...............................
+				if( afs[ 0 ] == null ) {			// ............................... header rewritten ...............................
+					// the trail keeps reading the same file, whose frames have not moved
+					if( !asCopy ) {
+						doc.discardEditsAndClipboard();
+						clientAFDs[ 0 ].length = ((Span) context.getClientArg( "span" )).getLength();
+						doc.setDescr( clientAFDs );
+					}
+				} else if( asCopy ) {				// ............................... asCopy ...............................
 					for( int i = 0; i < afs.length; i++ ) {
 						try {
 							afs[ i ].close();
@@ -1140,6 +1272,47 @@ tryRename:					  {
 		public void processCancel( ProcessingThread context ) { /* ignored */ }
 	}
 
+	/*
+	 *	Saves the document as a project. Unlike ActionSave,
+	 *	the audio trail is left untouched.
+	 */
+	private class ActionSaveProject
+	implements ProcessingThread.Client
+	{
+		protected ActionSaveProject() { /* empty */ }
+
+		protected ProcessingThread initiate( String procName, File f )
+		{
+			final ProcessingThread proc;
+
+			getTransport().stop();
+			if( !checkProcess() ) return null;
+
+			proc = new ProcessingThread( this, getFrame(), procName );
+			proc.putClientArg( "file", f );
+			return proc;
+		}
+
+		public int processRun( ProcessingThread context )
+		throws IOException
+		{
+			final File f = (File) context.getClientArg( "file" );
+
+			ProjectFile.write( f, at, markers, afds );
+			return DONE;
+		}
+
+		public void processFinished( ProcessingThread context )
+		{
+			if( context.getReturnCode() == DONE ) {
+				projectFile = (File) context.getClientArg( "file" );
+				setDirty( false );
+			}
+		}
+
+		public void processCancel( ProcessingThread context ) { /* ignored */ }
+	}
+
 	@SuppressWarnings("serial")
 	private class ActionCut
 			extends MenuAction {
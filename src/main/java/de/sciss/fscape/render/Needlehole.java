@@ -28,7 +28,10 @@ import javax.swing.JPanel;
 
 import de.sciss.eisenkraut.math.Fourier;
 import de.sciss.eisenkraut.math.MathUtil;
+import de.sciss.eisenkraut.math.SlidingMedian;
+import de.sciss.eisenkraut.math.SlidingMinimum;
 import de.sciss.eisenkraut.render.AbstractRenderPlugIn;
+import de.sciss.eisenkraut.render.ChannelRenderer;
 import de.sciss.eisenkraut.render.RandomAccessRequester;
 import de.sciss.eisenkraut.render.RenderConsumer;
 import de.sciss.eisenkraut.render.RenderContext;
@@ -133,6 +136,7 @@ public class Needlehole
     private long					prFramesWritten;
     private long					prRenderLength;
     private int						prWinSize;
+    private int						prTransLen;
 //	private int						prWinSizeH;
     private AudioFile prTempFile;
     private Span					prNextSpan;
@@ -326,40 +330,71 @@ public class Needlehole
     private void render( RenderSource source )
     throws IOException
     {
-        final int transLen	= (int) Math.min( prProcLen, prRenderLength - prFramesWritten );
+        prTransLen = (int) Math.min( prProcLen, prRenderLength - prFramesWritten );
 
-//System.err.println( "received "+source.audioBlockBufLen+" input samples. copied to ("+prOffStart+" ... "+(prOffStart+source.audioBlockBufLen)+")" );
-        for( int ch = 0; ch < source.numAudioChannels; ch++ ) {
-            System.arraycopy( source.audioBlockBuf[ ch ], source.audioBlockBufOff, prInBuf[ ch ], prOffStart,
-                              source.audioBlockBufLen );
+        if( prFilter instanceof ChannelWindowFilter ) {
+            renderChannels( prChannelRenderer, source );
+        } else {
+            for( int ch = 0; ch < source.numAudioChannels; ch++ ) {
+                beginChannel( source, ch );
+            }
+//System.err.println( "processing "+prTransLen+" samples in (0 ... " + prTransLen+")" );
+            prFilter.process( prInBuf, source.audioBlockBuf, 0, source.audioBlockBufOff, prTransLen );
+            for( int ch = 0; ch < source.numAudioChannels; ch++ ) {
+                endChannel( source, ch );
+            }
         }
 
+        prProcLen		 = prOutBufSize;
+        prOffStart		 = prWinSize;
+        prFramesWritten += prTransLen;
+
+        source.audioBlockBufLen = prTransLen;
+    }
+
+    // copies the input of one channel behind the overlap
+    private void beginChannel( RenderSource source, int ch )
+    {
+        final float[] inBuf = prInBuf[ ch ];
+
+//System.err.println( "received "+source.audioBlockBufLen+" input samples. copied to ("+prOffStart+" ... "+(prOffStart+source.audioBlockBufLen)+")" );
+        System.arraycopy( source.audioBlockBuf[ ch ], source.audioBlockBufOff, inBuf, prOffStart,
+                          source.audioBlockBufLen );
+
         // zero-padding last chunk
-        if( prOffStart + source.audioBlockBufLen < prInBufSize ) {
-//System.err.println( "zero padding "+(prInBufSize - prOffStart - source.audioBlockBufLen)+" samples in ("+(prOffStart + source.audioBlockBufLen) + " ... " + prInBufSize + ")" );
-            fill( prInBuf, prOffStart + source.audioBlockBufLen, prInBufSize - prOffStart - source.audioBlockBufLen, 0f );
+        for( int i = prOffStart + source.audioBlockBufLen; i < prInBufSize; i++ ) {
+            inBuf[ i ] = 0f;
         }
+    }
 
-//System.err.println( "processing "+transLen+" samples in (0 ... " + transLen+")" );
-        prFilter.process( prInBuf, source.audioBlockBuf, 0, source.audioBlockBufOff, transLen );
+    private void endChannel( RenderSource source, int ch )
+    {
+        final float[] inBuf		= prInBuf[ ch ];
+        final float[] outBuf	= source.audioBlockBuf[ ch ];
 
-        if( prSubDry) {
-            subtract( source.audioBlockBuf, source.audioBlockBufOff, prInBuf, prOffStart, transLen );
+        if( prSubDry ) {
+            for( int i = source.audioBlockBufOff, j = prOffStart, k = i + prTransLen; i < k; ) {
+                outBuf[ i++ ] -= inBuf[ j++ ];
+            }
         }
 
         // shift buffers
-//System.err.println( "copy "+prWinSize+" overlap samples from (" + transLen+ " ... " + (transLen + prWinSize)+") to (0 ... " + prWinSize + ")" );
-        for( int ch = 0; ch < source.numAudioChannels; ch++ ) {
-            System.arraycopy( prInBuf[ ch ], transLen, prInBuf[ ch ], 0, prWinSize );
-        }
-
-        prProcLen		 = prOutBufSize;
-        prOffStart		 = prWinSize;
-        prFramesWritten += transLen;
-
-        source.audioBlockBufLen = transLen;
+//System.err.println( "copy "+prWinSize+" overlap samples from (" + prTransLen+ " ... " + (prTransLen + prWinSize)+") to (0 ... " + prWinSize + ")" );
+        System.arraycopy( inBuf, prTransLen, inBuf, 0, prWinSize );
     }
 
+    // renders the channels of a ChannelWindowFilter concurrently
+    private final ChannelRenderer prChannelRenderer = new ChannelRenderer() {
+        public void renderChannel( RenderSource source, int ch )
+        throws IOException
+        {
+            beginChannel( source, ch );
+            ((ChannelWindowFilter) prFilter).process( prInBuf[ ch ], source.audioBlockBuf[ ch ], 0,
+                                                      source.audioBlockBufOff, prTransLen, ch );
+            endChannel( source, ch );
+        }
+    };
+
     // ---------- RandomAccessRequester interface ----------
 
     public Span getNextSpan()
@@ -391,6 +426,36 @@ public class Needlehole
 //		}
     }
 
+    /*
+     *	A filter whose channels are independent of each other,
+     *	so that they can be processed concurrently
+     */
+    private static abstract class ChannelWindowFilter
+    extends RunningWindowFilter
+    {
+        protected final int channels;
+
+        protected ChannelWindowFilter( int winSize, int channels )
+        {
+            super( winSize );
+
+            this.channels = channels;
+        }
+
+        public void process( float[][] inBuf, float[][] outBuf, int inOff, int outOff, int len )
+        throws IOException
+        {
+            for( int ch = 0; ch < channels; ch++ ) {
+                process( inBuf[ ch ], outBuf[ ch ], inOff, outOff, len, ch );
+            }
+        }
+
+        /**
+         *	Processes one channel. Must not touch the state of other channels.
+         */
+        public abstract void process( float[] inBuf, float[] outBuf, int inOff, int outOff, int len, int ch );
+    }
+
     private static class StdDevFilter
     extends RunningWindowFilter
     {
@@ -452,81 +517,35 @@ public class Needlehole
      *	Verfolgt das betragsmaessige Minimum
      */
     private static class MinimumFilter
-    extends RunningWindowFilter
+    extends ChannelWindowFilter
     {
-        private final int			channels;
-        private final int			winSizeM1;
+        private final SlidingMinimum	minimum;
 
         protected MinimumFilter( int winSize, int channels )
         {
-            super( winSize );
+            super( winSize, channels );
 
-            this.channels   = channels;
-            winSizeM1		= winSize - 1;
+            minimum = new SlidingMinimum( winSize, channels, true );
         }
 
-        public void process( float[][] inBuf, float[][] outBuf, int inOff, int outOff, int len )
-        throws IOException
+        public void process( float[] inBuf, float[] outBuf, int inOff, int outOff, int len, int ch )
         {
-            int			ch, i, j, k, m, n, minidx;
-            float[]		convBuf2, convBuf3;
-            float		f1, f2, min;
-
-            for( ch = 0; ch < channels; ch++ ) {
-                convBuf2	= inBuf[ch];
-                convBuf3	= outBuf[ch];
-                minidx		= -1;
-                min			= 0.0f;
-                for( j = 0, m = inOff, n = outOff; j < len; j++, m++, n++ ) {
-                    if( minidx < m ) {	// need to find again
-                        f1		= Math.abs( convBuf2[ m ]);
-                        minidx	= m;
-                        for( i = 1, k = m + 1; i < winSize; i++, k++ ) {
-                            f2	= Math.abs( convBuf2[ k ]);
-                            if( f2 < f1 ) {
-                                f1		= f2;
-                                minidx	= k;
-                            }
-                        }
-                        min	= convBuf2[ minidx ];
-                    } else {
-                        f1	= convBuf2[ m + winSizeM1 ];
-                        if( Math.abs( f1 ) < Math.abs( min )) {
-                            min		= f1;
-                            minidx	= m + winSizeM1;
-                        }
-                    }
-                    convBuf3[ n ]	= min;
-                    minidx--;
-                }
-            } // for channels
-        } // process
+            minimum.process( inBuf, inOff, outBuf, outOff, len, ch );
+        }
     } // class MinimumFilter
 
-    // this is about 20 times faster than the original code
+    // keeps the window in two heaps instead of a sorted array,
+    // so each sample costs O(log winSize) instead of O(winSize)
     private static class MedianFilter
-    extends RunningWindowFilter
+    extends ChannelWindowFilter
     {
-        private final int		winSizeH;
-        private final int		winSizeM1;
-        private final int		channels;
-
-        private final float[][]	medianBuf;
-        private final float[][]	histoBuf;
-
-        private int				histoIdx	= 0;
-        private int				medianNum	= 0;
+        private final SlidingMedian		median;
 
         protected MedianFilter( int winSize, int channels )
         {
-            super( winSize );
-
-            this.channels   = channels;
-            winSizeH		= winSize >> 1;
-            winSizeM1		= winSize - 1;
+            super( winSize, channels );
 
-            medianBuf		= new float[ channels ][ winSize ];
-            histoBuf		= new float[ channels ][ winSize ];
+            median = new SlidingMedian( winSize, channels );
         }
 
 //		public int getStartOffset()
@@ -534,114 +553,10 @@ public class Needlehole
 //			return 0;
 //		}
 
-        // we need access to low and high, that's why we cannot
-        // use Arrays.binarySearch directly ;-/
-        private int binarySearch( float[] a, float key, int low,int high )
+        public void process( float[] inBuf, float[] outBuf, int inOff, int outOff, int len, int ch )
         {
-            while( low <= high ) {
-                final int	mid		= (low + high) >> 1;
-                final float	midVal	= a[ mid ];
-
-                if( midVal < key ) {
-                    low = mid + 1;
-                } else if( midVal > key ) {
-                    high = mid - 1;
-                } else {
-                    return mid;
-                }
-            }
-            return -(low + 1);  // key not found.
+            median.process( inBuf, inOff, outBuf, outOff, len, ch );
         }
-
-        public void process( float[][] inBuf, float[][] outBuf, int inOff, int outOff, int len )
-        throws IOException
-        {
-//System.out.println( "inOff = " + inOff + "; outOff = " + outOff + "; len = " + len );
-
-            for( int ch = 0; ch < channels; ch++ ) {
-                final float[]	medianChanBuf	= medianBuf[ ch ];
-                final float[]	inChanBuf		= inBuf[ ch ];
-                final float[]	outChanBuf		= outBuf[ ch ];
-                final float[]	histoChanBuf	= histoBuf[ ch ];
-                int				medianChanNum	= medianNum;
-                int				histoChanIdx	= histoIdx;
-
-//int lastCpySrcIdx = -666, lastCpyDstIdx = -666, lastCpyLen = -666;
-//boolean didLastCpy = false;
-//int lastOldIdx = -666, lastNewIdx = -666;
-//float lastOldVal = -666;
-//float[] backup = new float[ winSize ];
-
-                for( int i = inOff, j = outOff, k = inOff + len; i < k; i++, j++ ) {
-                    final float val = inChanBuf[ i ];
-//System.arraycopy( medianChanBuf, 0, backup, 0, winSize );
-                    if( medianChanNum == winSize ) { // full buffer size reached
-                        if( histoChanIdx == winSize ) histoChanIdx = 0;
-//lastOldVal = histoChanBuf[ histoChanIdx ];
-                        final int oldIdx = binarySearch( medianChanBuf, histoChanBuf[ histoChanIdx ], 0, winSizeM1 );
-                        // trick to kind of ignore the removed value
-//						medianChanBuf[ oldIdx ] = medianChanBuf[ oldIdx > 0 ? oldIdx - 1 : oldIdx + 1 ];
-                        int newIdx = binarySearch( medianChanBuf, val, 0, winSizeM1 );
-                        if( newIdx < 0 ) newIdx = -(newIdx + 1);
-//try {
-                        if( newIdx < oldIdx ) {
-//lastCpySrcIdx=newIdx; lastCpyDstIdx=newIdx+1;lastCpyLen=oldIdx-newIdx; didLastCpy = true;
-                            System.arraycopy( medianChanBuf, newIdx, medianChanBuf, newIdx + 1, oldIdx - newIdx );
-                        } else if( newIdx > oldIdx ) {
-                            newIdx--;
-//lastCpySrcIdx=oldIdx+1; lastCpyDstIdx=oldIdx;lastCpyLen=newIdx-oldIdx; didLastCpy = true;
-                            System.arraycopy( medianChanBuf, oldIdx + 1, medianChanBuf, oldIdx, newIdx - oldIdx );
-                        }
-//						else didLastCpy = false; 
-                        medianChanBuf[ newIdx ] = val;
-
-//lastOldIdx = oldIdx; lastNewIdx = newIdx;
-
-//}
-//catch( ArrayIndexOutOfBoundsException e1 ) {
-//	System.out.println( "ch = " + ch + "; oldIdx = " + oldIdx + "; newIdx = " + newIdx + "; winSize = " + winSize );
-//	throw e1;
-//}
-                        outChanBuf[ j ] = medianChanBuf[ winSizeH ];
-                    } else {	// buffer still in the process of filling up
-                        int newIdx = binarySearch( medianChanBuf, val, 0, medianChanNum - 1 );
-                        if( newIdx < 0 ) newIdx = -(newIdx + 1);
-//						System.out.println( "ch = " + ch + "; newIdx = " + newIdx + "; medianChanNum = " + medianChanNum + "; winSize = " + winSize );
-                        System.arraycopy( medianChanBuf, newIdx, medianChanBuf, newIdx + 1, medianChanNum - newIdx );
-                        medianChanBuf[ newIdx ] = val;
-                        medianChanNum++;
-                        outChanBuf[ j ] = medianChanBuf[ medianChanNum >> 1 ];
-                    }
-
-                    histoChanBuf[ histoChanIdx++ ] = val;
-//					histoChanIdx = (histoChanIdx + 1) % winSize;
-//boolean failed=false;
-//for( int ii = 0; ii < Math.max( histoChanIdx, medianChanNum ); ii++ ) {
-//	if( binarySearch( medianChanBuf, histoChanBuf[ ii ], 0, medianChanNum - 1 ) < 0 ) {
-//		System.out.println( "TEST FAILED! value " + histoChanBuf[ ii ] + " not found" );
-//		failed=true;
-//	}
-//}
-//if( failed ) {
-//	if( !didLastCpy ) System.out.println( "DIDN'T DO LASTCPY" );
-//	System.out.println( "last copy : from " + lastCpySrcIdx + "; to " + lastCpyDstIdx + "; len = " + lastCpyLen + "; oldIdx = " +lastOldIdx + "; newIdx = " + lastNewIdx + "; oldVal = " + lastOldVal + "; newVal = " + val );
-//}
-
-//					float prev = medianChanBuf[ 0 ];
-//					for( int kk = 1; kk < medianChanNum; kk++ ) {
-//						if( medianChanBuf[ kk ] < prev ) {
-//							System.out.println( "TEST FAILED!" );
-//						}
-//						prev = medianChanBuf[ kk ]; 
-//					}
-                }
-
-                if( ch == channels - 1 ) {
-                    medianNum	= medianChanNum;
-                    histoIdx	= histoChanIdx;
-                }
-            } // for channels
-        } // process
     } // class MedianFilter
 
 // this is about 6 times faster than the original code
@@ -908,64 +823,35 @@ public class Needlehole
      *	mit nachgeschaltetem DC block filter
      */
     private static class Minimum2Filter
-    extends RunningWindowFilter
+    extends ChannelWindowFilter
     {
-        final int			channels;
-        final int			winSizeM1;
-        final double[][]	dcMem;
+        final SlidingMinimum	minimum;
+        final double[][]		dcMem;
 
         protected Minimum2Filter( int winSize, int channels )
         {
-            super( winSize );
+            super( winSize, channels );
 
-            this.channels   = channels;
-            winSizeM1		= winSize - 1;
+            minimum			= new SlidingMinimum( winSize, channels, false );
             dcMem			= new double[channels][2];
         }
 
-        public void process( float[][] inBuf, float[][] outBuf, int inOff, int outOff, int len )
-        throws IOException
+        public void process( float[] inBuf, float[] outBuf, int inOff, int outOff, int len, int ch )
         {
-            int			ch, i, j, k, m, n, minidx;
-            float[]		convBuf2, convBuf3;
-            double[]	convBuf4;
-            float		f1, f2, min;
-            double		d2;
-
-            for( ch = 0; ch < channels; ch++ ) {
-                convBuf4	= dcMem[ ch ];
-                convBuf2	= inBuf[ch];
-                convBuf3	= outBuf[ch];
-                minidx		= -1;
-                min			= 0.0f;
-                for( j = 0, m = inOff, n = outOff; j < len; j++, m++, n++ ) {
-                    if( minidx < m ) {	// need to find again
-                        f1		= convBuf2[ m ];
-                        minidx	= m;
-                        for( i = 1, k = m + 1; i < winSize; i++, k++ ) {
-                            f2	= convBuf2[ k ];
-                            if( f2 < f1 ) {
-                                f1		= f2;
-                                minidx	= k;
-                            }
-                        }
-                        min	= f1;
-                    } else {
-                        f1	= convBuf2[ m + winSizeM1 ];
-                        if( f1 < min ) {
-                            min		= f1;
-                            minidx	= m + winSizeM1;
-                        }
-                    }
-
-                // ---- remove DC ----
-                    d2				= min - convBuf4[ 0 ] + 0.99 * convBuf4[ 1 ];
-                    convBuf3[ n ]	= (float) d2;
-                    convBuf4[ 0 ]	= min;
-                    convBuf4[ 1 ]	= d2;
-                    minidx--;
-                }
-            } // for channels
+            final double[]	convBuf4	= dcMem[ ch ];
+            float			min;
+            double			d2;
+
+            minimum.process( inBuf, inOff, outBuf, outOff, len, ch );
+
+            for( int n = outOff, k = outOff + len; n < k; n++ ) {
+                min				= outBuf[ n ];
+            // ---- remove DC ----
+                d2				= min - convBuf4[ 0 ] + 0.99 * convBuf4[ 1 ];
+                outBuf[ n ]		= (float) d2;
+                convBuf4[ 0 ]	= min;
+                convBuf4[ 1 ]	= d2;
+            }
         } // process
     } // class Minimum2Filter
 
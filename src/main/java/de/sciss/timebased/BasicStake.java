@@ -27,6 +27,8 @@ implements Stake
 {
 	protected final Span	span;
 	protected Trail			trail	= null;
+	// the stake of a StakeTree node this stake is a shifted view of, or null
+	private Stake			origin	= null;
 
 	protected BasicStake( Span span )
 	{
@@ -37,7 +39,7 @@ implements Stake
 	{
 		return span;
 	}
-	
+
 	public void dispose()
 	{
 		trail	= null;
@@ -48,6 +50,37 @@ implements Stake
 		this.trail	= trail;
 	}
 
+	/*
+	 *	Called by StakeTree when it has created this stake by virtually
+	 *	shifting the stake stored in a tree node. The view shares the resources
+	 *	of the origin, which stays responsible for them.
+	 */
+	void setOrigin( Stake origin )
+	{
+		this.origin	= origin;
+		releaseClaims();
+	}
+
+	/**
+	 *	Returns the stake this stake is a shifted view of,
+	 *	or <code>null</code> if the stake is no such view.
+	 */
+	Stake getOrigin()
+	{
+		return origin;
+	}
+
+	/**
+	 *	Invoked when the stake becomes a view of another stake. Subclasses
+	 *	which claim shared resources upon creation (such as a reference
+	 *	to a file) should give them up here, since the view will be dropped
+	 *	without being disposed when it is no longer referenced.
+	 */
+	protected void releaseClaims()
+	{
+		/* empty */
+	}
+
 // ---------------- TreeNode interface ---------------- 
 
 	public TreeNode getChildAt( int childIndex )
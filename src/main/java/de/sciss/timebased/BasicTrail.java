@@ -40,11 +40,10 @@ public abstract class BasicTrail
 	protected static final Comparator<Object> stopComparator	= new StopComparator();
 //	private static final List	collEmpty			= new ArrayList( 1 );
 	
-	private final List<Stake> collStakesByStart	= new ArrayList<Stake>();	// sorted using StartComparator
-	private final List<Stake> collStakesByStop	= new ArrayList<Stake>();	// sorted using StopComparator
+	// sorted both by start and by stop. immutable, so readers always see a consistent snapshot
+	private volatile StakeTree		stakes				= new StakeTree(this);
 
-	private List<Stake>				collEditByStart		= null;
-	private List<Stake>				collEditByStop		= null;
+	private StakeTree				editStakes			= null;
 	private AbstractCompoundEdit	currentEdit			= null;
 
 	private double						rate;
@@ -92,14 +91,13 @@ public abstract class BasicTrail
 	}
 
 	protected void clearIgnoreDependants() {
-		Stake stake;
+		final List<Stake> coll = stakes.toList(true);
 
-		while (!collStakesByStart.isEmpty()) {
-			stake = collStakesByStart.remove(0);
+		stakes = new StakeTree(this);
+		for (Stake stake : coll) {
 //			stake.setTrail( null );
-			stake.dispose();
+			StakeTree.dispose(stake);
 		}
-		collStakesByStop.clear();
 	}
 
 	public void dispose()
@@ -118,26 +116,33 @@ public abstract class BasicTrail
 			}
 		}
 
-		for (Stake aCollStakesByStart : collStakesByStart) aCollStakesByStart.dispose();
-	
-		collStakesByStart.clear();
-		collStakesByStop .clear();
+		for (Stake stake : stakes.toList(true)) StakeTree.dispose(stake);
+
+		stakes = new StakeTree(this);
 	}
 
-	protected List<Stake> editGetCollByStart(AbstractCompoundEdit ce) {
-		if ((ce == null) || (collEditByStart == null)) {
-			return collStakesByStart;
+	private StakeTree editGetStakes(AbstractCompoundEdit ce) {
+		if ((ce == null) || (editStakes == null)) {
+			return stakes;
 		} else {
-			return collEditByStart;
+			return editStakes;
 		}
 	}
 
+	/**
+	 *	Returns an unmodifiable snapshot of the stakes
+	 *	sorted by start. Random access costs <code>O(log n)</code>.
+	 */
+	protected List<Stake> editGetCollByStart(AbstractCompoundEdit ce) {
+		return editGetStakes(ce).asList(true);
+	}
+
+	/**
+	 *	Returns an unmodifiable snapshot of the stakes
+	 *	sorted by stop. Random access costs <code>O(log n)</code>.
+	 */
 	protected List<Stake> editGetCollByStop(AbstractCompoundEdit ce) {
-		if ((ce == null) || (collEditByStop == null)) {
-			return collStakesByStop;
-		} else {
-			return collEditByStop;
-		}
+		return editGetStakes(ce).asList(false);
 	}
 
 	public Span getSpan() {
@@ -149,15 +154,15 @@ public abstract class BasicTrail
 	}
 
 	private long editGetStart(AbstractCompoundEdit ce) {
-		final List<Stake> coll = editGetCollByStart(ce);
+		final StakeTree coll = editGetStakes(ce);
 
-		return (coll.isEmpty() ? 0 : coll.get(0).getSpan().start);
+		return (coll.isEmpty() ? 0 : coll.get(0, true).getSpan().start);
 	}
 
 	private long editGetStop(AbstractCompoundEdit ce) {
-		final List<Stake> coll = editGetCollByStop(ce);
+		final StakeTree coll = editGetStakes(ce);
 
-		return (coll.isEmpty() ? 0 : coll.get(coll.size() - 1).getSpan().stop);
+		return (coll.isEmpty() ? 0 : coll.get(coll.size() - 1, false).getSpan().stop);
 	}
 
 	public void editBegin(AbstractCompoundEdit ce) {
@@ -165,8 +170,7 @@ public abstract class BasicTrail
 			throw new ConcurrentModificationException("Concurrent editing");
 		}
 		currentEdit = ce;
-		collEditByStart = null;        // dispose ? XXXX
-		collEditByStop = null;        // dispose ? XXXX
+		editStakes = null;
 
 		// ____ dep ____
 		if (dependants != null) {
@@ -180,8 +184,7 @@ public abstract class BasicTrail
 	{
 		checkEdit( ce );
 		currentEdit		= null;
-		collEditByStart	= null;		// dispose ? XXXX
-		collEditByStop	= null;		// dispose ? XXXX
+		editStakes		= null;
 
 		// ____ dep ____
 		if( dependants != null ) {
@@ -205,9 +208,8 @@ public abstract class BasicTrail
 	
 	private void ensureEditCopy()
 	{
-		if (collEditByStart == null) {
-			collEditByStart = new ArrayList<Stake>(collStakesByStart);
-			collEditByStop  = new ArrayList<Stake>(collStakesByStop );
+		if (editStakes == null) {
+			editStakes = stakes;	// immutable, thus no copy needed
 		}
 	}
 
@@ -218,60 +220,11 @@ public abstract class BasicTrail
 
 	// returns stakes that intersect OR TOUCH the span
 	public List<Stake> editGetRange(Span span, boolean byStart, AbstractCompoundEdit ce) {
-		final List<Stake> collByStart, collByStop;
-		List<Stake> collResult;
-		int idx;
-
-		if (ce == null) {
-			collByStart = collStakesByStart;
-			collByStop  = collStakesByStop;
-		} else {
-			checkEdit(ce);
-			collByStart = collEditByStart == null ? collStakesByStart : collEditByStart;
-			collByStop  = collEditByStop  == null ? collStakesByStop  : collEditByStop;
-		}
-
-		if (byStart) {
-			idx = Collections.binarySearch(collByStop, span.start, stopComparator);
-			if (idx < 0) {
-				idx = -(idx + 1);
-			} else {
-				// "If the list contains multiple elements equal to the specified object,
-				//  there is no guarantee which one will be found"
-				idx = getLeftMostIndex(collByStop, idx, false);
-			}
-			collResult = new ArrayList<Stake>(collByStop.subList(idx, collByStop.size()));
-
-			Collections.sort( collResult, startComparator );
-
-			idx = Collections.binarySearch(collResult, span.stop, startComparator);
-			if (idx < 0) {
-				idx = -(idx + 1);
-			} else {
-				idx = getRightMostIndex(collResult, idx, true) + 1;
-			}
-			collResult = collResult.subList(0, idx);
-
-		} else {
-			idx = Collections.binarySearch(collByStart, span.stop, startComparator);
-			if (idx < 0) {
-				idx = -(idx + 1);
-			} else {
-				idx = getRightMostIndex(collByStart, idx, true) + 1;
-			}
-			collResult = new ArrayList<Stake>(collByStart.subList(0, idx));
-
-			Collections.sort(collResult, stopComparator);
+		final List<Stake> collResult = new ArrayList<Stake>();
 
-			idx = Collections.binarySearch(collResult, span.start, stopComparator);
-			if (idx < 0) {
-				idx = -(idx + 1);
-			} else {
-				idx = getLeftMostIndex(collResult, idx, false);
-			}
-			collResult = collResult.subList(idx, collResult.size());
-		}
+		if (ce != null) checkEdit(ce);
 
+		editGetStakes(ce).getRange(span, byStart, collResult);
 		return collResult;
 	}
 
@@ -296,15 +249,39 @@ public abstract class BasicTrail
 		final long	totStop			= editGetStop( ce );
 		final long	delta			= span.getLength();
 		
-		if( (delta == 0) || (start > totStop) ) return;
-		
-		final List<Stake> collRange		= editGetRange( new Span( start, totStop ), true, ce );
-		
-		if( collRange.isEmpty() ) return;
-		
+		if( (delta == 0) || (start > totStop) || editGetStakes( ce ).isEmpty() ) return;
+
+		final Span	modSpan;
+
+		if( canRipple( start, touchMode, ce )) {
+			modSpan		= rippleInsert( start, delta, touchMode, ce );
+		} else {
+			modSpan		= editInsertPr( start, totStop, delta, touchMode, ce );
+		}
+
+		// ____ dep ____
+		if( dependants != null ) {
+			synchronized(sync) {
+				for (BasicTrail dependant : dependants) {
+					dependant.editInsert(source, span, touchMode, ce);
+				}
+			}
+		}
+
+		if( (source != null) && (modSpan != null) ) {
+			if( ce != null ) {
+				ce.addPerform( new Edit( this, modSpan ));
+			} else {
+				dispatchModification( source, modSpan );
+			}
+		}
+	}
+
+	private Span editInsertPr( long start, long totStop, long delta, int touchMode, AbstractCompoundEdit ce )
+	{
+		final List<Stake>	collRange		= editGetRange( new Span( start, totStop ), true, ce );
 		final List<Stake>	collToAdd		= new ArrayList<Stake>();
 		final List<Stake>	collToRemove	= new ArrayList<Stake>();
-		final Span	modSpan;
 		Span		stakeSpan;
 		
 		switch( touchMode ) {
@@ -357,24 +334,79 @@ System.err.println( "BasicTrail.insert, touchmode resize : not tested" );
 			throw new IllegalArgumentException( "TouchMode : " + touchMode );
 		}
 
-		modSpan		= Span.union( removeAllPr( collToRemove, ce ), addAllPr( collToAdd, ce ));
+		return Span.union( removeAllPr( collToRemove, ce ), addAllPr( collToAdd, ce ));
+	}
 
-		// ____ dep ____
-		if( dependants != null ) {
-			synchronized(sync) {
-				for (BasicTrail dependant : dependants) {
-					dependant.editInsert(source, span, touchMode, ce);
+	/*
+	 *	Whether an insertion or removal at the given position can be
+	 *	carried out by shifting the tail of the trail as a whole.
+	 *	That's the case if no stake crosses the position, or if such
+	 *	stakes are split anyway.
+	 */
+	private boolean canRipple( long pos, int touchMode, AbstractCompoundEdit ce )
+	{
+		switch( touchMode ) {
+		case TOUCH_SPLIT:
+			return true;
+
+		case TOUCH_NONE:
+			for( Stake stake : editGetRange( new Span( pos, pos ), true, ce )) {
+				final Span stakeSpan = stake.getSpan();
+				if( (stakeSpan.start < pos) && (stakeSpan.stop > pos) ) return false;
+			}
+			return true;
+
+		default:
+			return false;
+		}
+	}
+
+	// splits the stakes crossing `start` if necessary, then shifts everything from `start` on
+	private Span rippleInsert( long start, long delta, int touchMode, AbstractCompoundEdit ce )
+	{
+		final List<Stake>	collToAdd		= new ArrayList<Stake>();
+		final List<Stake>	collToRemove	= new ArrayList<Stake>();
+		Span				stakeSpan;
+
+		if( touchMode == TOUCH_SPLIT ) {
+			for( Stake stake : editGetRange( new Span( start, start ), true, ce )) {
+				stakeSpan = stake.getSpan();
+				if( (stakeSpan.start < start) && (stakeSpan.stop > start) ) {
+					collToRemove.add( stake );
+					collToAdd.add( stake.replaceStop( start ));
+					collToAdd.add( stake.replaceStart( start ));	// shifted below
 				}
 			}
 		}
 
-		if( (source != null) && (modSpan != null) ) {
-			if( ce != null ) {
-				ce.addPerform( new Edit( this, modSpan ));
-			} else {
-				dispatchModification( source, modSpan );
+		final Span modSpan = Span.union( removeAllPr( collToRemove, ce ), addAllPr( collToAdd, ce ));
+		// in split mode, empty stakes at the insertion point stay where they are
+		return Span.union( modSpan, shiftPr( start, touchMode == TOUCH_NONE, delta, ce ));
+	}
+
+	// removes the stakes within `span`, splitting them if necessary, then shifts everything from `span.stop` on
+	private Span rippleRemove( Span span, int touchMode, AbstractCompoundEdit ce )
+	{
+		final long			start			= span.start;
+		final long			stop			= span.stop;
+		final List<Stake>	collToAdd		= new ArrayList<Stake>();
+		final List<Stake>	collToRemove	= new ArrayList<Stake>();
+		Span				stakeSpan;
+
+		for( Stake stake : editGetRange( span, true, ce )) {
+			stakeSpan = stake.getSpan();
+			if( touchMode == TOUCH_NONE ) {
+				if( (stakeSpan.start >= start) && (stakeSpan.start < stop) ) collToRemove.add( stake );
+
+			} else if( (stakeSpan.stop > start) && (stakeSpan.start < stop) ) {
+				collToRemove.add( stake );
+				if( stakeSpan.start < start ) collToAdd.add( stake.replaceStop( start ));	// start portion splitted
+				if( stakeSpan.stop  > stop  ) collToAdd.add( stake.replaceStart( stop ));	// stop portion splitted, shifted below
 			}
 		}
+
+		final Span modSpan = Span.union( removeAllPr( collToRemove, ce ), addAllPr( collToAdd, ce ));
+		return Span.union( modSpan, shiftPr( stop, true, start - stop, ce ));
 	}
 
 	public void remove( Object source, Span span )
@@ -429,15 +461,40 @@ System.err.println( "BasicTrail.insert, touchmode resize : not tested" );
 		final long	totStop			= editGetStop( ce );
 		final long	delta			= -span.getLength();
 		
-		if( (delta == 0) || (start > totStop) ) return;
-		
+		if( (delta == 0) || (start > totStop) || editGetStakes( ce ).isEmpty() ) return;
+
+		final Span	modSpan;
+
+		if( canRipple( start, touchMode, ce )) {
+			modSpan		= rippleRemove( span, touchMode, ce );
+		} else {
+			modSpan		= editRemovePr( start, stop, totStop, delta, touchMode, ce );
+		}
+
+		// ____ dep ____
+		if( dependants != null ) {
+			synchronized(sync) {
+				for (BasicTrail dependant : dependants) {
+					dependant.editRemove(source, span, touchMode, ce);
+				}
+			}
+		}
+
+		if( (source != null) && (modSpan != null) ) {
+			if( ce != null ) {
+				ce.addPerform( new Edit( this, modSpan ));
+			} else {
+				dispatchModification( source, modSpan );
+			}
+		}
+	}
+
+	private Span editRemovePr( long start, long stop, long totStop, long delta, int touchMode,
+							   AbstractCompoundEdit ce )
+	{
 		final List<Stake>	collRange		= editGetRange( new Span( start, totStop ), true, ce );
-		
-		if( collRange.isEmpty() ) return;
-		
 		final List<Stake>	collToAdd		= new ArrayList<Stake>();
 		final List<Stake>	collToRemove	= new ArrayList<Stake>();
-		final Span	modSpan;
 		Span		stakeSpan;
 		
 		switch( touchMode ) {
@@ -523,24 +580,7 @@ if( DEBUG ) {
 		System.err.println("  span " + ((Stake) aCollToAdd).getSpan());
 	}
 }
-		modSpan		= Span.union( removeAllPr( collToRemove, ce ), addAllPr( collToAdd, ce ));
-
-		// ____ dep ____
-		if( dependants != null ) {
-			synchronized(sync) {
-				for (BasicTrail dependant : dependants) {
-					dependant.editRemove(source, span, touchMode, ce);
-				}
-			}
-		}
-
-		if( (source != null) && !(collToRemove.isEmpty() && collToAdd.isEmpty()) ) {
-			if( ce != null ) {
-				ce.addPerform( new Edit( this, modSpan ));
-			} else {
-				dispatchModification( source, modSpan );
-			}
-		}
+		return Span.union( removeAllPr( collToRemove, ce ), addAllPr( collToAdd, ce ));
 	}
 
 	public void clear( Object source, Span span )
@@ -667,9 +707,7 @@ if( DEBUG ) {
 //		trail.setRate( this.getRate() );
 
 //		Collections.sort( stakes, startComparator );
-		trail.collStakesByStart.addAll( stakes );
-		Collections.sort(stakes, stopComparator);
-		trail.collStakesByStop.addAll( stakes );
+		trail.stakes = trail.stakes.addAll( stakes );
 	
 		return trail;
 	}
@@ -756,18 +794,17 @@ if( DEBUG ) {
 	}
 
 	public Stake get(int idx, boolean byStart) {
-		final List<Stake> coll = byStart ? collStakesByStart : collStakesByStop;
-		return coll.get(idx);
+		return stakes.get(idx, byStart);
 	}
 	
 	public int getNumStakes()
 	{
-		return collStakesByStart.size();
+		return stakes.size();
 	}
 	
 	public boolean isEmpty()
 	{
-		return collStakesByStart.isEmpty();
+		return stakes.isEmpty();
 	}
 	
 	public boolean contains( Stake stake )
@@ -782,34 +819,9 @@ if( DEBUG ) {
 
 	public int editIndexOf( Stake stake, boolean byStart, AbstractCompoundEdit ce )
 	{
-		final	List<Stake> coll;
-		final	Comparator<Object> comp	= byStart ? startComparator : stopComparator;
-		final	int			idx;
-		
-		if( ce == null ) {
-			coll = byStart ? collStakesByStart : collStakesByStop;
-		} else {
-			checkEdit( ce );
-			coll = byStart ? (collEditByStart == null ? collStakesByStart : collEditByStart) :
-							 (collEditByStop == null ? collStakesByStop : collEditByStop);
-		}
-	
-		// "If the list contains multiple elements equal to the specified object,
-		//  there is no guarantee which one will be found"
-		idx = Collections.binarySearch(coll, stake, comp);
-		if (idx >= 0) {
-			Stake stake2 = coll.get(idx);
-			if (stake2.equals(stake)) return idx;
-			for (int idx2 = idx - 1; idx2 >= 0; idx2--) {
-				stake2 = coll.get(idx2);
-				if (stake2.equals(stake)) return idx2;
-			}
-			for (int idx2 = idx + 1; idx2 < coll.size(); idx2++) {
-				stake2 = coll.get(idx2);
-				if (stake2.equals(stake)) return idx2;
-			}
-		}
-		return idx;
+		if( ce != null ) checkEdit( ce );
+
+		return editGetStakes( ce ).indexOf( stake, byStart );
 	}
 
 	public int indexOf( long pos, boolean byStart )
@@ -818,11 +830,7 @@ if( DEBUG ) {
 	}
 
 	public int editIndexOf(long pos, boolean byStart, AbstractCompoundEdit ce) {
-		if (byStart) {
-			return Collections.binarySearch(editGetCollByStart(ce), pos, startComparator);
-		} else {
-			return Collections.binarySearch(editGetCollByStop(ce), pos, stopComparator);
-		}
+		return editGetStakes(ce).indexOf(pos, byStart);
 	}
 
 	public Stake editGetLeftMost(int idx, boolean byStart, AbstractCompoundEdit ce) {
@@ -916,13 +924,11 @@ if( DEBUG ) {
 	}
 
 	public List<Stake> getAll(boolean byStart) {
-		final List<Stake> coll = byStart ? collStakesByStart : collStakesByStop;
-		return new ArrayList<Stake>(coll);
+		return stakes.toList(byStart);
 	}
 
 	public List<Stake> getAll(int startIdx, int stopIdx, boolean byStart) {
-		final List<Stake> coll = byStart ? collStakesByStart : collStakesByStop;
-		return new ArrayList<Stake>(coll.subList(startIdx, stopIdx));
+		return new ArrayList<Stake>(stakes.asList(byStart).subList(startIdx, stopIdx));
 	}
 
 	public void add(Object source, Stake stake)
@@ -981,6 +987,7 @@ if( DEBUG ) {
 		long		start	= Long.MAX_VALUE;
 		long		stop	= Long.MIN_VALUE;
 		final Span	span;
+		final StakeTree	before = editGetStakes(ce);
 
 		for (Stake stake : stakes) {
 			sortAddStake(stake, ce);
@@ -988,7 +995,7 @@ if( DEBUG ) {
 			stop  = Math.max(stop , stake.getSpan().stop );
 		}
 		span = new Span(start, stop);
-		if (ce != null) ce.addPerform(new Edit(this, stakes, span, EDIT_ADD));
+		if (ce != null) ce.addPerform(new Edit(this, stakes, span, EDIT_ADD, before, editStakes));
 
 		return span;
 	}
@@ -1051,16 +1058,36 @@ if( DEBUG ) {
 		long		stop	= Long.MIN_VALUE;
 		Stake		stake;
 		final Span	span;
+		final StakeTree	before = editGetStakes(ce);
 
 		for (Object stake1 : stakes) {
 			stake = (Stake) stake1;
 			sortRemoveStake(stake, ce);
 			start = Math.min(start, stake.getSpan().start);
 			stop = Math.max(stop, stake.getSpan().stop);
-			if (ce == null) stake.dispose();
+			if (ce == null) StakeTree.dispose(stake);
 		}
 		span		= new Span( start, stop );
-		if( ce != null ) ce.addPerform( new Edit( this, stakes, span, EDIT_REMOVE ));
+		if( ce != null ) ce.addPerform( new Edit( this, stakes, span, EDIT_REMOVE, before, editStakes ));
+
+		return span;
+	}
+
+	private Span shiftPr(long pos, boolean includeEmpty, long delta, AbstractCompoundEdit ce) {
+		final StakeTree	before	= editGetStakes(ce);
+		final long		stop	= editGetStop(ce);
+
+		if (stop < pos) return null;	// nothing to shift
+
+		final StakeTree	after	= before.shift(pos, includeEmpty, delta);
+		final Span		span	= new Span(Math.min(pos, pos + delta), Math.max(stop, stop + delta));
+
+		if (ce == null) {
+			stakes = after;
+		} else {
+			editStakes = after;
+			ce.addPerform(new Edit(this, pos, includeEmpty, delta, span, before, after));
+		}
 
 		return span;
 	}
@@ -1076,9 +1103,11 @@ if( DEBUG ) {
 		Span stakeSpan;
 		boolean ok = true;
 
+		final List<Stake> coll = stakes.toList(true);
+
 		System.err.println("total Span = " + totalSpan);
-		for (int i = 0; i < collStakesByStart.size(); i++) {
-			stake = collStakesByStart.get(i);
+		for (int i = 0; i < coll.size(); i++) {
+			stake = coll.get(i);
 			stakeSpan = stake.getSpan();
 			if (stakeSpan.start != lastStop) {
 				System.err.println("! broken contiguity for stake #" + i + " (" + stake + ") : "
@@ -1101,44 +1130,23 @@ if( DEBUG ) {
 	}
 
 	protected void sortAddStake(Stake stake, AbstractCompoundEdit ce) {
-		final List<Stake> collByStart, collByStop;
-		int idx;
-
 		if (ce == null) {
-			collByStart = collStakesByStart;
-			collByStop  = collStakesByStop;
+			stakes = stakes.add(stake);
 		} else {
 			ensureEditCopy();
-			collByStart = collEditByStart;
-			collByStop  = collEditByStop;
+			editStakes = editStakes.add(stake);
 		}
 
-		idx = editIndexOf(stake.getSpan().start, true, ce);    // look for position only!
-		if (idx < 0) idx = -(idx + 1);
-		collByStart.add(idx, stake);
-		idx = editIndexOf(stake.getSpan().stop, false, ce);
-		if (idx < 0) idx = -(idx + 1);
-		collByStop.add(idx, stake);
-
 		stake.setTrail(this);    // ???
 	}
 
 	protected void sortRemoveStake(Stake stake, AbstractCompoundEdit ce) {
-		final List<Stake> collByStart, collByStop;
-		int idx;
-
 		if (ce == null) {
-			collByStart = collStakesByStart;
-			collByStop  = collStakesByStop;
+			stakes = stakes.remove(stake);	// look for object equality!
 		} else {
 			ensureEditCopy();
-			collByStart = collEditByStart;
-			collByStop  = collEditByStop;
+			editStakes = editStakes.remove(stake);
 		}
-		idx = editIndexOf(stake, true, ce);
-		if (idx >= 0) collByStart.remove(idx);        // look for object equality!
-		idx = editIndexOf(stake, false, ce);
-		if (idx >= 0) collByStop.remove(idx);
 	}
 
 	public void addListener(Trail.Listener listener) {
@@ -1266,8 +1274,9 @@ if( DEBUG ) {
 	private static final int EDIT_ADD		= 0;
 	private static final int EDIT_REMOVE	= 1;
 	private static final int EDIT_DISPATCH	= 2;
+	private static final int EDIT_SHIFT		= 3;
 
-	protected static final String[] EDIT_NAMES = { "Add", "Remove", "Dispatch" };
+	protected static final String[] EDIT_NAMES = { "Add", "Remove", "Dispatch", "Shift" };
 
 	// @todo	disposal is wrong (leaks?) when edit is not performed (e.g. EDIT_ADD not performed)
 	// @todo	dispatch should not be a separate edit but one that is sucked and collapsed through multiple EDIT_ADD / EDIT_REMOVE stages
@@ -1281,42 +1290,118 @@ if( DEBUG ) {
 //		private boolean					removed;
 		private boolean					disposeWhenDying;
 		private Span					span;
+		// the trail's collection before and after the edit. as long as the trail
+		// is found in one of these states, perform and undo simply swap them
+		private StakeTree				before, after;
+		// EDIT_SHIFT parameters
+		private final long				shiftPos;
+		private final boolean			shiftEmpty;
+		private final long				shiftDelta;
 
 		protected Edit(BasicTrail t, Span span) {
-			this(t, null, span, EDIT_DISPATCH, "editChangeTrail");
+			this(t, null, span, EDIT_DISPATCH, null, null, "editChangeTrail");
+		}
+
+		protected Edit(BasicTrail t, long pos, boolean includeEmpty, long delta, Span span,
+					   StakeTree before, StakeTree after) {
+			this.stakes		= null;
+			this.cmd		= EDIT_SHIFT;
+			this.key		= "editChangeTrail";
+			this.span		= span;
+			this.trail		= t;
+			this.before		= before;
+			this.after		= after;
+			shiftPos		= pos;
+			shiftEmpty		= includeEmpty;
+			shiftDelta		= delta;
+			disposeWhenDying = false;
 		}
 
-		protected Edit(BasicTrail t, List<Stake> stakes, Span span, int cmd) {
-			this(t, stakes, span, cmd, "editChangeTrail");
+		protected Edit(BasicTrail t, List<Stake> stakes, Span span, int cmd, StakeTree before, StakeTree after) {
+			this(t, stakes, span, cmd, before, after, "editChangeTrail");
 		}
 
-		private Edit(BasicTrail t, List<Stake> stakes, Span span, int cmd, String key) {
+		private Edit(BasicTrail t, List<Stake> stakes, Span span, int cmd, StakeTree before, StakeTree after,
+					 String key) {
 			this.stakes = stakes;
 			this.cmd	= cmd;
 			this.key	= key;
 			this.span	= span;
 			this.trail	= t;
+			this.before	= before;
+			this.after	= after;
+			shiftPos	= 0L;
+			shiftEmpty	= false;
+			shiftDelta	= 0L;
 //			removed		= false;
 			disposeWhenDying = stakes != null;
 		}
 
 		private void addAll() {
-			for (Stake stake : stakes) {
-				trail.sortAddStake(stake, null);
+			if ((before != null) && (trail.stakes == before)) {
+				trail.stakes = after;
+			} else if ((after == null) || (trail.stakes != after)) {
+				for (Stake stake : stakes) {
+					trail.sortAddStake(stake, null);
+				}
 			}
 			disposeWhenDying = false;
 		}
 
 		private void removeAll() {
-			for (Stake stake : stakes) {
-				trail.sortRemoveStake(stake, null);
+			if ((before != null) && (trail.stakes == before)) {
+				trail.stakes = after;
+			} else if ((after == null) || (trail.stakes != after)) {
+				for (Stake stake : stakes) {
+					trail.sortRemoveStake(stake, null);
+				}
 			}
 			disposeWhenDying = true;
 		}
 
+		private void unAddAll() {
+			if ((after != null) && (trail.stakes == after)) {
+				trail.stakes = before;
+			} else {
+				for (Stake stake : stakes) {
+					trail.sortRemoveStake(stake, null);
+				}
+			}
+			disposeWhenDying = true;
+		}
+
+		private void unRemoveAll() {
+			if ((after != null) && (trail.stakes == after)) {
+				trail.stakes = before;
+			} else {
+				for (Stake stake : stakes) {
+					trail.sortAddStake(stake, null);
+				}
+			}
+			disposeWhenDying = false;
+		}
+
+		private void shift() {
+			if ((before != null) && (trail.stakes == before)) {
+				trail.stakes = after;
+			} else if ((after == null) || (trail.stakes != after)) {
+				trail.stakes = trail.stakes.shift(shiftPos, shiftEmpty, shiftDelta);
+			}
+		}
+
+		// note: when falling back to the inverse shift, empty stakes which were
+		// not shifted but end up at the shifted position cannot be told apart
+		private void unShift() {
+			if ((after != null) && (trail.stakes == after)) {
+				trail.stakes = before;
+			} else {
+				trail.stakes = trail.stakes.shift(shiftPos + shiftDelta, shiftEmpty, -shiftDelta);
+			}
+		}
+
 		private void disposeAll() {
 			for (Stake stake : stakes) {
-				stake.dispose();
+				StakeTree.dispose(stake);
 			}
 		}
 
@@ -1325,10 +1410,13 @@ if( DEBUG ) {
 
 			switch (cmd) {
 				case EDIT_ADD:
-					removeAll();
+					unAddAll();
 					break;
 				case EDIT_REMOVE:
-					addAll();
+					unRemoveAll();
+					break;
+				case EDIT_SHIFT:
+					unShift();
 					break;
 				case EDIT_DISPATCH:
 					trail.dispatchModification(trail, span);
@@ -1351,6 +1439,9 @@ if( DEBUG ) {
 				case EDIT_REMOVE:
 					removeAll();
 					break;
+				case EDIT_SHIFT:
+					shift();
+					break;
 				case EDIT_DISPATCH:
 					trail.dispatchModification(trail, span);
 					break;
@@ -1386,12 +1477,20 @@ if( DEBUG ) {
 
 			final Edit old = (Edit) anEdit;
 
-			if ((old.trail == this.trail) && (old.cmd == this.cmd)) {
+			if ((old.trail == this.trail) && (old.cmd == this.cmd) && (cmd != EDIT_SHIFT)) {
 				switch (cmd) {
 					case EDIT_ADD:
 					case EDIT_REMOVE:
 						this.stakes.addAll(old.stakes);
 						this.span = this.span.union(old.span);
+						if ((this.after != null) && (this.after == old.before)) {
+							this.after	= old.after;
+						} else if ((old.after != null) && (old.after == this.before)) {
+							this.before	= old.before;
+						} else {
+							this.before	= null;	// can't swap states any more
+							this.after	= null;
+						}
 						break;
 					case EDIT_DISPATCH:
 						this.span = this.span.union(old.span);
@@ -0,0 +1,590 @@
+/*
+ *  StakeTree.java
+ *  de.sciss.timebased package
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.timebased;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import de.sciss.io.Span;
+
+/**
+ *	An immutable sorted collection of stakes, used by <code>BasicTrail</code>
+ *	to store its stakes both in start and in stop order.
+ *	The collection consists of two balanced (AVL) interval trees, one ordered by
+ *	stake start and augmented with the maximum stop of each subtree, one ordered
+ *	by stake stop and augmented with the minimum start of each subtree. Both are
+ *	also augmented with the subtree size, so they can be accessed by index.
+ *	A range query visits <code>O(log n + k)</code> nodes where <code>k</code> is the number
+ *	of stakes reported, indexed access and updates cost <code>O(log n)</code>.
+ *	<p>
+ *	Updates never modify existing nodes but copy the path from the root
+ *	to the changed node, so an edit copy of the collection is simply a reference
+ *	to the current instance, and undoing an edit means going back to
+ *	a previous instance.
+ *	<p>
+ *	Positions are stored relative to the parent node, so shifting all stakes
+ *	after a given position (as needed for ripple inserts and removals) touches
+ *	only <code>O(log n)</code> nodes. The shifted stake objects are created lazily
+ *	via <code>Stake.shiftVirtual</code> when they are actually requested. They are
+ *	views of the node's stake: as long as a shifted stake is referenced, retrieving
+ *	the stake at the same position again yields the identical object, and disposing
+ *	it through <code>dispose(Stake)</code> disposes the node's stake.
+ */
+final class StakeTree {
+	private final Trail	owner;
+	private final Node	rootByStart;
+	private final Node	rootByStop;
+
+	/**
+	 *	Creates an empty collection.
+	 *
+	 *	@param	owner	the trail which is set for stakes created by virtual shifts
+	 */
+	StakeTree(Trail owner) {
+		this(owner, null, null);
+	}
+
+	private StakeTree(Trail owner, Node rootByStart, Node rootByStop) {
+		this.owner			= owner;
+		this.rootByStart	= rootByStart;
+		this.rootByStop		= rootByStop;
+	}
+
+	public boolean isEmpty() {
+		return rootByStart == null;
+	}
+
+	public int size() {
+		return size(rootByStart);
+	}
+
+	public Stake get(int idx, boolean byStart) {
+		return select(byStart ? rootByStart : rootByStop, idx);
+	}
+
+	/**
+	 *	Looks up a stake (using object equality).
+	 *
+	 *	@return	the stake's index, or <code>(-(insertion point) - 1)</code>
+	 *			if the stake is not part of the collection
+	 */
+	public int indexOf(Stake stake, boolean byStart) {
+		final int idx = rank(byStart ? rootByStart : rootByStop, stake, 0L, byStart);
+		if (idx >= 0) return idx;
+
+		final int ins = indexOf(key(stake, byStart), byStart);
+		return ins < 0 ? ins : -(ins + 1);
+	}
+
+	/**
+	 *	Looks up a position, with the same result
+	 *	semantics as <code>Collections.binarySearch</code>.
+	 *
+	 *	@return	the index of a stake starting (<code>byStart == true</code>) or stopping
+	 *			(<code>byStart == false</code>) at the position, or
+	 *			<code>(-(insertion point) - 1)</code>
+	 */
+	public int indexOf(long pos, boolean byStart) {
+		Node	n		= byStart ? rootByStart : rootByStop;
+		long	base	= 0L;
+		boolean	found	= false;
+		int		idx		= 0;
+
+		while (n != null) {
+			base += n.off;
+			final long k = key(n.stake, byStart) + base + n.stakeOff;
+			if (k < pos) {
+				idx += size(n.left) + 1;
+				n = n.right;
+			} else {
+				found = k == pos;	// the last node we turn left at is the successor
+				n = n.left;
+			}
+		}
+		return found ? idx : -(idx + 1);
+	}
+
+	/**
+	 *	Returns an unmodifiable list view of this collection. Since the collection
+	 *	is immutable, the view is a consistent snapshot. Random access costs <code>O(log n)</code>.
+	 */
+	public List<Stake> asList(boolean byStart) {
+		return new View(byStart ? rootByStart : rootByStop);
+	}
+
+	/**
+	 *	Returns a new list with all stakes, in <code>O(n)</code>.
+	 */
+	public List<Stake> toList(boolean byStart) {
+		final List<Stake> result = new ArrayList<Stake>(size());
+		collect(byStart ? rootByStart : rootByStop, 0L, result);
+		return result;
+	}
+
+	public StakeTree add(Stake stake) {
+		final Memo memo = new Memo();
+		return new StakeTree(owner, insert(rootByStart, stake, memo, 0L, true),
+									insert(rootByStop , stake, memo, 0L, false));
+	}
+
+	public StakeTree addAll(List<Stake> stakes) {
+		Node nStart	= rootByStart;
+		Node nStop	= rootByStop;
+		for (Stake stake : stakes) {
+			final Memo memo = new Memo();
+			nStart	= insert(nStart, stake, memo, 0L, true);
+			nStop	= insert(nStop , stake, memo, 0L, false);
+		}
+		return new StakeTree(owner, nStart, nStop);
+	}
+
+	/**
+	 *	Removes a stake, looking for object equality.
+	 *	Returns this instance if the stake was not part of the index.
+	 */
+	public StakeTree remove(Stake stake) {
+		final Node nStart = delete(rootByStart, stake, 0L, true);
+		if (nStart == rootByStart) return this;
+		return new StakeTree(owner, nStart, delete(rootByStop, stake, 0L, false));
+	}
+
+	/**
+	 *	Shifts all stakes which start at or after a given position, in <code>O(log n)</code>.
+	 *	No stake may cross the position, i.e. start before and stop after it. For a
+	 *	negative <code>delta</code>, no stake may start in <code>[pos + delta, pos)</code>
+	 *	(except empty stakes at <code>pos + delta</code>), otherwise the sort order is violated.
+	 *
+	 *	@param	pos				the position from which on stakes are shifted
+	 *	@param	includeEmpty	whether empty stakes located exactly at <code>pos</code> are shifted
+	 *	@param	delta			the amount of shifting
+	 */
+	public StakeTree shift(long pos, boolean includeEmpty, long delta) {
+		if ((delta == 0) || isEmpty()) return this;
+
+		// thresholds for the (primary, secondary) keys
+		final Node nStart, nStop;
+		if (includeEmpty) {
+			nStart	= shift(rootByStart, pos, Long.MIN_VALUE, delta, 0L, true);
+			nStop	= shift(rootByStop , pos, pos, delta, 0L, false);
+		} else {
+			nStart	= shift(rootByStart, pos, pos + 1, delta, 0L, true);
+			nStop	= shift(rootByStop , pos + 1, Long.MIN_VALUE, delta, 0L, false);
+		}
+		return new StakeTree(owner, nStart, nStop);
+	}
+
+	/**
+	 *	Collects stakes that intersect OR TOUCH the span, i.e.
+	 *	<code>stake.start &lt;= span.stop &amp;&amp; stake.stop &gt;= span.start</code>.
+	 *
+	 *	@param	span	the span to query
+	 *	@param	byStart	if <code>true</code>, the result is sorted by stake start,
+	 *					otherwise it is sorted by stake stop
+	 *	@param	result	the list to which the stakes are appended
+	 */
+	public void getRange(Span span, boolean byStart, List<Stake> result) {
+		if (byStart) {
+			rangeByStart(rootByStart, span.start, span.stop, 0L, result);
+		} else {
+			rangeByStop (rootByStop , span.start, span.stop, 0L, result);
+		}
+	}
+
+	// ---------------- range queries ----------------
+
+	// `base` is the absolute offset of the parent's frame
+	private void rangeByStart(Node n, long start, long stop, long base, List<Stake> result) {
+		while ((n != null) && (n.maxStop + n.off + base >= start)) {
+			base += n.off;
+			rangeByStart(n.left, start, stop, base, result);
+			final Span span		= n.stake.getSpan();
+			final long shift	= base + n.stakeOff;
+			if (span.start + shift > stop) return;	// everything right of here starts even later
+			if (span.stop + shift >= start) result.add(n.memo.get(n.stake, shift, owner));
+			n = n.right;
+		}
+	}
+
+	private void rangeByStop(Node n, long start, long stop, long base, List<Stake> result) {
+		while ((n != null) && (n.minStart + n.off + base <= stop)) {
+			base += n.off;
+			final Span span		= n.stake.getSpan();
+			final long shift	= base + n.stakeOff;
+			if (span.stop + shift >= start) {	// otherwise everything left of here stops even earlier
+				rangeByStop(n.left, start, stop, base, result);
+				if (span.start + shift <= stop) result.add(n.memo.get(n.stake, shift, owner));
+			}
+			n = n.right;
+		}
+	}
+
+	// ---------------- indexed access ----------------
+
+	private static long key(Stake stake, boolean byStart) {
+		return byStart ? stake.getSpan().start : stake.getSpan().stop;
+	}
+
+	// returns -1 if the stake is not found
+	private static int rank(Node n, Stake stake, long base, boolean byStart) {
+		if (n == null) return -1;
+
+		base += n.off;
+		final long	shift	= base + n.stakeOff;
+		final int	cmp		= compare(stake, 0L, n.stake, shift, byStart);
+		final int	idx;
+
+		if (cmp < 0) return rank(n.left, stake, base, byStart);
+		if (cmp > 0) {
+			idx = rank(n.right, stake, base, byStart);
+			return idx < 0 ? -1 : size(n.left) + 1 + idx;
+		}
+		if (n.memo.contains(n.stake, shift, stake)) return size(n.left);
+
+		// stakes with equal keys can reside on either side
+		idx = rank(n.left, stake, base, byStart);
+		if (idx >= 0) return idx;
+		final int idx2 = rank(n.right, stake, base, byStart);
+		return idx2 < 0 ? -1 : size(n.left) + 1 + idx2;
+	}
+
+	private Stake select(Node n, int idx) {
+		if ((idx < 0) || (idx >= size(n))) throw new IndexOutOfBoundsException(String.valueOf(idx));
+
+		long base = 0L;
+		while (true) {
+			base += n.off;
+			final int sl = size(n.left);
+			if (idx < sl) {
+				n = n.left;
+			} else if (idx > sl) {
+				idx -= sl + 1;
+				n = n.right;
+			} else {
+				return n.memo.get(n.stake, base + n.stakeOff, owner);
+			}
+		}
+	}
+
+	private void collect(Node n, long base, List<Stake> result) {
+		while (n != null) {
+			base += n.off;
+			collect(n.left, base, result);
+			result.add(n.memo.get(n.stake, base + n.stakeOff, owner));
+			n = n.right;
+		}
+	}
+
+	// ---------------- AVL maintenance ----------------
+
+	// compares two stakes, each virtually shifted by the given amount
+	private static int compare(Stake a, long shiftA, Stake b, long shiftB, boolean byStart) {
+		final Span sa = a.getSpan();
+		final Span sb = b.getSpan();
+		final long a1, a2, b1, b2;
+
+		if (byStart) {
+			a1 = sa.start + shiftA; a2 = sa.stop  + shiftA;
+			b1 = sb.start + shiftB; b2 = sb.stop  + shiftB;
+		} else {
+			a1 = sa.stop  + shiftA; a2 = sa.start + shiftA;
+			b1 = sb.stop  + shiftB; b2 = sb.start + shiftB;
+		}
+		return a1 < b1 ? -1 : (a1 > b1 ? 1 : (a2 < b2 ? -1 : (a2 > b2 ? 1 : 0)));
+	}
+
+	// equal keys are inserted to the right, thus preserving the insertion order.
+	// the result is expressed in the same frame as `n`
+	private static Node insert(Node n, Stake stake, Memo memo, long base, boolean byStart) {
+		if (n == null) return new Node(stake, memo, -base, null, null, 0L);
+
+		final long d = n.off;
+		if (compare(stake, 0L, n.stake, base + d + n.stakeOff, byStart) < 0) {
+			return balance(n.stake, n.memo, n.stakeOff + d,
+					rebase(insert(n.left, stake, memo, base + d, byStart), d), rebase(n.right, d));
+		} else {
+			return balance(n.stake, n.memo, n.stakeOff + d,
+					rebase(n.left, d), rebase(insert(n.right, stake, memo, base + d, byStart), d));
+		}
+	}
+
+	// returns the identical node if the stake was not found
+	private static Node delete(Node n, Stake stake, long base, boolean byStart) {
+		if (n == null) return null;
+
+		final long	d		= n.off;
+		final long	shift	= base + d + n.stakeOff;
+		final int	cmp		= compare(stake, 0L, n.stake, shift, byStart);
+		final Node	left, right;
+
+		if (cmp < 0) {
+			left = delete(n.left, stake, base + d, byStart);
+			if (left == n.left) return n;
+			return balance(n.stake, n.memo, n.stakeOff + d, rebase(left, d), rebase(n.right, d));
+		}
+		if (cmp > 0) {
+			right = delete(n.right, stake, base + d, byStart);
+			if (right == n.right) return n;
+			return balance(n.stake, n.memo, n.stakeOff + d, rebase(n.left, d), rebase(right, d));
+		}
+		if (n.memo.contains(n.stake, shift, stake)) {
+			if (n.left  == null) return rebase(n.right, d);
+			if (n.right == null) return rebase(n.left , d);
+			Node min	= n.right;
+			long minOff	= min.off;
+			while (min.left != null) {
+				min		 = min.left;
+				minOff	+= min.off;
+			}
+			return balance(min.stake, min.memo, min.stakeOff + minOff + d,
+					rebase(n.left, d), rebase(deleteMin(n.right), d));
+		}
+		// stakes with equal keys can reside on either side
+		left = delete(n.left, stake, base + d, byStart);
+		if (left != n.left) {
+			return balance(n.stake, n.memo, n.stakeOff + d, rebase(left, d), rebase(n.right, d));
+		}
+		right = delete(n.right, stake, base + d, byStart);
+		if (right != n.right) {
+			return balance(n.stake, n.memo, n.stakeOff + d, rebase(n.left, d), rebase(right, d));
+		}
+		return n;
+	}
+
+	private static Node deleteMin(Node n) {
+		final long d = n.off;
+		if (n.left == null) return rebase(n.right, d);
+		return balance(n.stake, n.memo, n.stakeOff + d, rebase(deleteMin(n.left), d), rebase(n.right, d));
+	}
+
+	// shifts all nodes whose keys are greater than or equal to (t1, t2). heights don't change
+	private static Node shift(Node n, long t1, long t2, long delta, long base, boolean byStart) {
+		if (n == null) return null;
+
+		final long	d		= n.off;
+		final long	so		= n.stakeOff + d;
+		final Span	span	= n.stake.getSpan();
+		final long	k1		= (byStart ? span.start : span.stop ) + base + so;
+		final long	k2		= (byStart ? span.stop  : span.start) + base + so;
+
+		if ((k1 > t1) || ((k1 == t1) && (k2 >= t2))) {
+			return new Node(n.stake, n.memo, so + delta,
+					rebase(shift(n.left, t1, t2, delta, base + d, byStart), d), rebase(n.right, d + delta), 0L);
+		} else {
+			return new Node(n.stake, n.memo, so,
+					rebase(n.left, d), rebase(shift(n.right, t1, t2, delta, base + d, byStart), d), 0L);
+		}
+	}
+
+	private static int height(Node n) {
+		return n == null ? 0 : n.height;
+	}
+
+	private static int size(Node n) {
+		return n == null ? 0 : n.size;
+	}
+
+	// moves a node into a frame which is offset by -d, i.e. adds d to all its positions
+	private static Node rebase(Node n, long d) {
+		if ((n == null) || (d == 0L)) return n;
+		return new Node(n.stake, n.memo, n.stakeOff, n.left, n.right, n.off + d);
+	}
+
+	// brings the children into the same frame as the node itself
+	private static Node norm(Node n) {
+		final long d = n.off;
+		if (d == 0L) return n;
+		return new Node(n.stake, n.memo, n.stakeOff + d, rebase(n.left, d), rebase(n.right, d), 0L);
+	}
+
+	// all arguments are given in the same frame
+	private static Node balance(Stake stake, Memo memo, long stakeOff, Node left, Node right) {
+		final int hl = height(left);
+		final int hr = height(right);
+
+		if (hl > hr + 1) {
+			final Node l = norm(left);
+			if (height(l.left) >= height(l.right)) {
+				return new Node(l.stake, l.memo, l.stakeOff, l.left,
+						new Node(stake, memo, stakeOff, l.right, right, 0L), 0L);
+			} else {
+				final Node lr = norm(l.right);
+				return new Node(lr.stake, lr.memo, lr.stakeOff,
+						new Node(l.stake, l.memo, l.stakeOff, l.left, lr.left, 0L),
+						new Node(stake, memo, stakeOff, lr.right, right, 0L), 0L);
+			}
+		}
+		if (hr > hl + 1) {
+			final Node r = norm(right);
+			if (height(r.right) >= height(r.left)) {
+				return new Node(r.stake, r.memo, r.stakeOff,
+						new Node(stake, memo, stakeOff, left, r.left, 0L), r.right, 0L);
+			} else {
+				final Node rl = norm(r.left);
+				return new Node(rl.stake, rl.memo, rl.stakeOff,
+						new Node(stake, memo, stakeOff, left, rl.left, 0L),
+						new Node(r.stake, r.memo, r.stakeOff, rl.right, r.right, 0L), 0L);
+			}
+		}
+		return new Node(stake, memo, stakeOff, left, right, 0L);
+	}
+
+	private static final class Node {
+		final Stake	stake;		// the stake as added, i.e. not yet shifted by stakeOff
+		final Memo	memo;		// shared by all copies of the node
+		final long	stakeOff;	// shift of the stake within this node's frame
+		final long	off;		// offset of this node's frame relative to the parent's frame
+		final Node	left;		// children are relative to this node's frame
+		final Node	right;
+		final int	height;
+		final int	size;
+		final long	maxStop;	// maximum stop in this subtree, within this node's frame
+		final long	minStart;	// minimum start in this subtree, within this node's frame
+
+		Node(Stake stake, Memo memo, long stakeOff, Node left, Node right, long off) {
+			final Span span = stake.getSpan();
+			long maxStop	= span.stop  + stakeOff;
+			long minStart	= span.start + stakeOff;
+
+			if (left != null) {
+				maxStop		= Math.max(maxStop , left.maxStop  + left.off);
+				minStart	= Math.min(minStart, left.minStart + left.off);
+			}
+			if (right != null) {
+				maxStop		= Math.max(maxStop , right.maxStop  + right.off);
+				minStart	= Math.min(minStart, right.minStart + right.off);
+			}
+
+			this.stake		= stake;
+			this.memo		= memo;
+			this.stakeOff	= stakeOff;
+			this.off		= off;
+			this.left		= left;
+			this.right		= right;
+			this.height		= Math.max(height(left), height(right)) + 1;
+			this.size		= size(left) + size(right) + 1;
+			this.maxStop	= maxStop;
+			this.minStart	= minStart;
+		}
+	}
+
+	/**
+	 *	Disposes a stake which was removed from the collection. If the stake
+	 *	is a view created by a virtual shift, the node's stake owning the
+	 *	resources is disposed as well.
+	 */
+	static void dispose(Stake stake) {
+		stake.dispose();
+		if (stake instanceof BasicStake) {
+			final Stake origin = ((BasicStake) stake).getOrigin();
+			if (origin != null) origin.dispose();
+		}
+	}
+
+	// the stake that owns the resources of a node's stake
+	private static Stake origin(Stake stake) {
+		if (stake instanceof BasicStake) {
+			final Stake origin = ((BasicStake) stake).getOrigin();
+			if (origin != null) return origin;
+		}
+		return stake;
+	}
+
+	// remembers the stakes created by shifting a node's stake, so that
+	// the same absolute shift yields the identical stake object as long as that
+	// object is referenced anywhere, e.g. by an edit in the undo history.
+	// the entries are weak: a shifted stake which is no longer referenced
+	// cannot be asked for by identity, so it is dropped and created anew when
+	// needed. shifted stakes are views that have released their claims on
+	// shared resources (see BasicStake.setOrigin), so dropping them leaks nothing
+	private static final class Memo {
+		private long[]					shifts	= null;
+		private WeakReference<?>[]		refs	= null;
+		private int						num		= 0;
+
+		Memo() { /* empty */ }
+
+		synchronized Stake get(Stake stake, long shift, Trail owner) {
+			if (shift == 0L) return stake;
+
+			final Stake found = find(shift);
+			if (found != null) return found;
+
+			if (shifts == null) {
+				shifts	= new long[2];
+				refs	= new WeakReference<?>[2];
+			} else if (num == shifts.length) {
+				final long[]			newShifts	= new long[num << 1];
+				final WeakReference<?>[]	newRefs		= new WeakReference<?>[num << 1];
+				System.arraycopy(shifts, 0, newShifts, 0, num);
+				System.arraycopy(refs  , 0, newRefs  , 0, num);
+				shifts	= newShifts;
+				refs	= newRefs;
+			}
+			final Stake shifted = stake.shiftVirtual(shift);
+			shifted.setTrail(owner);
+			if (shifted instanceof BasicStake) ((BasicStake) shifted).setOrigin(origin(stake));
+			shifts[num]	= shift;
+			refs[num]	= new WeakReference<Stake>(shifted);
+			num++;
+			return shifted;
+		}
+
+		// whether `other` is the stake shifted by the given amount (without creating it)
+		synchronized boolean contains(Stake stake, long shift, Stake other) {
+			if (shift == 0L) return stake.equals(other);
+
+			final Stake found = find(shift);
+			return (found != null) && found.equals(other);
+		}
+
+		// looks up a shifted stake, removing the entries of stakes that were collected
+		private Stake find(long shift) {
+			Stake result = null;
+			int j = 0;
+			for (int i = 0; i < num; i++) {
+				final Stake s = (Stake) refs[i].get();
+				if (s == null) continue;
+				if (shifts[i] == shift) result = s;
+				shifts[j]	= shifts[i];
+				refs[j]		= refs[i];
+				j++;
+			}
+			for (int i = j; i < num; i++) refs[i] = null;
+			num = j;
+			return result;
+		}
+	}
+
+	private final class View
+			extends AbstractList<Stake>
+			implements RandomAccess {
+
+		private final Node root;
+
+		View(Node root) {
+			this.root = root;
+		}
+
+		public Stake get(int idx) {
+			return select(root, idx);
+		}
+
+		public int size() {
+			return StakeTree.size(root);
+		}
+	}
+}
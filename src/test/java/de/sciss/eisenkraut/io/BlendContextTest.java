@@ -0,0 +1,126 @@
+/*
+ *  BlendContextTest.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.io;
+
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.Point2D;
+
+import org.junit.Test;
+
+/**
+ *	Verifies the tabulated gains of <code>BlendContext</code> against
+ *	the exact fade curve. The control points are swept across a grid
+ *	of the unit square, which includes the shapes with vertical and
+ *	horizontal tangents at the ends. For each shape and blend length,
+ *	the gains of <code>fadeIn</code>, <code>fadeOut</code> and
+ *	<code>blend</code> are compared with the curve evaluated in double
+ *	precision, where the curve parameter is found by bisection instead
+ *	of the cubic solver. Blends not longer than the table are checked
+ *	frame by frame, longer ones at a stride that does not divide the
+ *	table intervals. The maximum deviation must not exceed
+ *	<code>MAX_DEVIATION</code>.
+ */
+public class BlendContextTest
+{
+	private static final double[]	GRID			= { 0.0, 0.25, 0.5, 0.75, 1.0 };
+	// one table entry per frame; interpolated; interpolated and long
+	private static final long[]		LENGTHS			= { 1000, 44100, 441000 };
+	private static final int		MAX_CHECKED		= 20000;	// per shape and length
+	private static final double		MAX_DEVIATION	= 2.0e-5;
+
+	@Test
+	public void gainsFollowCurve()
+	{
+		final float[][]	ones		= new float[][] {{ 1.0f }};
+		final float[][]	quarter		= new float[][] {{ 0.25f }};
+		final float[][]	gainIn		= new float[ 1 ][ 1 ];
+		final float[][]	gainOut		= new float[ 1 ][ 1 ];
+		final float[][]	mix			= new float[ 1 ][ 1 ];
+		final double[]	exact		= new double[ 2 ];
+		double			maxDev		= 0.0;
+		String			worst		= null;
+		int				numShapes	= 0;
+
+		for( double x1 : GRID ) {
+			for( double y1 : GRID ) {
+				for( double x2 : GRID ) {
+					for( double y2 : GRID ) {
+						final Point2D[] ctrlPt = new Point2D[] {
+							new Point2D.Double( x1, y1 ), new Point2D.Double( x2, y2 )};
+						numShapes++;
+						for( long len : LENGTHS ) {
+							final BlendContext	bc		= new BlendContext( len, 0, ctrlPt );
+							// odd stride, so the checked frames sample all positions inside the intervals
+							final long			stride	= Math.max( 1, len / MAX_CHECKED ) | 1;
+							double				tMin	= 0.0;
+
+							for( long pos = 0; pos < len; pos += stride ) {
+								bc.fadeIn( pos, ones, 0, gainIn, 0, 1 );
+								bc.fadeOut( pos, ones, 0, gainOut, 0, 1 );
+								// A (0.25) fading out, B (1.0) fading in
+								bc.blend( pos, quarter, 0, ones, 0, mix, 0, 1 );
+								tMin = curve( ctrlPt, (double) pos / len, tMin, exact );
+								final double dev = Math.max( Math.max(
+									Math.abs( gainIn[ 0 ][ 0 ] - exact[ 0 ]),
+									Math.abs( gainOut[ 0 ][ 0 ] - exact[ 1 ])),
+									Math.abs( mix[ 0 ][ 0 ] - (exact[ 0 ] + 0.25 * exact[ 1 ])));
+								if( dev > maxDev ) {
+									maxDev	= dev;
+									worst	= "ctrl (" + x1 + ", " + y1 + ") (" + x2 + ", " + y2 + "), length " +
+											  len + ", frame " + pos;
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+
+		assertTrue( numShapes + " shapes; deviation " + (float) maxDev + " at " + worst + " exceeds " + MAX_DEVIATION,
+					maxDev <= MAX_DEVIATION );
+	}
+
+	/*
+	 *	Evaluates the fade-in and fade-out gain at a position x (0 ... 1)
+	 *	and stores them in exact. The curve's x is not decreasing in t for
+	 *	control points inside the unit square, so t is found by bisection,
+	 *	starting at the parameter of a previous, smaller position, which
+	 *	is returned.
+	 */
+	private static double curve( Point2D[] ctrlPt, double x, double tMin, double[] exact )
+	{
+		final double	x1	= ctrlPt[ 0 ].getX();
+		final double	x2	= ctrlPt[ 1 ].getX();
+		double			lo	= tMin;
+		double			hi	= 1.0;
+		double			t, u;
+
+		for( int i = 0; i < 60; i++ ) {
+			t	= (lo + hi) * 0.5;
+			u	= 1.0 - t;
+			if( 3 * u * u * t * x1 + 3 * u * t * t * x2 + t * t * t < x ) {
+				lo = t;
+			} else {
+				hi = t;
+			}
+		}
+		t	= (lo + hi) * 0.5;
+		u	= 1.0 - t;
+		// fade-in from 0 to 1 with the control points' y swapped, fade-out from 1 to 0
+		exact[ 0 ]	= 3 * u * u * t * ctrlPt[ 1 ].getY() + 3 * u * t * t * ctrlPt[ 0 ].getY() + t * t * t;
+		exact[ 1 ]	= u * u * u + 3 * u * u * t * ctrlPt[ 0 ].getY() + 3 * u * t * t * ctrlPt[ 1 ].getY();
+		return lo;
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ *  OverviewBenchmark.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.io;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.sciss.io.AudioFile;
+import de.sciss.io.Span;
+
+/**
+ *  Measures how long <code>DecimatedWaveTrail</code> takes to build
+ *  the waveform overview of a five minute stereo file of noise, once
+ *  serially, as done when stakes are added to the full rate trail, and
+ *  once in parallel blocks on the decimation pool, as done when a document
+ *  is opened without an overview cache. The file is read from the page
+ *  cache after warm-up. <code>OverviewTest</code> checks that both
+ *  overviews are the same.
+ *  <p>
+ *  Run with <code>sbt "test:runMain de.sciss.eisenkraut.io.OverviewBenchmark"</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OverviewBenchmark {
+
+    private static final long NUM_FRAMES = (long) (OverviewTest.RATE * 60 * 5);
+
+    private AudioFile   af;
+    private Span        span;
+
+    public static void main(String[] args)
+            throws RunnerException {
+
+        new Runner(new OptionsBuilder().include(OverviewBenchmark.class.getName()).build()).run();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp()
+            throws IOException {
+
+        af      = OverviewTest.createFile(NUM_FRAMES);
+        span    = new Span(0, af.getFrameNum());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        OverviewTest.deleteFile(af);
+    }
+
+    // the overview is calculated while the stake is added
+    @Benchmark
+    public void serial()
+            throws IOException {
+
+        final AudioTrail            at  = AudioTrail.newFrom(af.getDescr());
+        final DecimatedWaveTrail    dt  = new DecimatedWaveTrail(at, OverviewTest.MODEL, OverviewTest.DECIMATIONS);
+        try {
+            at.add(null, new InterleavedAudioStake(span, af, span));
+        } finally {
+            dt.dispose();
+            at.dispose();
+        }
+    }
+
+    // the overview is calculated for the populated trail
+    @Benchmark
+    public void parallel()
+            throws IOException, InterruptedException {
+
+        final AudioTrail at = AudioTrail.newFrom(af.getDescr());
+        at.add(null, new InterleavedAudioStake(span, af, span));
+        final DecimatedWaveTrail dt = new DecimatedWaveTrail(at, OverviewTest.MODEL, OverviewTest.DECIMATIONS);
+        try {
+            dt.awaitCompletion();
+        } finally {
+            dt.dispose();
+            at.dispose();
+        }
+    }
+}
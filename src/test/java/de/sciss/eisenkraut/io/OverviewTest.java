@@ -0,0 +1,144 @@
+/*
+ *  OverviewTest.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.sciss.io.AudioFile;
+import de.sciss.io.AudioFileDescr;
+import de.sciss.io.IOUtil;
+import de.sciss.io.Span;
+
+/**
+ *  Checks that <code>DecimatedWaveTrail</code> builds the same waveform
+ *  overview serially, as done when stakes are added to the full rate trail,
+ *  and in parallel blocks on the decimation pool, as done when a document
+ *  is opened without an overview cache. Both overviews of a temporary
+ *  stereo file of noise are compared at evenly spaced positions of each
+ *  decimation.
+ */
+public class OverviewTest {
+
+    static final int    NUM_CHANNELS    = 2;
+    static final double RATE            = 44100.0;
+    // like the waveform overview of a document, see Session
+    static final int[]  DECIMATIONS     = { 8, 12, 16 };
+    static final int    MODEL           = DecimatedTrail.MODEL_FULLWAVE_PEAKRMS;
+
+    private static final long   NUM_FRAMES      = (long) (RATE * 30);
+    private static final int    NUM_COMPARE     = 1000;
+
+    private AudioFile af;
+
+    @Before
+    public void setUp()
+            throws IOException {
+
+        af = createFile(NUM_FRAMES);
+    }
+
+    @After
+    public void tearDown() {
+        deleteFile(af);
+    }
+
+    @Test
+    public void parallelBuildMatchesSerial()
+            throws IOException, InterruptedException {
+
+        final Span          span        = new Span(0, af.getFrameNum());
+        final AudioTrail    serialAT    = AudioTrail.newFrom(af.getDescr());
+        final AudioTrail    parAT       = AudioTrail.newFrom(af.getDescr());
+        DecimatedWaveTrail  serial      = null, par = null;
+
+        try {
+            serial = new DecimatedWaveTrail(serialAT, MODEL, DECIMATIONS);
+            serialAT.add(null, new InterleavedAudioStake(span, af, span));
+            parAT.add(null, new InterleavedAudioStake(span, af, span));
+            par = new DecimatedWaveTrail(parAT, MODEL, DECIMATIONS);
+            par.awaitCompletion();
+
+            final int       modelChannels   = serial.getNumModelChannels();
+            final float[]   dataSerial      = new float[modelChannels];
+            final float[]   dataPar         = new float[modelChannels];
+            final long      step            = Math.max(1, span.getLength() / NUM_COMPARE);
+
+            for (int sub = 0; sub < DECIMATIONS.length; sub++) {
+                for (int i = 0; i < NUM_COMPARE; i++) {
+                    final long pos = span.start + i * step;
+                    for (int ch = 0; ch < NUM_CHANNELS; ch++) {
+                        final String what = "decimation " + sub + ", frame " + pos + ", channel " + ch;
+                        assertEquals(what, serial.readFrame(sub, pos, ch, dataSerial),
+                                par.readFrame(sub, pos, ch, dataPar));
+                        assertArrayEquals(what, dataSerial, dataPar, 0.0f);
+                    }
+                }
+            }
+        } finally {
+            if (serial != null) serial.dispose();
+            if (par    != null) par.dispose();
+            serialAT.dispose();
+            parAT.dispose();
+        }
+    }
+
+    /**
+     *  Writes a temporary 32-bit float stereo file of noise
+     *  and opens it for reading.
+     */
+    static AudioFile createFile(long numFrames)
+            throws IOException {
+
+        final AudioFileDescr afd = new AudioFileDescr();
+        afd.type            = AudioFileDescr.TYPE_WAVE64;
+        afd.channels        = NUM_CHANNELS;
+        afd.rate            = RATE;
+        afd.bitsPerSample   = 32;
+        afd.sampleFormat    = AudioFileDescr.FORMAT_FLOAT;
+        afd.file            = IOUtil.createTempFile();
+
+        final AudioFile afw = AudioFile.openAsWrite(afd);
+        try {
+            final Random    rnd = new Random(0L);
+            final float[][] buf = new float[NUM_CHANNELS][8192];
+            for (long pos = 0; pos < numFrames; ) {
+                final int len = (int) Math.min(8192, numFrames - pos);
+                for (float[] chBuf : buf) {
+                    for (int i = 0; i < len; i++) chBuf[i] = rnd.nextFloat() * 2 - 1;
+                }
+                afw.writeFrames(buf, 0, len);
+                pos += len;
+            }
+        } finally {
+            afw.close();
+        }
+        return AudioFile.openAsRead(afd.file);
+    }
+
+    static void deleteFile(AudioFile af) {
+        if (af == null) return;
+        af.cleanUp();
+        final File f = af.getFile();
+        if (!f.delete()) f.deleteOnExit();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *  TakeDisposalTest.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.io;
+
+import java.io.File;
+import java.io.IOException;
+import javax.swing.undo.UndoManager;
+
+import org.junit.Test;
+
+import de.sciss.app.AbstractCompoundEdit;
+import de.sciss.eisenkraut.edit.BasicCompoundEdit;
+import de.sciss.io.AudioFile;
+import de.sciss.io.AudioFileDescr;
+import de.sciss.io.IOUtil;
+import de.sciss.io.Span;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *  Verifies that a take adopted by an audio trail (see
+ *  <code>AudioTrail.adoptTake</code>) is deleted once no stake of
+ *  the trail or of the undo history reads it any more. A take is
+ *  adopted, shifted by a ripple insert and read through the shifted
+ *  stake; after trimming the undo history the file must still exist.
+ *  Then the take is split by another insert and ripple removed, and
+ *  after trimming the undo history again the file must be gone,
+ *  without disposing the trail.
+ */
+public class TakeDisposalTest {
+
+    private static final int    NUM_FRAMES  = 4096;
+    private static final long   SHIFT       = 1000;
+
+    @Test
+    public void takeDeletedWhenUnused()
+            throws IOException {
+
+        final AudioFileDescr afd = new AudioFileDescr();
+        afd.type            = AudioFileDescr.TYPE_AIFF;
+        afd.channels        = 1;
+        afd.rate            = 44100.0;
+        afd.bitsPerSample   = 32;
+        afd.sampleFormat    = AudioFileDescr.FORMAT_FLOAT;
+        afd.file            = IOUtil.createTempFile("eis", ".aif");
+
+        final File      f       = afd.file;
+        final AudioFile afw     = AudioFile.openAsWrite(afd);
+        final float[][] buf     = new float[1][NUM_FRAMES];
+        for (int i = 0; i < NUM_FRAMES; i++) buf[0][i] = (float) i / NUM_FRAMES;
+        try {
+            afw.writeFrames(buf, 0, NUM_FRAMES);
+        } finally {
+            afw.close();
+        }
+
+        final AudioFile     af      = AudioFile.openAsRead(f);
+        final AudioTrail    trail   = AudioTrail.newFrom(af.getDescr());
+        final UndoManager   undo    = new UndoManager();
+        try {
+            AbstractCompoundEdit ce = begin(trail);
+            trail.editAdd(null, trail.adoptTake(af, 0), ce);
+            end(trail, ce, undo);
+
+            // the take becomes a shifted view in the trail's stake tree
+            ce = begin(trail);
+            trail.editInsert(null, new Span(0, SHIFT), ce);
+            end(trail, ce, undo);
+
+            final AudioStake shifted = (AudioStake) trail.get(0, true);
+            assertEquals("shifted span", new Span(SHIFT, SHIFT + NUM_FRAMES), shifted.getSpan());
+            readBack(shifted, 0);
+
+            undo.discardAllEdits();
+            assertTrue("take deleted while still in the trail", f.exists());
+            readBack((AudioStake) trail.get(0, true), 0);
+
+            // split the take, then remove everything
+            final long split = SHIFT + NUM_FRAMES / 2;
+            ce = begin(trail);
+            trail.editInsert(null, new Span(split, split + SHIFT), ce);
+            end(trail, ce, undo);
+            assertEquals("stakes after split", 2, trail.getNumStakes());
+            readBack((AudioStake) trail.get(1, true), NUM_FRAMES / 2);
+
+            ce = begin(trail);
+            trail.editRemove(null, trail.getSpan(), ce);
+            end(trail, ce, undo);
+            assertTrue("trail not empty after removal", trail.isEmpty());
+
+            assertTrue("take deleted while the removal can be undone", f.exists());
+            undo.discardAllEdits();
+            assertFalse("take not deleted after trimming the undo history", f.exists());
+
+        } finally {
+            trail.dispose();
+            if (f.exists() && !f.delete()) {
+                System.err.println("File not deleted : " + f.getAbsolutePath());
+            }
+        }
+    }
+
+    private static AbstractCompoundEdit begin(AudioTrail trail) {
+        final AbstractCompoundEdit ce = new BasicCompoundEdit();
+        trail.editBegin(ce);
+        return ce;
+    }
+
+    private static void end(AudioTrail trail, AbstractCompoundEdit ce, UndoManager undo) {
+        trail.editEnd(ce);
+        ce.perform();
+        ce.end();
+        undo.addEdit(ce);
+    }
+
+    // reads the first frames of the stake and compares them with the ramp written to the take
+    private static void readBack(AudioStake stake, int fileOffset)
+            throws IOException {
+
+        final int       len     = 64;
+        final float[][] data    = new float[1][len];
+        final long      start   = stake.getSpan().start;
+        stake.readFrames(data, 0, new Span(start, start + len));
+        for (int i = 0; i < len; i++) {
+            assertEquals("sample at " + (start + i), (float) (fileOffset + i) / NUM_FRAMES, data[0][i], 0f);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *  ConstQBenchmark.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.math;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *	Measures the time per hop of the constant-Q transform, for the
+ *	settings of <code>ConstQTest</code>: the former kernel objects
+ *	(<code>ConstQReference</code>), the sparse kernel matrix applied
+ *	to each hop, and the sparse kernel matrix applied to batches of hops.
+ *	<p>
+ *	Run with <code>sbt "test:runMain de.sciss.eisenkraut.math.ConstQBenchmark"</code>.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@OperationsPerInvocation( ConstQTest.NUM_HOPS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class ConstQBenchmark
+{
+	// index into ConstQTest.SETTINGS
+	@Param( { "0", "1", "2" })
+	public int setting;
+
+	private ConstQ			cq;
+	private ConstQReference	ref;
+	private ConstQ.Batch	batch;
+	private float[]			input;
+	private float[]			out;
+	private float[][]		batchOut;
+	private float[]			fftBuf;
+	private int				step;
+
+	public static void main( String[] args )
+	throws RunnerException
+	{
+		new Runner( new OptionsBuilder().include( ConstQBenchmark.class.getName() ).build() ).run();
+	}
+
+	@Setup
+	public void setUp()
+	{
+		final double[] s = ConstQTest.SETTINGS[ setting ];
+		cq			= ConstQTest.createConstQ( s );
+		ref			= new ConstQReference( cq );
+		batch		= cq.createBatch( ConstQTest.BATCH_HOPS );
+		step		= cq.getFFTSize() >> 2;
+		input		= ConstQTest.createSignal( cq.getFFTSize() + step * (ConstQTest.NUM_HOPS - 1), s[ 0 ]);
+		out			= new float[ cq.getNumKernels() ];
+		batchOut	= new float[ cq.getNumKernels() ][ ConstQTest.BATCH_HOPS ];
+		fftBuf		= cq.createFFTBuffer();
+	}
+
+	@Benchmark
+	public float[] kernelObjects()
+	{
+		for( int h = 0; h < ConstQTest.NUM_HOPS; h++ ) {
+			ref.transform( input, h * step, out );
+		}
+		return out;
+	}
+
+	@Benchmark
+	public float[] sparseMatrix()
+	{
+		for( int h = 0; h < ConstQTest.NUM_HOPS; h++ ) {
+			cq.transform( input, h * step, cq.getFFTSize(), out, 0, fftBuf );
+		}
+		return out;
+	}
+
+	@Benchmark
+	public float[][] sparseMatrixBatched()
+	{
+		for( int h = 0; h < ConstQTest.NUM_HOPS; h += ConstQTest.BATCH_HOPS ) {
+			cq.transform( input, h * step, step, Math.min( ConstQTest.BATCH_HOPS, ConstQTest.NUM_HOPS - h ),
+						  batchOut, 0, 0, batch );
+		}
+		return batchOut;
+	}
+}
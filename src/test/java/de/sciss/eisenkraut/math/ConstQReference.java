@@ -0,0 +1,125 @@
+/*
+ *  ConstQReference.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.math;
+
+/**
+ *	The former implementation of <code>ConstQ</code>: one kernel object
+ *	per band, whose coefficients are calculated with
+ *	<code>Fourier.complexTransform</code>, and which is applied to the
+ *	input transformed with <code>Fourier.realTransform</code>, one hop
+ *	at a time.
+ */
+final class ConstQReference
+{
+	final int				numKernels;
+	private final Kernel[]	kernels;
+	private final int		fftSize;
+	private final float[]	fftBuf;
+
+	ConstQReference( ConstQ cq )
+	{
+		final double	fs			= cq.getSampleRate();
+		final float		minFreq		= cq.getMinFreq();
+		final float		maxFreq		= (float) Math.min( cq.getMaxFreq(), fs/2 );
+		final int		bandsPerOct	= cq.getBandsPerOct();
+		final float		q			= (float) (1 / (Math.pow( 2, 1.0/bandsPerOct ) - 1));
+		final double	maxKernLen	= q * fs / minFreq;
+		final int		fftSizeC;
+		final float		threshSqr;
+		int				kernelLen, kernelLenE, specStart, specStop;
+		float[]			win;
+		float			f1, f2;
+		double			theorKernLen, centerFreq, centerFreqN, weight, d1, cos, sin;
+
+		numKernels	= (int) Math.ceil( bandsPerOct * MathUtil.log2( maxFreq / minFreq ));
+		kernels		= new Kernel[ numKernels ];
+		fftSize		= Math.min( (int) cq.getMaxFFTSize(), MathUtil.nextPowerOfTwo( (int) Math.ceil( maxKernLen )));
+		fftSizeC	= fftSize << 1;
+		fftBuf		= new float[ fftSizeC ];
+		threshSqr	= 2.6244e-4f / (fftSize * fftSize);
+
+		for( int k = 0; k < numKernels; k++ ) {
+			theorKernLen = maxKernLen * (float) Math.pow( 2, (double) -k / bandsPerOct );
+			kernelLen	= Math.min( fftSize, (int) Math.ceil( theorKernLen ));
+			kernelLenE	= kernelLen & ~1;
+			win			= Filter.createFullWindow( kernelLen, Filter.WIN_HAMMING );
+			centerFreq	= minFreq * Math.pow( 2, (float) k / bandsPerOct );
+			centerFreqN	= centerFreq * -MathUtil.PI2 / fs;
+			weight		= 6 / ((theorKernLen + kernelLen) * fftSize);
+			for( int m = kernelLenE, n = fftSizeC - kernelLenE; m < n; m++ ) {
+				fftBuf[ m ] = 0f;
+			}
+			for( int i = 0, j = fftSizeC - kernelLenE; i < kernelLen; i++ ) {
+				d1			= centerFreqN * i;
+				cos			= Math.cos( d1 );
+				sin			= Math.sin( d1 );
+				d1			= win[ i ] * weight;
+				fftBuf[ j++ ] = (float) (d1 * cos);
+				fftBuf[ j++ ] = (float) (d1 * sin);
+				if( j == fftSizeC ) j = 0;
+			}
+			Fourier.complexTransform( fftBuf, fftSize, Fourier.FORWARD );
+			for( specStart = 0; specStart <= fftSize; specStart += 2 ) {
+				f1 = fftBuf[ specStart ];
+				f2 = fftBuf[ specStart+1 ];
+				if( (f1 * f1 + f2 * f2) > threshSqr ) break;
+			}
+			for( specStop = specStart; specStop <= fftSize; specStop += 2 ) {
+				f1 = fftBuf[ specStop ];
+				f2 = fftBuf[ specStop+1 ];
+				if( (f1 * f1 + f2 * f2) <= threshSqr ) break;
+			}
+			kernels[ k ] = new Kernel( specStart, new float[ specStop - specStart ]);
+			System.arraycopy( fftBuf, specStart, kernels[ k ].data, 0, specStop - specStart );
+		}
+	}
+
+	void transform( float[] input, int inOff, float[] output )
+	{
+		final int off = fftSize >> 1;
+
+		System.arraycopy( input, inOff, fftBuf, off, fftSize - off );
+		System.arraycopy( input, inOff + fftSize - off, fftBuf, 0, off );
+		fftBuf[ fftSize ]		= 0f;
+		fftBuf[ fftSize + 1 ]	= 0f;
+		Fourier.realTransform( fftBuf, fftSize, Fourier.FORWARD );
+
+		float[]	kern;
+		float	f1, f2;
+		for( int k = 0; k < numKernels; k++ ) {
+			kern	= kernels[ k ].data;
+			f1		= 0f;
+			f2		= 0f;
+			for( int i = kernels[ k ].offset, j = 0; j < kern.length; i += 2, j += 2 ) {
+				f1 += fftBuf[ i ] * kern[ j ] - fftBuf[ i+1 ] * kern[ j+1 ];
+				f2 += fftBuf[ i ] * kern[ j+1 ] + fftBuf[ i+1 ] * kern[ j ];
+			}
+			output[ k ] = (f1 * f1 + f2 * f2);
+		}
+	}
+
+	// ------------ internal classes ------------
+
+	private static final class Kernel
+	{
+		protected final int			offset;
+		protected final float[]		data;
+
+		protected Kernel( int offset, float[] data )
+		{
+			this.offset	= offset;
+			this.data	= data;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ *  ConstQTest.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *	Compares the packed sparse kernel matrix of <code>ConstQ</code>
+ *	with the former representation, <code>ConstQReference</code>.
+ *	For a few settings, a signal of noise and sines is transformed by
+ *	the reference, by the per-hop <code>transform</code> and by the
+ *	batched <code>transform</code>. The deviation of each filter output
+ *	is measured relative to the largest output of the hop, and must stay
+ *	below <code>TOLERANCE</code>.
+ */
+public class ConstQTest
+{
+	static final int				NUM_HOPS	= 256;
+	static final int				BATCH_HOPS	= 32;
+
+	// sample rate, min freq, max freq, bands per octave, max fft size
+	static final double[][]			SETTINGS	= {
+		{ 44100, 55,   20000, 24, 4096 },
+		{ 48000, 27.5, 24000, 12, 8192 },
+		{ 96000, 40,   30000, 48, 16384 }
+	};
+
+	private static final float		TOLERANCE	= 1.0e-4f;
+
+	@Test
+	public void perHopMatchesReference()
+	{
+		check( false );
+	}
+
+	@Test
+	public void batchedMatchesReference()
+	{
+		check( true );
+	}
+
+	private static void check( boolean batched )
+	{
+		for( double[] setting : SETTINGS ) {
+			final ConstQ			cq		= createConstQ( setting );
+			final ConstQReference	ref		= new ConstQReference( cq );
+			final int				step	= cq.getFFTSize() >> 2;
+			final float[]			input	= createSignal( cq.getFFTSize() + step * (NUM_HOPS - 1), setting[ 0 ]);
+			final String			what	= "fs " + setting[ 0 ] + (batched ? ", batched" : ", per hop");
+
+			assertEquals( what + ": number of kernels", ref.numKernels, cq.getNumKernels() );
+			final float err = compare( ref, cq, input, step, batched );
+			assertTrue( what + ": relative deviation " + err, err <= TOLERANCE );
+		}
+	}
+
+	static ConstQ createConstQ( double[] setting )
+	{
+		final ConstQ cq = new ConstQ();
+		cq.setSampleRate( setting[ 0 ]);
+		cq.setMinFreq( (float) setting[ 1 ]);
+		cq.setMaxFreq( (float) setting[ 2 ]);
+		cq.setBandsPerOct( (int) setting[ 3 ]);
+		cq.setMaxFFTSize( (int) setting[ 4 ]);
+		cq.setMaxTimeRes( 8f );
+		cq.createKernels();
+		return cq;
+	}
+
+	// noise plus a few sines, so that all bands have some output
+	static float[] createSignal( int len, double fs )
+	{
+		final Random	rnd	= new Random( 0L );
+		final float[]	sig	= new float[ len ];
+		final double[]	fq	= { 110, 440, 1234.5, 5000, 15000 };
+
+		for( int i = 0; i < len; i++ ) {
+			double d = (rnd.nextFloat() * 2 - 1) * 0.1;
+			for( double f : fq ) d += Math.sin( 2 * Math.PI * f * i / fs ) * 0.2;
+			sig[ i ] = (float) d;
+		}
+		return sig;
+	}
+
+	// returns the maximum deviation relative to the largest reference output of each hop
+	private static float compare( ConstQReference ref, ConstQ cq, float[] input, int step, boolean batched )
+	{
+		final int		numKernels	= cq.getNumKernels();
+		final int		fftSize		= cq.getFFTSize();
+		final float[]	refOut		= new float[ numKernels ];
+		final float[]	hopOut		= new float[ numKernels ];
+		final float[][]	batchOut	= new float[ numKernels ][ NUM_HOPS ];
+		final float[]	fftBuf		= cq.createFFTBuffer();
+		float			maxErr		= 0f;
+
+		if( batched ) {
+			final ConstQ.Batch batch = cq.createBatch( BATCH_HOPS );
+			for( int h = 0; h < NUM_HOPS; h += BATCH_HOPS ) {
+				cq.transform( input, h * step, step, Math.min( BATCH_HOPS, NUM_HOPS - h ), batchOut, 0, h, batch );
+			}
+		}
+
+		for( int h = 0; h < NUM_HOPS; h++ ) {
+			ref.transform( input, h * step, refOut );
+			if( !batched ) cq.transform( input, h * step, fftSize, hopOut, 0, fftBuf );
+
+			float peak = 0f, err = 0f;
+			for( int k = 0; k < numKernels; k++ ) {
+				final float f1 = batched ? batchOut[ k ][ h ] : hopOut[ k ];
+				peak	= Math.max( peak, Math.abs( refOut[ k ]));
+				err		= Math.max( err, Math.abs( f1 - refOut[ k ]));
+			}
+			if( peak > 0f ) maxErr = Math.max( maxErr, err / peak );
+		}
+		return maxErr;
+	}
+}
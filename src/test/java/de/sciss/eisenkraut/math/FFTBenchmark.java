@@ -0,0 +1,104 @@
+/*
+ *  FFTBenchmark.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.math;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *	Compares the speed of <code>FFTPlan</code> and <code>Fourier</code>
+ *	for the transform sizes of <code>FFTPlanTest</code>. Each operation
+ *	is a forward and an inverse transform of white noise, complex or real,
+ *	so that the buffer stays bounded across invocations.
+ *	<p>
+ *	Run with <code>sbt "test:runMain de.sciss.eisenkraut.math.FFTBenchmark"</code>.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class FFTBenchmark
+{
+	// see FFTPlanTest.SIZES
+	@Param( { "256", "1024", "4096", "8192", "32768" })
+	public int size;
+
+	private FFTPlan		plan;
+	private float[]		complexBuf;
+	private float[]		realBuf;
+
+	public static void main( String[] args )
+	throws RunnerException
+	{
+		new Runner( new OptionsBuilder().include( FFTBenchmark.class.getName() ).build() ).run();
+	}
+
+	@Setup( Level.Trial )
+	public void setUp()
+	{
+		plan		= FFTPlan.get( size );
+		complexBuf	= FFTPlanTest.createNoise( size, size << 1 );
+		realBuf		= new float[ size + 2 ];
+		System.arraycopy( FFTPlanTest.createNoise( size, size ), 0, realBuf, 0, size );
+	}
+
+	@Benchmark
+	public float[] complexFourier()
+	{
+		Fourier.complexTransform( complexBuf, size, Fourier.FORWARD );
+		Fourier.complexTransform( complexBuf, size, Fourier.INVERSE );
+		return complexBuf;
+	}
+
+	@Benchmark
+	public float[] complexPlan()
+	{
+		plan.complexTransform( complexBuf, Fourier.FORWARD );
+		plan.complexTransform( complexBuf, Fourier.INVERSE );
+		return complexBuf;
+	}
+
+	@Benchmark
+	public float[] realFourier()
+	{
+		Fourier.realTransform( realBuf, size, Fourier.FORWARD );
+		Fourier.realTransform( realBuf, size, Fourier.INVERSE );
+		return realBuf;
+	}
+
+	@Benchmark
+	public float[] realPlan()
+	{
+		plan.realTransform( realBuf, Fourier.FORWARD );
+		plan.realTransform( realBuf, Fourier.INVERSE );
+		return realBuf;
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ *  FFTPlanTest.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.math;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *	Compares <code>FFTPlan</code> with <code>Fourier</code> for the
+ *	transform sizes used by the application. For each size, the
+ *	complex and the real forward transform of white noise are calculated
+ *	by both, and their errors are measured against a transform in double
+ *	precision, as the root mean square of the error relative to the root
+ *	mean square of the spectrum. The plan's error must not exceed the
+ *	bound of <code>ERROR_FACTOR</code> times the single precision epsilon
+ *	times the base 2 logarithm of the size, and neither may it exceed
+ *	the error of <code>Fourier</code> by more than <code>ERROR_FACTOR</code>.
+ *	The round trip through the forward and inverse real transform is
+ *	checked the same way.
+ */
+public class FFTPlanTest
+{
+	static final int[]				SIZES			= { 256, 1024, 4096, 8192, 32768 };
+
+	private static final double		EPSILON			= 5.96e-8;	// 2^-24
+	private static final double		ERROR_FACTOR	= 4.0;
+
+	@Test
+	public void complexTransform()
+	{
+		for( int size : SIZES ) {
+			final float[]	input	= createNoise( size, size << 1 );
+			final float[]	buf		= new float[ size << 1 ];
+			final double[]	exact	= new double[ size << 1 ];
+
+			for( int i = 0; i < (size << 1); i++ ) exact[ i ] = input[ i ];
+			transform( exact, size );
+			System.arraycopy( input, 0, buf, 0, size << 1 );
+			Fourier.complexTransform( buf, size, Fourier.FORWARD );
+			final double errFourier = error( buf, exact, size << 1 );
+			System.arraycopy( input, 0, buf, 0, size << 1 );
+			FFTPlan.get( size ).complexTransform( buf, Fourier.FORWARD );
+			final double errPlan = error( buf, exact, size << 1 );
+
+			assertBounded( "complex, size " + size, errPlan, errFourier, size );
+		}
+	}
+
+	@Test
+	public void realTransform()
+	{
+		for( int size : SIZES ) {
+			final float[]	input	= createNoise( size, size );
+			final float[]	buf		= new float[ size + 2 ];
+			final double[]	exact	= new double[ size << 1 ];
+
+			for( int i = 0; i < size; i++ ) exact[ i << 1 ] = input[ i ];
+			transform( exact, size );
+			// the first size + 2 values hold the spectrum up to nyquist
+			System.arraycopy( input, 0, buf, 0, size );
+			buf[ size ]		= 0f;
+			buf[ size + 1 ]	= 0f;
+			Fourier.realTransform( buf, size, Fourier.FORWARD );
+			final double errFourier = error( buf, exact, size + 2 );
+			System.arraycopy( input, 0, buf, 0, size );
+			buf[ size ]		= 0f;
+			buf[ size + 1 ]	= 0f;
+			FFTPlan.get( size ).realTransform( buf, Fourier.FORWARD );
+			final double errPlan = error( buf, exact, size + 2 );
+
+			assertBounded( "real, size " + size, errPlan, errFourier, size );
+		}
+	}
+
+	@Test
+	public void realRoundTrip()
+	{
+		for( int size : SIZES ) {
+			final FFTPlan	plan	= FFTPlan.get( size );
+			final float[]	input	= createNoise( size, size );
+			final float[]	buf		= new float[ size + 2 ];
+			final double[]	exact	= new double[ size ];
+
+			for( int i = 0; i < size; i++ ) exact[ i ] = input[ i ];
+			System.arraycopy( input, 0, buf, 0, size );
+			plan.realTransform( buf, Fourier.FORWARD );
+			plan.realTransform( buf, Fourier.INVERSE );
+			final double err	= error( buf, exact, size );
+			final double bound	= bound( size );
+
+			assertTrue( "round trip, size " + size + ": error " + err + " exceeds " + bound, err <= bound );
+		}
+	}
+
+	private static void assertBounded( String what, double errPlan, double errFourier, int size )
+	{
+		final double bound = bound( size );
+
+		assertTrue( what + ": error " + errPlan + " exceeds " + bound, errPlan <= bound );
+		assertTrue( what + ": error " + errPlan + " exceeds " + ERROR_FACTOR + " x Fourier's " + errFourier,
+					errPlan <= ERROR_FACTOR * errFourier );
+	}
+
+	private static double bound( int size )
+	{
+		return ERROR_FACTOR * EPSILON * MathUtil.log2( size );
+	}
+
+	/**
+	 *	White noise between -1 and 1, seeded by the transform size.
+	 */
+	static float[] createNoise( int size, int len )
+	{
+		final Random	rnd	= new Random( size );
+		final float[]	buf	= new float[ len ];
+
+		for( int i = 0; i < len; i++ ) buf[ i ] = rnd.nextFloat() * 2 - 1;
+		return buf;
+	}
+
+	// root mean square of the error relative to the root mean square of the exact values
+	private static double error( float[] a, double[] exact, int len )
+	{
+		double errSum = 0.0, sum = 0.0, d;
+
+		for( int i = 0; i < len; i++ ) {
+			d		 = a[ i ] - exact[ i ];
+			errSum	+= d * d;
+			sum		+= exact[ i ] * exact[ i ];
+		}
+		return sum > 0.0 ? Math.sqrt( errSum / sum ) : Math.sqrt( errSum / len );
+	}
+
+	// radix-2 complex transform in double precision with exactly
+	// evaluated twiddles, using the convention of Fourier.FORWARD
+	private static void transform( double[] a, int n )
+	{
+		double tempRe, tempIm, wRe, wIm, angle;
+
+		for( int i = 0, j = 0; i < n; i++ ) {
+			if( j > i ) {
+				tempRe			= a[ j << 1 ];
+				tempIm			= a[ (j << 1) + 1 ];
+				a[ j << 1 ]		= a[ i << 1 ];
+				a[ (j << 1) + 1 ]	= a[ (i << 1) + 1 ];
+				a[ i << 1 ]		= tempRe;
+				a[ (i << 1) + 1 ]	= tempIm;
+			}
+			int m = n >> 1;
+			for( ; (m >= 1) && (j >= m); j -= m, m >>= 1 ) ;
+			j += m;
+		}
+		for( int half = 1; half < n; half <<= 1 ) {
+			for( int k = 0; k < half; k++ ) {
+				angle	= Math.PI * k / half;
+				wRe		= Math.cos( angle );
+				wIm		= Math.sin( angle );
+				for( int i = k; i < n; i += half << 1 ) {
+					final int i2 = i << 1, j2 = (i + half) << 1;
+					tempRe		= wRe * a[ j2 ] - wIm * a[ j2+1 ];
+					tempIm		= wRe * a[ j2+1 ] + wIm * a[ j2 ];
+					a[ j2 ]		= a[ i2 ] - tempRe;
+					a[ j2+1 ]	= a[ i2+1 ] - tempIm;
+					a[ i2 ]	   += tempRe;
+					a[ i2+1 ]  += tempIm;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ *  SlidingFilterBenchmark.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.math;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *	Measures the time <code>SlidingMedian</code> and <code>SlidingMinimum</code>
+ *	and the former algorithms of <code>Needlehole</code> (see
+ *	<code>SlidingFilterTest</code>) take to filter <code>NUM_FRAMES</code>
+ *	frames of one channel, for window lengths from a few samples up to one
+ *	second at 96 kHz. The input is noise or a rising ramp, whose minimum
+ *	is always about to drop out. The input is processed in blocks of at
+ *	least the window length, as <code>Needlehole</code> does.
+ *	<p>
+ *	Run with <code>sbt "test:runMain de.sciss.eisenkraut.math.SlidingFilterBenchmark"</code>.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2, time = 2 )
+@Measurement( iterations = 3, time = 2 )
+@Fork( 1 )
+public class SlidingFilterBenchmark
+{
+	private static final int	NUM_FRAMES	= 1 << 16;
+
+	@Param( { "16", "256", "4096", "44100", "96000" })
+	public int winSize;
+
+	@Param( { "noise", "ramp" })
+	public String input;
+
+	private float[]	in;
+	private int		block;
+
+	public static void main( String[] args )
+	throws RunnerException
+	{
+		new Runner( new OptionsBuilder().include( SlidingFilterBenchmark.class.getName() ).build() ).run();
+	}
+
+	@Setup
+	public void setUp()
+	{
+		if( input.equals( "noise" )) {
+			in = SlidingFilterTest.noise( new Random( 0L ), NUM_FRAMES + winSize, false );
+		} else {
+			in = new float[ NUM_FRAMES + winSize ];
+			for( int i = 0; i < in.length; i++ ) {
+				in[ i ] = (float) i / in.length;
+			}
+		}
+		block = Math.max( SlidingFilterTest.BLOCK_SIZE, winSize );
+	}
+
+	@Benchmark
+	public float[] medianSorted()
+	{
+		return SlidingFilterTest.sortedMedian( in, NUM_FRAMES, winSize );
+	}
+
+	@Benchmark
+	public float[] medianHeaps()
+	{
+		return SlidingFilterTest.median( in, NUM_FRAMES, winSize, block );
+	}
+
+	@Benchmark
+	public float[] minimumSearched()
+	{
+		return SlidingFilterTest.searchedMinimum( in, NUM_FRAMES, winSize, true, block );
+	}
+
+	@Benchmark
+	public float[] minimumDeque()
+	{
+		return SlidingFilterTest.minimum( in, NUM_FRAMES, winSize, true, block );
+	}
+}
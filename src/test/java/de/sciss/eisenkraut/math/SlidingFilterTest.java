@@ -0,0 +1,208 @@
+/*
+ *  SlidingFilterTest.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.math;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *	Compares <code>SlidingMedian</code> and <code>SlidingMinimum</code>
+ *	with the algorithms which the median and minimum filters of
+ *	<code>Needlehole</code> used before: a sorted window which is moved
+ *	by array copies, and a search of the whole window whenever its
+ *	minimum drops out. The outputs must be identical, both for noise
+ *	and for coarsely quantized noise with many equal values of either
+ *	sign. The input is processed in blocks of varying length, so the
+ *	state kept between blocks is checked as well. The minimum filters
+ *	of <code>Needlehole</code> process blocks of at least the window
+ *	length, which <code>SlidingFilterBenchmark</code> does as well.
+ */
+public class SlidingFilterTest
+{
+	static final int				BLOCK_SIZE		= 8192;
+
+	private static final int[]		CHECK_SIZES		= { 1, 2, 3, 4, 5, 7, 8, 16, 33, 100, 1000 };
+	private static final int		CHECK_FRAMES	= 20000;
+
+	@Test
+	public void medianMatchesSortedWindow()
+	{
+		final Random rnd = new Random( 0L );
+
+		for( int quant = 0; quant < 2; quant++ ) {
+			for( int winSize : CHECK_SIZES ) {
+				final float[] in = noise( rnd, CHECK_FRAMES + winSize, quant == 1 );
+				compare( "median", winSize, quant == 1, median( in, CHECK_FRAMES, winSize, 0 ),
+						 sortedMedian( in, CHECK_FRAMES, winSize ));
+			}
+		}
+	}
+
+	@Test
+	public void minimumMatchesSearch()
+	{
+		final Random rnd = new Random( 0L );
+
+		for( int quant = 0; quant < 2; quant++ ) {
+			for( int winSize : CHECK_SIZES ) {
+				final float[] in = noise( rnd, CHECK_FRAMES + winSize, quant == 1 );
+				for( int abs = 0; abs < 2; abs++ ) {
+					compare( abs == 1 ? "abs. minimum" : "minimum", winSize, quant == 1,
+							 minimum( in, CHECK_FRAMES, winSize, abs == 1, 0 ),
+							 searchedMinimum( in, CHECK_FRAMES, winSize, abs == 1, BLOCK_SIZE ));
+				}
+			}
+		}
+	}
+
+	static float[] noise( Random rnd, int len, boolean quantized )
+	{
+		final float[] buf = new float[ len ];
+
+		for( int i = 0; i < len; i++ ) {
+			buf[ i ] = quantized ? (rnd.nextInt( 9 ) - 4) * 0.25f : rnd.nextFloat() * 2 - 1;
+		}
+		return buf;
+	}
+
+	private static void compare( String name, int winSize, boolean quantized, float[] a, float[] b )
+	{
+		for( int i = 0; i < a.length; i++ ) {
+			assertEquals( name + ", window " + winSize + (quantized ? ", quantized" : "") + ": frame " + i,
+						  Float.floatToIntBits( b[ i ]), Float.floatToIntBits( a[ i ]));
+		}
+	}
+
+	// block lengths vary between 1 and BLOCK_SIZE, unless a block size is given
+	private static int blockLen( int off, int len, int block )
+	{
+		return Math.min( len - off, block > 0 ? block : 1 + (off * 7919) % BLOCK_SIZE );
+	}
+
+	static float[] median( float[] in, int len, int winSize, int block )
+	{
+		final SlidingMedian	sm	= new SlidingMedian( winSize, 1 );
+		final float[]		out	= new float[ len ];
+
+		for( int off = 0, n; off < len; off += n ) {
+			n = blockLen( off, len, block );
+			sm.process( in, off, out, off, n, 0 );
+		}
+		return out;
+	}
+
+	static float[] minimum( float[] in, int len, int winSize, boolean absolute, int block )
+	{
+		final SlidingMinimum	sm	= new SlidingMinimum( winSize, 1, absolute );
+		final float[]			out	= new float[ len ];
+
+		for( int off = 0, n; off < len; off += n ) {
+			n = blockLen( off, len, block );
+			sm.process( in, off, out, off, n, 0 );
+		}
+		return out;
+	}
+
+	// the former Needlehole.MedianFilter for one channel
+	static float[] sortedMedian( float[] in, int len, int winSize )
+	{
+		final float[]	sorted	= new float[ winSize ];
+		final float[]	histo	= new float[ winSize ];
+		final float[]	out		= new float[ len ];
+		int				num		= 0;
+		int				histoIdx	= 0;
+
+		for( int i = 0; i < len; i++ ) {
+			final float val = in[ i ];
+			if( num == winSize ) {
+				if( histoIdx == winSize ) histoIdx = 0;
+				final int oldIdx = binarySearch( sorted, histo[ histoIdx ], 0, winSize - 1 );
+				int newIdx = binarySearch( sorted, val, 0, winSize - 1 );
+				if( newIdx < 0 ) newIdx = -(newIdx + 1);
+				if( newIdx < oldIdx ) {
+					System.arraycopy( sorted, newIdx, sorted, newIdx + 1, oldIdx - newIdx );
+				} else if( newIdx > oldIdx ) {
+					newIdx--;
+					System.arraycopy( sorted, oldIdx + 1, sorted, oldIdx, newIdx - oldIdx );
+				}
+				sorted[ newIdx ] = val;
+				out[ i ] = sorted[ winSize >> 1 ];
+			} else {
+				int newIdx = binarySearch( sorted, val, 0, num - 1 );
+				if( newIdx < 0 ) newIdx = -(newIdx + 1);
+				System.arraycopy( sorted, newIdx, sorted, newIdx + 1, num - newIdx );
+				sorted[ newIdx ] = val;
+				num++;
+				out[ i ] = sorted[ num >> 1 ];
+			}
+			histo[ histoIdx++ ] = val;
+		}
+		return out;
+	}
+
+	private static int binarySearch( float[] a, float key, int low, int high )
+	{
+		while( low <= high ) {
+			final int	mid		= (low + high) >> 1;
+			final float	midVal	= a[ mid ];
+
+			if( midVal < key ) {
+				low = mid + 1;
+			} else if( midVal > key ) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	// the former Needlehole.MinimumFilter (absolute) and Minimum2Filter
+	// without DC blocker, for one channel
+	static float[] searchedMinimum( float[] in, int len, int winSize, boolean absolute, int block )
+	{
+		final float[] out = new float[ len ];
+
+		for( int off = 0; off < len; off += block ) {
+			int		minIdx	= -1;
+			float	min		= 0.0f;
+			for( int m = off, k = Math.min( len, off + block ); m < k; m++ ) {
+				if( minIdx < m ) {
+					float f1 = absolute ? Math.abs( in[ m ]) : in[ m ];
+					minIdx = m;
+					for( int i = 1, j = m + 1; i < winSize; i++, j++ ) {
+						final float f2 = absolute ? Math.abs( in[ j ]) : in[ j ];
+						if( f2 < f1 ) {
+							f1		= f2;
+							minIdx	= j;
+						}
+					}
+					min = in[ minIdx ];
+				} else {
+					final float f1 = in[ m + winSize - 1 ];
+					if( absolute ? Math.abs( f1 ) < Math.abs( min ) : f1 < min ) {
+						min		= f1;
+						minIdx	= m + winSize - 1;
+					}
+				}
+				out[ m ] = min;
+				minIdx--;	// as before; leads to more searches than needed
+			}
+		}
+		return out;
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ *  OSCDispatchBenchmark.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.net;
+
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.sciss.net.OSCMessage;
+
+/**
+ *  Measures the time to dispatch an OSC command to its router method:
+ *  looking up the method for each message, as <code>OSCRouterWrapper</code>
+ *  used to do, against the <code>OSCDispatchTable</code>, and the complete
+ *  path through <code>OSCRouterWrapper.oscRoute</code>.
+ *  <p>
+ *  Run with <code>sbt "test:runMain de.sciss.eisenkraut.net.OSCDispatchBenchmark"</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OSCDispatchBenchmark {
+
+    private static final String PATH    = "benchmark";
+    private static final String CMD     = "tick";
+
+    private static final Class<?>[] cmdTypes = { RoutedOSCMessage.class };
+
+    private Target              target;
+    private RoutedOSCMessage    rom;
+
+    public static void main(String[] args)
+            throws RunnerException {
+
+        new Runner(new OptionsBuilder().include(OSCDispatchBenchmark.class.getName()).build()).run();
+    }
+
+    @Setup
+    public void setUp() {
+        target  = new Target();
+        rom     = new RoutedOSCMessage(new OSCMessage("/" + PATH, new Object[] { CMD }),
+                new InetSocketAddress("127.0.0.1", 0), System.currentTimeMillis(), null,
+                new String[] { "", PATH }, 1);
+    }
+
+    @Benchmark
+    public int methodLookup()
+            throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+
+        target.getClass().getMethod("oscCmd_" + CMD, cmdTypes).invoke(target, rom);
+        return target.count;
+    }
+
+    @Benchmark
+    public int dispatchTable()
+            throws IllegalAccessException, InvocationTargetException {
+
+        OSCDispatchTable.forClass(target.getClass()).getCommand(CMD).invoke(target, rom);
+        return target.count;
+    }
+
+    @Benchmark
+    public int route() {
+        target.oscRoute(rom);
+        return target.count;
+    }
+
+    // ------------ internal classes ------------
+
+    /**
+     *  The router receiving the benchmark messages.
+     */
+    private static final class Target
+            implements OSCRouter {
+
+        private final OSCRouterWrapper osc;
+        int count = 0;
+
+        Target() {
+            osc = new OSCRouterWrapper(null, this);
+        }
+
+        public void oscCmd_tick(RoutedOSCMessage rom) {
+            count++;
+        }
+
+        public String oscGetPathComponent() {
+            return PATH;
+        }
+
+        public void oscRoute(RoutedOSCMessage rom) {
+            osc.oscRoute(rom);
+        }
+
+        public void oscAddRouter(OSCRouter subRouter) {
+            osc.oscAddRouter(subRouter);
+        }
+
+        public void oscRemoveRouter(OSCRouter subRouter) {
+            osc.oscRemoveRouter(subRouter);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *  OSCDispatchTableTest.java
+ *  Eisenkraut
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.eisenkraut.net;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ *  Verifies that <code>OSCDispatchTable</code> resolves the same methods
+ *  as looking them up by name with <code>Class.getMethod</code>, including
+ *  inherited ones, ignores methods with the wrong parameters, and can
+ *  invoke methods of a private router class.
+ */
+public class OSCDispatchTableTest {
+
+    @Test
+    public void resolvesByName()
+            throws Exception {
+
+        final OSCDispatchTable t = OSCDispatchTable.forClass(Sub.class);
+
+        final Method cmd = t.getCommand("play");
+        assertNotNull("command", cmd);
+        assertEquals(Sub.class.getMethod("oscCmd_play", RoutedOSCMessage.class), cmd);
+        assertNotNull("inherited command", t.getCommand("stop"));
+        assertNotNull("query", t.getQuery("count"));
+        assertNotNull("getter", t.getGetter("range"));
+
+        assertNull("unknown command", t.getCommand("pause"));
+        assertNull("query as command", t.getCommand("count"));
+        assertNull("command with wrong parameters", t.getCommand("seek"));
+        assertNull("query with parameters", t.getQuery("position"));
+        assertNull("getter without parameters", t.getGetter("name"));
+    }
+
+    @Test
+    public void sharedPerClass() {
+        assertSame(OSCDispatchTable.forClass(Sub.class), OSCDispatchTable.forClass(Sub.class));
+    }
+
+    @Test
+    public void invokesPrivateClass()
+            throws Exception {
+
+        final Sub s = new Sub();
+        OSCDispatchTable.forClass(Sub.class).getCommand("play").invoke(s, (Object) null);
+        OSCDispatchTable.forClass(Sub.class).getCommand("stop").invoke(s, (Object) null);
+        assertEquals(2, OSCDispatchTable.forClass(Sub.class).getQuery("count").invoke(s));
+    }
+
+    // ------------ internal classes ------------
+
+    private static class Base {
+        int count = 0;
+
+        public void oscCmd_stop(RoutedOSCMessage rom) {
+            count++;
+        }
+    }
+
+    private static final class Sub
+            extends Base {
+
+        public void oscCmd_play(RoutedOSCMessage rom) {
+            count++;
+        }
+
+        public void oscCmd_seek(long pos) { /* empty */ }
+
+        public Object oscQuery_count() {
+            return count;
+        }
+
+        public Object oscQuery_position(RoutedOSCMessage rom) {
+            return null;
+        }
+
+        public Object[] oscGet_range(RoutedOSCMessage rom) {
+            return null;
+        }
+
+        public Object[] oscGet_name() {
+            return null;
+        }
+    }
+}
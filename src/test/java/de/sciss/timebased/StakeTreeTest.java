@@ -0,0 +1,284 @@
+/*
+ *  StakeTreeTest.java
+ *  de.sciss.timebased package
+ *
+ *  Copyright (c) 2004-2017 Hanns Holger Rutz. All rights reserved.
+ *
+ *  This software is published under the GNU General Public License v3+
+ *
+ *
+ *  For further information, please contact Hanns Holger Rutz at
+ *  contact@sciss.de
+ */
+
+package de.sciss.timebased;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.undo.UndoManager;
+
+import org.junit.Test;
+
+import de.sciss.app.AbstractCompoundEdit;
+import de.sciss.io.Span;
+
+/**
+ *	Exercises the <code>StakeTree</code> of a trail through ripple inserts,
+ *	ripple removals and stake removals, with undo, redo and the trimming of
+ *	the undo history. After each step the stake positions are compared with
+ *	a plain list model, and the stakes are checked for disposal: the stakes
+ *	used count their claims on a shared resource (like the audio stakes reading
+ *	a recorded take), so each stake that dropped out of all trail versions
+ *	reachable through the undo history must have given up its claim, while
+ *	none of the stakes still in the trail may be disposed.
+ */
+public class StakeTreeTest {
+
+	private static final int	NUM_STAKES	= 50;
+	private static final long	STAKE_LEN	= 100;
+
+	private final CheckTrail	trail		= new CheckTrail();
+	private final Claims		claims		= new Claims();
+	private final UndoManager	undo		= new UndoManager();
+
+	@Test
+	public void editsUndoAndDisposal()
+			throws IOException {
+
+		final List<Stake> initial = new ArrayList<Stake>(NUM_STAKES);
+		for (int i = 0; i < NUM_STAKES; i++) {
+			initial.add(new CheckStake(new Span(i * STAKE_LEN, (i + 1) * STAKE_LEN), claims));
+		}
+		trail.addAll(null, initial);
+		final List<Span> model0 = spans();
+		verify("add", model0);
+
+		// 1 - ripple insert, splitting the stake at the insertion point
+		final Span		ins		= new Span(25 * STAKE_LEN + STAKE_LEN / 2, 26 * STAKE_LEN);
+		final List<Span> model1	= insert(model0, ins);
+		CheckEdit ce = begin();
+		trail.editInsert(null, ins, Trail.TOUCH_SPLIT, ce);
+		end(ce);
+		verify("insert", model1);
+
+		// shifted stakes keep their identity while referenced
+		final Stake shifted = trail.get(40, true);
+		assertEquals("shifted span", model1.get(40), shifted.getSpan());
+		assertSame("identity of shifted stake", shifted, trail.get(40, true));
+		assertEquals("index of shifted stake", 40, trail.indexOf(shifted, true));
+
+		// 2 - ripple removal, splitting the stake at the stop of the removed span
+		final Span		rem		= new Span(10 * STAKE_LEN, 15 * STAKE_LEN + STAKE_LEN / 2);
+		final List<Span> model2	= remove(model1, rem);
+		ce = begin();
+		trail.editRemove(null, rem, Trail.TOUCH_SPLIT, ce);
+		end(ce);
+		verify("ripple remove", model2);
+
+		// 3 - removal of a shifted stake by identity
+		final Stake		victim	= trail.get(30, true);
+		final List<Span> model3	= new ArrayList<Span>(model2);
+		model3.remove(30);
+		ce = begin();
+		trail.editRemove(null, victim, ce);
+		end(ce);
+		verify("stake remove", model3);
+		assertFalse("removed stake still contained", trail.contains(victim));
+
+		undo.undo();
+		verify("undo stake remove", model2);
+		undo.undo();
+		verify("undo ripple remove", model1);
+		undo.undo();
+		verify("undo insert", model0);
+		undo.redo();
+		undo.redo();
+		undo.redo();
+		verify("redo", model3);
+
+		// 4 - a new edit discards the undone stake removal
+		undo.undo();
+		final Span		ins2	= new Span(0, STAKE_LEN / 4);
+		final List<Span> model4	= insert(model2, ins2);
+		ce = begin();
+		trail.editInsert(null, ins2, Trail.TOUCH_SPLIT, ce);
+		end(ce);
+		verify("insert after undo", model4);
+
+		// all removed stakes must have been disposed when the history is trimmed
+		undo.discardAllEdits();
+		verify("trimmed history", model4);
+		assertEquals("claims after trimming", trail.getNumStakes(), claims.count);
+
+		trail.dispose();
+		assertEquals("claims after disposal", 0, claims.count);
+	}
+
+	private CheckEdit begin() {
+		final CheckEdit ce = new CheckEdit();
+		trail.editBegin(ce);
+		return ce;
+	}
+
+	private void end(CheckEdit ce) {
+		trail.editEnd(ce);
+		ce.perform();
+		ce.end();
+		undo.addEdit(ce);
+	}
+
+	// compares the trail with the model, and checks that no stake of the trail is disposed
+	private void verify(String step, List<Span> model) {
+		final List<Stake> stakes = trail.getAll(true);
+		assertEquals(step + ": spans", model, spans());
+		for (int i = 0; i < stakes.size(); i++) {
+			final Stake stake = stakes.get(i);
+			assertFalse(step + ": disposed stake " + stake.getSpan(), ((CheckStake) stake).isDisposed());
+			assertEquals(step + ": index of " + stake.getSpan(), i, trail.indexOf(stake, true));
+			assertTrue(step + ": index by stop of " + stake.getSpan(), trail.indexOf(stake, false) >= 0);
+		}
+		assertEquals(step + ": range query", stakes.size(), trail.getRange(trail.getSpan(), true).size());
+	}
+
+	private List<Span> spans() {
+		final List<Span> result = new ArrayList<Span>();
+		for (Stake stake : trail.getAll(true)) result.add(stake.getSpan());
+		return result;
+	}
+
+	// ripple insert in TOUCH_SPLIT mode
+	private static List<Span> insert(List<Span> model, Span span) {
+		final List<Span>	result	= new ArrayList<Span>();
+		final long			pos		= span.start;
+		final long			delta	= span.getLength();
+
+		for (Span s : model) {
+			if (s.stop <= pos) {
+				result.add(s);
+			} else if (s.start >= pos) {
+				result.add(s.shift(delta));
+			} else {
+				result.add(new Span(s.start, pos));
+				result.add(new Span(pos + delta, s.stop + delta));
+			}
+		}
+		return result;
+	}
+
+	// ripple removal in TOUCH_SPLIT mode
+	private static List<Span> remove(List<Span> model, Span span) {
+		final List<Span>	result	= new ArrayList<Span>();
+		final long			delta	= span.getLength();
+
+		for (Span s : model) {
+			if (s.stop <= span.start) {
+				result.add(s);
+			} else if (s.start >= span.stop) {
+				result.add(s.shift(-delta));
+			} else {
+				if (s.start < span.start) result.add(new Span(s.start, span.start));
+				if (s.stop  > span.stop ) result.add(new Span(span.start, s.stop - delta));
+			}
+		}
+		return result;
+	}
+
+	// --------------------- internal classes ---------------------
+
+	private static final class Claims {
+		int count = 0;
+
+		Claims() { /* empty */ }
+	}
+
+	private static final class CheckStake
+			extends BasicStake {
+
+		private final Claims	claims;
+		private boolean			claimed		= true;
+		private boolean			disposed	= false;
+
+		CheckStake(Span span, Claims claims) {
+			super(span);
+			this.claims = claims;
+			claims.count++;
+		}
+
+		public Stake duplicate() {
+			return new CheckStake(span, claims);
+		}
+
+		public Stake replaceStart(long newStart) {
+			return new CheckStake(span.replaceStart(newStart), claims);
+		}
+
+		public Stake replaceStop(long newStop) {
+			return new CheckStake(span.replaceStop(newStop), claims);
+		}
+
+		public Stake shiftVirtual(long delta) {
+			return new CheckStake(span.shift(delta), claims);
+		}
+
+		public void dispose() {
+			disposed = true;
+			release();
+			super.dispose();
+		}
+
+		protected void releaseClaims() {
+			release();
+			super.releaseClaims();
+		}
+
+		private void release() {
+			if (claimed) {
+				claimed = false;
+				claims.count--;
+			}
+		}
+
+		// whether this stake or the stake it is a view of was disposed
+		boolean isDisposed() {
+			final Stake origin = getOrigin();
+			return disposed || ((origin != null) && ((CheckStake) origin).disposed);
+		}
+	}
+
+	private static final class CheckTrail
+			extends BasicTrail {
+
+		CheckTrail() {
+			super();
+		}
+
+		protected BasicTrail createEmptyCopy() {
+			return new CheckTrail();
+		}
+
+		public int getDefaultTouchMode() {
+			return TOUCH_SPLIT;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static final class CheckEdit
+			extends AbstractCompoundEdit {
+
+		CheckEdit() {
+			super();
+		}
+
+		protected void undoDone() { /* empty */ }
+
+		protected void redoDone() { /* empty */ }
+
+		protected void cancelDone() { /* empty */ }
+	}
+}